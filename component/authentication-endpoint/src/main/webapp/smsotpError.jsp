@@ -52,6 +52,8 @@
                     errorMessage = "Enable the SMS OTP in your Profile. Cannot proceed further without SMS OTP authentication.";
                 } else if (errorMessage.equalsIgnoreCase("directly.send.otp.disable")) {
                     errorMessage = "User not found in the directory. Cannot proceed further without SMS OTP authentication.";
+                } else if (errorMessage.equalsIgnoreCase("sms.throttled")) {
+                    errorMessage = "Too many codes were requested. Please try again later.";
                 }
             }
         }
@@ -22,22 +22,31 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
 import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
 import java.security.InvalidKeyException;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
+import java.util.Arrays;
 
 public class OneTimePassword {
     // These are used to calculate the check-sum digits.
     // 0 1 2 3 4 5 6 7 8 9
     private static final int[] doubleDigits = {0, 2, 4, 6, 8, 1, 3, 5, 7, 9};
+    // (int) Math.pow(10, n), including the saturation to Integer.MAX_VALUE for n = 10.
+    private static final int[] DIGITS_POWER = {1, 10, 100, 1000, 10000, 100000, 1000000, 10000000, 100000000,
+            1000000000, Integer.MAX_VALUE};
+    private static final int MOVING_FACTOR_LENGTH = 8;
+    private static final ThreadLocal<Generator> generators = new ThreadLocal<Generator>();
     private static Log log = LogFactory.getLog(OneTimePassword.class);
 
     public static String getRandomNumber(int size) {
 
-        StringBuilder generatedToken = new StringBuilder();
+        StringBuilder generatedToken = new StringBuilder(Math.max(size, 0));
         try {
-            SecureRandom number = SecureRandom.getInstance(SMSOTPConstants.ALGORITHM_NAME);
+            SecureRandom number = getGenerator().getRandom();
             // Generate 20 integers 0..20
             for (int i = 0; i < size; i++) {
                 generatedToken.append(number.nextInt(9));
@@ -86,15 +95,9 @@ public class OneTimePassword {
      */
 
     public static byte[] hmacShaGenerate(byte[] keyBytes, byte[] text) throws NoSuchAlgorithmException, InvalidKeyException {
-        Mac hmacSha;
-        try {
-            hmacSha = Mac.getInstance(SMSOTPConstants.ALGORITHM_HMAC);
-        } catch (NoSuchAlgorithmException nsa) {
-            hmacSha = Mac.getInstance(SMSOTPConstants.ALGORITHM_HMAC_SHA);
-        }
-        SecretKeySpec macKey = new SecretKeySpec(keyBytes, "RAW");
-        hmacSha.init(macKey);
-        return hmacSha.doFinal(text);
+        Generator generator = getGenerator();
+        generator.init(keyBytes);
+        return generator.getMac().doFinal(text);
     }
 
     /**
@@ -118,34 +121,58 @@ public class OneTimePassword {
      */
     public static String generateOTP(byte[] secret, long movingFactor, int codeDigits, boolean addChecksum,
                                      int truncationOffset) throws NoSuchAlgorithmException, InvalidKeyException {
-        // put movingFactor value into text byte array
-        String result = null;
         int digits = addChecksum ? (codeDigits + 1) : codeDigits;
-        byte[] text = new byte[8];
-        for (int i = text.length - 1; i >= 0; i--) {
-            text[i] = (byte) (movingFactor & 0xff);
-            movingFactor >>= 8;
-        }
-        // compute hmac hash
-        byte[] hash = hmacShaGenerate(secret, text);
+        return formatOTP(generateOTPCode(secret, movingFactor, codeDigits, addChecksum, truncationOffset), digits);
+    }
 
-        // put selected bytes into result int
-        int offset = hash[hash.length - 1] & 0xf;
-        if ((0 <= truncationOffset) && (truncationOffset < (hash.length - 4))) {
-            offset = truncationOffset;
-        }
-        int binary = ((hash[offset] & 0x7f) << 24) | ((hash[offset + 1] & 0xff) << 16)
-                | ((hash[offset + 2] & 0xff) << 8) | (hash[offset + 3] & 0xff);
+    /**
+     * Same as {@link #generateOTP(byte[], long, int, boolean, int)}, but returns the OTP as a primitive value
+     * without the zero padding. The HMAC and the buffers of the calling thread are reused.
+     *
+     * @param secret           the shared secret
+     * @param movingFactor     the counter, or other value that changes on a per use basis.
+     * @param codeDigits       the number of digits in the OTP, not including the checksum, if any.
+     * @param addChecksum      a flag that indicates if a checksum digit should be appended to the OTP.
+     * @param truncationOffset the offset into the MAC result to begin truncation.
+     * @return the OTP value
+     * @throws NoSuchAlgorithmException if no provider makes either HmacSHA1 or HMAC-SHA-1 digest
+     *                                  algorithms available.
+     * @throws InvalidKeyException      The secret provided was not a valid HMAC-SHA-1 key.
+     */
+    public static int generateOTPCode(byte[] secret, long movingFactor, int codeDigits, boolean addChecksum,
+                                      int truncationOffset) throws NoSuchAlgorithmException, InvalidKeyException {
+        Generator generator = getGenerator();
+        generator.init(secret);
+        return generator.truncate(movingFactor, codeDigits, addChecksum, truncationOffset);
+    }
 
-        int otp = binary % ((int) Math.pow(10, codeDigits));
-        if (addChecksum) {
-            otp = (otp * 10) + calcChecksum(otp, codeDigits);
+    /**
+     * Left pad the given OTP value with zeros up to the given number of digits.
+     *
+     * @param otp    the OTP value
+     * @param digits the number of digits of the formatted OTP
+     * @return the formatted OTP
+     */
+    public static String formatOTP(int otp, int digits) {
+        if (otp < 0) {
+            // Only reachable when the checksum overflows an int. Keep the historical formatting for it.
+            StringBuilder result = new StringBuilder(Integer.toString(otp));
+            while (result.length() < digits) {
+                result.insert(0, '0');
+            }
+            return result.toString();
         }
-        result = Integer.toString(otp);
-        while (result.length() < digits) {
-            result = "0" + result;
+        int length = 1;
+        for (int value = otp / 10; value > 0; value /= 10) {
+            length++;
         }
-        return result;
+        char[] result = new char[Math.max(length, digits)];
+        int value = otp;
+        for (int i = result.length - 1; i >= 0; i--) {
+            result[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        return new String(result);
     }
 
     /**
@@ -168,4 +195,213 @@ public class OneTimePassword {
         }
         return null;
     }
-}
\ No newline at end of file
+
+    /**
+     * Generate a token with a random secret. This gives the same result as calling
+     * {@link #generateToken(String, String, int)} with a {@link #getRandomNumber(int)} secret, without building the
+     * intermediate secret and base strings.
+     *
+     * @param secretLength the number of digits of the random secret
+     * @param base         the base
+     * @param digits       the number of digits
+     * @return the generated token
+     */
+    public static String generateRandomToken(int secretLength, long base, int digits) {
+        try {
+            Generator generator = getGenerator();
+            generator.init(generator.nextSecret(secretLength));
+            return formatOTP(generator.truncate(base, digits, false, 0), digits);
+        } catch (NoSuchAlgorithmException e) {
+            log.error("Unable to find the Algorithm", e);
+        } catch (InvalidKeyException e) {
+            log.error("Unable to find the secret key", e);
+        }
+        return null;
+    }
+
+    /**
+     * Generate an OTP bound to an authentication context. The HMAC key is derived from the secret key and the
+     * context identifier, so the OTP can be recomputed from the moving factor by any node that holds the secret key.
+     *
+     * @param secretKey         the server-held secret key
+     * @param contextIdentifier the identifier of the authentication context
+     * @param movingFactor      the counter, or other value that changes on a per use basis.
+     * @param codeDigits        the number of digits in the OTP
+     * @return the OTP
+     * @throws NoSuchAlgorithmException if no provider makes either HmacSHA1 or HMAC-SHA-1 digest
+     *                                  algorithms available.
+     * @throws InvalidKeyException      The secret provided was not a valid HMAC-SHA-1 key.
+     */
+    public static String generateContextOTP(byte[] secretKey, String contextIdentifier, long movingFactor,
+                                            int codeDigits) throws NoSuchAlgorithmException, InvalidKeyException {
+        byte[] contextKey = hmacShaGenerate(secretKey, contextIdentifier.getBytes(StandardCharsets.UTF_8));
+        return generateOTP(contextKey, movingFactor, codeDigits, false, -1);
+    }
+
+    /**
+     * Verify an OTP generated with {@link #generateContextOTP(byte[], String, long, int)} against all the moving
+     * factors within the given window around the given moving factor. The context key is derived and the HMAC is
+     * initialized once for the whole window.
+     *
+     * @param secretKey         the server-held secret key
+     * @param contextIdentifier the identifier of the authentication context
+     * @param movingFactor      the current moving factor
+     * @param window            the number of moving factors accepted before and after the current one
+     * @param codeDigits        the number of digits in the OTP
+     * @param code              the submitted code
+     * @return true if the code matches the OTP of any moving factor within the window
+     * @throws NoSuchAlgorithmException if no provider makes either HmacSHA1 or HMAC-SHA-1 digest
+     *                                  algorithms available.
+     * @throws InvalidKeyException      The secret provided was not a valid HMAC-SHA-1 key.
+     */
+    public static boolean verifyContextOTP(byte[] secretKey, String contextIdentifier, long movingFactor, int window,
+                                           int codeDigits, String code)
+            throws NoSuchAlgorithmException, InvalidKeyException {
+        long submittedCode = parseCode(code, codeDigits);
+        if (submittedCode < 0) {
+            return false;
+        }
+        byte[] contextKey = hmacShaGenerate(secretKey, contextIdentifier.getBytes(StandardCharsets.UTF_8));
+        Generator generator = getGenerator();
+        generator.init(contextKey);
+        boolean valid = false;
+        // Every step of the window is computed, so the time taken does not reveal which step matched.
+        for (long factor = movingFactor - window; factor <= movingFactor + window; factor++) {
+            valid |= generator.truncate(factor, codeDigits, false, -1) == submittedCode;
+        }
+        return valid;
+    }
+
+    /**
+     * Compare the submitted code with the expected code in time that does not depend on the position of the first
+     * mismatching character.
+     *
+     * @param expectedCode the expected code
+     * @param code         the submitted code
+     * @return true if both codes are equal
+     */
+    public static boolean isEqual(String expectedCode, String code) {
+        if (expectedCode == null || code == null) {
+            return false;
+        }
+        return MessageDigest.isEqual(expectedCode.getBytes(StandardCharsets.UTF_8),
+                code.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Generator getGenerator() throws NoSuchAlgorithmException {
+        Generator generator = generators.get();
+        if (generator == null) {
+            generator = new Generator();
+            generators.set(generator);
+        }
+        return generator;
+    }
+
+    /**
+     * Parse a code of exactly the given number of digits.
+     *
+     * @return the code or -1 if it is not a number of the given number of digits
+     */
+    private static long parseCode(String code, int codeDigits) {
+        if (code == null || code.length() != codeDigits) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = 0; i < code.length(); i++) {
+            char digit = code.charAt(i);
+            if (digit < '0' || digit > '9') {
+                return -1;
+            }
+            value = value * 10 + (digit - '0');
+        }
+        return value;
+    }
+
+    private static int digitsPower(int codeDigits) {
+        if (codeDigits >= 0 && codeDigits < DIGITS_POWER.length) {
+            return DIGITS_POWER[codeDigits];
+        }
+        return (int) Math.pow(10, codeDigits);
+    }
+
+    /**
+     * The HMAC, random source and buffers of a single thread.
+     */
+    private static final class Generator {
+
+        private final Mac mac;
+        private final byte[] hash;
+        private byte[] key;
+        private SecureRandom random;
+
+        private Generator() throws NoSuchAlgorithmException {
+            Mac hmacSha;
+            try {
+                hmacSha = Mac.getInstance(SMSOTPConstants.ALGORITHM_HMAC);
+            } catch (NoSuchAlgorithmException nsa) {
+                hmacSha = Mac.getInstance(SMSOTPConstants.ALGORITHM_HMAC_SHA);
+            }
+            mac = hmacSha;
+            hash = new byte[mac.getMacLength()];
+        }
+
+        private Mac getMac() {
+            return mac;
+        }
+
+        private SecureRandom getRandom() throws NoSuchAlgorithmException {
+            if (random == null) {
+                random = SecureRandom.getInstance(SMSOTPConstants.ALGORITHM_NAME);
+            }
+            return random;
+        }
+
+        /**
+         * Initialize the HMAC with the given key. Initialization is skipped when the key is the one in use already.
+         */
+        private void init(byte[] keyBytes) throws InvalidKeyException {
+            if (key != null && Arrays.equals(key, keyBytes)) {
+                mac.reset();
+                return;
+            }
+            key = null;
+            mac.init(new SecretKeySpec(keyBytes, "RAW"));
+            key = keyBytes.clone();
+        }
+
+        private byte[] nextSecret(int size) throws NoSuchAlgorithmException {
+            SecureRandom number = getRandom();
+            byte[] secret = new byte[size];
+            for (int i = 0; i < size; i++) {
+                secret[i] = (byte) ('0' + number.nextInt(9));
+            }
+            return secret;
+        }
+
+        private int truncate(long movingFactor, int codeDigits, boolean addChecksum, int truncationOffset) {
+            for (int i = MOVING_FACTOR_LENGTH - 1; i >= 0; i--) {
+                mac.update((byte) (movingFactor >>> (i * 8)));
+            }
+            try {
+                mac.doFinal(hash, 0);
+            } catch (ShortBufferException e) {
+                // The buffer is sized from the MAC length, hence this cannot happen.
+                throw new IllegalStateException("HMAC output buffer is too small", e);
+            }
+
+            // put selected bytes into result int
+            int offset = hash[hash.length - 1] & 0xf;
+            if ((0 <= truncationOffset) && (truncationOffset < (hash.length - 4))) {
+                offset = truncationOffset;
+            }
+            int binary = ((hash[offset] & 0x7f) << 24) | ((hash[offset + 1] & 0xff) << 16)
+                    | ((hash[offset + 2] & 0xff) << 8) | (hash[offset + 3] & 0xff);
+
+            int otp = binary % digitsPower(codeDigits);
+            if (addChecksum) {
+                otp = (otp * 10) + calcChecksum(otp, codeDigits);
+            }
+            return otp;
+        }
+    }
+}
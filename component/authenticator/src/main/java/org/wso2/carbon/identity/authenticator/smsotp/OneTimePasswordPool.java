@@ -0,0 +1,196 @@
+/*
+ *  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.carbon.identity.authenticator.smsotp;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded pool of pre-generated one time passwords. The pool is refilled by background threads whenever the number
+ * of available codes drops below the low watermark, so the request threads only have to take a code from the pool.
+ */
+public class OneTimePasswordPool {
+
+    public static final String HIT_METRIC = "smsotp.otppool.hit";
+    public static final String MISS_METRIC = "smsotp.otppool.miss";
+
+    private static Log log = LogFactory.getLog(OneTimePasswordPool.class);
+    private static volatile OneTimePasswordPool instance;
+
+    private final BlockingQueue<String> codes;
+    private final int lowWatermark;
+    private final int refillThreads;
+    private final ExecutorService refillExecutor;
+    private final AtomicInteger activeRefills = new AtomicInteger();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private volatile boolean shutdown;
+
+    /**
+     * Create a pool and start filling it.
+     *
+     * @param size          the maximum number of codes kept in the pool
+     * @param lowWatermark  the number of available codes below which the pool is refilled
+     * @param refillThreads the number of background threads used to refill the pool
+     */
+    public OneTimePasswordPool(int size, int lowWatermark, int refillThreads) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("OTP pool size must be positive : " + size);
+        }
+        this.codes = new ArrayBlockingQueue<>(size);
+        this.lowWatermark = Math.min(Math.max(lowWatermark, 0), size);
+        this.refillThreads = Math.max(refillThreads, 1);
+        this.refillExecutor = Executors.newFixedThreadPool(this.refillThreads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "SMSOTP-OTP-Pool-Refill-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        refill();
+    }
+
+    /**
+     * Get the pool configured in application-authentication.xml.
+     *
+     * @return the pool or null if the pool is not enabled
+     */
+    public static OneTimePasswordPool getInstance() {
+        if (instance == null) {
+            Map<String, String> parameters = SMSOTPUtils.getSMSParameters();
+            if (parameters == null || !Boolean.parseBoolean(parameters.get(SMSOTPConstants.IS_ENABLED_OTP_POOL))) {
+                return null;
+            }
+            synchronized (OneTimePasswordPool.class) {
+                if (instance == null) {
+                    int size = SMSOTPUtils.getIntParameter(parameters, SMSOTPConstants.OTP_POOL_SIZE,
+                            SMSOTPConstants.DEFAULT_OTP_POOL_SIZE);
+                    int lowWatermark = SMSOTPUtils.getIntParameter(parameters,
+                            SMSOTPConstants.OTP_POOL_LOW_WATERMARK, size / 4);
+                    int refillThreads = SMSOTPUtils.getIntParameter(parameters,
+                            SMSOTPConstants.OTP_POOL_REFILL_THREADS, SMSOTPConstants.DEFAULT_OTP_POOL_REFILL_THREADS);
+                    if (log.isDebugEnabled()) {
+                        log.debug("Creating OTP pool with size " + size + ", low watermark " + lowWatermark +
+                                " and " + refillThreads + " refill threads");
+                    }
+                    instance = new OneTimePasswordPool(size, lowWatermark, refillThreads);
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Shutdown the configured pool, if any.
+     */
+    public static void shutdownInstance() {
+        synchronized (OneTimePasswordPool.class) {
+            if (instance != null) {
+                instance.shutdown();
+                instance = null;
+            }
+        }
+    }
+
+    /**
+     * Take a code from the pool.
+     *
+     * @return a code or null if the pool is empty
+     */
+    public String poll() {
+        String code = codes.poll();
+        if (code != null) {
+            hits.incrementAndGet();
+            SMSOTPMetrics.increment(HIT_METRIC);
+        } else {
+            misses.incrementAndGet();
+            SMSOTPMetrics.increment(MISS_METRIC);
+            if (log.isDebugEnabled()) {
+                log.debug("OTP pool is empty. Hits : " + hits.get() + ", misses : " + misses.get());
+            }
+        }
+        if (codes.size() < lowWatermark) {
+            refill();
+        }
+        return code;
+    }
+
+    public int getAvailable() {
+        return codes.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public void shutdown() {
+        shutdown = true;
+        refillExecutor.shutdownNow();
+        codes.clear();
+    }
+
+    private void refill() {
+        if (shutdown || !activeRefills.compareAndSet(0, refillThreads)) {
+            return;
+        }
+        for (int i = 0; i < refillThreads; i++) {
+            try {
+                refillExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            fill();
+                        } finally {
+                            activeRefills.decrementAndGet();
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                activeRefills.decrementAndGet();
+            }
+        }
+    }
+
+    private void fill() {
+        while (!shutdown && codes.remainingCapacity() > 0) {
+            String code = OneTimePassword.generateRandomToken(SMSOTPConstants.SECRET_KEY_LENGTH,
+                    SMSOTPConstants.NUMBER_BASE, SMSOTPConstants.NUMBER_DIGIT);
+            if (code == null || !codes.offer(code)) {
+                return;
+            }
+        }
+    }
+}
@@ -23,6 +23,9 @@ import org.apache.catalina.util.URLEncoder;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
 import org.wso2.carbon.extension.identity.helper.FederatedAuthenticatorUtil;
 import org.wso2.carbon.extension.identity.helper.util.IdentityHelperUtil;
 import org.wso2.carbon.identity.application.authentication.framework.AbstractApplicationAuthenticator;
@@ -40,6 +43,26 @@ import org.wso2.carbon.identity.application.authentication.framework.util.Framew
 import org.wso2.carbon.identity.application.authentication.framework.util.FrameworkUtils;
 import org.wso2.carbon.identity.application.common.model.Property;
 import org.wso2.carbon.identity.authenticator.smsotp.exception.SMSOTPException;
+import org.wso2.carbon.identity.authenticator.smsotp.gateway.SMSBatcher;
+import org.wso2.carbon.identity.authenticator.smsotp.gateway.SMSBulkSender;
+import org.wso2.carbon.identity.authenticator.smsotp.gateway.SMSDispatchStatus;
+import org.wso2.carbon.identity.authenticator.smsotp.gateway.SMSDispatcher;
+import org.wso2.carbon.identity.authenticator.smsotp.gateway.SMSGateway;
+import org.wso2.carbon.identity.authenticator.smsotp.gateway.SMSGatewayBalancer;
+import org.wso2.carbon.identity.authenticator.smsotp.gateway.SMSGatewayClient;
+import org.wso2.carbon.identity.authenticator.smsotp.gateway.SMSGatewayClientManager;
+import org.wso2.carbon.identity.authenticator.smsotp.gateway.SMSGatewayHeaders;
+import org.wso2.carbon.identity.authenticator.smsotp.gateway.SMSGatewayRequest;
+import org.wso2.carbon.identity.authenticator.smsotp.gateway.SMSGatewayResponse;
+import org.wso2.carbon.identity.authenticator.smsotp.gateway.SMSGatewayUnavailableException;
+import org.wso2.carbon.identity.authenticator.smsotp.gateway.SMSHedgedSender;
+import org.wso2.carbon.identity.authenticator.smsotp.gateway.SMSJournal;
+import org.wso2.carbon.identity.authenticator.smsotp.gateway.SMSJournalEntry;
+import org.wso2.carbon.identity.authenticator.smsotp.gateway.SMSResponseMatcher;
+import org.wso2.carbon.identity.authenticator.smsotp.gateway.SMSRetrier;
+import org.wso2.carbon.identity.authenticator.smsotp.gateway.SMSTemplate;
+import org.wso2.carbon.core.util.CryptoException;
+import org.wso2.carbon.core.util.CryptoUtil;
 import org.wso2.carbon.identity.core.util.IdentityTenantUtil;
 import org.wso2.carbon.user.api.UserRealm;
 import org.wso2.carbon.user.api.UserStoreException;
@@ -47,16 +70,19 @@ import org.wso2.carbon.user.core.service.RealmService;
 import org.wso2.carbon.utils.multitenancy.MultitenantUtils;
 
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
-import java.net.ProtocolException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import javax.net.ssl.HttpsURLConnection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
@@ -122,7 +148,14 @@ public class SMSOTPAuthenticator extends AbstractApplicationAuthenticator implem
             String tenantDomain = context.getTenantDomain();
             context.setProperty(SMSOTPConstants.AUTHENTICATION, SMSOTPConstants.AUTHENTICATOR_NAME);
             if (!tenantDomain.equals(SMSOTPConstants.SUPER_TENANT)) {
-                IdentityHelperUtil.loadApplicationAuthenticationXMLFromRegistry(context, getName(), tenantDomain);
+                TenantConfigCache tenantConfigCache = TenantConfigCache.getInstance();
+                if (tenantConfigCache != null) {
+                    tenantConfigCache.loadConfiguration(context, getName(), tenantDomain);
+                } else {
+                    IdentityHelperUtil.loadApplicationAuthenticationXMLFromRegistry(context, getName(), tenantDomain);
+                    // The OTP secret key is only taken from the server, and is not to be replicated with the context.
+                    context.getProperties().remove(SMSOTPConstants.OTP_SECRET_KEY);
+                }
             }
             FederatedAuthenticatorUtil.setUsernameFromFirstStep(context);
             username = String.valueOf(context.getProperty(SMSOTPConstants.USER_NAME));
@@ -135,7 +168,7 @@ public class SMSOTPAuthenticator extends AbstractApplicationAuthenticator implem
                 throw new AuthenticationFailedException
                         ("Authentication failed: Cannot proceed further without identifying the user. ");
             }
-            boolean isSMSOTPMandatory = SMSOTPUtils.isSMSOTPMandatory(context, getName());
+            boolean isSMSOTPMandatory = SMSOTPConfig.getConfig(context, getName()).isSMSOTPMandatory();
             boolean isUserExists = FederatedAuthenticatorUtil.isUserExistInUserStore(username);
             String queryParams = FrameworkUtils.getQueryStringWithFrameworkContextId(context.getQueryParams(),
                     context.getCallerSessionKey(), context.getContextIdentifier());
@@ -181,7 +214,7 @@ public class SMSOTPAuthenticator extends AbstractApplicationAuthenticator implem
     private String getMobileNumber(HttpServletRequest request, HttpServletResponse response,
                                    AuthenticationContext context, String username, String tenantDomain,
                                    String queryParams) throws AuthenticationFailedException, SMSOTPException {
-        String mobileNumber = SMSOTPUtils.getMobileNumberForUsername(username);
+        String mobileNumber = SMSOTPUtils.getMobileNumberForUsername(username, context, getName());
         if (StringUtils.isEmpty(mobileNumber)) {
             if (request.getParameter(SMSOTPConstants.MOBILE_NUMBER) == null) {
                 if (log.isDebugEnabled()) {
@@ -190,7 +223,8 @@ public class SMSOTPAuthenticator extends AbstractApplicationAuthenticator implem
                 redirectToMobileNoReqPage(response, context, queryParams);
             } else {
                 updateMobileNumberForUsername(context, request, username, tenantDomain);
-                mobileNumber = SMSOTPUtils.getMobileNumberForUsername(username);
+                SMSOTPUserClaims.clear(context);
+                mobileNumber = SMSOTPUtils.getMobileNumberForUsername(username, context, getName());
             }
         }
         return mobileNumber;
@@ -204,7 +238,7 @@ public class SMSOTPAuthenticator extends AbstractApplicationAuthenticator implem
      * @throws AuthenticationFailedException
      */
     private String getLoginPage(AuthenticationContext context) throws AuthenticationFailedException {
-        String loginPage = SMSOTPUtils.getLoginPageFromXMLFile(context, getName());
+        String loginPage = SMSOTPConfig.getConfig(context, getName()).getLoginPage();
         if (StringUtils.isEmpty(loginPage)) {
             loginPage = ConfigurationFacade.getInstance().getAuthenticationEndpointURL()
                     .replace(SMSOTPConstants.LOGIN_PAGE, SMSOTPConstants.SMS_LOGIN_PAGE);
@@ -223,7 +257,7 @@ public class SMSOTPAuthenticator extends AbstractApplicationAuthenticator implem
      * @throws AuthenticationFailedException
      */
     private String getErrorPage(AuthenticationContext context) throws AuthenticationFailedException {
-        String errorPage = SMSOTPUtils.getErrorPageFromXMLFile(context, getName());
+        String errorPage = SMSOTPConfig.getConfig(context, getName()).getErrorPage();
         if (StringUtils.isEmpty(errorPage)) {
             errorPage = ConfigurationFacade.getInstance().getAuthenticationEndpointURL()
                     .replace(SMSOTPConstants.LOGIN_PAGE, SMSOTPConstants.ERROR_PAGE);
@@ -379,7 +413,7 @@ public class SMSOTPAuthenticator extends AbstractApplicationAuthenticator implem
             } else {
                 mobileNumber = getMobileNumber(request, response, context, username, tenantDomain, queryParams);
             }
-        } else if (SMSOTPUtils.isSendOTPDirectlyToMobile(context, getName())) {
+        } else if (SMSOTPConfig.getConfig(context, getName()).isSendOTPDirectlyToMobile()) {
             if (log.isDebugEnabled()) {
                 log.debug("User :" + username + " doesn't exist");
             }
@@ -388,7 +422,7 @@ public class SMSOTPAuthenticator extends AbstractApplicationAuthenticator implem
                     log.debug("Couldn't find the mobile number in request. Hence redirecting to mobile number input " +
                             "page");
                 }
-                String loginPage = SMSOTPUtils.getMobileNumberRequestPage(context, getName());
+                String loginPage = SMSOTPConfig.getConfig(context, getName()).getMobileNumberRequestPage();
                 try {
                     String url = getURL(loginPage, queryParams);
                     response.sendRedirect(url);
@@ -428,38 +462,39 @@ public class SMSOTPAuthenticator extends AbstractApplicationAuthenticator implem
             throws AuthenticationFailedException {
         String screenValue;
         Map<String, String> authenticatorProperties = context.getAuthenticatorProperties();
-        boolean isEnableResendCode = SMSOTPUtils.isEnableResendCode(context, getName());
+        boolean isEnableResendCode = SMSOTPConfig.getConfig(context, getName()).isEnableResendCode();
         String loginPage = getLoginPage(context);
         String tenantDomain = MultitenantUtils.getTenantDomain(username);
         String tenantAwareUsername = MultitenantUtils.getTenantAwareUsername(username);
         UserRealm userRealm = SMSOTPUtils.getUserRealm(tenantDomain);
         try {
-            // One time password is generated and stored in the context.
-            OneTimePassword token = new OneTimePassword();
-            String secret = OneTimePassword.getRandomNumber(SMSOTPConstants.SECRET_KEY_LENGTH);
-            String otpToken = token.generateToken(secret, String.valueOf(SMSOTPConstants.NUMBER_BASE),
-                    SMSOTPConstants.NUMBER_DIGIT);
-            context.setProperty(SMSOTPConstants.OTP_TOKEN, otpToken);
+            SMSRateLimiter rateLimiter = SMSRateLimiter.getInstance();
+            if (rateLimiter != null && !rateLimiter.tryAcquire(tenantDomain, mobileNumber, username)) {
+                log.warn("Too many codes are requested for the user " + username + ". Hence not sending the SMS");
+                response.sendRedirect(getURL(errorPage, queryParams) + SMSOTPConstants.ERROR_SMS_THROTTLED);
+                return;
+            }
+            // One time password is generated and stored in the context, or derived from the context.
+            String otpToken = generateOTPToken(context);
             if (log.isDebugEnabled()) {
                 log.debug("Generated OTP successfully and set to the context.");
             }
             //Get the values of the sms provider related api parameters.
-            String smsUrl = authenticatorProperties.get(SMSOTPConstants.SMS_URL);
-            String httpMethod = authenticatorProperties.get(SMSOTPConstants.HTTP_METHOD);
-            String headerString = authenticatorProperties.get(SMSOTPConstants.HEADERS);
-            String payload = authenticatorProperties.get(SMSOTPConstants.PAYLOAD);
-            String httpResponse = authenticatorProperties.get(SMSOTPConstants.HTTP_RESPONSE);
-            if (!sendRESTCall(context, smsUrl, httpMethod, headerString, payload, httpResponse, mobileNumber, otpToken)) {
-                String retryParam;
-                context.setProperty(SMSOTPConstants.STATUS_CODE, SMSOTPConstants.UNABLE_SEND_CODE);
-                if (context.getProperty(SMSOTPConstants.ERROR_CODE) != null) {
-                    retryParam = SMSOTPConstants.UNABLE_SEND_CODE_PARAM +
-                            context.getProperty(SMSOTPConstants.ERROR_CODE).toString();
-                } else {
-                    retryParam = SMSOTPConstants.UNABLE_SEND_CODE_PARAM + SMSOTPConstants.UNABLE_SEND_CODE_VALUE;
+            List<SMSGateway> gateways = getGateways(authenticatorProperties);
+            long journalId = journalSMS(context, mobileNumber);
+            boolean isSent;
+            if (SMSOTPConfig.getConfig(context, getName()).isAsyncSMSDispatch()) {
+                isSent = dispatchSMS(context, gateways, mobileNumber, otpToken, journalId);
+            } else {
+                boolean isSMSSent = false;
+                try {
+                    isSMSSent = sendSMS(context, gateways, mobileNumber, otpToken);
+                } finally {
+                    isSent = completeJournaledSMS(journalId, isSMSSent);
                 }
-                String redirectUrl = getURL(errorPage, queryParams);
-                response.sendRedirect(redirectUrl + SMSOTPConstants.RESEND_CODE + isEnableResendCode + retryParam);
+            }
+            if (!isSent) {
+                redirectToUnableToSendPage(response, context, errorPage, queryParams, isEnableResendCode);
             } else {
                 String url = getURL(loginPage, queryParams);
                 boolean isUserExists = FederatedAuthenticatorUtil.isUserExistInUserStore(username);
@@ -478,6 +513,620 @@ public class SMSOTPAuthenticator extends AbstractApplicationAuthenticator implem
         }
     }
 
+    /**
+     * Get the SMS gateways configured in the identity provider. The gateway of the sms_url, http_method, headers,
+     * payload and http_response properties comes first, followed by the additional gateways, which are configured as
+     * a JSON array of objects with the same keys and an optional weight.
+     *
+     * @param authenticatorProperties the authenticator properties
+     * @return the gateways, in failover order
+     */
+    private List<SMSGateway> getGateways(Map<String, String> authenticatorProperties) {
+        List<SMSGateway> gateways = new ArrayList<>();
+        gateways.add(new SMSGateway(authenticatorProperties.get(SMSOTPConstants.SMS_URL),
+                authenticatorProperties.get(SMSOTPConstants.HTTP_METHOD),
+                authenticatorProperties.get(SMSOTPConstants.HEADERS),
+                authenticatorProperties.get(SMSOTPConstants.PAYLOAD),
+                authenticatorProperties.get(SMSOTPConstants.HTTP_RESPONSE),
+                SMSOTPUtils.getIntParameter(authenticatorProperties, SMSOTPConstants.GATEWAY_WEIGHT,
+                        SMSOTPConstants.DEFAULT_GATEWAY_WEIGHT),
+                authenticatorProperties.get(SMSOTPConstants.BULK_PAYLOAD),
+                isHttp2(authenticatorProperties.get(SMSOTPConstants.HTTP_VERSION)),
+                authenticatorProperties.get(SMSOTPConstants.RESPONSE_BODY),
+                Boolean.parseBoolean(authenticatorProperties.get(SMSOTPConstants.IDEMPOTENT))));
+        String additionalGateways = authenticatorProperties.get(SMSOTPConstants.ADDITIONAL_GATEWAYS);
+        if (StringUtils.isNotBlank(additionalGateways)) {
+            try {
+                JSONArray gatewayArray = new JSONArray(additionalGateways);
+                for (int i = 0; i < gatewayArray.length(); i++) {
+                    JSONObject gateway = gatewayArray.getJSONObject(i);
+                    gateways.add(new SMSGateway(gateway.getString(SMSOTPConstants.SMS_URL),
+                            gateway.optString(SMSOTPConstants.HTTP_METHOD, SMSOTPConstants.GET_METHOD),
+                            gateway.optString(SMSOTPConstants.HEADERS, null),
+                            gateway.optString(SMSOTPConstants.PAYLOAD, null),
+                            gateway.optString(SMSOTPConstants.HTTP_RESPONSE, null),
+                            gateway.optInt(SMSOTPConstants.GATEWAY_WEIGHT, SMSOTPConstants.DEFAULT_GATEWAY_WEIGHT),
+                            gateway.optString(SMSOTPConstants.BULK_PAYLOAD, null),
+                            isHttp2(gateway.optString(SMSOTPConstants.HTTP_VERSION, null)),
+                            gateway.optString(SMSOTPConstants.RESPONSE_BODY, null),
+                            gateway.optBoolean(SMSOTPConstants.IDEMPOTENT, false)));
+                }
+            } catch (JSONException e) {
+                log.error("Invalid additional SMS gateways. Hence sending the SMS through the default gateway only", e);
+                return gateways.subList(0, 1);
+            }
+        }
+        return gateways;
+    }
+
+    /**
+     * Send the SMS through the configured gateways.
+     *
+     * @param context  the AuthenticationContext
+     * @param gateways the gateways, in failover order
+     * @param mobile   the mobile number
+     * @param otpToken the OTP token
+     * @return true or false
+     * @throws IOException
+     * @throws AuthenticationFailedException
+     */
+    private boolean sendSMS(AuthenticationContext context, List<SMSGateway> gateways, String mobile, String otpToken)
+            throws IOException, AuthenticationFailedException {
+        if (gateways.size() == 1 && !isBatched(gateways.get(0))) {
+            SMSGateway gateway = gateways.get(0);
+            return sendRESTCall(context, gateway.getSmsUrl(), gateway.getHttpMethod(), gateway.getHeaders(),
+                    gateway.getPayload(), gateway.getHttpResponse(), mobile, otpToken);
+        }
+        SMSDispatchStatus sendStatus = new SMSDispatchStatus();
+        // The request thread does not wait for retries.
+        sendToGateways(context.getAuthenticatorProperties(), gateways, mobile, otpToken, 0, sendStatus);
+        if (sendStatus.isFailed() && sendStatus.getErrorCode() != null) {
+            context.setProperty(SMSOTPConstants.ERROR_CODE, sendStatus.getErrorCode());
+        }
+        return !sendStatus.isFailed();
+    }
+
+    /**
+     * Send the SMS to the gateway selected by weighted round-robin, and fail over to the next gateway when a gateway
+     * does not accept the message or cannot be reached. The result of each gateway feeds back into its weight. When
+     * SMS hedging is enabled the message is hedged between the first two gateways.
+     *
+     * @param authenticatorProperties the authenticator properties
+     * @param gateways                the gateways, in failover order
+     * @param mobile                  the mobile number
+     * @param otpToken                the OTP token
+     * @param retryDeadline           the time in milliseconds after which no retry is started, 0 for no retries
+     * @param sendStatus              the status to record the result in
+     */
+    private void sendToGateways(Map<String, String> authenticatorProperties, List<SMSGateway> gateways,
+                                String mobile, String otpToken, long retryDeadline, SMSDispatchStatus sendStatus) {
+        SMSGatewayBalancer balancer = SMSGatewayBalancer.getBalancer(gateways);
+        List<SMSGateway> selectedGateways = balancer.select();
+        String errorCode = null;
+        int next = 0;
+        SMSHedgedSender hedgedSender = SMSHedgedSender.getInstance();
+        if (hedgedSender != null && selectedGateways.size() > 1) {
+            SMSDispatchStatus primaryStatus = new SMSDispatchStatus();
+            SMSDispatchStatus secondaryStatus = new SMSDispatchStatus();
+            if (hedgedSender.send(
+                    createSendTask(authenticatorProperties, selectedGateways.get(0), balancer, mobile, otpToken,
+                            retryDeadline, primaryStatus),
+                    createSendTask(authenticatorProperties, selectedGateways.get(1), balancer, mobile, otpToken,
+                            retryDeadline, secondaryStatus))) {
+                sendStatus.setSent();
+                return;
+            }
+            errorCode = secondaryStatus.getErrorCode() != null ? secondaryStatus.getErrorCode() :
+                    primaryStatus.getErrorCode();
+            next = 2;
+        }
+        for (; next < selectedGateways.size(); next++) {
+            SMSDispatchStatus attemptStatus = new SMSDispatchStatus();
+            if (sendToGateway(authenticatorProperties, selectedGateways.get(next), balancer, mobile, otpToken,
+                    retryDeadline, attemptStatus)) {
+                sendStatus.setSent();
+                return;
+            }
+            if (attemptStatus.getErrorCode() != null) {
+                errorCode = attemptStatus.getErrorCode();
+            }
+            if (log.isDebugEnabled()) {
+                log.debug("SMS gateway " + selectedGateways.get(next).getSmsUrl() + " failed. Trying the next " +
+                        "gateway if available");
+            }
+        }
+        sendStatus.setFailed(errorCode);
+    }
+
+    /**
+     * Send the SMS to a gateway.
+     *
+     * @param authenticatorProperties the authenticator properties
+     * @param gateway                 the gateway
+     * @param balancer                the balancer to record the result in
+     * @param mobile                  the mobile number
+     * @param otpToken                the OTP token
+     * @param retryDeadline           the time in milliseconds after which no retry is started, 0 for no retries
+     * @param attemptStatus           the status to record the result in
+     * @return true if the gateway accepted the message
+     */
+    private boolean sendToGateway(Map<String, String> authenticatorProperties, SMSGateway gateway,
+                                  SMSGatewayBalancer balancer, String mobile, String otpToken, long retryDeadline,
+                                  SMSDispatchStatus attemptStatus) {
+        String errorCode = null;
+        try {
+            SMSGatewayResponse gatewayResponse;
+            if (isBatched(gateway)) {
+                gatewayResponse = sendBatchedSMS(authenticatorProperties, gateway, mobile, otpToken);
+            } else {
+                gatewayResponse = sendSMS(authenticatorProperties, gateway, mobile, otpToken, retryDeadline);
+            }
+            if (isSent(gatewayResponse, gateway.getHttpResponse())) {
+                balancer.recordResult(gateway, true);
+                attemptStatus.setSent();
+                return true;
+            }
+            errorCode = getErrorCode(gatewayResponse, gateway.getHttpResponse());
+        } catch (SMSGatewayUnavailableException e) {
+            log.error("Error while sending SMS: " + e.getMessage());
+        } catch (IOException | AuthenticationFailedException e) {
+            log.error("Error while sending the SMS through " + gateway.getSmsUrl(), e);
+        }
+        balancer.recordResult(gateway, false);
+        attemptStatus.setFailed(errorCode);
+        return false;
+    }
+
+    /**
+     * Check whether the SMS to a gateway is sent in a batch through the bulk API of the gateway.
+     *
+     * @param gateway the gateway
+     * @return true if SMS batching is enabled and the gateway has a bulk API
+     */
+    private boolean isBatched(SMSGateway gateway) {
+        return StringUtils.isNotEmpty(gateway.getBulkPayload()) && SMSBatcher.getInstance() != null;
+    }
+
+    /**
+     * Add the SMS to the open batch of a gateway and wait for the response of the bulk API.
+     *
+     * @param authenticatorProperties the authenticator properties
+     * @param gateway                 the gateway
+     * @param mobile                  the mobile number
+     * @param otpToken                the OTP token
+     * @return the response of the bulk API, which applies to all the messages of the batch
+     * @throws IOException if the batch could not be sent
+     */
+    private SMSGatewayResponse sendBatchedSMS(Map<String, String> authenticatorProperties, SMSGateway gateway,
+                                              String mobile, String otpToken) throws IOException {
+        String encodedMobileNo = new URLEncoder().encode(mobile);
+        String message = SMSTemplate.compile(StringUtils.defaultString(gateway.getPayload())).render(encodedMobileNo,
+                SMSOTPConstants.SMS_MESSAGE, otpToken, getPayloadEncoding(gateway.getHeaders()));
+        String batchKey = gateway + "\n" + gateway.getHeaders() + "\n" + gateway.getBulkPayload();
+        Future<SMSGatewayResponse> batchResponse = SMSBatcher.getInstance().submit(batchKey, message,
+                createBulkSender(authenticatorProperties, gateway));
+        try {
+            return batchResponse.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Error while sending the SMS batch ", e.getCause());
+        } catch (CancellationException e) {
+            throw new IOException("SMS batch was not sent since the SMS batcher is shut down", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the SMS batch to be sent", e);
+        }
+    }
+
+    /**
+     * Create a sender that posts a batch of messages to the bulk API of a gateway. The messages replace the
+     * $ctx.messages placeholder of the bulk payload, separated by comma.
+     *
+     * @param authenticatorProperties the authenticator properties
+     * @param gateway                 the gateway
+     * @return the sender
+     */
+    private SMSBulkSender createBulkSender(final Map<String, String> authenticatorProperties,
+                                           final SMSGateway gateway) {
+        final int connectTimeout = getTimeout(authenticatorProperties, SMSOTPConstants.CONNECT_TIMEOUT,
+                SMSOTPConstants.DEFAULT_CONNECT_TIMEOUT);
+        final int readTimeout = getTimeout(authenticatorProperties, SMSOTPConstants.READ_TIMEOUT,
+                SMSOTPConstants.DEFAULT_READ_TIMEOUT);
+        return new SMSBulkSender() {
+            @Override
+            public SMSGatewayResponse send(List<String> messages) throws IOException {
+                String payload = gateway.getBulkPayload().replace(SMSOTPConstants.BULK_PAYLOAD_MESSAGES,
+                        StringUtils.join(messages, ","));
+                SMSGatewayRequest gatewayRequest = new SMSGatewayRequest(SMSOTPConstants.POST_METHOD,
+                        gateway.getSmsUrl(), getHeaders(gateway.getHeaders(), "", "", ""), payload);
+                gatewayRequest.setConnectTimeout(connectTimeout);
+                gatewayRequest.setReadTimeout(readTimeout);
+                setResponseMatcher(gatewayRequest, gateway);
+                return SMSGatewayClientManager.getInstance().getClient(new URL(gateway.getSmsUrl()),
+                        gateway.isHttp2()).send(gatewayRequest);
+            }
+        };
+    }
+
+    /**
+     * Create a task that sends the SMS to a gateway.
+     *
+     * @param authenticatorProperties the authenticator properties
+     * @param gateway                 the gateway
+     * @param balancer                the balancer to record the result in
+     * @param mobile                  the mobile number
+     * @param otpToken                the OTP token
+     * @param retryDeadline           the time in milliseconds after which no retry is started, 0 for no retries
+     * @param attemptStatus           the status to record the result in
+     * @return the task
+     */
+    private Callable<Boolean> createSendTask(final Map<String, String> authenticatorProperties,
+                                             final SMSGateway gateway, final SMSGatewayBalancer balancer,
+                                             final String mobile, final String otpToken, final long retryDeadline,
+                                             final SMSDispatchStatus attemptStatus) {
+        return new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return sendToGateway(authenticatorProperties, gateway, balancer, mobile, otpToken, retryDeadline,
+                        attemptStatus);
+            }
+        };
+    }
+
+    /**
+     * Hand the SMS over to the SMS dispatcher, so that the user does not have to wait for the SMS gateway. The result
+     * of the dispatch is kept in the context and a failure is shown on the next request of the flow. The SMS is sent
+     * right away when the dispatch queue is full.
+     *
+     * @param context   the AuthenticationContext
+     * @param gateways  the gateways, in failover order
+     * @param mobile    the mobile number
+     * @param otpToken  the OTP token
+     * @param journalId the id of the SMS in the SMS journal, or -1 if it is not journaled
+     * @return true or false
+     * @throws IOException
+     * @throws AuthenticationFailedException
+     */
+    private boolean dispatchSMS(AuthenticationContext context, final List<SMSGateway> gateways, final String mobile,
+                                final String otpToken, final long journalId)
+            throws IOException, AuthenticationFailedException {
+        final SMSDispatchStatus dispatchStatus = new SMSDispatchStatus();
+        final long retryDeadline = getRetryDeadline(context);
+        final Map<String, String> authenticatorProperties = context.getAuthenticatorProperties() != null ?
+                new HashMap<>(context.getAuthenticatorProperties()) : null;
+        context.setProperty(SMSOTPConstants.SMS_DISPATCH_STATUS, dispatchStatus);
+        boolean isDispatched = SMSDispatcher.getInstance().dispatch(new Runnable() {
+            @Override
+            public void run() {
+                if (journalId < 0) {
+                    sendToGateways(authenticatorProperties, gateways, mobile, otpToken, retryDeadline,
+                            dispatchStatus);
+                    return;
+                }
+                SMSDispatchStatus sendStatus = new SMSDispatchStatus();
+                try {
+                    sendToGateways(authenticatorProperties, gateways, mobile, otpToken, retryDeadline, sendStatus);
+                } finally {
+                    if (completeJournaledSMS(journalId, !sendStatus.isFailed() && sendStatus.isCompleted())) {
+                        dispatchStatus.setSent();
+                    } else {
+                        dispatchStatus.setFailed(sendStatus.getErrorCode());
+                    }
+                }
+            }
+        });
+        if (!isDispatched) {
+            context.setProperty(SMSOTPConstants.SMS_DISPATCH_STATUS, null);
+            boolean isSent = false;
+            try {
+                isSent = sendSMS(context, gateways, mobile, otpToken);
+            } finally {
+                isSent = completeJournaledSMS(journalId, isSent);
+            }
+            return isSent;
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("SMS is queued to be sent in the background");
+        }
+        return true;
+    }
+
+    /**
+     * Add the SMS to the SMS journal before it is sent, so that it is retried if no gateway accepts it. The journal
+     * keeps the encrypted mobile number only. The code and the gateways are read from the context when the SMS is
+     * retried.
+     *
+     * @param context the AuthenticationContext
+     * @param mobile  the mobile number
+     * @return the id of the SMS in the SMS journal, or -1 if it is not journaled
+     * @throws AuthenticationFailedException
+     */
+    private long journalSMS(AuthenticationContext context, String mobile) throws AuthenticationFailedException {
+        SMSJournal journal = SMSJournal.getInstance();
+        if (journal == null) {
+            return -1;
+        }
+        String encryptedMobile;
+        try {
+            encryptedMobile = CryptoUtil.getDefaultCryptoUtil().encryptAndBase64Encode(
+                    mobile.getBytes(StandardCharsets.UTF_8));
+        } catch (CryptoException e) {
+            log.error("Unable to encrypt the mobile number. Hence the SMS is sent without being journaled", e);
+            return -1;
+        }
+        return journal.append(context.getContextIdentifier(), encryptedMobile,
+                getOTPExpiry(SMSOTPConfig.getConfig(context, getName()), System.currentTimeMillis()));
+    }
+
+    /**
+     * Record the result of a journaled SMS. An SMS that was not sent stays in the SMS journal and is retried until it
+     * expires, hence the user can proceed to enter the code.
+     *
+     * @param journalId the id of the SMS in the SMS journal, or -1 if it is not journaled
+     * @param isSent    whether the SMS was sent
+     * @return true if the SMS was sent or is left to be retried
+     */
+    private boolean completeJournaledSMS(long journalId, boolean isSent) {
+        SMSJournal journal = SMSJournal.getInstance();
+        if (journalId < 0 || journal == null) {
+            return isSent;
+        }
+        if (isSent) {
+            journal.complete(journalId);
+        } else {
+            journal.release(journalId);
+            log.warn("Unable to send the SMS. The SMS is kept in the SMS journal and retried until it expires");
+        }
+        return true;
+    }
+
+    /**
+     * Send an SMS that is pending in the SMS journal. The code and the gateways are taken from the authentication
+     * context, hence the SMS is dropped once the context is no longer in the cache.
+     *
+     * @param entry the journal entry
+     * @return true if the SMS was sent or is no longer to be sent
+     */
+    public boolean sendJournaledSMS(SMSJournalEntry entry) {
+        AuthenticationContext context = FrameworkUtils.getAuthenticationContextFromCache(
+                entry.getContextIdentifier());
+        if (context == null) {
+            if (log.isDebugEnabled()) {
+                log.debug("Authentication context " + entry.getContextIdentifier() + " of the journaled SMS is " +
+                        "not found. Hence dropping the SMS");
+            }
+            return true;
+        }
+        String otpToken;
+        String mobile;
+        try {
+            otpToken = getContextOTPToken(context);
+            if (otpToken == null) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Authentication context " + entry.getContextIdentifier() + " of the journaled SMS " +
+                            "has no code. Hence dropping the SMS");
+                }
+                return true;
+            }
+            mobile = new String(CryptoUtil.getDefaultCryptoUtil().base64DecodeAndDecrypt(entry.getMobile()),
+                    StandardCharsets.UTF_8);
+        } catch (AuthenticationFailedException | CryptoException e) {
+            log.error("Unable to get the code or the mobile number of the journaled SMS of the context " +
+                    entry.getContextIdentifier() + ". Hence dropping the SMS", e);
+            return true;
+        }
+        Map<String, String> authenticatorProperties = context.getAuthenticatorProperties();
+        SMSDispatchStatus sendStatus = new SMSDispatchStatus();
+        sendToGateways(authenticatorProperties, getGateways(authenticatorProperties), mobile, otpToken,
+                entry.getExpiry(), sendStatus);
+        if (log.isDebugEnabled()) {
+            log.debug("Retried the journaled SMS of the context " + entry.getContextIdentifier() + ". Sent : " +
+                    !sendStatus.isFailed());
+        }
+        return !sendStatus.isFailed();
+    }
+
+    /**
+     * Check whether the SMS that was sent in the background failed, and if so move the error to the context.
+     *
+     * @param context the AuthenticationContext
+     * @return true if the SMS failed
+     */
+    private boolean isDispatchFailed(AuthenticationContext context) {
+        Object dispatchStatus = context.getProperty(SMSOTPConstants.SMS_DISPATCH_STATUS);
+        if (dispatchStatus instanceof SMSDispatchStatus && ((SMSDispatchStatus) dispatchStatus).isFailed()) {
+            context.setProperty(SMSOTPConstants.SMS_DISPATCH_STATUS, null);
+            String errorCode = ((SMSDispatchStatus) dispatchStatus).getErrorCode();
+            if (errorCode != null) {
+                context.setProperty(SMSOTPConstants.ERROR_CODE, errorCode);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Redirect to the error page when the SMS could not be sent.
+     *
+     * @param response           the HttpServletResponse
+     * @param context            the AuthenticationContext
+     * @param errorPage          the errorPage
+     * @param queryParams        the queryParams
+     * @param isEnableResendCode whether resend is enabled
+     * @throws IOException
+     */
+    private void redirectToUnableToSendPage(HttpServletResponse response, AuthenticationContext context,
+                                            String errorPage, String queryParams, boolean isEnableResendCode)
+            throws IOException {
+        String retryParam;
+        context.setProperty(SMSOTPConstants.STATUS_CODE, SMSOTPConstants.UNABLE_SEND_CODE);
+        if (context.getProperty(SMSOTPConstants.ERROR_CODE) != null) {
+            retryParam = SMSOTPConstants.UNABLE_SEND_CODE_PARAM +
+                    context.getProperty(SMSOTPConstants.ERROR_CODE).toString();
+        } else {
+            retryParam = SMSOTPConstants.UNABLE_SEND_CODE_PARAM + SMSOTPConstants.UNABLE_SEND_CODE_VALUE;
+        }
+        String redirectUrl = getURL(errorPage, queryParams);
+        response.sendRedirect(redirectUrl + SMSOTPConstants.RESEND_CODE + isEnableResendCode + retryParam);
+    }
+
+    /**
+     * Generate a one time password for the context. In the hmac mode the OTP is derived from the secret key, the
+     * context identifier and the issue time, and only the issue time is kept in the context. In the totp mode the
+     * OTP is derived from the secret key, the context identifier and the current time step, and nothing is kept in
+     * the context. Otherwise a random OTP is stored in the context. The random OTP is taken from the OTP pool when
+     * the pool is enabled and not empty.
+     *
+     * @param context the AuthenticationContext
+     * @return the OTP
+     * @throws AuthenticationFailedException
+     */
+    private String generateOTPToken(AuthenticationContext context) throws AuthenticationFailedException {
+        String otpGenerationMode = SMSOTPConfig.getConfig(context, getName()).getOTPGenerationMode();
+        boolean isTOTPMode = SMSOTPConstants.TOTP_MODE.equalsIgnoreCase(otpGenerationMode);
+        if (isTOTPMode || SMSOTPConstants.HMAC_OTP_MODE.equalsIgnoreCase(otpGenerationMode)) {
+            byte[] secretKey = getOTPSecretKey();
+            if (secretKey != null) {
+                long issuedTime = System.currentTimeMillis();
+                context.setProperty(SMSOTPConstants.OTP_TOKEN, null);
+                if (isTOTPMode) {
+                    context.setProperty(SMSOTPConstants.OTP_ISSUED_TIME, null);
+                    return generateContextOTP(secretKey, context.getContextIdentifier(),
+                            getTimeStep(context, issuedTime));
+                }
+                context.setProperty(SMSOTPConstants.OTP_ISSUED_TIME, issuedTime);
+                return generateContextOTP(secretKey, context.getContextIdentifier(), issuedTime);
+            }
+            log.warn("OTP secret key is not configured for the " + otpGenerationMode + " OTP generation mode. " +
+                    "Hence storing a random OTP in the context");
+        }
+        String otpToken = null;
+        OneTimePasswordPool otpPool = OneTimePasswordPool.getInstance();
+        if (otpPool != null) {
+            otpToken = otpPool.poll();
+        }
+        if (otpToken == null) {
+            otpToken = OneTimePassword.generateRandomToken(SMSOTPConstants.SECRET_KEY_LENGTH,
+                    SMSOTPConstants.NUMBER_BASE, SMSOTPConstants.NUMBER_DIGIT);
+        }
+        context.setProperty(SMSOTPConstants.OTP_TOKEN, otpToken);
+        context.setProperty(SMSOTPConstants.OTP_ISSUED_TIME, null);
+        return otpToken;
+    }
+
+    /**
+     * Get the OTP of the context, as sent to the user.
+     *
+     * @param context the AuthenticationContext
+     * @return the OTP or null if the context has no OTP
+     * @throws AuthenticationFailedException
+     */
+    private String getContextOTPToken(AuthenticationContext context) throws AuthenticationFailedException {
+        String contextToken = (String) context.getProperty(SMSOTPConstants.OTP_TOKEN);
+        if (contextToken != null) {
+            return contextToken;
+        }
+        Object issuedTime = context.getProperty(SMSOTPConstants.OTP_ISSUED_TIME);
+        boolean isTOTPMode = issuedTime == null && SMSOTPConstants.TOTP_MODE.equalsIgnoreCase(
+                SMSOTPConfig.getConfig(context, getName()).getOTPGenerationMode());
+        if (issuedTime == null && !isTOTPMode) {
+            return null;
+        }
+        byte[] secretKey = getOTPSecretKey();
+        if (secretKey == null) {
+            return null;
+        }
+        if (isTOTPMode) {
+            return generateContextOTP(secretKey, context.getContextIdentifier(),
+                    getTimeStep(context, System.currentTimeMillis()));
+        }
+        return generateContextOTP(secretKey, context.getContextIdentifier(),
+                Long.parseLong(String.valueOf(issuedTime)));
+    }
+
+    /**
+     * Check the code submitted by the user against the OTP of the context.
+     *
+     * @param context   the AuthenticationContext
+     * @param userToken the code submitted by the user
+     * @return true if the code matches
+     * @throws AuthenticationFailedException
+     */
+    private boolean isValidOTP(AuthenticationContext context, String userToken) throws AuthenticationFailedException {
+        String contextToken = (String) context.getProperty(SMSOTPConstants.OTP_TOKEN);
+        if (contextToken != null) {
+            return OneTimePassword.isEqual(contextToken, userToken);
+        }
+        Object issuedTime = context.getProperty(SMSOTPConstants.OTP_ISSUED_TIME);
+        boolean isTOTPMode = issuedTime == null && SMSOTPConstants.TOTP_MODE.equalsIgnoreCase(
+                SMSOTPConfig.getConfig(context, getName()).getOTPGenerationMode());
+        if (issuedTime == null && !isTOTPMode) {
+            return false;
+        }
+        byte[] secretKey = getOTPSecretKey();
+        if (secretKey == null) {
+            log.error("Cannot verify the OTP since the OTP secret key is not configured");
+            return false;
+        }
+        if (isTOTPMode) {
+            try {
+                return OneTimePassword.verifyContextOTP(secretKey, context.getContextIdentifier(),
+                        getTimeStep(context, System.currentTimeMillis()),
+                        Math.max(SMSOTPConfig.getConfig(context, getName()).getTOTPWindow(), 0),
+                        SMSOTPConstants.NUMBER_DIGIT, userToken);
+            } catch (NoSuchAlgorithmException e) {
+                throw new AuthenticationFailedException("Unable to find the algorithm to verify the OTP ", e);
+            } catch (InvalidKeyException e) {
+                throw new AuthenticationFailedException("Invalid OTP secret key ", e);
+            }
+        }
+        return OneTimePassword.isEqual(generateContextOTP(secretKey, context.getContextIdentifier(),
+                Long.parseLong(String.valueOf(issuedTime))), userToken);
+    }
+
+    /**
+     * Get the TOTP time step of the given time.
+     *
+     * @param context the AuthenticationContext
+     * @param time    the time in milliseconds
+     * @return the time step
+     * @throws AuthenticationFailedException
+     */
+    private long getTimeStep(AuthenticationContext context, long time) throws AuthenticationFailedException {
+        int timeStep = SMSOTPConfig.getConfig(context, getName()).getTOTPTimeStep();
+        if (timeStep <= 0) {
+            timeStep = SMSOTPConstants.DEFAULT_TOTP_TIME_STEP;
+        }
+        return time / 1000L / timeStep;
+    }
+
+    /**
+     * Get the secret key used to derive the OTP.
+     *
+     * @return the secret key or null if it is not configured
+     */
+    private byte[] getOTPSecretKey() {
+        String secretKey = SMSOTPUtils.getOTPSecretKey();
+        if (StringUtils.isEmpty(secretKey)) {
+            return null;
+        }
+        return secretKey.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private String generateContextOTP(byte[] secretKey, String contextIdentifier, long movingFactor)
+            throws AuthenticationFailedException {
+        try {
+            return OneTimePassword.generateContextOTP(secretKey, contextIdentifier, movingFactor,
+                    SMSOTPConstants.NUMBER_DIGIT);
+        } catch (NoSuchAlgorithmException e) {
+            throw new AuthenticationFailedException("Unable to find the algorithm to generate the OTP ", e);
+        } catch (InvalidKeyException e) {
+            throw new AuthenticationFailedException("Invalid OTP secret key ", e);
+        }
+    }
+
     /**
      * Check the status codes when resend and retry enabled.
      *
@@ -489,22 +1138,27 @@ public class SMSOTPAuthenticator extends AbstractApplicationAuthenticator implem
      */
     private void checkStatusCode(HttpServletResponse response, AuthenticationContext context,
                                  String queryParams, String errorPage) throws AuthenticationFailedException {
-        boolean isRetryEnabled = SMSOTPUtils.isRetryEnabled(context, getName());
+        SMSOTPConfig config = SMSOTPConfig.getConfig(context, getName());
+        boolean isRetryEnabled = config.isRetryEnabled();
         String loginPage = getLoginPage(context);
         String url = getURL(loginPage, queryParams);
         try {
+            if (isDispatchFailed(context)) {
+                redirectToUnableToSendPage(response, context, errorPage, queryParams, config.isEnableResendCode());
+                return;
+            }
             String statusCode = (String) context.getProperty(SMSOTPConstants.STATUS_CODE);
             if (statusCode == null && isRetryEnabled) {
                 response.sendRedirect(url + SMSOTPConstants.RESEND_CODE
-                        + SMSOTPUtils.isEnableResendCode(context, getName()) + SMSOTPConstants.RETRY_PARAMS);
+                        + config.isEnableResendCode() + SMSOTPConstants.RETRY_PARAMS);
             } else {
                 if (Boolean.parseBoolean((String) context.getProperty(SMSOTPConstants.CODE_MISMATCH)) && !isRetryEnabled) {
                     url = getURL(errorPage, queryParams);
                     response.sendRedirect(url + SMSOTPConstants.RESEND_CODE
-                            + SMSOTPUtils.isEnableResendCode(context, getName()) + SMSOTPConstants.ERROR_CODE_MISMATCH);
+                            + config.isEnableResendCode() + SMSOTPConstants.ERROR_CODE_MISMATCH);
                 } else {
                     response.sendRedirect(url + SMSOTPConstants.RESEND_CODE
-                            + SMSOTPUtils.isEnableResendCode(context, getName()) + SMSOTPConstants.RETRY_PARAMS);
+                            + config.isEnableResendCode() + SMSOTPConstants.RETRY_PARAMS);
                 }
             }
         } catch (IOException e) {
@@ -522,9 +1176,9 @@ public class SMSOTPAuthenticator extends AbstractApplicationAuthenticator implem
      */
     private void redirectToMobileNoReqPage(HttpServletResponse response, AuthenticationContext context,
                                            String queryParams) throws AuthenticationFailedException {
-        boolean isEnableMobileNoUpdate = SMSOTPUtils.isEnableMobileNoUpdate(context, getName());
-        if (isEnableMobileNoUpdate) {
-            String loginPage = SMSOTPUtils.getMobileNumberRequestPage(context, getName());
+        SMSOTPConfig config = SMSOTPConfig.getConfig(context, getName());
+        if (config.isEnableMobileNoUpdate()) {
+            String loginPage = config.getMobileNumberRequestPage();
             try {
                 String url = getURL(loginPage, queryParams);
                 if (log.isDebugEnabled()) {
@@ -551,7 +1205,6 @@ public class SMSOTPAuthenticator extends AbstractApplicationAuthenticator implem
     protected void processAuthenticationResponse(HttpServletRequest request, HttpServletResponse response,
                                                  AuthenticationContext context) throws AuthenticationFailedException {
         String userToken = request.getParameter(SMSOTPConstants.CODE);
-        String contextToken = (String) context.getProperty(SMSOTPConstants.OTP_TOKEN);
         AuthenticatedUser authenticatedUser = (AuthenticatedUser) context.getProperty(SMSOTPConstants.AUTHENTICATED_USER);
         if (StringUtils.isEmpty(request.getParameter(SMSOTPConstants.CODE))) {
             throw new InvalidCredentialsException("Code cannot not be null");
@@ -562,9 +1215,9 @@ public class SMSOTPAuthenticator extends AbstractApplicationAuthenticator implem
             }
             throw new InvalidCredentialsException("Retrying to resend the OTP");
         }
-        if (userToken.equals(contextToken)) {
+        if (isValidOTP(context, userToken)) {
             context.setSubject(authenticatedUser);
-        } else if (SMSOTPUtils.getBackupCode(context, getName()).equals("true")) {
+        } else if (SMSOTPConfig.getConfig(context, getName()).isBackupCodeEnabled()) {
             checkWithBackUpCodes(context, userToken, authenticatedUser);
         } else {
             context.setProperty(SMSOTPConstants.CODE_MISMATCH, true);
@@ -716,117 +1369,189 @@ public class SMSOTPAuthenticator extends AbstractApplicationAuthenticator implem
         httpResponse.setDisplayOrder(4);
         configProperties.add(httpResponse);
 
+        Property connectTimeout = new Property();
+        connectTimeout.setName(SMSOTPConstants.CONNECT_TIMEOUT);
+        connectTimeout.setDisplayName("Connect Timeout");
+        connectTimeout.setRequired(false);
+        connectTimeout.setDescription("Enter the time in milliseconds to wait for a connection to the SMS API. " +
+                "Defaults to " + SMSOTPConstants.DEFAULT_CONNECT_TIMEOUT);
+        connectTimeout.setDisplayOrder(5);
+        configProperties.add(connectTimeout);
+
+        Property readTimeout = new Property();
+        readTimeout.setName(SMSOTPConstants.READ_TIMEOUT);
+        readTimeout.setDisplayName("Read Timeout");
+        readTimeout.setRequired(false);
+        readTimeout.setDescription("Enter the time in milliseconds to wait for the response of the SMS API. " +
+                "Defaults to " + SMSOTPConstants.DEFAULT_READ_TIMEOUT);
+        readTimeout.setDisplayOrder(6);
+        configProperties.add(readTimeout);
+
+        Property gatewayWeight = new Property();
+        gatewayWeight.setName(SMSOTPConstants.GATEWAY_WEIGHT);
+        gatewayWeight.setDisplayName("Gateway Weight");
+        gatewayWeight.setRequired(false);
+        gatewayWeight.setDescription("Enter the share of the messages sent through this SMS API when additional " +
+                "gateways are configured. Use 0 to send through this SMS API only when the others fail");
+        gatewayWeight.setDisplayOrder(7);
+        configProperties.add(gatewayWeight);
+
+        Property additionalGateways = new Property();
+        additionalGateways.setName(SMSOTPConstants.ADDITIONAL_GATEWAYS);
+        additionalGateways.setDisplayName("Additional SMS Gateways");
+        additionalGateways.setRequired(false);
+        additionalGateways.setDescription("Enter the other SMS APIs as a JSON array of objects with the keys " +
+                "sms_url, http_method, headers, payload, http_response, gateway_weight, bulk_payload, http_version, " +
+                "response_body and idempotent. The SMS is sent to the next API in the list when an API fails. Set " +
+                "idempotent to true if an API can be sent the same SMS twice, so that server errors and reset " +
+                "connections are retried");
+        additionalGateways.setDisplayOrder(8);
+        configProperties.add(additionalGateways);
+
+        Property bulkPayload = new Property();
+        bulkPayload.setName(SMSOTPConstants.BULK_PAYLOAD);
+        bulkPayload.setDisplayName("Bulk Payload");
+        bulkPayload.setRequired(false);
+        bulkPayload.setDescription("Enter the payload of the bulk SMS API, with $ctx.messages in place of the " +
+                "comma separated payloads of the messages. Used when SMS batching is enabled");
+        bulkPayload.setDisplayOrder(9);
+        configProperties.add(bulkPayload);
+
+        Property httpVersion = new Property();
+        httpVersion.setName(SMSOTPConstants.HTTP_VERSION);
+        httpVersion.setDisplayName("HTTP Version");
+        httpVersion.setRequired(false);
+        httpVersion.setDescription("Enter 2 to send the messages to the SMS API over one multiplexed HTTP/2 " +
+                "connection. Requires Java 11 or later. Defaults to HTTP/1.1");
+        httpVersion.setDisplayOrder(10);
+        configProperties.add(httpVersion);
+
+        Property responseBody = new Property();
+        responseBody.setName(SMSOTPConstants.RESPONSE_BODY);
+        responseBody.setDisplayName("HTTP Response Body");
+        responseBody.setRequired(false);
+        responseBody.setDescription("Enter a regular expression that the response body of the SMS API must " +
+                "contain, or a JSON pointer and the expected value such as /status=success, for SMS APIs that " +
+                "report errors with a success response code");
+        responseBody.setDisplayOrder(11);
+        configProperties.add(responseBody);
+
+        Property idempotent = new Property();
+        idempotent.setName(SMSOTPConstants.IDEMPOTENT);
+        idempotent.setDisplayName("Idempotent Requests");
+        idempotent.setRequired(false);
+        idempotent.setDescription("Enter true if the SMS API sends a repeated request only once, so that a request " +
+                "that failed after it reached the SMS API may be retried");
+        idempotent.setDisplayOrder(12);
+        configProperties.add(idempotent);
+
         return configProperties;
     }
 
     /**
-     * Get the connection and proceed with SMS API's rest call.
+     * Get the HTTP headers of the SMS API's rest call. The header string is parsed once per configuration, and only
+     * the values with placeholders are rendered for each SMS.
      *
-     * @param httpConnection  the connection
-     * @param context         the authenticationContext
      * @param headerString    the header string
-     * @param payload         the payload
-     * @param httpResponse    the http response
      * @param encodedMobileNo the encoded mobileNo
      * @param smsMessage      the sms message
      * @param otpToken        the token
-     * @param httpMethod      the http method
-     * @return true or false
-     * @throws AuthenticationFailedException
+     * @return the headers
      */
-    private boolean getConnection(HttpURLConnection httpConnection, AuthenticationContext context, String headerString,
-                                  String payload, String httpResponse, String encodedMobileNo, String smsMessage,
-                                  String otpToken, String httpMethod) throws AuthenticationFailedException {
-        try {
-            httpConnection.setDoInput(true);
-            httpConnection.setDoOutput(true);
-            String[] headerArray;
-            if (StringUtils.isNotEmpty(headerString)) {
-                if (log.isDebugEnabled()) {
-                    log.debug("Processing HTTP headers since header string is available");
-                }
-                headerString = headerString.trim().replaceAll("\\$ctx.num", encodedMobileNo).replaceAll("\\$ctx.msg",
-                        smsMessage + otpToken);
-                headerArray = headerString.split(",");
-                for (String header : headerArray) {
-                    String[] headerElements = header.split(":");
-                    if (headerElements.length > 1) {
-                        httpConnection.setRequestProperty(headerElements[0], headerElements[1]);
-                    } else {
-                        log.info("Either header name or value not found. Hence not adding header which contains " +
-                                headerElements[0]);
-                    }
-                }
-            } else {
-                if (log.isDebugEnabled()) {
-                    log.debug("No configured headers found. Header string is empty");
-                }
-            }
+    private Map<String, String> getHeaders(String headerString, String encodedMobileNo, String smsMessage,
+                                           String otpToken) {
+        SMSGatewayHeaders headers = SMSGatewayHeaders.parse(headerString);
+        if (log.isDebugEnabled()) {
+            log.debug("Found " + headers.size() + " configured HTTP headers");
+        }
+        return headers.render(encodedMobileNo, smsMessage, otpToken);
+    }
 
-            // Processing HTTP Method
-            if (log.isDebugEnabled()) {
-                log.debug("Configured http method is " + httpMethod);
-            }
+    /**
+     * Get how the values are escaped in the payload of the SMS API's rest call. The values are escaped for JSON when
+     * the configured content type is JSON, and written as they are otherwise.
+     *
+     * @param headerString the header string
+     * @return the encoding
+     */
+    private SMSTemplate.Encoding getPayloadEncoding(String headerString) {
+        return StringUtils.containsIgnoreCase(headerString, "json") ? SMSTemplate.Encoding.JSON :
+                SMSTemplate.Encoding.NONE;
+    }
 
-            if (SMSOTPConstants.GET_METHOD.equalsIgnoreCase(httpMethod)) {
-                httpConnection.setRequestMethod(SMSOTPConstants.GET_METHOD);
+    /**
+     * Check whether the SMS API is configured to be called over HTTP/2.
+     *
+     * @param httpVersion the configured http version
+     * @return true if the http version is 2
+     */
+    private boolean isHttp2(String httpVersion) {
+        return SMSOTPConstants.HTTP_2.equals(StringUtils.trim(httpVersion));
+    }
 
-            } else if (SMSOTPConstants.POST_METHOD.equalsIgnoreCase(httpMethod)) {
-                httpConnection.setRequestMethod(SMSOTPConstants.POST_METHOD);
-                if (StringUtils.isNotEmpty(payload)) {
-                    payload = payload.replaceAll("\\$ctx.num", encodedMobileNo).replaceAll("\\$ctx.msg", smsMessage +
-                            otpToken);
-                }
-                OutputStreamWriter writer = null;
-                try {
-                    writer = new OutputStreamWriter(httpConnection.getOutputStream(), SMSOTPConstants.CHAR_SET);
-                    writer.write(payload);
-                } catch (IOException e) {
-                    throw new AuthenticationFailedException("Error while posting payload message ", e);
-                } finally {
-                    if (writer != null) {
-                        writer.close();
-                    }
-                }
-            }
-            if (StringUtils.isNotEmpty(httpResponse)) {
-                if (httpResponse.trim().equals(String.valueOf(httpConnection.getResponseCode()))) {
-                    if (log.isDebugEnabled()) {
-                        log.debug("Code is successfully sent to the mobile and recieved expected response code : " +
-                                httpResponse);
-                    }
-                    return true;
-                }
-            } else {
-                if (httpConnection.getResponseCode() == 200 || httpConnection.getResponseCode() == 201
-                        || httpConnection.getResponseCode() == 202) {
-                    if (log.isDebugEnabled()) {
-                        log.debug("Code is successfully sent to the mobile. Relieved HTTP response code is : " +
-                                httpConnection.getResponseCode());
-                    }
-                    return true;
-                } else {
-                    context.setProperty(SMSOTPConstants.ERROR_CODE, httpConnection.getResponseCode() + " : " +
-                            httpConnection.getResponseMessage());
-                    log.error("Error while sending SMS: error code is " + httpConnection.getResponseCode()
-                            + " and error message is " + httpConnection.getResponseMessage());
-                    return false;
+    /**
+     * Check whether the SMS API accepted the message.
+     *
+     * @param gatewayResponse the response of the SMS API
+     * @param httpResponse    the expected http response
+     * @return true or false
+     */
+    private boolean isSent(SMSGatewayResponse gatewayResponse, String httpResponse) {
+        if (!isExpectedStatus(gatewayResponse, httpResponse)) {
+            return false;
+        }
+        if (!gatewayResponse.isBodyMatched()) {
+            log.error("Error while sending SMS: response body does not match the expected response body though " +
+                    "the response code is " + gatewayResponse.getStatusCode());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Check whether the SMS API responded with the expected response code.
+     *
+     * @param gatewayResponse the response of the SMS API
+     * @param httpResponse    the expected http response
+     * @return true or false
+     */
+    private boolean isExpectedStatus(SMSGatewayResponse gatewayResponse, String httpResponse) {
+        int responseCode = gatewayResponse.getStatusCode();
+        if (StringUtils.isNotEmpty(httpResponse)) {
+            if (httpResponse.trim().equals(String.valueOf(responseCode))) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Code is successfully sent to the mobile and recieved expected response code : " +
+                            httpResponse);
                 }
+                return true;
             }
-        } catch (MalformedURLException e) {
-            throw new AuthenticationFailedException("Invalid URL ", e);
-        } catch (ProtocolException e) {
-            throw new AuthenticationFailedException("Error while setting the HTTP method ", e);
-        } catch (IOException e) {
-            throw new AuthenticationFailedException("Error while setting the HTTP response ", e);
-        } finally {
-            if (httpConnection != null) {
-                httpConnection.disconnect();
+        } else if (responseCode == 200 || responseCode == 201 || responseCode == 202) {
+            if (log.isDebugEnabled()) {
+                log.debug("Code is successfully sent to the mobile. Relieved HTTP response code is : " +
+                        responseCode);
             }
+            return true;
         }
         return false;
     }
 
+    /**
+     * Get the error code of a message that the SMS API did not accept.
+     *
+     * @param gatewayResponse the response of the SMS API
+     * @param httpResponse    the expected http response
+     * @return the error code, or null if the SMS API did not respond with the expected response code or the response
+     * body did not match
+     */
+    private String getErrorCode(SMSGatewayResponse gatewayResponse, String httpResponse) {
+        if (StringUtils.isNotEmpty(httpResponse) || isExpectedStatus(gatewayResponse, httpResponse)) {
+            return null;
+        }
+        log.error("Error while sending SMS: error code is " + gatewayResponse.getStatusCode()
+                + " and error message is " + gatewayResponse.getReasonPhrase());
+        return gatewayResponse.getStatusCode() + " : " + gatewayResponse.getReasonPhrase();
+    }
+
     /**
      * Proceed with SMS API's rest call.
      *
@@ -845,28 +1570,160 @@ public class SMSOTPAuthenticator extends AbstractApplicationAuthenticator implem
     public boolean sendRESTCall(AuthenticationContext context, String smsUrl, String httpMethod,
                                 String headerString, String payload, String httpResponse, String mobile,
                                 String otpToken) throws IOException, AuthenticationFailedException {
+        SMSGatewayResponse gatewayResponse;
+        try {
+            Map<String, String> authenticatorProperties = context.getAuthenticatorProperties();
+            SMSGateway gateway = new SMSGateway(smsUrl, httpMethod, headerString, payload, httpResponse,
+                    SMSOTPConstants.DEFAULT_GATEWAY_WEIGHT, null, authenticatorProperties != null &&
+                    isHttp2(authenticatorProperties.get(SMSOTPConstants.HTTP_VERSION)),
+                    authenticatorProperties != null ? authenticatorProperties.get(SMSOTPConstants.RESPONSE_BODY) :
+                            null, authenticatorProperties != null &&
+                    Boolean.parseBoolean(authenticatorProperties.get(SMSOTPConstants.IDEMPOTENT)));
+            gatewayResponse = sendSMS(authenticatorProperties, gateway, mobile, otpToken, 0);
+        } catch (SMSGatewayUnavailableException e) {
+            log.error("Error while sending SMS: " + e.getMessage());
+            return false;
+        }
+        if (isSent(gatewayResponse, httpResponse)) {
+            return true;
+        }
+        String errorCode = getErrorCode(gatewayResponse, httpResponse);
+        if (errorCode != null) {
+            context.setProperty(SMSOTPConstants.ERROR_CODE, errorCode);
+        }
+        return false;
+    }
+
+    /**
+     * Send the message to the SMS API.
+     *
+     * @param authenticatorProperties the authenticator properties
+     * @param gateway                 the gateway
+     * @param mobile                  the mobile number
+     * @param otpToken                the OTP token
+     * @param retryDeadline           the time in milliseconds after which no retry is started, 0 for no retries
+     * @return the response of the SMS API
+     * @throws SMSGatewayUnavailableException if the circuit of the SMS API is open
+     * @throws IOException
+     * @throws AuthenticationFailedException
+     */
+    private SMSGatewayResponse sendSMS(Map<String, String> authenticatorProperties, SMSGateway gateway,
+                                       String mobile, String otpToken, long retryDeadline)
+            throws IOException, AuthenticationFailedException {
         if (log.isDebugEnabled()) {
             log.debug("Preparing message for sending out");
         }
-        HttpURLConnection httpConnection;
-        boolean connection;
+        String smsUrl = gateway.getSmsUrl();
+        String httpMethod = gateway.getHttpMethod();
+        String headerString = gateway.getHeaders();
+        String payload = gateway.getPayload();
         String smsMessage = SMSOTPConstants.SMS_MESSAGE;
         URLEncoder encoder = new URLEncoder();
         String encodedMobileNo = encoder.encode(mobile);
-        smsUrl = smsUrl.replaceAll("\\$ctx.num", encodedMobileNo).replaceAll("\\$ctx.msg",
-                smsMessage.replaceAll("\\s", "+") + otpToken);
+        smsUrl = SMSTemplate.compile(smsUrl).render(encodedMobileNo, smsMessage, otpToken,
+                SMSTemplate.Encoding.URL);
         URL smsProviderUrl = new URL(smsUrl);
-        String subUrl = smsProviderUrl.getProtocol();
-        if (subUrl.equals(SMSOTPConstants.HTTPS)) {
-            httpConnection = (HttpsURLConnection) smsProviderUrl.openConnection();
-            connection = getConnection(httpConnection, context, headerString, payload, httpResponse, encodedMobileNo,
-                    smsMessage, otpToken, httpMethod);
-        } else {
-            httpConnection = (HttpURLConnection) smsProviderUrl.openConnection();
-            connection = getConnection(httpConnection, context, headerString, payload, httpResponse, encodedMobileNo,
-                    smsMessage, otpToken, httpMethod);
+        Map<String, String> headers = getHeaders(headerString, encodedMobileNo, smsMessage, otpToken);
+
+        // Processing HTTP Method
+        if (log.isDebugEnabled()) {
+            log.debug("Configured http method is " + httpMethod);
+        }
+        if (SMSOTPConstants.POST_METHOD.equalsIgnoreCase(httpMethod) && StringUtils.isNotEmpty(payload)) {
+            payload = SMSTemplate.compile(payload).render(encodedMobileNo, smsMessage, otpToken,
+                    getPayloadEncoding(headerString));
+        }
+        SMSGatewayRequest gatewayRequest = new SMSGatewayRequest(httpMethod, smsUrl, headers, payload);
+        gatewayRequest.setConnectTimeout(getTimeout(authenticatorProperties, SMSOTPConstants.CONNECT_TIMEOUT,
+                SMSOTPConstants.DEFAULT_CONNECT_TIMEOUT));
+        gatewayRequest.setReadTimeout(getTimeout(authenticatorProperties, SMSOTPConstants.READ_TIMEOUT,
+                SMSOTPConstants.DEFAULT_READ_TIMEOUT));
+        setResponseMatcher(gatewayRequest, gateway);
+        gatewayRequest.setIdempotent(gateway.isIdempotent());
+        try {
+            SMSGatewayClient client = SMSGatewayClientManager.getInstance().getClient(smsProviderUrl,
+                    gateway.isHttp2());
+            SMSRetrier retrier = SMSRetrier.getInstance();
+            if (retrier != null && retryDeadline > 0) {
+                return retrier.send(client, gatewayRequest, retryDeadline);
+            }
+            return client.send(gatewayRequest);
+        } catch (SMSGatewayUnavailableException e) {
+            throw e;
+        } catch (MalformedURLException e) {
+            throw new AuthenticationFailedException("Invalid URL ", e);
+        } catch (IOException e) {
+            throw new AuthenticationFailedException("Error while sending the SMS ", e);
+        }
+    }
+
+    /**
+     * Check the response body of the SMS API's rest call, if the gateway is configured with a response body.
+     *
+     * @param gatewayRequest the request to the SMS API
+     * @param gateway        the gateway
+     */
+    private void setResponseMatcher(SMSGatewayRequest gatewayRequest, SMSGateway gateway) {
+        SMSResponseMatcher responseMatcher = SMSResponseMatcher.compile(gateway.getResponseBody());
+        if (responseMatcher != null) {
+            int maxResponseBodySize = SMSOTPUtils.getIntParameter(SMSOTPUtils.getSMSParameters(),
+                    SMSOTPConstants.SMS_RESPONSE_BODY_MAX_SIZE, SMSOTPConstants.DEFAULT_SMS_RESPONSE_BODY_MAX_SIZE);
+            gatewayRequest.setResponseMatcher(responseMatcher, maxResponseBodySize > 0 ? maxResponseBodySize :
+                    SMSOTPConstants.DEFAULT_SMS_RESPONSE_BODY_MAX_SIZE);
+        }
+    }
+
+    /**
+     * Get the time until which a failed SMS may be retried. The retries stop within the maximum retry duration, and
+     * in the totp mode before the code is no longer accepted.
+     *
+     * @param context the AuthenticationContext
+     * @return the time in milliseconds after which no retry is started, or 0 if retries are not enabled
+     * @throws AuthenticationFailedException
+     */
+    private long getRetryDeadline(AuthenticationContext context) throws AuthenticationFailedException {
+        SMSRetrier retrier = SMSRetrier.getInstance();
+        if (retrier == null) {
+            return 0;
+        }
+        long now = System.currentTimeMillis();
+        return Math.min(now + retrier.getMaxDuration(), getOTPExpiry(SMSOTPConfig.getConfig(context, getName()),
+                now));
+    }
+
+    /**
+     * Get the time until which a code issued at the given time is accepted. In the totp mode the code is no longer
+     * accepted after the verification window, otherwise it is accepted as long as the authentication context exists.
+     *
+     * @param config the SMS OTP configuration of the flow
+     * @param now    the time in milliseconds at which the code is issued
+     * @return the time in milliseconds after which the code is no longer accepted, or Long.MAX_VALUE if the code
+     * does not expire
+     */
+    private long getOTPExpiry(SMSOTPConfig config, long now) {
+        if (!SMSOTPConstants.TOTP_MODE.equalsIgnoreCase(config.getOTPGenerationMode())) {
+            return Long.MAX_VALUE;
         }
-        return connection;
+        long timeStep = config.getTOTPTimeStep() * 1000L;
+        if (timeStep <= 0) {
+            timeStep = SMSOTPConstants.DEFAULT_TOTP_TIME_STEP * 1000L;
+        }
+        int window = Math.max(config.getTOTPWindow(), 0);
+        return now + timeStep - now % timeStep + window * timeStep;
+    }
+
+    /**
+     * Get a timeout of the SMS API's rest call from the authenticator properties.
+     *
+     * @param authenticatorProperties the authenticator properties
+     * @param name                    the name of the timeout property
+     * @param defaultValue            the timeout to use when the property is not configured
+     * @return the timeout in milliseconds
+     */
+    private int getTimeout(Map<String, String> authenticatorProperties, String name, int defaultValue) {
+        int timeout = authenticatorProperties != null ?
+                SMSOTPUtils.getIntParameter(authenticatorProperties, name, defaultValue) : defaultValue;
+        return timeout >= 0 ? timeout : defaultValue;
     }
 
     /**
@@ -886,17 +1743,16 @@ public class SMSOTPAuthenticator extends AbstractApplicationAuthenticator implem
         int noOfDigits = 0;
         int screenAttributeLength = 0;
         String hiddenScreenValue;
-        screenUserAttributeParam = SMSOTPUtils.getScreenUserAttribute(context, getName());
+        SMSOTPConfig config = SMSOTPConfig.getConfig(context, getName());
+        screenUserAttributeParam = config.getScreenUserAttribute();
         if (screenUserAttributeParam != null) {
-            screenUserAttributeValue = userRealm.getUserStoreManager()
-                    .getUserClaimValue(username, screenUserAttributeParam, null);
+            screenUserAttributeValue = SMSOTPUserClaims.getClaimValue(context, getName(), userRealm, null, username,
+                    screenUserAttributeParam);
             screenAttributeLength = screenUserAttributeValue.length();
         }
-        if ((SMSOTPUtils.getNoOfDigits(context, getName())) != null) {
-            noOfDigits = Integer.parseInt(SMSOTPUtils.getNoOfDigits(context, getName()));
-        }
+        noOfDigits = config.getNoOfDigits();
         if (screenUserAttributeValue != null) {
-            if (SMSOTPConstants.BACKWARD.equals(SMSOTPUtils.getDigitsOrder(context, getName()))) {
+            if (SMSOTPConstants.BACKWARD.equals(config.getDigitsOrder())) {
                 screenValue = screenUserAttributeValue.substring(screenAttributeLength - noOfDigits,
                         screenAttributeLength);
                 hiddenScreenValue = screenUserAttributeValue.substring(0, screenAttributeLength - noOfDigits);
@@ -0,0 +1,186 @@
+/*
+ *  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.carbon.identity.authenticator.smsotp;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.identity.application.authentication.framework.context.AuthenticationContext;
+import org.wso2.carbon.identity.application.authentication.framework.exception.AuthenticationFailedException;
+
+import java.io.Serializable;
+
+/**
+ * Immutable snapshot of the SMS OTP configuration of an authentication flow. The configuration is read once, when
+ * the flow first needs it, and kept in the authentication context, so that the later steps of the flow do not look
+ * up and parse each value again. Changes to the configuration apply to the flows started after the change. The OTP
+ * secret key is not part of the snapshot, since the authentication context may be persisted.
+ */
+public class SMSOTPConfig implements Serializable {
+
+    private static final long serialVersionUID = 3921758374956254011L;
+
+    private static Log log = LogFactory.getLog(SMSOTPConfig.class);
+
+    private final boolean isSMSOTPMandatory;
+    private final boolean isSendOTPDirectlyToMobile;
+    private final boolean isSMSOTPEnableOrDisableByUser;
+    private final boolean isEnableMobileNoUpdate;
+    private final boolean isEnableResendCode;
+    private final boolean isAsyncSMSDispatch;
+    private final boolean isRetryEnabled;
+    private final boolean isBackupCodeEnabled;
+    private final String errorPage;
+    private final String loginPage;
+    private final String mobileNumberRequestPage;
+    private final String screenUserAttribute;
+    private final int noOfDigits;
+    private final String digitsOrder;
+    private final String otpGenerationMode;
+    private final int totpTimeStep;
+    private final int totpWindow;
+
+    private SMSOTPConfig(AuthenticationContext context, String authenticatorName)
+            throws AuthenticationFailedException {
+        isSMSOTPMandatory = SMSOTPUtils.isSMSOTPMandatory(context, authenticatorName);
+        isSendOTPDirectlyToMobile = SMSOTPUtils.isSendOTPDirectlyToMobile(context, authenticatorName);
+        isSMSOTPEnableOrDisableByUser = SMSOTPUtils.isSMSOTPEnableOrDisableByUser(context, authenticatorName);
+        isEnableMobileNoUpdate = SMSOTPUtils.isEnableMobileNoUpdate(context, authenticatorName);
+        isEnableResendCode = SMSOTPUtils.isEnableResendCode(context, authenticatorName);
+        isAsyncSMSDispatch = SMSOTPUtils.isAsyncSMSDispatch(context, authenticatorName);
+        isRetryEnabled = SMSOTPUtils.isRetryEnabled(context, authenticatorName);
+        isBackupCodeEnabled = Boolean.parseBoolean(SMSOTPUtils.getBackupCode(context, authenticatorName));
+        errorPage = SMSOTPUtils.getErrorPageFromXMLFile(context, authenticatorName);
+        loginPage = SMSOTPUtils.getLoginPageFromXMLFile(context, authenticatorName);
+        mobileNumberRequestPage = SMSOTPUtils.getMobileNumberRequestPage(context, authenticatorName);
+        screenUserAttribute = SMSOTPUtils.getScreenUserAttribute(context, authenticatorName);
+        noOfDigits = parseNoOfDigits(SMSOTPUtils.getNoOfDigits(context, authenticatorName));
+        digitsOrder = SMSOTPUtils.getDigitsOrder(context, authenticatorName);
+        otpGenerationMode = SMSOTPUtils.getOTPGenerationMode(context, authenticatorName);
+        totpTimeStep = SMSOTPUtils.getTOTPTimeStep(context, authenticatorName);
+        totpWindow = SMSOTPUtils.getTOTPWindow(context, authenticatorName);
+    }
+
+    /**
+     * Get the configuration of an authentication flow, reading it if the flow has none yet.
+     *
+     * @param context           the AuthenticationContext
+     * @param authenticatorName the name of the authenticator
+     * @return the configuration
+     * @throws AuthenticationFailedException
+     */
+    public static SMSOTPConfig getConfig(AuthenticationContext context, String authenticatorName)
+            throws AuthenticationFailedException {
+        Object config = context.getProperty(SMSOTPConstants.SMSOTP_CONFIG);
+        if (config instanceof SMSOTPConfig) {
+            return (SMSOTPConfig) config;
+        }
+        SMSOTPConfig newConfig = new SMSOTPConfig(context, authenticatorName);
+        context.setProperty(SMSOTPConstants.SMSOTP_CONFIG, newConfig);
+        if (log.isDebugEnabled()) {
+            log.debug("Read the SMS OTP configuration of the tenant " + context.getTenantDomain() +
+                    " for the context " + context.getContextIdentifier());
+        }
+        return newConfig;
+    }
+
+    public boolean isSMSOTPMandatory() {
+        return isSMSOTPMandatory;
+    }
+
+    public boolean isSendOTPDirectlyToMobile() {
+        return isSendOTPDirectlyToMobile;
+    }
+
+    public boolean isSMSOTPEnableOrDisableByUser() {
+        return isSMSOTPEnableOrDisableByUser;
+    }
+
+    public boolean isEnableMobileNoUpdate() {
+        return isEnableMobileNoUpdate;
+    }
+
+    public boolean isEnableResendCode() {
+        return isEnableResendCode;
+    }
+
+    public boolean isAsyncSMSDispatch() {
+        return isAsyncSMSDispatch;
+    }
+
+    public boolean isRetryEnabled() {
+        return isRetryEnabled;
+    }
+
+    public boolean isBackupCodeEnabled() {
+        return isBackupCodeEnabled;
+    }
+
+    public String getErrorPage() {
+        return errorPage;
+    }
+
+    public String getLoginPage() {
+        return loginPage;
+    }
+
+    public String getMobileNumberRequestPage() {
+        return mobileNumberRequestPage;
+    }
+
+    public String getScreenUserAttribute() {
+        return screenUserAttribute;
+    }
+
+    /**
+     * @return the number of digits of the screen user attribute to show, 0 if not configured
+     */
+    public int getNoOfDigits() {
+        return noOfDigits;
+    }
+
+    public String getDigitsOrder() {
+        return digitsOrder;
+    }
+
+    public String getOTPGenerationMode() {
+        return otpGenerationMode;
+    }
+
+    public int getTOTPTimeStep() {
+        return totpTimeStep;
+    }
+
+    public int getTOTPWindow() {
+        return totpWindow;
+    }
+
+    private static int parseNoOfDigits(String noOfDigits) {
+        if (StringUtils.isBlank(noOfDigits)) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(noOfDigits.trim());
+        } catch (NumberFormatException e) {
+            log.warn("Invalid value " + noOfDigits + " for the parameter " + SMSOTPConstants.NO_DIGITS +
+                    ". Hence showing no digits");
+            return 0;
+        }
+    }
+}
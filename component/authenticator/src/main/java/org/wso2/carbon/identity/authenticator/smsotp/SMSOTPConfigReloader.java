@@ -0,0 +1,343 @@
+/*
+ *  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.carbon.identity.authenticator.smsotp;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.wso2.carbon.identity.authenticator.smsotp.exception.SMSOTPException;
+import org.xml.sax.SAXException;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+/**
+ * Reloads the SMS OTP parameters of application-authentication.xml when the file changes, so that they can be
+ * tuned without a restart. The file is checked periodically, and a changed file is parsed and validated before its
+ * parameters replace the current ones with a single volatile write, hence the readers take no lock. The flows in
+ * progress keep the configuration they have read. The components that read the parameters only when they are
+ * created are recreated if they hold no in-flight work, the others apply the new parameters after a restart. The
+ * OTP secret key is never reloaded, since the codes derived from the current key could no longer be verified.
+ */
+public class SMSOTPConfigReloader {
+
+    private static Log log = LogFactory.getLog(SMSOTPConfigReloader.class);
+    private static volatile SMSOTPConfigReloader instance;
+    // Parameters that the flows in progress read when they verify the code, hence only applied after a restart.
+    private static final Set<String> RESTART_ONLY_PARAMETERS =
+            Collections.singleton(SMSOTPConstants.OTP_SECRET_KEY);
+
+    private final File file;
+    private final ScheduledExecutorService watcher;
+    private final Map<String, String> initialParameters;
+    private volatile Map<String, String> reloadedParameters;
+    private long lastModified;
+    private long length;
+
+    /**
+     * Create a reloader.
+     *
+     * @param file       the application-authentication.xml file
+     * @param parameters the parameters read when the server started
+     */
+    public SMSOTPConfigReloader(File file, Map<String, String> parameters) {
+        this.file = file;
+        this.initialParameters = parameters != null ? parameters : Collections.<String, String>emptyMap();
+        this.lastModified = file.lastModified();
+        this.length = file.length();
+        this.watcher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "SMSOTP-Config-Reloader");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Get the reloader configured in application-authentication.xml, starting it if it is not started yet.
+     *
+     * @return the reloader or null if reloading is not enabled
+     */
+    public static SMSOTPConfigReloader getInstance() {
+        if (instance == null) {
+            Map<String, String> parameters = SMSOTPUtils.getSMSParameters();
+            if (parameters == null || !Boolean.parseBoolean(parameters.get(SMSOTPConstants.IS_ENABLED_CONFIG_RELOAD))) {
+                return null;
+            }
+            synchronized (SMSOTPConfigReloader.class) {
+                if (instance == null) {
+                    String path = parameters.get(SMSOTPConstants.CONFIG_RELOAD_FILE);
+                    if (StringUtils.isBlank(path)) {
+                        path = SMSOTPConstants.DEFAULT_CONFIG_RELOAD_FILE;
+                    }
+                    File file = new File(path.trim());
+                    if (!file.isAbsolute()) {
+                        file = new File(System.getProperty("carbon.home", "."), path.trim());
+                    }
+                    int interval = SMSOTPUtils.getIntParameter(parameters, SMSOTPConstants.CONFIG_RELOAD_INTERVAL,
+                            SMSOTPConstants.DEFAULT_CONFIG_RELOAD_INTERVAL);
+                    if (log.isDebugEnabled()) {
+                        log.debug("Checking " + file + " for changes every " + interval + "s");
+                    }
+                    SMSOTPConfigReloader reloader = new SMSOTPConfigReloader(file, parameters);
+                    reloader.start(interval);
+                    instance = reloader;
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Stop the configured reloader, if any. The parameters read when the server started are used again.
+     */
+    public static void shutdownInstance() {
+        synchronized (SMSOTPConfigReloader.class) {
+            if (instance != null) {
+                instance.shutdown();
+                instance = null;
+            }
+        }
+    }
+
+    /**
+     * Get the parameters of the configured reloader.
+     *
+     * @return the parameters, or null if reloading is not enabled or the file has not been reloaded
+     */
+    public static Map<String, String> getReloadedParameters() {
+        SMSOTPConfigReloader reloader = instance;
+        return reloader != null ? reloader.reloadedParameters : null;
+    }
+
+    /**
+     * @return the current parameters
+     */
+    public Map<String, String> getParameters() {
+        Map<String, String> parameters = reloadedParameters;
+        return parameters != null ? parameters : initialParameters;
+    }
+
+    /**
+     * Start checking the file for changes.
+     *
+     * @param interval the time in seconds between the checks
+     */
+    public void start(int interval) {
+        long delay = Math.max(interval, 1);
+        watcher.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    reload();
+                } catch (Throwable e) {
+                    log.error("Error while reloading the SMS OTP parameters from " + file, e);
+                }
+            }
+        }, delay, delay, TimeUnit.SECONDS);
+    }
+
+    public void shutdown() {
+        watcher.shutdownNow();
+    }
+
+    /**
+     * Reload the parameters if the file has changed since it was last read.
+     *
+     * @return true if new parameters are in use
+     */
+    public synchronized boolean reload() {
+        long modified = file.lastModified();
+        long size = file.length();
+        if (modified == lastModified && size == length) {
+            return false;
+        }
+        lastModified = modified;
+        length = size;
+        Map<String, String> current = getParameters();
+        Map<String, String> parameters;
+        try (InputStream in = new FileInputStream(file)) {
+            parameters = parse(in);
+            validate(current, parameters);
+            parameters = keepRestartOnlyParameters(current, parameters);
+        } catch (IOException | SMSOTPException e) {
+            log.error("Keeping the current SMS OTP parameters since " + file + " cannot be reloaded : " +
+                    e.getMessage());
+            return false;
+        }
+        Set<String> changed = getChangedParameters(current, parameters);
+        if (changed.isEmpty()) {
+            return false;
+        }
+        reloadedParameters = parameters;
+        log.info("Reloaded the SMS OTP parameters from " + file + ". Changed parameters : " + changed);
+        onReload(changed);
+        return true;
+    }
+
+    /**
+     * Read the parameters of the SMS OTP authenticator from application-authentication.xml.
+     *
+     * @param in the content of the file
+     * @return the parameters
+     * @throws SMSOTPException if the file is not valid or has no SMS OTP authenticator
+     */
+    public static Map<String, String> parse(InputStream in) throws SMSOTPException {
+        Document document;
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            factory.setExpandEntityReferences(false);
+            DocumentBuilder builder = factory.newDocumentBuilder();
+            document = builder.parse(in);
+        } catch (ParserConfigurationException | SAXException | IOException e) {
+            throw new SMSOTPException("Invalid authenticator configuration : " + e.getMessage(), e);
+        }
+        NodeList authenticators = document.getElementsByTagNameNS("*", "AuthenticatorConfig");
+        for (int i = 0; i < authenticators.getLength(); i++) {
+            Element authenticator = (Element) authenticators.item(i);
+            if (!SMSOTPConstants.AUTHENTICATOR_NAME.equals(authenticator.getAttribute("name"))) {
+                continue;
+            }
+            Map<String, String> parameters = new HashMap<>();
+            NodeList parameterElements = authenticator.getElementsByTagNameNS("*", "Parameter");
+            for (int j = 0; j < parameterElements.getLength(); j++) {
+                Element parameter = (Element) parameterElements.item(j);
+                parameters.put(parameter.getAttribute("name"), parameter.getTextContent());
+            }
+            return Collections.unmodifiableMap(parameters);
+        }
+        throw new SMSOTPException("No " + SMSOTPConstants.AUTHENTICATOR_NAME + " authenticator is configured");
+    }
+
+    /**
+     * Check that a number is not changed to a value that is not a number, which would silently fall back to the
+     * default value of the parameter.
+     */
+    private static void validate(Map<String, String> current, Map<String, String> parameters)
+            throws SMSOTPException {
+        for (Map.Entry<String, String> parameter : parameters.entrySet()) {
+            String currentValue = current.get(parameter.getKey());
+            String value = parameter.getValue();
+            if (isNumber(currentValue) && StringUtils.isNotBlank(value) && !isNumber(value)) {
+                throw new SMSOTPException("Invalid value " + value + " for the parameter " + parameter.getKey());
+            }
+        }
+    }
+
+    /**
+     * Keep the current value of the parameters that are only applied after a restart.
+     */
+    private static Map<String, String> keepRestartOnlyParameters(Map<String, String> current,
+                                                                 Map<String, String> parameters) {
+        Map<String, String> kept = null;
+        for (String name : RESTART_ONLY_PARAMETERS) {
+            if (StringUtils.equals(current.get(name), parameters.get(name))) {
+                continue;
+            }
+            if (kept == null) {
+                kept = new HashMap<>(parameters);
+            }
+            if (current.containsKey(name)) {
+                kept.put(name, current.get(name));
+            } else {
+                kept.remove(name);
+            }
+            log.warn("The SMS OTP parameter " + name + " is changed, which is only applied after a restart");
+        }
+        return kept != null ? Collections.unmodifiableMap(kept) : parameters;
+    }
+
+    private static boolean isNumber(String value) {
+        if (StringUtils.isBlank(value)) {
+            return false;
+        }
+        try {
+            Long.parseLong(value.trim());
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static Set<String> getChangedParameters(Map<String, String> current, Map<String, String> parameters) {
+        Set<String> changed = new TreeSet<>();
+        for (Map.Entry<String, String> parameter : parameters.entrySet()) {
+            if (!StringUtils.equals(parameter.getValue(), current.get(parameter.getKey()))) {
+                changed.add(parameter.getKey());
+            }
+        }
+        for (String name : current.keySet()) {
+            if (!parameters.containsKey(name)) {
+                changed.add(name);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Recreate the components that read the parameters when they are created and hold no in-flight work, if their
+     * parameters changed. The SMS throttle is only recreated when its own parameters change, since recreating it
+     * resets the throttled numbers and users.
+     *
+     * @param changed the names of the changed parameters
+     */
+    private void onReload(Set<String> changed) {
+        if (isChanged(changed, SMSOTPConstants.SMS_THROTTLE_PREFIX)) {
+            SMSRateLimiter.shutdownInstance();
+        }
+        if (isChanged(changed, SMSOTPConstants.TENANT_CONFIG_CACHE_PREFIX)) {
+            TenantConfigCache.shutdownInstance();
+        }
+        if (isChanged(changed, SMSOTPConstants.USER_CLAIM_CACHE_PREFIX)) {
+            UserClaimCache.shutdownInstance();
+        }
+    }
+
+    private static boolean isChanged(Set<String> changed, String prefix) {
+        for (String name : changed) {
+            if (name.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
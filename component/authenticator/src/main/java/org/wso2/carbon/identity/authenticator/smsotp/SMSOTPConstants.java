@@ -39,7 +39,20 @@ public class SMSOTPConstants {
     public static final String HTTP_METHOD = "http_method";
     public static final String HEADERS = "headers";
     public static final String PAYLOAD = "payload";
+    public static final String BULK_PAYLOAD = "bulk_payload";
+    public static final String BULK_PAYLOAD_MESSAGES = "$ctx.messages";
     public static final String HTTP_RESPONSE = "http_response";
+    public static final String HTTP_VERSION = "http_version";
+    public static final String HTTP_2 = "2";
+    public static final String RESPONSE_BODY = "response_body";
+    public static final String IDEMPOTENT = "idempotent";
+    public static final String CONNECT_TIMEOUT = "connect_timeout";
+    public static final String READ_TIMEOUT = "read_timeout";
+    public static final int DEFAULT_CONNECT_TIMEOUT = 5000;
+    public static final int DEFAULT_READ_TIMEOUT = 10000;
+    public static final String GATEWAY_WEIGHT = "gateway_weight";
+    public static final String ADDITIONAL_GATEWAYS = "additional_gateways";
+    public static final int DEFAULT_GATEWAY_WEIGHT = 1;
     public static final String SMS_MESSAGE = "Verification Code: ";
     public static final String BACKUP_CODE = "BackupCode";
     public static final String IS_ENABLED_RETRY = "RetryEnable";
@@ -80,6 +93,7 @@ public class SMSOTPConstants {
     public static final String ERROR_SMSOTP_DISABLE = "&authFailure=true&authFailureMsg=smsotp.disable";
     public static final String SEND_OTP_DIRECTLY_DISABLE = "&authFailure=true&authFailureMsg=directly.send.otp.disable";
     public static final String ERROR_CODE_MISMATCH = "&authFailure=true&authFailureMsg=code.mismatch";
+    public static final String ERROR_SMS_THROTTLED = "&authFailure=true&authFailureMsg=sms.throttled";
     public static final String ERROR_CODE = "errorCode";
     public static final String SCREEN_USER_ATTRIBUTE = "screenUserAttribute";
     public static final String NO_DIGITS = "noOfDigits";
@@ -88,4 +102,125 @@ public class SMSOTPConstants {
     public static final String SCREEN_VALUE = "&screenvalue=";
     public static final String CODE_MISMATCH = "codeMismatch";
     public static final String ORDER_OF_DIGITS = "&order=";
+
+    public static final String OTP_GENERATION_MODE = "OTPGenerationMode";
+    public static final String OTP_SECRET_KEY = "OTPSecretKey";
+    public static final String RANDOM_OTP_MODE = "random";
+    public static final String HMAC_OTP_MODE = "hmac";
+    public static final String TOTP_MODE = "totp";
+    public static final String TOTP_TIME_STEP = "TOTPTimeStep";
+    public static final String TOTP_WINDOW = "TOTPWindow";
+    public static final int DEFAULT_TOTP_TIME_STEP = 30;
+    public static final int DEFAULT_TOTP_WINDOW = 1;
+    public static final String OTP_ISSUED_TIME = "otpIssuedTime";
+
+    public static final String IS_ENABLED_OTP_POOL = "OTPPoolEnable";
+    public static final String OTP_POOL_SIZE = "OTPPoolSize";
+    public static final String OTP_POOL_LOW_WATERMARK = "OTPPoolLowWatermark";
+    public static final String OTP_POOL_REFILL_THREADS = "OTPPoolRefillThreads";
+    public static final int DEFAULT_OTP_POOL_SIZE = 1000;
+    public static final int DEFAULT_OTP_POOL_REFILL_THREADS = 1;
+
+    public static final String SMS_GATEWAY_MAX_CONNECTIONS_PER_ROUTE = "SMSGatewayMaxConnectionsPerRoute";
+    public static final String SMS_GATEWAY_IDLE_CONNECTION_TIMEOUT = "SMSGatewayIdleConnectionTimeout";
+    public static final int DEFAULT_SMS_GATEWAY_MAX_CONNECTIONS_PER_ROUTE = 20;
+    public static final int DEFAULT_SMS_GATEWAY_IDLE_CONNECTION_TIMEOUT = 30;
+    public static final String CIRCUIT_BREAKER_FAILURE_THRESHOLD = "CircuitBreakerFailureThreshold";
+    public static final String CIRCUIT_BREAKER_WINDOW = "CircuitBreakerWindow";
+    public static final String CIRCUIT_BREAKER_OPEN_DURATION = "CircuitBreakerOpenDuration";
+    public static final int DEFAULT_CIRCUIT_BREAKER_FAILURE_THRESHOLD = 5;
+    public static final int DEFAULT_CIRCUIT_BREAKER_WINDOW = 60;
+    public static final int DEFAULT_CIRCUIT_BREAKER_OPEN_DURATION = 30;
+
+    public static final String IS_ENABLED_ASYNC_SMS_DISPATCH = "AsyncSMSDispatch";
+    public static final String SMS_DISPATCH_THREADS = "SMSDispatchThreads";
+    public static final String SMS_DISPATCH_QUEUE_SIZE = "SMSDispatchQueueSize";
+    public static final int DEFAULT_SMS_DISPATCH_THREADS = 10;
+    public static final int DEFAULT_SMS_DISPATCH_QUEUE_SIZE = 1000;
+    public static final String SMS_DISPATCH_STATUS = "smsDispatchStatus";
+    public static final String SMSOTP_CONFIG = "smsotpConfig";
+    public static final String SMSOTP_USER_CLAIMS = "smsotpUserClaims";
+
+    public static final String IS_ENABLED_SMS_HEDGING = "SMSHedgingEnable";
+    public static final String SMS_HEDGE_DELAY = "SMSHedgeDelay";
+    public static final String SMS_HEDGE_MAX_PERCENTAGE = "SMSHedgeMaxPercentage";
+    public static final String SMS_HEDGING_THREADS = "SMSHedgingThreads";
+    public static final int DEFAULT_SMS_HEDGE_MAX_PERCENTAGE = 5;
+    public static final int DEFAULT_SMS_HEDGING_THREADS = 20;
+
+    public static final String IS_ENABLED_SMS_BATCHING = "SMSBatchingEnable";
+    public static final String SMS_BATCH_MAX_SIZE = "SMSBatchMaxSize";
+    public static final String SMS_BATCH_MAX_DELAY = "SMSBatchMaxDelay";
+    public static final String SMS_BATCH_THREADS = "SMSBatchThreads";
+    public static final int DEFAULT_SMS_BATCH_MAX_SIZE = 50;
+    public static final int DEFAULT_SMS_BATCH_MAX_DELAY = 100;
+    public static final int DEFAULT_SMS_BATCH_THREADS = 4;
+
+    public static final String IS_ENABLED_SMS_JOURNAL = "SMSJournalEnable";
+    public static final String SMS_JOURNAL_FILE = "SMSJournalFile";
+    public static final String SMS_JOURNAL_SIZE = "SMSJournalSize";
+    public static final String SMS_JOURNAL_SYNC = "SMSJournalSync";
+    public static final String SMS_JOURNAL_ENTRY_EXPIRY = "SMSJournalEntryExpiry";
+    public static final String SMS_JOURNAL_RETRY_INTERVAL = "SMSJournalRetryInterval";
+    public static final String DEFAULT_SMS_JOURNAL_FILE = "repository/data/smsotp/sms-journal";
+    public static final int DEFAULT_SMS_JOURNAL_SIZE = 16;
+    public static final int DEFAULT_SMS_JOURNAL_ENTRY_EXPIRY = 300;
+    public static final int DEFAULT_SMS_JOURNAL_RETRY_INTERVAL = 30;
+
+    public static final String SMS_THROTTLE_PREFIX = "SMSThrottle";
+    public static final String IS_ENABLED_SMS_THROTTLE = "SMSThrottleEnable";
+    public static final String SMS_THROTTLE_TENANT_LIMIT = "SMSThrottleTenantLimit";
+    public static final String SMS_THROTTLE_TENANT_BURST = "SMSThrottleTenantBurst";
+    public static final String SMS_THROTTLE_MOBILE_LIMIT = "SMSThrottleMobileLimit";
+    public static final String SMS_THROTTLE_MOBILE_BURST = "SMSThrottleMobileBurst";
+    public static final String SMS_THROTTLE_USER_LIMIT = "SMSThrottleUserLimit";
+    public static final String SMS_THROTTLE_USER_BURST = "SMSThrottleUserBurst";
+    public static final String SMS_THROTTLE_MAX_KEYS = "SMSThrottleMaxKeys";
+    public static final int DEFAULT_SMS_THROTTLE_TENANT_LIMIT = 600;
+    public static final int DEFAULT_SMS_THROTTLE_TENANT_BURST = 100;
+    public static final int DEFAULT_SMS_THROTTLE_MOBILE_LIMIT = 1;
+    public static final int DEFAULT_SMS_THROTTLE_MOBILE_BURST = 5;
+    public static final int DEFAULT_SMS_THROTTLE_USER_LIMIT = 1;
+    public static final int DEFAULT_SMS_THROTTLE_USER_BURST = 5;
+    public static final int DEFAULT_SMS_THROTTLE_MAX_KEYS = 100000;
+
+    public static final String IS_ENABLED_SMS_RETRY = "SMSRetryEnable";
+    public static final String SMS_RETRY_MAX_ATTEMPTS = "SMSRetryMaxAttempts";
+    public static final String SMS_RETRY_BASE_DELAY = "SMSRetryBaseDelay";
+    public static final String SMS_RETRY_MAX_DELAY = "SMSRetryMaxDelay";
+    public static final String SMS_RETRY_MAX_DURATION = "SMSRetryMaxDuration";
+    public static final int DEFAULT_SMS_RETRY_MAX_ATTEMPTS = 3;
+    public static final int DEFAULT_SMS_RETRY_BASE_DELAY = 200;
+    public static final int DEFAULT_SMS_RETRY_MAX_DELAY = 2000;
+    public static final int DEFAULT_SMS_RETRY_MAX_DURATION = 10000;
+
+    public static final String IS_ENABLED_VIRTUAL_THREADS = "VirtualThreadsEnable";
+
+    public static final String SMS_RESPONSE_BODY_MAX_SIZE = "SMSResponseBodyMaxSize";
+    public static final int DEFAULT_SMS_RESPONSE_BODY_MAX_SIZE = 8192;
+
+    public static final String TENANT_CONFIG_CACHE_PREFIX = "TenantConfigCache";
+    public static final String IS_ENABLED_TENANT_CONFIG_CACHE = "TenantConfigCacheEnable";
+    public static final String TENANT_CONFIG_CACHE_SIZE = "TenantConfigCacheSize";
+    public static final String TENANT_CONFIG_CACHE_TTL = "TenantConfigCacheTTL";
+    public static final int DEFAULT_TENANT_CONFIG_CACHE_SIZE = 1000;
+    public static final int DEFAULT_TENANT_CONFIG_CACHE_TTL = 60;
+
+    public static final String IS_ENABLED_CONFIG_RELOAD = "ConfigReloadEnable";
+    public static final String CONFIG_RELOAD_FILE = "ConfigReloadFile";
+    public static final String CONFIG_RELOAD_INTERVAL = "ConfigReloadInterval";
+    public static final String DEFAULT_CONFIG_RELOAD_FILE = "repository/conf/identity/application-authentication.xml";
+    public static final int DEFAULT_CONFIG_RELOAD_INTERVAL = 10;
+
+    public static final String USER_CLAIM_CACHE_PREFIX = "UserClaimCache";
+    public static final String IS_ENABLED_USER_CLAIM_CACHE = "UserClaimCacheEnable";
+    public static final String USER_CLAIM_CACHE_SIZE = "UserClaimCacheSize";
+    public static final String USER_CLAIM_CACHE_TENANT_SIZES = "UserClaimCacheTenantSizes";
+    public static final String USER_CLAIM_CACHE_MAX_TENANTS = "UserClaimCacheMaxTenants";
+    public static final String USER_CLAIM_CACHE_TTL = "UserClaimCacheTTL";
+    public static final String USER_CLAIM_CACHE_NEGATIVE_TTL = "UserClaimCacheNegativeTTL";
+    public static final int DEFAULT_USER_CLAIM_CACHE_SIZE = 10000;
+    public static final int DEFAULT_USER_CLAIM_CACHE_MAX_TENANTS = 1000;
+    public static final int DEFAULT_USER_CLAIM_CACHE_TTL = 300;
+    public static final int DEFAULT_USER_CLAIM_CACHE_NEGATIVE_TTL = 30;
 }
\ No newline at end of file
@@ -0,0 +1,139 @@
+/*
+ *  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.carbon.identity.authenticator.smsotp;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters of the SMS OTP authenticator, such as the state transitions of the SMS gateway circuit breakers. The
+ * counters are exposed over JMX through {@link SMSOTPMetricsMXBean} once the MBean is registered.
+ */
+public class SMSOTPMetrics {
+
+    public static final String MBEAN_NAME = "org.wso2.carbon.identity.authenticator.smsotp:type=SMSOTPMetrics";
+
+    private static final ConcurrentMap<String, AtomicLong> counters = new ConcurrentHashMap<>();
+    private static Log log = LogFactory.getLog(SMSOTPMetrics.class);
+
+    private SMSOTPMetrics() {
+    }
+
+    /**
+     * Increment a counter.
+     *
+     * @param name the name of the counter
+     */
+    public static void increment(String name) {
+        add(name, 1);
+    }
+
+    /**
+     * Add to a counter.
+     *
+     * @param name  the name of the counter
+     * @param delta the value to add
+     */
+    public static void add(String name, long delta) {
+        AtomicLong counter = counters.get(name);
+        if (counter == null) {
+            AtomicLong newCounter = new AtomicLong();
+            counter = counters.putIfAbsent(name, newCounter);
+            if (counter == null) {
+                counter = newCounter;
+            }
+        }
+        counter.addAndGet(delta);
+    }
+
+    /**
+     * Get the value of a counter.
+     *
+     * @param name the name of the counter
+     * @return the value, or 0 if the counter was never incremented
+     */
+    public static long getCount(String name) {
+        AtomicLong counter = counters.get(name);
+        return counter != null ? counter.get() : 0;
+    }
+
+    /**
+     * @return a snapshot of all the counters, sorted by name
+     */
+    public static Map<String, Long> getCounters() {
+        Map<String, Long> snapshot = new TreeMap<>();
+        for (Map.Entry<String, AtomicLong> counter : counters.entrySet()) {
+            snapshot.put(counter.getKey(), counter.getValue().get());
+        }
+        return snapshot;
+    }
+
+    /**
+     * Register the MBean of the counters in the platform MBean server, unless it is already registered.
+     */
+    public static void registerMBean() {
+        try {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(MBEAN_NAME);
+            if (!mBeanServer.isRegistered(name)) {
+                mBeanServer.registerMBean(new MetricsMXBean(), name);
+            }
+        } catch (JMException e) {
+            log.error("Unable to register the SMS OTP metrics MBean " + MBEAN_NAME, e);
+        }
+    }
+
+    /**
+     * Unregister the MBean of the counters, if it is registered.
+     */
+    public static void unregisterMBean() {
+        try {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(MBEAN_NAME);
+            if (mBeanServer.isRegistered(name)) {
+                mBeanServer.unregisterMBean(name);
+            }
+        } catch (JMException e) {
+            log.error("Unable to unregister the SMS OTP metrics MBean " + MBEAN_NAME, e);
+        }
+    }
+
+    private static class MetricsMXBean implements SMSOTPMetricsMXBean {
+
+        @Override
+        public Map<String, Long> getCounters() {
+            return SMSOTPMetrics.getCounters();
+        }
+
+        @Override
+        public long getCount(String name) {
+            return SMSOTPMetrics.getCount(name);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ *  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.carbon.identity.authenticator.smsotp;
+
+import java.util.Map;
+
+/**
+ * JMX view of the {@link SMSOTPMetrics} counters, registered as
+ * org.wso2.carbon.identity.authenticator.smsotp:type=SMSOTPMetrics.
+ */
+public interface SMSOTPMetricsMXBean {
+
+    /**
+     * @return a snapshot of all the counters, sorted by name
+     */
+    Map<String, Long> getCounters();
+
+    /**
+     * Get the value of a counter.
+     *
+     * @param name the name of the counter
+     * @return the value, or 0 if the counter was never incremented
+     */
+    long getCount(String name);
+}
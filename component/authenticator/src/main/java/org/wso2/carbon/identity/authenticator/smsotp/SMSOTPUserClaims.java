@@ -0,0 +1,150 @@
+/*
+ *  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.carbon.identity.authenticator.smsotp;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.identity.application.authentication.framework.context.AuthenticationContext;
+import org.wso2.carbon.identity.application.authentication.framework.exception.AuthenticationFailedException;
+import org.wso2.carbon.user.api.UserRealm;
+import org.wso2.carbon.user.api.UserStoreException;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The claims of the user of an authentication flow. The claims the flow needs are planned from its configuration and
+ * read from the user store with a single call, when the flow first needs one of them, and kept in the
+ * authentication context, so that the later steps of the flow do not read the user store again. The mobile number
+ * and the SMS OTP disabled flag are also taken from the {@link UserClaimCache} shared by the flows, if enabled. The
+ * backup codes are not kept, since they are secret and are used up when the user authenticates with one of them.
+ */
+public class SMSOTPUserClaims implements Serializable {
+
+    private static final long serialVersionUID = -1529734260874915376L;
+
+    private static Log log = LogFactory.getLog(SMSOTPUserClaims.class);
+
+    private final String username;
+    private final Map<String, String> claims;
+
+    private SMSOTPUserClaims(String username, Map<String, String> claims) {
+        this.username = username;
+        this.claims = claims;
+    }
+
+    /**
+     * Get a claim of the user of an authentication flow, reading the claims the flow needs if they are not read yet.
+     *
+     * @param context           the AuthenticationContext
+     * @param authenticatorName the name of the authenticator
+     * @param userRealm         the user realm of the user
+     * @param tenantDomain      the tenant domain of the user, or null to not use the claims cached for other flows
+     * @param username          the tenant aware username
+     * @param claimUri          the claim
+     * @return the claim value or null if the user has no value for the claim
+     * @throws UserStoreException            if the claims cannot be read
+     * @throws AuthenticationFailedException if the configuration cannot be read
+     */
+    public static String getClaimValue(AuthenticationContext context, String authenticatorName, UserRealm userRealm,
+                                       String tenantDomain, String username, String claimUri)
+            throws UserStoreException, AuthenticationFailedException {
+        Object property = context.getProperty(SMSOTPConstants.SMSOTP_USER_CLAIMS);
+        SMSOTPUserClaims userClaims = null;
+        if (property instanceof SMSOTPUserClaims && ((SMSOTPUserClaims) property).username.equals(username)) {
+            userClaims = (SMSOTPUserClaims) property;
+            if (userClaims.claims.containsKey(claimUri)) {
+                return userClaims.claims.get(claimUri);
+            }
+        }
+        Set<String> claimUris = getClaimUris(SMSOTPConfig.getConfig(context, authenticatorName));
+        claimUris.add(claimUri);
+        if (userClaims != null) {
+            claimUris.removeAll(userClaims.claims.keySet());
+        }
+        Map<String, String> claims = new HashMap<>();
+        if (userClaims != null) {
+            claims.putAll(userClaims.claims);
+        }
+        UserClaimCache userClaimCache = tenantDomain != null ? UserClaimCache.getInstance() : null;
+        if (userClaimCache != null) {
+            Set<String> cachedClaimUris = new HashSet<>();
+            for (String uri : claimUris) {
+                if (UserClaimCache.isCached(uri)) {
+                    cachedClaimUris.add(uri);
+                }
+            }
+            Map<String, String> cachedClaims = cachedClaimUris.isEmpty() ? null :
+                    userClaimCache.get(tenantDomain, username, cachedClaimUris);
+            if (cachedClaims != null) {
+                for (String uri : cachedClaimUris) {
+                    claims.put(uri, cachedClaims.get(uri));
+                }
+                claimUris.removeAll(cachedClaimUris);
+            }
+        }
+        if (!claimUris.isEmpty()) {
+            long cacheVersion = userClaimCache != null ? userClaimCache.getVersion() : 0;
+            Map<String, String> values = userRealm.getUserStoreManager().getUserClaimValues(username,
+                    claimUris.toArray(new String[claimUris.size()]), null);
+            for (String uri : claimUris) {
+                claims.put(uri, values != null ? values.get(uri) : null);
+            }
+            if (userClaimCache != null) {
+                userClaimCache.put(tenantDomain, username, claimUris, values, cacheVersion);
+            }
+            if (log.isDebugEnabled()) {
+                log.debug("Read the claims " + claimUris + " of the user " + username);
+            }
+        }
+        context.setProperty(SMSOTPConstants.SMSOTP_USER_CLAIMS,
+                new SMSOTPUserClaims(username, Collections.unmodifiableMap(claims)));
+        return claims.get(claimUri);
+    }
+
+    /**
+     * Forget the claims read for an authentication flow, so that they are read again after they are updated.
+     *
+     * @param context the AuthenticationContext
+     */
+    public static void clear(AuthenticationContext context) {
+        context.setProperty(SMSOTPConstants.SMSOTP_USER_CLAIMS, null);
+    }
+
+    /**
+     * Plan the claims an authentication flow needs from its configuration.
+     */
+    private static Set<String> getClaimUris(SMSOTPConfig config) {
+        Set<String> claimUris = new LinkedHashSet<>();
+        claimUris.add(SMSOTPConstants.MOBILE_CLAIM);
+        if (config.isSMSOTPEnableOrDisableByUser()) {
+            claimUris.add(SMSOTPConstants.USER_SMSOTP_DISABLED_CLAIM_URI);
+        }
+        if (StringUtils.isNotEmpty(config.getScreenUserAttribute())) {
+            claimUris.add(config.getScreenUserAttribute());
+        }
+        return claimUris;
+    }
+}
@@ -19,6 +19,7 @@
 package org.wso2.carbon.identity.authenticator.smsotp;
 
 
+import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.wso2.carbon.base.MultitenantConstants;
@@ -45,9 +46,14 @@ public class SMSOTPUtils {
     private static Log log = LogFactory.getLog(SMSOTPUtils.class);
 
     /**
-     * Get parameter values from application-authentication.xml local file.
+     * Get parameter values from application-authentication.xml local file. The parameters reloaded from the file, if
+     * any, take precedence over the ones read when the server started.
      */
     public static Map<String, String> getSMSParameters() {
+        Map<String, String> reloadedParameters = SMSOTPConfigReloader.getReloadedParameters();
+        if (reloadedParameters != null) {
+            return reloadedParameters;
+        }
         AuthenticatorConfig authConfig = FileBasedConfigurationBuilder.getInstance()
                 .getAuthenticatorBean(SMSOTPConstants.AUTHENTICATOR_NAME);
         if (authConfig != null) {
@@ -59,6 +65,31 @@ public class SMSOTPUtils {
         return Collections.emptyMap();
     }
 
+    /**
+     * Get an integer parameter from application-authentication.xml local file.
+     *
+     * @param parameters   the authenticator parameters
+     * @param name         the name of the parameter
+     * @param defaultValue the value to use when the parameter is not configured or is not a number
+     * @return the parameter value
+     */
+    public static int getIntParameter(Map<String, String> parameters, String name, int defaultValue) {
+        return parseInt(name, parameters != null ? parameters.get(name) : null, defaultValue);
+    }
+
+    private static int parseInt(String name, String value, int defaultValue) {
+        if (StringUtils.isBlank(value)) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            log.warn("Invalid value " + value + " for the parameter " + name + ". Hence using the default value "
+                    + defaultValue);
+            return defaultValue;
+        }
+    }
+
     /**
      * Check whether SMSOTP is disable by user.
      *
@@ -80,9 +111,8 @@ public class SMSOTPUtils {
             boolean isEnablingControlledByUser = isSMSOTPEnableOrDisableByUser(context, authenticatorName);
             if (userRealm != null) {
                 if (isEnablingControlledByUser) {
-                    Map<String, String> claimValues = userRealm.getUserStoreManager().getUserClaimValues(username,
-                            new String[]{SMSOTPConstants.USER_SMSOTP_DISABLED_CLAIM_URI}, null);
-                    return Boolean.parseBoolean(claimValues.get(SMSOTPConstants.USER_SMSOTP_DISABLED_CLAIM_URI));
+                    return Boolean.parseBoolean(SMSOTPUserClaims.getClaimValue(context, authenticatorName, userRealm,
+                            tenantDomain, username, SMSOTPConstants.USER_SMSOTP_DISABLED_CLAIM_URI));
                 }
             } else {
                 throw new SMSOTPException("Cannot find the user realm for the given tenant domain : " + CarbonContext
@@ -115,6 +145,10 @@ public class SMSOTPUtils {
             SMSOTPUtils.verifyUserExists(username, tenantDomain);
             UserStoreManager userStoreManager = userRealm.getUserStoreManager();
             userStoreManager.setUserClaimValues(username, attribute, null);
+            UserClaimCache userClaimCache = UserClaimCache.getInstance();
+            if (userClaimCache != null) {
+                userClaimCache.invalidate(tenantDomain, username);
+            }
         } catch (UserStoreException | AuthenticationFailedException e) {
             throw new SMSOTPException("Exception occurred while connecting to User Store: Authentication is failed. ", e);
         }
@@ -197,6 +231,31 @@ public class SMSOTPUtils {
         return mobile;
     }
 
+    /**
+     * Get the mobile number for Username, reading it with the other claims the authentication flow needs.
+     *
+     * @param username          the username
+     * @param context           the AuthenticationContext
+     * @param authenticatorName the name of the authenticator
+     * @return mobile number
+     * @throws SMSOTPException
+     */
+    public static String getMobileNumberForUsername(String username, AuthenticationContext context,
+                                                    String authenticatorName) throws SMSOTPException,
+            AuthenticationFailedException {
+        String tenantDomain = MultitenantUtils.getTenantDomain(username);
+        UserRealm userRealm = getUserRealm(tenantDomain);
+        if (userRealm == null) {
+            throw new SMSOTPException("Cannot find the user realm for the given tenant domain : " + tenantDomain);
+        }
+        try {
+            return SMSOTPUserClaims.getClaimValue(context, authenticatorName, userRealm, tenantDomain,
+                    MultitenantUtils.getTenantAwareUsername(username), SMSOTPConstants.MOBILE_CLAIM);
+        } catch (UserStoreException e) {
+            throw new SMSOTPException("Cannot find the user " + username + " to get the mobile number ", e);
+        }
+    }
+
     /**
      * Check whether SMSOTP is mandatory or not.
      *
@@ -267,6 +326,20 @@ public class SMSOTPUtils {
         return Boolean.parseBoolean(getConfiguration(context, authenticatorName, SMSOTPConstants.IS_ENABLED_RESEND));
     }
 
+    /**
+     * Check whether the SMS is sent in the background instead of before redirecting to the OTP page.
+     *
+     * @param context           the AuthenticationContext
+     * @param authenticatorName the name of the authenticator
+     * @return true or false
+     * @throws AuthenticationFailedException
+     */
+    public static boolean isAsyncSMSDispatch(AuthenticationContext context, String authenticatorName)
+            throws AuthenticationFailedException {
+        return Boolean.parseBoolean(getConfiguration(context, authenticatorName,
+                SMSOTPConstants.IS_ENABLED_ASYNC_SMS_DISPATCH));
+    }
+
     /**
      * Get the error page url from the application-authentication.xml file.
      *
@@ -373,6 +446,75 @@ public class SMSOTPUtils {
 
     }
 
+    /**
+     * Get the OTP generation mode. The OTP is either a random code stored in the context or derived from the
+     * server-held secret key.
+     *
+     * @param context           the AuthenticationContext
+     * @param authenticatorName the name of the authenticator
+     * @return the OTP generation mode
+     * @throws AuthenticationFailedException
+     */
+    public static String getOTPGenerationMode(AuthenticationContext context, String authenticatorName)
+            throws AuthenticationFailedException {
+        return getConfiguration(context, authenticatorName, SMSOTPConstants.OTP_GENERATION_MODE);
+    }
+
+    /**
+     * Get the secret key used to derive the OTP. The key has to be the same on all the nodes of a cluster. It is only
+     * read from the parameters of the server, never from the configuration of a tenant or the context, which is
+     * replicated and persisted, and it is not logged.
+     *
+     * @return the secret key or null if it is not configured
+     */
+    public static String getOTPSecretKey() {
+        Map<String, String> parameters = getSMSParameters();
+        return parameters != null ? parameters.get(SMSOTPConstants.OTP_SECRET_KEY) : null;
+    }
+
+    /**
+     * Get the length of a TOTP time step in seconds.
+     *
+     * @param context           the AuthenticationContext
+     * @param authenticatorName the name of the authenticator
+     * @return the time step
+     * @throws AuthenticationFailedException
+     */
+    public static int getTOTPTimeStep(AuthenticationContext context, String authenticatorName)
+            throws AuthenticationFailedException {
+        return getIntConfiguration(context, authenticatorName, SMSOTPConstants.TOTP_TIME_STEP,
+                SMSOTPConstants.DEFAULT_TOTP_TIME_STEP);
+    }
+
+    /**
+     * Get the number of time steps before and after the current one for which a TOTP is still accepted.
+     *
+     * @param context           the AuthenticationContext
+     * @param authenticatorName the name of the authenticator
+     * @return the window
+     * @throws AuthenticationFailedException
+     */
+    public static int getTOTPWindow(AuthenticationContext context, String authenticatorName)
+            throws AuthenticationFailedException {
+        return getIntConfiguration(context, authenticatorName, SMSOTPConstants.TOTP_WINDOW,
+                SMSOTPConstants.DEFAULT_TOTP_WINDOW);
+    }
+
+    /**
+     * Read an integer configuration from application-authentication.xml for given authenticator.
+     *
+     * @param context           Authentication Context.
+     * @param authenticatorName Name of the Authenticator.
+     * @param configName        Name of the config.
+     * @param defaultValue      Value to use when the config is not available or is not a number.
+     * @return Config value.
+     * @throws AuthenticationFailedException
+     */
+    public static int getIntConfiguration(AuthenticationContext context, String authenticatorName, String configName,
+                                          int defaultValue) throws AuthenticationFailedException {
+        return parseInt(configName, getConfiguration(context, authenticatorName, configName), defaultValue);
+    }
+
     /**
      * Read configurations from application-authentication.xml for given authenticator.
      *
@@ -0,0 +1,313 @@
+/*
+ *  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.carbon.identity.authenticator.smsotp;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the number of SMS sent per tenant, per mobile number and per user with token buckets. A bucket is kept as
+ * the single time at which it is full again, which is advanced with a compare and set for every SMS, hence a bucket
+ * needs no lock. When the number of buckets reaches the maximum the full buckets are evicted, as they hold no state,
+ * and then the buckets closest to full, so that a throttled key is the last to lose its bucket. An eviction frees a
+ * tenth of the buckets, and a new key that finds no room while another request evicts is not tracked.
+ */
+public class SMSRateLimiter {
+
+    public static final String TENANT_THROTTLED_METRIC = "smsotp.throttle.tenant";
+    public static final String MOBILE_THROTTLED_METRIC = "smsotp.throttle.mobile";
+    public static final String USER_THROTTLED_METRIC = "smsotp.throttle.user";
+    public static final String EVICTION_METRIC = "smsotp.throttle.eviction";
+    public static final String UNTRACKED_METRIC = "smsotp.throttle.untracked";
+
+    // An eviction frees the maximum number of buckets divided by this ratio.
+    private static final int EVICTION_RATIO = 10;
+
+    private static Log log = LogFactory.getLog(SMSRateLimiter.class);
+    private static volatile SMSRateLimiter instance;
+
+    private final RateLimit tenantLimit;
+    private final RateLimit mobileLimit;
+    private final RateLimit userLimit;
+
+    /**
+     * Create a rate limiter. A limit of 0 disables the limit.
+     *
+     * @param tenantLimit the number of SMS per minute per tenant
+     * @param tenantBurst the number of SMS a tenant may send at once
+     * @param mobileLimit the number of SMS per minute per mobile number
+     * @param mobileBurst the number of SMS a mobile number may receive at once
+     * @param userLimit   the number of SMS per minute per user
+     * @param userBurst   the number of SMS a user may request at once
+     * @param maxKeys     the maximum number of buckets kept for each of the tenants, mobile numbers and users
+     */
+    public SMSRateLimiter(int tenantLimit, int tenantBurst, int mobileLimit, int mobileBurst, int userLimit,
+                          int userBurst, int maxKeys) {
+        this.tenantLimit = new RateLimit(tenantLimit, tenantBurst, maxKeys, TENANT_THROTTLED_METRIC);
+        this.mobileLimit = new RateLimit(mobileLimit, mobileBurst, maxKeys, MOBILE_THROTTLED_METRIC);
+        this.userLimit = new RateLimit(userLimit, userBurst, maxKeys, USER_THROTTLED_METRIC);
+    }
+
+    /**
+     * Get the rate limiter configured in application-authentication.xml.
+     *
+     * @return the rate limiter or null if throttling is not enabled
+     */
+    public static SMSRateLimiter getInstance() {
+        if (instance == null) {
+            Map<String, String> parameters = SMSOTPUtils.getSMSParameters();
+            if (parameters == null || !Boolean.parseBoolean(parameters.get(SMSOTPConstants.IS_ENABLED_SMS_THROTTLE))) {
+                return null;
+            }
+            synchronized (SMSRateLimiter.class) {
+                if (instance == null) {
+                    instance = new SMSRateLimiter(
+                            SMSOTPUtils.getIntParameter(parameters, SMSOTPConstants.SMS_THROTTLE_TENANT_LIMIT,
+                                    SMSOTPConstants.DEFAULT_SMS_THROTTLE_TENANT_LIMIT),
+                            SMSOTPUtils.getIntParameter(parameters, SMSOTPConstants.SMS_THROTTLE_TENANT_BURST,
+                                    SMSOTPConstants.DEFAULT_SMS_THROTTLE_TENANT_BURST),
+                            SMSOTPUtils.getIntParameter(parameters, SMSOTPConstants.SMS_THROTTLE_MOBILE_LIMIT,
+                                    SMSOTPConstants.DEFAULT_SMS_THROTTLE_MOBILE_LIMIT),
+                            SMSOTPUtils.getIntParameter(parameters, SMSOTPConstants.SMS_THROTTLE_MOBILE_BURST,
+                                    SMSOTPConstants.DEFAULT_SMS_THROTTLE_MOBILE_BURST),
+                            SMSOTPUtils.getIntParameter(parameters, SMSOTPConstants.SMS_THROTTLE_USER_LIMIT,
+                                    SMSOTPConstants.DEFAULT_SMS_THROTTLE_USER_LIMIT),
+                            SMSOTPUtils.getIntParameter(parameters, SMSOTPConstants.SMS_THROTTLE_USER_BURST,
+                                    SMSOTPConstants.DEFAULT_SMS_THROTTLE_USER_BURST),
+                            SMSOTPUtils.getIntParameter(parameters, SMSOTPConstants.SMS_THROTTLE_MAX_KEYS,
+                                    SMSOTPConstants.DEFAULT_SMS_THROTTLE_MAX_KEYS));
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Drop the configured rate limiter, if any, so that the next SMS creates it again from the current parameters.
+     * The tokens taken so far are forgotten.
+     */
+    public static void shutdownInstance() {
+        synchronized (SMSRateLimiter.class) {
+            instance = null;
+        }
+    }
+
+    /**
+     * Take a token for an SMS from the buckets of the user, the mobile number and the tenant. The more specific
+     * buckets are checked first, so that a throttled user does not use up the tokens of the tenant. If a bucket has
+     * no token, the tokens already taken from the other buckets are given back.
+     *
+     * @param tenantDomain the tenant domain
+     * @param mobile       the mobile number
+     * @param username     the username
+     * @return true if the SMS may be sent
+     */
+    public boolean tryAcquire(String tenantDomain, String mobile, String username) {
+        long now = System.nanoTime();
+        String normalizedMobile = normalizeMobile(mobile);
+        boolean acquired = false;
+        if (userLimit.tryAcquire(username, now)) {
+            if (mobileLimit.tryAcquire(normalizedMobile, now)) {
+                acquired = tenantLimit.tryAcquire(tenantDomain, now);
+                if (!acquired) {
+                    mobileLimit.release(normalizedMobile);
+                }
+            }
+            if (!acquired) {
+                userLimit.release(username);
+            }
+        }
+        if (!acquired && log.isDebugEnabled()) {
+            log.debug("SMS to the user " + username + " is throttled");
+        }
+        return acquired;
+    }
+
+    /**
+     * @return the number of buckets kept for the tenants, mobile numbers and users
+     */
+    public int getBucketCount() {
+        return tenantLimit.buckets.size() + mobileLimit.buckets.size() + userLimit.buckets.size();
+    }
+
+    /**
+     * Keep only the digits of a mobile number, so that the same number cannot be written differently to get
+     * another bucket.
+     */
+    private static String normalizeMobile(String mobile) {
+        if (mobile == null) {
+            return null;
+        }
+        StringBuilder digits = new StringBuilder(mobile.length());
+        for (int i = 0; i < mobile.length(); i++) {
+            char c = mobile.charAt(i);
+            if (c >= '0' && c <= '9') {
+                digits.append(c);
+            }
+        }
+        return digits.length() > 0 ? digits.toString() : mobile;
+    }
+
+    /**
+     * The buckets of one kind of key.
+     */
+    private static class RateLimit {
+
+        private final long interval;
+        private final long tolerance;
+        private final int maxKeys;
+        private final int lowWatermark;
+        private final String metric;
+        private final ConcurrentMap<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+        // Number of buckets kept or about to be added, so that the maximum holds for concurrent requests.
+        private final AtomicInteger size = new AtomicInteger();
+        private final AtomicBoolean evicting = new AtomicBoolean();
+
+        private RateLimit(int limit, int burst, int maxKeys, String metric) {
+            this.interval = limit > 0 ? TimeUnit.MINUTES.toNanos(1) / limit : 0;
+            this.tolerance = interval * (Math.max(burst, 1) - 1);
+            this.maxKeys = Math.max(maxKeys, 1);
+            this.lowWatermark = this.maxKeys - Math.max(this.maxKeys / EVICTION_RATIO, 1);
+            this.metric = metric;
+        }
+
+        private boolean tryAcquire(String key, long now) {
+            if (interval == 0 || key == null) {
+                return true;
+            }
+            AtomicLong bucket = buckets.get(key);
+            if (bucket == null) {
+                if (!reserve(now)) {
+                    // Another request is evicting. A key without history is let through rather than tracked
+                    // beyond the maximum.
+                    SMSOTPMetrics.increment(UNTRACKED_METRIC);
+                    return true;
+                }
+                AtomicLong newBucket = new AtomicLong(now);
+                bucket = buckets.putIfAbsent(key, newBucket);
+                if (bucket == null) {
+                    bucket = newBucket;
+                } else {
+                    size.decrementAndGet();
+                }
+            }
+            while (true) {
+                long fullAt = bucket.get();
+                long start = fullAt - now > 0 ? fullAt : now;
+                if (start - now > tolerance) {
+                    SMSOTPMetrics.increment(metric);
+                    return false;
+                }
+                if (bucket.compareAndSet(fullAt, start + interval)) {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Reserve the room for a new bucket, evicting buckets if the maximum is reached.
+         *
+         * @return false if there is no room
+         */
+        private boolean reserve(long now) {
+            if (size.incrementAndGet() <= maxKeys) {
+                return true;
+            }
+            size.decrementAndGet();
+            evict(now);
+            if (size.incrementAndGet() <= maxKeys) {
+                return true;
+            }
+            size.decrementAndGet();
+            return false;
+        }
+
+        /**
+         * Give back a token taken from the bucket of a key.
+         */
+        private void release(String key) {
+            if (interval == 0 || key == null) {
+                return;
+            }
+            AtomicLong bucket = buckets.get(key);
+            if (bucket != null) {
+                bucket.addAndGet(-interval);
+            }
+        }
+
+        /**
+         * Remove the full buckets, and if there are still more than the low watermark, the buckets that are closest
+         * to full. The throttled buckets are the furthest from full, so new keys cannot push them out. As the
+         * buckets are brought down to the low watermark at once, the buckets are sorted once for every
+         * maxKeys / EVICTION_RATIO new keys rather than for every new key.
+         */
+        private void evict(long now) {
+            if (!evicting.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                SMSOTPMetrics.increment(EVICTION_METRIC);
+                remove(0, 0, now);
+                if (size.get() > lowWatermark) {
+                    long[] fullAts = new long[size.get()];
+                    int count = 0;
+                    for (AtomicLong bucket : buckets.values()) {
+                        if (count == fullAts.length) {
+                            break;
+                        }
+                        fullAts[count++] = bucket.get() - now;
+                    }
+                    if (count > lowWatermark) {
+                        Arrays.sort(fullAts, 0, count);
+                        remove(fullAts[count - lowWatermark - 1], lowWatermark, now);
+                    }
+                }
+                if (log.isDebugEnabled()) {
+                    log.debug("Evicted SMS throttling buckets. Remaining buckets : " + size.get());
+                }
+            } finally {
+                evicting.set(false);
+            }
+        }
+
+        /**
+         * Remove the buckets that are full within the given time, until the given number of buckets is left.
+         */
+        private void remove(long threshold, int target, long now) {
+            Iterator<Map.Entry<String, AtomicLong>> iterator = buckets.entrySet().iterator();
+            while (size.get() > target && iterator.hasNext()) {
+                Map.Entry<String, AtomicLong> bucket = iterator.next();
+                if (bucket.getValue().get() - now <= threshold
+                        && buckets.remove(bucket.getKey(), bucket.getValue())) {
+                    size.decrementAndGet();
+                }
+            }
+        }
+    }
+}
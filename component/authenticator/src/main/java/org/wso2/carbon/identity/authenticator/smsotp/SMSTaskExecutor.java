@@ -0,0 +1,212 @@
+/*
+ *  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.carbon.identity.authenticator.smsotp;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded executor of blocking tasks, such as the calls to the SMS gateways. When virtual threads are enabled and the
+ * runtime supports them (JDK 21 or later), every task runs on its own virtual thread, so that tasks waiting for I/O
+ * do not hold a platform thread. Otherwise the tasks run on a pool of platform threads. Either way, at most the
+ * given number of threads plus the queue size of tasks are accepted at a time.
+ */
+public class SMSTaskExecutor implements Executor {
+
+    private static Log log = LogFactory.getLog(SMSTaskExecutor.class);
+
+    // Looked up by reflection, since the authenticator is built for Java 7.
+    private static final Method OF_VIRTUAL;
+    private static final Method BUILDER_NAME;
+    private static final Method BUILDER_FACTORY;
+    private static final Method NEW_THREAD_PER_TASK_EXECUTOR;
+
+    static {
+        Method ofVirtual = null;
+        Method builderName = null;
+        Method builderFactory = null;
+        Method newThreadPerTaskExecutor = null;
+        try {
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            builderName = builder.getMethod("name", String.class, long.class);
+            builderFactory = builder.getMethod("factory");
+            newThreadPerTaskExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+        } catch (ClassNotFoundException | NoSuchMethodException e) {
+            ofVirtual = null;
+        }
+        OF_VIRTUAL = ofVirtual;
+        BUILDER_NAME = builderName;
+        BUILDER_FACTORY = builderFactory;
+        NEW_THREAD_PER_TASK_EXECUTOR = newThreadPerTaskExecutor;
+    }
+
+    private final ThreadPoolExecutor pool;
+    private final ExecutorService virtualExecutor;
+    private final Semaphore permits;
+
+    /**
+     * Create an executor.
+     *
+     * @param name              the name of the threads
+     * @param threads           the maximum number of platform threads
+     * @param queueSize         the maximum number of tasks waiting for a platform thread, 0 to reject the tasks when
+     *                          all the threads are busy
+     * @param useVirtualThreads whether to run the tasks on virtual threads when the runtime supports them
+     */
+    public SMSTaskExecutor(final String name, int threads, int queueSize, boolean useVirtualThreads) {
+        if (threads <= 0 || queueSize < 0) {
+            throw new IllegalArgumentException("Threads must be positive and queue size must not be negative : " +
+                    threads + ", " + queueSize);
+        }
+        ExecutorService virtualThreadExecutor = useVirtualThreads ? newVirtualThreadExecutor(name) : null;
+        if (virtualThreadExecutor != null) {
+            this.virtualExecutor = virtualThreadExecutor;
+            this.permits = new Semaphore(threads + queueSize);
+            this.pool = null;
+            return;
+        }
+        BlockingQueue<Runnable> queue = queueSize > 0 ? new ArrayBlockingQueue<Runnable>(queueSize) :
+                new SynchronousQueue<Runnable>();
+        this.pool = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, queue, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "SMSOTP-" + name + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.pool.allowCoreThreadTimeOut(true);
+        this.virtualExecutor = null;
+        this.permits = null;
+    }
+
+    /**
+     * Create an executor that uses virtual threads if they are enabled in application-authentication.xml.
+     *
+     * @param name      the name of the threads
+     * @param threads   the maximum number of platform threads
+     * @param queueSize the maximum number of tasks waiting for a platform thread
+     * @return the executor
+     */
+    public static SMSTaskExecutor create(String name, int threads, int queueSize) {
+        Map<String, String> parameters = SMSOTPUtils.getSMSParameters();
+        boolean useVirtualThreads = parameters != null &&
+                Boolean.parseBoolean(parameters.get(SMSOTPConstants.IS_ENABLED_VIRTUAL_THREADS));
+        if (useVirtualThreads && !isVirtualThreadSupported()) {
+            log.warn("Virtual threads are not supported by the Java runtime. Hence using platform threads for " +
+                    name);
+        }
+        return new SMSTaskExecutor(name, threads, queueSize, useVirtualThreads);
+    }
+
+    /**
+     * @return whether the Java runtime supports virtual threads
+     */
+    public static boolean isVirtualThreadSupported() {
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * Run a task.
+     *
+     * @param task the task
+     * @throws RejectedExecutionException if too many tasks are pending or the executor is shutdown
+     */
+    @Override
+    public void execute(final Runnable task) {
+        if (pool != null) {
+            pool.execute(task);
+            return;
+        }
+        if (!permits.tryAcquire()) {
+            throw new RejectedExecutionException("Too many pending tasks");
+        }
+        try {
+            virtualExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        task.run();
+                    } finally {
+                        permits.release();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * @return whether the tasks run on virtual threads
+     */
+    public boolean isVirtual() {
+        return virtualExecutor != null;
+    }
+
+    /**
+     * @return the number of tasks waiting for a platform thread, which is always 0 for virtual threads
+     */
+    public int getQueuedCount() {
+        return pool != null ? pool.getQueue().size() : 0;
+    }
+
+    public void shutdown() {
+        if (pool != null) {
+            pool.shutdown();
+        } else {
+            virtualExecutor.shutdown();
+        }
+    }
+
+    private static ExecutorService newVirtualThreadExecutor(String name) {
+        if (!isVirtualThreadSupported()) {
+            return null;
+        }
+        try {
+            Object builder = BUILDER_NAME.invoke(OF_VIRTUAL.invoke(null), "SMSOTP-" + name + "-", 1L);
+            ThreadFactory threadFactory = (ThreadFactory) BUILDER_FACTORY.invoke(builder);
+            return (ExecutorService) NEW_THREAD_PER_TASK_EXECUTOR.invoke(null, threadFactory);
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            // Virtual threads are a preview feature that is not enabled on JDK 19 and 20.
+            log.warn("Unable to create virtual threads. Hence using platform threads for " + name, e);
+            return null;
+        }
+    }
+}
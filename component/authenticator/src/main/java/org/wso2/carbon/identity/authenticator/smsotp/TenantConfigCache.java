@@ -0,0 +1,199 @@
+/*
+ *  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.carbon.identity.authenticator.smsotp;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.extension.identity.helper.util.IdentityHelperUtil;
+import org.wso2.carbon.identity.application.authentication.framework.context.AuthenticationContext;
+import org.wso2.carbon.identity.application.authentication.framework.exception.AuthenticationFailedException;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches the authenticator configuration of the tenants, which is otherwise read and parsed from the registry of
+ * the tenant for every authentication request. The cache is not notified of changes in the registry: an entry only
+ * expires after the time to live, which bounds how long a changed configuration takes to be picked up without a
+ * restart. The least recently used tenants are evicted when the number of tenants reaches the maximum. Clearing the
+ * cache increments its version, so that a configuration read before it is cleared is not cached after it.
+ */
+public class TenantConfigCache {
+
+    public static final String HIT_METRIC = "smsotp.tenantconfig.hit";
+    public static final String MISS_METRIC = "smsotp.tenantconfig.miss";
+
+    private static Log log = LogFactory.getLog(TenantConfigCache.class);
+    private static volatile TenantConfigCache instance;
+
+    private final Map<String, CachedConfig> entries;
+    private final long timeToLive;
+    private final AtomicLong version = new AtomicLong();
+
+    /**
+     * Create a cache.
+     *
+     * @param maxSize    the maximum number of tenants kept in the cache
+     * @param timeToLive the time in seconds after which the configuration of a tenant is read again
+     */
+    public TenantConfigCache(final int maxSize, int timeToLive) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Tenant configuration cache size must be positive : " + maxSize);
+        }
+        this.timeToLive = TimeUnit.SECONDS.toNanos(Math.max(timeToLive, 0));
+        this.entries = new LinkedHashMap<String, CachedConfig>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedConfig> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Get the cache configured in application-authentication.xml.
+     *
+     * @return the cache or null if the cache is not enabled
+     */
+    public static TenantConfigCache getInstance() {
+        if (instance == null) {
+            Map<String, String> parameters = SMSOTPUtils.getSMSParameters();
+            if (parameters == null ||
+                    !Boolean.parseBoolean(parameters.get(SMSOTPConstants.IS_ENABLED_TENANT_CONFIG_CACHE))) {
+                return null;
+            }
+            synchronized (TenantConfigCache.class) {
+                if (instance == null) {
+                    int maxSize = SMSOTPUtils.getIntParameter(parameters, SMSOTPConstants.TENANT_CONFIG_CACHE_SIZE,
+                            SMSOTPConstants.DEFAULT_TENANT_CONFIG_CACHE_SIZE);
+                    int timeToLive = SMSOTPUtils.getIntParameter(parameters,
+                            SMSOTPConstants.TENANT_CONFIG_CACHE_TTL, SMSOTPConstants.DEFAULT_TENANT_CONFIG_CACHE_TTL);
+                    if (log.isDebugEnabled()) {
+                        log.debug("Creating tenant configuration cache with size " + maxSize +
+                                " and time to live " + timeToLive + "s");
+                    }
+                    instance = new TenantConfigCache(maxSize, timeToLive);
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Clear the configured cache, if any.
+     */
+    public static void shutdownInstance() {
+        synchronized (TenantConfigCache.class) {
+            if (instance != null) {
+                instance.invalidateAll();
+                instance = null;
+            }
+        }
+    }
+
+    /**
+     * Set the authenticator configuration of the tenant of a context, reading it from the registry if it is not
+     * cached.
+     *
+     * @param context           the AuthenticationContext
+     * @param authenticatorName the name of the authenticator
+     * @param tenantDomain      the tenant domain
+     * @throws AuthenticationFailedException if the configuration cannot be read
+     */
+    public void loadConfiguration(AuthenticationContext context, String authenticatorName, String tenantDomain)
+            throws AuthenticationFailedException {
+        String key = authenticatorName + "@" + tenantDomain;
+        long now = System.nanoTime();
+        CachedConfig entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+        }
+        if (entry != null && now - entry.loadTime < timeToLive) {
+            SMSOTPMetrics.increment(HIT_METRIC);
+        } else {
+            SMSOTPMetrics.increment(MISS_METRIC);
+            long loadVersion = version.get();
+            Map<String, Object> properties = new HashMap<>(read(authenticatorName, tenantDomain));
+            // The OTP secret key is only taken from the server, and is not to be replicated with the context.
+            properties.remove(SMSOTPConstants.OTP_SECRET_KEY);
+            entry = new CachedConfig(Collections.unmodifiableMap(properties), now);
+            synchronized (entries) {
+                if (version.get() == loadVersion) {
+                    entries.put(key, entry);
+                }
+            }
+            if (log.isDebugEnabled()) {
+                log.debug("Read the " + authenticatorName + " configuration of the tenant " + tenantDomain +
+                        " from the registry");
+            }
+        }
+        for (Map.Entry<String, Object> property : entry.properties.entrySet()) {
+            context.setProperty(property.getKey(), property.getValue());
+        }
+    }
+
+    /**
+     * Remove the configuration of all the tenants.
+     */
+    public void invalidateAll() {
+        synchronized (entries) {
+            version.incrementAndGet();
+            entries.clear();
+        }
+    }
+
+    /**
+     * @return the number of tenants in the cache
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Read the authenticator configuration of a tenant from the registry.
+     *
+     * @param authenticatorName the name of the authenticator
+     * @param tenantDomain      the tenant domain
+     * @return the context properties set from the configuration
+     * @throws AuthenticationFailedException if the configuration cannot be read
+     */
+    protected Map<String, Object> read(String authenticatorName, String tenantDomain)
+            throws AuthenticationFailedException {
+        AuthenticationContext context = new AuthenticationContext();
+        context.setTenantDomain(tenantDomain);
+        IdentityHelperUtil.loadApplicationAuthenticationXMLFromRegistry(context, authenticatorName, tenantDomain);
+        return Collections.unmodifiableMap(new HashMap<>(context.getProperties()));
+    }
+
+    private static class CachedConfig {
+
+        private final Map<String, Object> properties;
+        private final long loadTime;
+
+        private CachedConfig(Map<String, Object> properties, long loadTime) {
+            this.properties = properties;
+            this.loadTime = loadTime;
+        }
+    }
+}
@@ -0,0 +1,373 @@
+/*
+ *  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.carbon.identity.authenticator.smsotp;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches the mobile number and the SMS OTP disabled flag of the users across authentication requests, since they are
+ * otherwise read from the user store for every login. The users are cached per tenant, each tenant keeping at most
+ * its configured number of users and evicting the least recently used ones. The users are kept by their username
+ * without the user store domain, so that a user is removed from all the user stores at once. An entry expires after
+ * the time to live, or after the shorter negative time to live if the user has no mobile number, so that a newly
+ * registered mobile number is soon picked up. Updates of the claims through the authenticator and the user store remove the
+ * user from the cache, and increment the version of the cache so that claims read before the update are not cached.
+ */
+public class UserClaimCache {
+
+    public static final String HIT_METRIC = "smsotp.userclaim.hit";
+    public static final String MISS_METRIC = "smsotp.userclaim.miss";
+
+    private static Log log = LogFactory.getLog(UserClaimCache.class);
+    private static volatile UserClaimCache instance;
+
+    // Users of the tenants by the username without the user store domain, and then by the tenant aware username.
+    private final Map<String, Map<String, Map<String, CachedClaims>>> tenants;
+    private final int tenantSize;
+    private final Map<String, Integer> tenantSizes;
+    private final long timeToLive;
+    private final long negativeTimeToLive;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong version = new AtomicLong();
+
+    /**
+     * Create a cache.
+     *
+     * @param tenantSize         the maximum number of users kept for a tenant
+     * @param tenantSizes        the maximum number of users kept for the tenants that do not use the default size
+     * @param maxTenants         the maximum number of tenants kept in the cache
+     * @param timeToLive         the time in seconds after which the claims of a user are read again
+     * @param negativeTimeToLive the time in seconds after which the claims of a user without a mobile number are read
+     *                           again
+     */
+    public UserClaimCache(int tenantSize, Map<String, Integer> tenantSizes, final int maxTenants, int timeToLive,
+                          int negativeTimeToLive) {
+        if (maxTenants <= 0) {
+            throw new IllegalArgumentException("Maximum number of tenants must be positive : " + maxTenants);
+        }
+        this.tenantSize = Math.max(tenantSize, 0);
+        this.tenantSizes = tenantSizes != null ? new HashMap<>(tenantSizes) : Collections.<String, Integer>emptyMap();
+        this.timeToLive = TimeUnit.SECONDS.toNanos(Math.max(timeToLive, 0));
+        this.negativeTimeToLive = Math.min(TimeUnit.SECONDS.toNanos(Math.max(negativeTimeToLive, 0)),
+                this.timeToLive);
+        this.tenants = new LinkedHashMap<String, Map<String, Map<String, CachedClaims>>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Map<String, Map<String, CachedClaims>>> eldest) {
+                return size() > maxTenants;
+            }
+        };
+    }
+
+    /**
+     * Get the cache configured in application-authentication.xml.
+     *
+     * @return the cache or null if the cache is not enabled
+     */
+    public static UserClaimCache getInstance() {
+        if (instance == null) {
+            Map<String, String> parameters = SMSOTPUtils.getSMSParameters();
+            if (parameters == null ||
+                    !Boolean.parseBoolean(parameters.get(SMSOTPConstants.IS_ENABLED_USER_CLAIM_CACHE))) {
+                return null;
+            }
+            synchronized (UserClaimCache.class) {
+                if (instance == null) {
+                    int tenantSize = SMSOTPUtils.getIntParameter(parameters, SMSOTPConstants.USER_CLAIM_CACHE_SIZE,
+                            SMSOTPConstants.DEFAULT_USER_CLAIM_CACHE_SIZE);
+                    Map<String, Integer> tenantSizes =
+                            parseTenantSizes(parameters.get(SMSOTPConstants.USER_CLAIM_CACHE_TENANT_SIZES));
+                    int maxTenants = SMSOTPUtils.getIntParameter(parameters,
+                            SMSOTPConstants.USER_CLAIM_CACHE_MAX_TENANTS,
+                            SMSOTPConstants.DEFAULT_USER_CLAIM_CACHE_MAX_TENANTS);
+                    int timeToLive = SMSOTPUtils.getIntParameter(parameters, SMSOTPConstants.USER_CLAIM_CACHE_TTL,
+                            SMSOTPConstants.DEFAULT_USER_CLAIM_CACHE_TTL);
+                    int negativeTimeToLive = SMSOTPUtils.getIntParameter(parameters,
+                            SMSOTPConstants.USER_CLAIM_CACHE_NEGATIVE_TTL,
+                            SMSOTPConstants.DEFAULT_USER_CLAIM_CACHE_NEGATIVE_TTL);
+                    if (maxTenants <= 0) {
+                        maxTenants = SMSOTPConstants.DEFAULT_USER_CLAIM_CACHE_MAX_TENANTS;
+                    }
+                    if (log.isDebugEnabled()) {
+                        log.debug("Creating user claim cache with " + tenantSize + " users per tenant " +
+                                tenantSizes + ", " + maxTenants + " tenants, time to live " + timeToLive +
+                                "s and negative time to live " + negativeTimeToLive + "s");
+                    }
+                    instance = new UserClaimCache(tenantSize, tenantSizes, maxTenants, timeToLive,
+                            negativeTimeToLive);
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Clear the configured cache, if any.
+     */
+    public static void shutdownInstance() {
+        synchronized (UserClaimCache.class) {
+            if (instance != null) {
+                instance.invalidateAll();
+                instance = null;
+            }
+        }
+    }
+
+    /**
+     * Check whether a claim is kept in the cache.
+     *
+     * @param claimUri the claim
+     * @return true for the mobile number and the SMS OTP disabled flag
+     */
+    public static boolean isCached(String claimUri) {
+        return SMSOTPConstants.MOBILE_CLAIM.equals(claimUri) ||
+                SMSOTPConstants.USER_SMSOTP_DISABLED_CLAIM_URI.equals(claimUri);
+    }
+
+    /**
+     * Get the cached claims of a user.
+     *
+     * @param tenantDomain the tenant domain
+     * @param username     the tenant aware username
+     * @param claimUris    the claims needed
+     * @return the claims, or null if any of the claims needed is not cached
+     */
+    public Map<String, String> get(String tenantDomain, String username, Collection<String> claimUris) {
+        CachedClaims cachedClaims;
+        synchronized (tenants) {
+            Map<String, Map<String, CachedClaims>> users = tenants.get(tenantDomain);
+            Map<String, CachedClaims> userStoreUsers = users != null ? users.get(removeDomain(username)) : null;
+            cachedClaims = userStoreUsers != null ? userStoreUsers.get(username) : null;
+        }
+        if (cachedClaims != null && System.nanoTime() - cachedClaims.expiryTime < 0 &&
+                cachedClaims.claims.keySet().containsAll(claimUris)) {
+            hits.incrementAndGet();
+            SMSOTPMetrics.increment(HIT_METRIC);
+            return cachedClaims.claims;
+        }
+        misses.incrementAndGet();
+        SMSOTPMetrics.increment(MISS_METRIC);
+        return null;
+    }
+
+    /**
+     * @return the version of the cache, to get before the claims are read from the user store
+     */
+    public long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * Cache the claims of a user read from the user store. The claims that are not kept in the cache are ignored.
+     *
+     * @param tenantDomain the tenant domain
+     * @param username     the tenant aware username
+     * @param claimUris    the claims read
+     * @param values       the values read, without the claims the user has no value for
+     * @param readVersion  the version of the cache when the claims were read
+     */
+    public void put(String tenantDomain, String username, Collection<String> claimUris, Map<String, String> values,
+                    long readVersion) {
+        Map<String, String> claims = new HashMap<>();
+        for (String claimUri : claimUris) {
+            if (isCached(claimUri)) {
+                claims.put(claimUri, values != null ? values.get(claimUri) : null);
+            }
+        }
+        if (claims.isEmpty()) {
+            return;
+        }
+        long now = System.nanoTime();
+        boolean isNegative = claims.containsKey(SMSOTPConstants.MOBILE_CLAIM) &&
+                StringUtils.isEmpty(claims.get(SMSOTPConstants.MOBILE_CLAIM));
+        long expiryTime = now + (isNegative ? negativeTimeToLive : timeToLive);
+        synchronized (tenants) {
+            Map<String, Map<String, CachedClaims>> users =
+                    version.get() == readVersion ? getUsers(tenantDomain) : null;
+            if (users == null) {
+                return;
+            }
+            String name = removeDomain(username);
+            Map<String, CachedClaims> userStoreUsers = users.get(name);
+            if (userStoreUsers == null) {
+                // Mostly a single user store has the username.
+                userStoreUsers = new HashMap<>(2);
+                users.put(name, userStoreUsers);
+            }
+            CachedClaims cachedClaims = userStoreUsers.get(username);
+            if (cachedClaims != null && now - cachedClaims.expiryTime < 0) {
+                for (Map.Entry<String, String> claim : cachedClaims.claims.entrySet()) {
+                    if (!claims.containsKey(claim.getKey())) {
+                        claims.put(claim.getKey(), claim.getValue());
+                    }
+                }
+                if (cachedClaims.expiryTime - expiryTime < 0) {
+                    expiryTime = cachedClaims.expiryTime;
+                }
+            }
+            userStoreUsers.put(username, new CachedClaims(Collections.unmodifiableMap(claims), expiryTime));
+        }
+    }
+
+    /**
+     * Remove a user from the cache. A username without a user store domain also removes the user from the secondary
+     * user stores, since the user store listeners may not be given the domain.
+     *
+     * @param tenantDomain the tenant domain
+     * @param username     the tenant aware username
+     */
+    public void invalidate(String tenantDomain, String username) {
+        synchronized (tenants) {
+            version.incrementAndGet();
+            Map<String, Map<String, CachedClaims>> users = tenants.get(tenantDomain);
+            if (users == null) {
+                return;
+            }
+            if (username.indexOf('/') < 0) {
+                users.remove(username);
+            } else {
+                String name = removeDomain(username);
+                Map<String, CachedClaims> userStoreUsers = users.get(name);
+                if (userStoreUsers != null) {
+                    userStoreUsers.remove(username);
+                    if (userStoreUsers.isEmpty()) {
+                        users.remove(name);
+                    }
+                }
+            }
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Removed the cached claims of the user " + username + " of the tenant " + tenantDomain);
+        }
+    }
+
+    /**
+     * Remove all the users from the cache.
+     */
+    public void invalidateAll() {
+        synchronized (tenants) {
+            version.incrementAndGet();
+            tenants.clear();
+        }
+    }
+
+    /**
+     * @param tenantDomain the tenant domain
+     * @return the number of usernames, without the user store domain, of the tenant in the cache
+     */
+    public int size(String tenantDomain) {
+        synchronized (tenants) {
+            Map<String, Map<String, CachedClaims>> users = tenants.get(tenantDomain);
+            return users != null ? users.size() : 0;
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return the share of the lookups served from the cache, between 0 and 1
+     */
+    public double getHitRate() {
+        long hitCount = hits.get();
+        long total = hitCount + misses.get();
+        return total > 0 ? (double) hitCount / total : 0;
+    }
+
+    /**
+     * Parse the sizes of the tenants that do not use the default size, given as tenant:size separated by commas.
+     */
+    static Map<String, Integer> parseTenantSizes(String value) {
+        Map<String, Integer> tenantSizes = new HashMap<>();
+        if (StringUtils.isBlank(value)) {
+            return tenantSizes;
+        }
+        for (String tenantSize : value.split(",")) {
+            int separator = tenantSize.lastIndexOf(':');
+            if (separator <= 0) {
+                log.warn("Invalid tenant size " + tenantSize + " for the parameter " +
+                        SMSOTPConstants.USER_CLAIM_CACHE_TENANT_SIZES + ". Hence using the default size");
+                continue;
+            }
+            try {
+                tenantSizes.put(tenantSize.substring(0, separator).trim(),
+                        Integer.parseInt(tenantSize.substring(separator + 1).trim()));
+            } catch (NumberFormatException e) {
+                log.warn("Invalid tenant size " + tenantSize + " for the parameter " +
+                        SMSOTPConstants.USER_CLAIM_CACHE_TENANT_SIZES + ". Hence using the default size");
+            }
+        }
+        return tenantSizes;
+    }
+
+    /**
+     * Get the users of a tenant, creating the cache of the tenant if needed. Must hold the lock of the tenants.
+     *
+     * @return the users or null if no users are cached for the tenant
+     */
+    private Map<String, Map<String, CachedClaims>> getUsers(String tenantDomain) {
+        Map<String, Map<String, CachedClaims>> users = tenants.get(tenantDomain);
+        if (users == null) {
+            Integer size = tenantSizes.get(tenantDomain);
+            final int maxSize = size != null ? size : tenantSize;
+            if (maxSize <= 0) {
+                return null;
+            }
+            users = new LinkedHashMap<String, Map<String, CachedClaims>>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Map<String, CachedClaims>> eldest) {
+                    return size() > maxSize;
+                }
+            };
+            tenants.put(tenantDomain, users);
+        }
+        return users;
+    }
+
+    private static String removeDomain(String username) {
+        int separator = username.indexOf('/');
+        return separator < 0 ? username : username.substring(separator + 1);
+    }
+
+    private static class CachedClaims {
+
+        private final Map<String, String> claims;
+        private final long expiryTime;
+
+        private CachedClaims(Map<String, String> claims, long expiryTime) {
+            this.claims = claims;
+            this.expiryTime = expiryTime;
+        }
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ *  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.carbon.identity.authenticator.smsotp.gateway;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.identity.authenticator.smsotp.SMSOTPConstants;
+import org.wso2.carbon.identity.authenticator.smsotp.SMSOTPMetrics;
+import org.wso2.carbon.identity.authenticator.smsotp.SMSOTPUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Collects the messages sent to the same SMS gateway for up to the maximum delay or the maximum batch size, and
+ * submits them to the bulk API of the gateway as one request. Every message of a batch gets the same future, which
+ * completes with the response of the bulk request.
+ */
+public class SMSBatcher {
+
+    public static final String BATCHES_METRIC = "smsotp.gateway.batches";
+    public static final String BATCHED_MESSAGES_METRIC = "smsotp.gateway.batched.messages";
+
+    private static Log log = LogFactory.getLog(SMSBatcher.class);
+    private static volatile SMSBatcher instance;
+
+    private final int maxBatchSize;
+    private final long maxDelay;
+    private final ScheduledThreadPoolExecutor executor;
+    private final Map<String, Batch> openBatches = new HashMap<>();
+
+    /**
+     * Create a batcher.
+     *
+     * @param maxBatchSize the maximum number of messages in a batch
+     * @param maxDelay     the maximum time in milliseconds a message waits for the batch to fill up
+     * @param threads      the number of threads sending the batches
+     */
+    public SMSBatcher(int maxBatchSize, long maxDelay, int threads) {
+        if (maxBatchSize <= 0 || threads <= 0) {
+            throw new IllegalArgumentException("SMS batch size and threads must be positive : " + maxBatchSize +
+                    ", " + threads);
+        }
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelay = Math.max(maxDelay, 0);
+        this.executor = new ScheduledThreadPoolExecutor(threads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "SMSOTP-SMS-Batcher-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Get the batcher configured in application-authentication.xml.
+     *
+     * @return the batcher or null if batching is not enabled
+     */
+    public static SMSBatcher getInstance() {
+        if (instance == null) {
+            Map<String, String> parameters = SMSOTPUtils.getSMSParameters();
+            if (parameters == null || !Boolean.parseBoolean(parameters.get(SMSOTPConstants.IS_ENABLED_SMS_BATCHING))) {
+                return null;
+            }
+            synchronized (SMSBatcher.class) {
+                if (instance == null) {
+                    int maxBatchSize = SMSOTPUtils.getIntParameter(parameters, SMSOTPConstants.SMS_BATCH_MAX_SIZE,
+                            SMSOTPConstants.DEFAULT_SMS_BATCH_MAX_SIZE);
+                    int maxDelay = SMSOTPUtils.getIntParameter(parameters, SMSOTPConstants.SMS_BATCH_MAX_DELAY,
+                            SMSOTPConstants.DEFAULT_SMS_BATCH_MAX_DELAY);
+                    int threads = SMSOTPUtils.getIntParameter(parameters, SMSOTPConstants.SMS_BATCH_THREADS,
+                            SMSOTPConstants.DEFAULT_SMS_BATCH_THREADS);
+                    if (log.isDebugEnabled()) {
+                        log.debug("Creating SMS batcher with maximum batch size " + maxBatchSize +
+                                ", maximum delay " + maxDelay + " and " + threads + " threads");
+                    }
+                    instance = new SMSBatcher(maxBatchSize, maxDelay, threads);
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Shutdown the configured batcher, if any.
+     */
+    public static void shutdownInstance() {
+        synchronized (SMSBatcher.class) {
+            if (instance != null) {
+                instance.shutdown();
+                instance = null;
+            }
+        }
+    }
+
+    /**
+     * Add a message to the open batch of a gateway.
+     *
+     * @param gateway    identifies the gateway and its bulk API
+     * @param message    the message, formatted as an item of the bulk payload
+     * @param bulkSender sends the batch, used if the message opens a new batch
+     * @return the future of the batch
+     */
+    public Future<SMSGatewayResponse> submit(final String gateway, String message, SMSBulkSender bulkSender) {
+        final Batch batch;
+        boolean isFull;
+        synchronized (openBatches) {
+            Batch openBatch = openBatches.get(gateway);
+            if (openBatch == null) {
+                openBatch = new Batch(bulkSender);
+                openBatches.put(gateway, openBatch);
+                try {
+                    final Batch newBatch = openBatch;
+                    executor.schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            flush(gateway, newBatch);
+                        }
+                    }, maxDelay, TimeUnit.MILLISECONDS);
+                } catch (RejectedExecutionException e) {
+                    openBatches.remove(gateway);
+                    throw e;
+                }
+            }
+            batch = openBatch;
+            batch.messages.add(message);
+            isFull = batch.messages.size() >= maxBatchSize;
+        }
+        if (isFull) {
+            flush(gateway, batch);
+        }
+        return batch.task;
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private void flush(String gateway, Batch batch) {
+        synchronized (openBatches) {
+            if (openBatches.get(gateway) != batch) {
+                return;
+            }
+            openBatches.remove(gateway);
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Sending a batch of " + batch.messages.size() + " messages to the SMS gateway");
+        }
+        SMSOTPMetrics.increment(BATCHES_METRIC);
+        SMSOTPMetrics.add(BATCHED_MESSAGES_METRIC, batch.messages.size());
+        try {
+            executor.execute(batch.task);
+        } catch (RejectedExecutionException e) {
+            batch.task.cancel(false);
+        }
+    }
+
+    /**
+     * Messages collected for a gateway, and the task that sends them.
+     */
+    private static class Batch {
+
+        private final List<String> messages = new ArrayList<>();
+        private final FutureTask<SMSGatewayResponse> task;
+
+        private Batch(final SMSBulkSender bulkSender) {
+            task = new FutureTask<>(new Callable<SMSGatewayResponse>() {
+                @Override
+                public SMSGatewayResponse call() throws Exception {
+                    return bulkSender.send(Collections.unmodifiableList(messages));
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ *  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.carbon.identity.authenticator.smsotp.gateway;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Sends a batch of messages to the bulk API of an SMS gateway.
+ */
+public interface SMSBulkSender {
+
+    /**
+     * Send a batch of messages as one bulk request.
+     *
+     * @param messages the messages, each already formatted as an item of the bulk payload
+     * @return the response of the gateway, which applies to all the messages of the batch
+     * @throws IOException if the request could not be sent or the response could not be read
+     */
+    SMSGatewayResponse send(List<String> messages) throws IOException;
+}
@@ -0,0 +1,64 @@
+/*
+ *  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.carbon.identity.authenticator.smsotp.gateway;
+
+import java.io.Serializable;
+
+/**
+ * Status of an SMS that is sent in the background. The status is kept in the authentication context, so that a
+ * failure can be shown to the user on the next request of the flow.
+ */
+public class SMSDispatchStatus implements Serializable {
+
+    private static final long serialVersionUID = -3163914785629736410L;
+
+    private volatile boolean completed;
+    private volatile boolean failed;
+    private volatile String errorCode;
+
+    /**
+     * Mark the SMS as accepted by the gateway.
+     */
+    public void setSent() {
+        completed = true;
+    }
+
+    /**
+     * Mark the SMS as failed.
+     *
+     * @param errorCode the error code returned by the gateway, or null if it is not known
+     */
+    public void setFailed(String errorCode) {
+        this.errorCode = errorCode;
+        this.failed = true;
+        this.completed = true;
+    }
+
+    public boolean isCompleted() {
+        return completed;
+    }
+
+    public boolean isFailed() {
+        return failed;
+    }
+
+    public String getErrorCode() {
+        return errorCode;
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ *  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.carbon.identity.authenticator.smsotp.gateway;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.identity.authenticator.smsotp.SMSOTPConstants;
+import org.wso2.carbon.identity.authenticator.smsotp.SMSTaskExecutor;
+import org.wso2.carbon.identity.authenticator.smsotp.SMSOTPUtils;
+
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Bounded executor that sends the SMS in the background, so that the user can be redirected to the OTP page without
+ * waiting for the SMS gateway. The SMS are sent on virtual threads when they are enabled.
+ */
+public class SMSDispatcher {
+
+    private static final String THREAD_NAME = "SMS-Dispatcher";
+
+    private static Log log = LogFactory.getLog(SMSDispatcher.class);
+    private static volatile SMSDispatcher instance;
+
+    private final SMSTaskExecutor executor;
+
+    /**
+     * Create a dispatcher.
+     *
+     * @param threads   the number of threads sending the SMS
+     * @param queueSize the maximum number of SMS waiting to be sent
+     */
+    public SMSDispatcher(int threads, int queueSize) {
+        this(threads, queueSize, false);
+    }
+
+    private SMSDispatcher(int threads, int queueSize, boolean isConfigured) {
+        if (threads <= 0 || queueSize <= 0) {
+            throw new IllegalArgumentException("SMS dispatch threads and queue size must be positive : " + threads +
+                    ", " + queueSize);
+        }
+        executor = isConfigured ? SMSTaskExecutor.create(THREAD_NAME, threads, queueSize) :
+                new SMSTaskExecutor(THREAD_NAME, threads, queueSize, false);
+    }
+
+    /**
+     * Get the dispatcher configured in application-authentication.xml.
+     *
+     * @return the dispatcher
+     */
+    public static SMSDispatcher getInstance() {
+        if (instance == null) {
+            synchronized (SMSDispatcher.class) {
+                if (instance == null) {
+                    int threads = SMSOTPConstants.DEFAULT_SMS_DISPATCH_THREADS;
+                    int queueSize = SMSOTPConstants.DEFAULT_SMS_DISPATCH_QUEUE_SIZE;
+                    Map<String, String> parameters = SMSOTPUtils.getSMSParameters();
+                    if (parameters != null) {
+                        threads = SMSOTPUtils.getIntParameter(parameters, SMSOTPConstants.SMS_DISPATCH_THREADS,
+                                threads);
+                        queueSize = SMSOTPUtils.getIntParameter(parameters, SMSOTPConstants.SMS_DISPATCH_QUEUE_SIZE,
+                                queueSize);
+                    }
+                    if (threads <= 0) {
+                        threads = SMSOTPConstants.DEFAULT_SMS_DISPATCH_THREADS;
+                    }
+                    if (queueSize <= 0) {
+                        queueSize = SMSOTPConstants.DEFAULT_SMS_DISPATCH_QUEUE_SIZE;
+                    }
+                    if (log.isDebugEnabled()) {
+                        log.debug("Creating SMS dispatcher with " + threads + " threads and queue size " +
+                                queueSize);
+                    }
+                    instance = new SMSDispatcher(threads, queueSize, true);
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Shutdown the configured dispatcher, if any.
+     */
+    public static void shutdownInstance() {
+        synchronized (SMSDispatcher.class) {
+            if (instance != null) {
+                instance.shutdown();
+                instance = null;
+            }
+        }
+    }
+
+    /**
+     * Queue an SMS to be sent in the background.
+     *
+     * @param task the task sending the SMS
+     * @return false if the queue is full or the dispatcher is shutdown
+     */
+    public boolean dispatch(Runnable task) {
+        try {
+            executor.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            if (log.isDebugEnabled()) {
+                log.debug("SMS dispatch queue is full. Queued SMS : " + executor.getQueuedCount());
+            }
+            return false;
+        }
+    }
+
+    public int getQueuedCount() {
+        return executor.getQueuedCount();
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ *  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.carbon.identity.authenticator.smsotp.gateway;
+
+/**
+ * Definition of an SMS gateway, as configured in the SMS OTP identity provider. The url, headers and payload may
+ * contain the placeholders of {@link SMSTemplate}. The optional bulk payload wraps the payloads of a batch of messages,
+ * in place of the $ctx.messages placeholder.
+ */
+public class SMSGateway {
+
+    private final String smsUrl;
+    private final String httpMethod;
+    private final String headers;
+    private final String payload;
+    private final String bulkPayload;
+    private final String httpResponse;
+    private final int weight;
+    private final boolean isHttp2;
+    private final String responseBody;
+    private final boolean isIdempotent;
+
+    /**
+     * Create a gateway definition.
+     *
+     * @param smsUrl       the sms url
+     * @param httpMethod   the http method
+     * @param headers      the headers, separated by comma
+     * @param payload      the payload
+     * @param httpResponse the expected http response code, or null to accept 200, 201 and 202
+     * @param weight       the share of the messages sent to the gateway, 0 to use it only for failover
+     */
+    public SMSGateway(String smsUrl, String httpMethod, String headers, String payload, String httpResponse,
+                      int weight) {
+        this(smsUrl, httpMethod, headers, payload, httpResponse, weight, null);
+    }
+
+    /**
+     * Create a gateway definition with a bulk API.
+     *
+     * @param smsUrl       the sms url
+     * @param httpMethod   the http method
+     * @param headers      the headers, separated by comma
+     * @param payload      the payload
+     * @param httpResponse the expected http response code, or null to accept 200, 201 and 202
+     * @param weight       the share of the messages sent to the gateway, 0 to use it only for failover
+     * @param bulkPayload  the payload of the bulk API, or null if the gateway has no bulk API
+     */
+    public SMSGateway(String smsUrl, String httpMethod, String headers, String payload, String httpResponse,
+                      int weight, String bulkPayload) {
+        this(smsUrl, httpMethod, headers, payload, httpResponse, weight, bulkPayload, false);
+    }
+
+    /**
+     * Create a gateway definition.
+     *
+     * @param smsUrl       the sms url
+     * @param httpMethod   the http method
+     * @param headers      the headers, separated by comma
+     * @param payload      the payload
+     * @param httpResponse the expected http response code, or null to accept 200, 201 and 202
+     * @param weight       the share of the messages sent to the gateway, 0 to use it only for failover
+     * @param bulkPayload  the payload of the bulk API, or null if the gateway has no bulk API
+     * @param isHttp2      whether to send the messages over HTTP/2
+     */
+    public SMSGateway(String smsUrl, String httpMethod, String headers, String payload, String httpResponse,
+                      int weight, String bulkPayload, boolean isHttp2) {
+        this(smsUrl, httpMethod, headers, payload, httpResponse, weight, bulkPayload, isHttp2, null);
+    }
+
+    /**
+     * Create a gateway definition.
+     *
+     * @param smsUrl       the sms url
+     * @param httpMethod   the http method
+     * @param headers      the headers, separated by comma
+     * @param payload      the payload
+     * @param httpResponse the expected http response code, or null to accept 200, 201 and 202
+     * @param weight       the share of the messages sent to the gateway, 0 to use it only for failover
+     * @param bulkPayload  the payload of the bulk API, or null if the gateway has no bulk API
+     * @param isHttp2      whether to send the messages over HTTP/2
+     * @param responseBody the {@link SMSResponseMatcher} expression the response body must match, or null to only
+     *                     check the response code
+     */
+    public SMSGateway(String smsUrl, String httpMethod, String headers, String payload, String httpResponse,
+                      int weight, String bulkPayload, boolean isHttp2, String responseBody) {
+        this(smsUrl, httpMethod, headers, payload, httpResponse, weight, bulkPayload, isHttp2, responseBody, false);
+    }
+
+    /**
+     * Create a gateway definition.
+     *
+     * @param smsUrl       the sms url
+     * @param httpMethod   the http method
+     * @param headers      the headers, separated by comma
+     * @param payload      the payload
+     * @param httpResponse the expected http response code, or null to accept 200, 201 and 202
+     * @param weight       the share of the messages sent to the gateway, 0 to use it only for failover
+     * @param bulkPayload  the payload of the bulk API, or null if the gateway has no bulk API
+     * @param isHttp2      whether to send the messages over HTTP/2
+     * @param responseBody the {@link SMSResponseMatcher} expression the response body must match, or null to only
+     *                     check the response code
+     * @param isIdempotent whether the gateway ignores a repeated request, so that a request may be retried after it
+     *                     was sent
+     */
+    public SMSGateway(String smsUrl, String httpMethod, String headers, String payload, String httpResponse,
+                      int weight, String bulkPayload, boolean isHttp2, String responseBody, boolean isIdempotent) {
+        this.smsUrl = smsUrl;
+        this.httpMethod = httpMethod;
+        this.headers = headers;
+        this.payload = payload;
+        this.httpResponse = httpResponse;
+        this.weight = Math.max(weight, 0);
+        this.bulkPayload = bulkPayload;
+        this.isHttp2 = isHttp2;
+        this.responseBody = responseBody;
+        this.isIdempotent = isIdempotent;
+    }
+
+    public String getSmsUrl() {
+        return smsUrl;
+    }
+
+    public String getHttpMethod() {
+        return httpMethod;
+    }
+
+    public String getHeaders() {
+        return headers;
+    }
+
+    public String getPayload() {
+        return payload;
+    }
+
+    public String getBulkPayload() {
+        return bulkPayload;
+    }
+
+    public String getHttpResponse() {
+        return httpResponse;
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+
+    public boolean isHttp2() {
+        return isHttp2;
+    }
+
+    public String getResponseBody() {
+        return responseBody;
+    }
+
+    public boolean isIdempotent() {
+        return isIdempotent;
+    }
+
+    @Override
+    public String toString() {
+        return httpMethod + " " + smsUrl;
+    }
+}
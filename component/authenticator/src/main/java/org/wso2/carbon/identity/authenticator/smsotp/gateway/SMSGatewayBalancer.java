@@ -0,0 +1,151 @@
+/*
+ *  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.carbon.identity.authenticator.smsotp.gateway;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Spreads the messages over a list of SMS gateways with smooth weighted round-robin, and gives the order in which the
+ * gateways are tried when a gateway fails. The configured weight of each gateway is scaled by its recent success
+ * rate, so a failing gateway gets less of the traffic until it recovers. A gateway with weight 0 is only used for
+ * failover.
+ */
+public class SMSGatewayBalancer {
+
+    // Weight of the latest result in the success rate of a gateway.
+    private static final double SUCCESS_RATE_DECAY = 0.1;
+    // Share of its weight a gateway keeps however often it fails, so that it can recover.
+    private static final double MIN_SUCCESS_RATE = 0.05;
+
+    private static final int MAX_BALANCERS = 256;
+
+    // Least recently used balancers are dropped, so that the gateway definitions of all the tenants can not grow
+    // the map without bound.
+    private static final Map<String, SMSGatewayBalancer> balancers = new LinkedHashMap<String, SMSGatewayBalancer>(
+            16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, SMSGatewayBalancer> eldest) {
+            return size() > MAX_BALANCERS;
+        }
+    };
+
+    private final List<SMSGateway> gateways;
+    private final double[] currentWeights;
+    private final double[] successRates;
+
+    /**
+     * Create a balancer.
+     *
+     * @param gateways the gateways, in failover order
+     */
+    public SMSGatewayBalancer(List<SMSGateway> gateways) {
+        if (gateways == null || gateways.isEmpty()) {
+            throw new IllegalArgumentException("At least one SMS gateway is required");
+        }
+        this.gateways = new ArrayList<>(gateways);
+        this.currentWeights = new double[gateways.size()];
+        this.successRates = new double[gateways.size()];
+        for (int i = 0; i < successRates.length; i++) {
+            successRates[i] = 1;
+        }
+    }
+
+    /**
+     * Get the balancer of a list of gateways. The same balancer is returned for the same gateway definitions, so
+     * that the round-robin and the success rates are kept between the authentication requests. Gateways that only
+     * differ in their headers or payload, such as the accounts of two tenants at the same provider, get separate
+     * balancers.
+     *
+     * @param gateways the gateways, in failover order
+     * @return the balancer
+     */
+    public static SMSGatewayBalancer getBalancer(List<SMSGateway> gateways) {
+        StringBuilder key = new StringBuilder();
+        for (SMSGateway gateway : gateways) {
+            key.append(gateway.getWeight()).append(' ').append(gateway).append('\n')
+                    .append(gateway.getHeaders()).append('\n')
+                    .append(gateway.getPayload()).append('\n');
+        }
+        synchronized (balancers) {
+            SMSGatewayBalancer balancer = balancers.get(key.toString());
+            if (balancer == null) {
+                balancer = new SMSGatewayBalancer(gateways);
+                balancers.put(key.toString(), balancer);
+            }
+            return balancer;
+        }
+    }
+
+    /**
+     * Select the gateway of the next message.
+     *
+     * @return the gateways in the order they should be tried, the selected gateway first and then the others in
+     * failover order
+     */
+    public synchronized List<SMSGateway> select() {
+        int selected = -1;
+        double totalWeight = 0;
+        for (int i = 0; i < gateways.size(); i++) {
+            double effectiveWeight = gateways.get(i).getWeight() * Math.max(successRates[i], MIN_SUCCESS_RATE);
+            currentWeights[i] += effectiveWeight;
+            totalWeight += effectiveWeight;
+            if (effectiveWeight > 0 && (selected < 0 || currentWeights[i] > currentWeights[selected])) {
+                selected = i;
+            }
+        }
+        if (selected < 0) {
+            return Collections.unmodifiableList(gateways);
+        }
+        currentWeights[selected] -= totalWeight;
+        List<SMSGateway> order = new ArrayList<>(gateways.size());
+        order.add(gateways.get(selected));
+        for (int i = 0; i < gateways.size(); i++) {
+            if (i != selected) {
+                order.add(gateways.get(i));
+            }
+        }
+        return order;
+    }
+
+    /**
+     * Record the result of a message sent to a gateway.
+     *
+     * @param gateway the gateway
+     * @param success whether the gateway accepted the message
+     */
+    public synchronized void recordResult(SMSGateway gateway, boolean success) {
+        int index = gateways.indexOf(gateway);
+        if (index >= 0) {
+            successRates[index] = successRates[index] * (1 - SUCCESS_RATE_DECAY) + (success ? SUCCESS_RATE_DECAY : 0);
+        }
+    }
+
+    /**
+     * @param gateway the gateway
+     * @return the recent success rate of the gateway, between 0 and 1
+     */
+    public synchronized double getSuccessRate(SMSGateway gateway) {
+        int index = gateways.indexOf(gateway);
+        return index >= 0 ? successRates[index] : 0;
+    }
+}
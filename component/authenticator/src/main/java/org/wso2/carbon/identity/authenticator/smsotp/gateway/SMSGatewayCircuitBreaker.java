@@ -0,0 +1,151 @@
+/*
+ *  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.carbon.identity.authenticator.smsotp.gateway;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.identity.authenticator.smsotp.SMSOTPMetrics;
+
+/**
+ * Circuit breaker of an SMS gateway. The circuit opens when the gateway fails the given number of times within the
+ * sliding window, and the messages are then rejected without calling the gateway. Once the open duration is over a
+ * single probe message is let through. The circuit closes if the probe succeeds and opens again otherwise.
+ * <p>
+ * Every state transition increments the metric {@code smsotp.gateway.<gateway>.circuit.<state>}, and every rejected
+ * message increments {@code smsotp.gateway.<gateway>.circuit.rejected}.
+ */
+public class SMSGatewayCircuitBreaker {
+
+    /**
+     * States of the circuit.
+     */
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private static Log log = LogFactory.getLog(SMSGatewayCircuitBreaker.class);
+
+    private final String gateway;
+    private final long windowMillis;
+    private final long openDurationMillis;
+    private final long[] failureTimes;
+    private int nextFailure;
+    private int failureCount;
+    private State state = State.CLOSED;
+    private long openedTime;
+    private boolean probeInProgress;
+
+    /**
+     * Create a circuit breaker.
+     *
+     * @param gateway            the gateway, used in the logs and metric names
+     * @param failureThreshold   the number of failures within the window that opens the circuit
+     * @param windowMillis       the length of the sliding window in milliseconds
+     * @param openDurationMillis the time in milliseconds the circuit stays open before a probe is let through
+     */
+    public SMSGatewayCircuitBreaker(String gateway, int failureThreshold, long windowMillis, long openDurationMillis) {
+        if (failureThreshold <= 0) {
+            throw new IllegalArgumentException("Circuit breaker failure threshold must be positive : " +
+                    failureThreshold);
+        }
+        this.gateway = gateway;
+        this.windowMillis = windowMillis;
+        this.openDurationMillis = openDurationMillis;
+        this.failureTimes = new long[failureThreshold];
+    }
+
+    /**
+     * Check whether a message can be sent to the gateway. A caller that is allowed to send has to report the result
+     * with {@link #recordSuccess()} or {@link #recordFailure()}.
+     *
+     * @return true if the message can be sent
+     */
+    public synchronized boolean allowRequest() {
+        if (state == State.OPEN && System.currentTimeMillis() - openedTime >= openDurationMillis) {
+            transitionTo(State.HALF_OPEN);
+        }
+        if (state == State.CLOSED) {
+            return true;
+        }
+        if (state == State.HALF_OPEN && !probeInProgress) {
+            probeInProgress = true;
+            return true;
+        }
+        SMSOTPMetrics.increment(getMetricName("rejected"));
+        return false;
+    }
+
+    /**
+     * Record a message accepted by the gateway.
+     */
+    public synchronized void recordSuccess() {
+        probeInProgress = false;
+        if (state != State.CLOSED) {
+            failureCount = 0;
+            transitionTo(State.CLOSED);
+        }
+    }
+
+    /**
+     * Record a failure or a timeout of the gateway.
+     */
+    public synchronized void recordFailure() {
+        long now = System.currentTimeMillis();
+        if (state == State.HALF_OPEN) {
+            probeInProgress = false;
+            open(now);
+            return;
+        }
+        if (state == State.OPEN) {
+            return;
+        }
+        failureTimes[nextFailure] = now;
+        nextFailure = (nextFailure + 1) % failureTimes.length;
+        failureCount = Math.min(failureCount + 1, failureTimes.length);
+        // After the increment the next slot holds the oldest of the last failureThreshold failures.
+        if (failureCount == failureTimes.length && now - failureTimes[nextFailure] <= windowMillis) {
+            open(now);
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    private void open(long now) {
+        openedTime = now;
+        failureCount = 0;
+        transitionTo(State.OPEN);
+    }
+
+    private void transitionTo(State newState) {
+        if (newState == State.OPEN) {
+            log.warn("Circuit of the SMS gateway " + gateway + " is open. Messages are rejected for " +
+                    openDurationMillis + " ms");
+        } else if (log.isDebugEnabled()) {
+            log.debug("Circuit of the SMS gateway " + gateway + " changed from " + state + " to " + newState);
+        }
+        state = newState;
+        SMSOTPMetrics.increment(getMetricName(newState.name().toLowerCase()));
+    }
+
+    private String getMetricName(String event) {
+        return "smsotp.gateway." + gateway + ".circuit." + event;
+    }
+}
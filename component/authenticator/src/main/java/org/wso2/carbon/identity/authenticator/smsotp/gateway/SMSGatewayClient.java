@@ -0,0 +1,240 @@
+/*
+ *  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.carbon.identity.authenticator.smsotp.gateway;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.StatusLine;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+import org.wso2.carbon.identity.authenticator.smsotp.SMSOTPConstants;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HTTP client of a single SMS gateway. The connections to the gateway are kept alive in a pool and reused by the
+ * subsequent messages, so that only the first message sent through a connection pays for the TCP and TLS handshake.
+ */
+public class SMSGatewayClient implements Closeable {
+
+    /**
+     * Value of the connection statistics of a client that does not track its connections.
+     */
+    public static final int UNSUPPORTED_STATISTIC = -1;
+
+    protected static final String DEFAULT_CONTENT_TYPE = "application/x-www-form-urlencoded";
+
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final CloseableHttpClient httpClient;
+    private final SMSGatewayCircuitBreaker circuitBreaker;
+
+    /**
+     * Create a client for a gateway.
+     *
+     * @param maxConnections the maximum number of connections kept to the gateway
+     */
+    public SMSGatewayClient(int maxConnections) {
+        this(maxConnections, null);
+    }
+
+    /**
+     * Create a client for a gateway.
+     *
+     * @param maxConnections the maximum number of connections kept to the gateway
+     * @param circuitBreaker the circuit breaker of the gateway, or null to always call the gateway
+     */
+    public SMSGatewayClient(int maxConnections, SMSGatewayCircuitBreaker circuitBreaker) {
+        if (maxConnections <= 0) {
+            throw new IllegalArgumentException("Maximum number of gateway connections must be positive : " +
+                    maxConnections);
+        }
+        Registry<ConnectionSocketFactory> socketFactoryRegistry = RegistryBuilder.<ConnectionSocketFactory>create()
+                .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                .register(SMSOTPConstants.HTTPS, SSLConnectionSocketFactory.getSystemSocketFactory())
+                .build();
+        connectionManager = new PoolingHttpClientConnectionManager(socketFactoryRegistry);
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnections);
+        httpClient = HttpClients.custom()
+                .useSystemProperties()
+                .setConnectionManager(connectionManager)
+                .disableCookieManagement()
+                .build();
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    /**
+     * Create a client that sends the requests through its own {@link #execute(SMSGatewayRequest)}.
+     *
+     * @param circuitBreaker the circuit breaker of the gateway, or null to always call the gateway
+     */
+    protected SMSGatewayClient(SMSGatewayCircuitBreaker circuitBreaker) {
+        this.connectionManager = null;
+        this.httpClient = null;
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    /**
+     * Send a request to the gateway. The response body is always consumed, so the connection is returned to the pool
+     * whether the gateway accepted the message or not. Only the beginning of the body is kept, when the request has a
+     * check on the response body. Connection failures, timeouts and 5xx responses are counted
+     * as failures by the circuit breaker.
+     *
+     * @param gatewayRequest the request
+     * @return the status of the gateway response
+     * @throws SMSGatewayUnavailableException if the circuit of the gateway is open
+     * @throws IOException                    if the request could not be sent or the response could not be read
+     */
+    public SMSGatewayResponse send(SMSGatewayRequest gatewayRequest) throws IOException {
+        URI uri = getURI(gatewayRequest);
+        if (circuitBreaker != null && !circuitBreaker.allowRequest()) {
+            throw new SMSGatewayUnavailableException("Circuit of the SMS gateway " + uri.getHost() + " is open");
+        }
+        boolean isFailed = true;
+        try {
+            SMSGatewayResponse response = execute(gatewayRequest);
+            isFailed = response.getStatusCode() >= 500;
+            return response;
+        } finally {
+            if (circuitBreaker != null) {
+                if (isFailed) {
+                    circuitBreaker.recordFailure();
+                } else {
+                    circuitBreaker.recordSuccess();
+                }
+            }
+        }
+    }
+
+    public SMSGatewayCircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * Send a request to the gateway, without going through the circuit breaker.
+     *
+     * @param gatewayRequest the request
+     * @return the status of the gateway response
+     * @throws IOException if the request could not be sent or the response could not be read
+     */
+    protected SMSGatewayResponse execute(SMSGatewayRequest gatewayRequest) throws IOException {
+        try (CloseableHttpResponse response = httpClient.execute(createRequest(gatewayRequest))) {
+            StatusLine statusLine = response.getStatusLine();
+            HttpEntity entity = response.getEntity();
+            boolean isBodyMatched = true;
+            SMSResponseMatcher responseMatcher = gatewayRequest.getResponseMatcher();
+            if (responseMatcher != null) {
+                Header contentType = entity != null ? entity.getContentType() : null;
+                isBodyMatched = responseMatcher.matches(entity != null ? entity.getContent() : null,
+                        contentType != null ? contentType.getValue() : null, gatewayRequest.getMaxResponseBodySize());
+            }
+            EntityUtils.consume(entity);
+            return new SMSGatewayResponse(statusLine.getStatusCode(), statusLine.getReasonPhrase(), isBodyMatched);
+        }
+    }
+
+    protected static URI getURI(SMSGatewayRequest gatewayRequest) throws MalformedURLException {
+        try {
+            return URI.create(gatewayRequest.getUrl());
+        } catch (IllegalArgumentException e) {
+            throw new MalformedURLException("Invalid SMS gateway URL : " + e.getMessage());
+        }
+    }
+
+    private HttpRequestBase createRequest(SMSGatewayRequest gatewayRequest) throws IOException {
+        URI uri = getURI(gatewayRequest);
+        HttpRequestBase request;
+        if (SMSOTPConstants.POST_METHOD.equalsIgnoreCase(gatewayRequest.getHttpMethod())) {
+            HttpPost post = new HttpPost(uri);
+            if (gatewayRequest.getPayload() != null) {
+                ByteArrayEntity entity = new ByteArrayEntity(gatewayRequest.getPayload()
+                        .getBytes(SMSOTPConstants.CHAR_SET));
+                entity.setContentType(DEFAULT_CONTENT_TYPE);
+                post.setEntity(entity);
+            }
+            request = post;
+        } else {
+            request = new HttpGet(uri);
+        }
+        if (gatewayRequest.getHeaders() != null) {
+            for (Map.Entry<String, String> header : gatewayRequest.getHeaders().entrySet()) {
+                request.setHeader(header.getKey(), header.getValue());
+            }
+        }
+        if (request instanceof HttpPost && !request.containsHeader(HttpHeaders.CONTENT_TYPE)) {
+            request.setHeader(HttpHeaders.CONTENT_TYPE, DEFAULT_CONTENT_TYPE);
+        }
+        request.setConfig(RequestConfig.custom()
+                .setConnectTimeout(gatewayRequest.getConnectTimeout())
+                .setConnectionRequestTimeout(gatewayRequest.getConnectTimeout())
+                .setSocketTimeout(gatewayRequest.getReadTimeout())
+                .build());
+        return request;
+    }
+
+    /**
+     * Close the connections that were idle for longer than the given time or expired by the gateway.
+     *
+     * @param idleTimeout the idle time in seconds
+     */
+    public void closeIdleConnections(long idleTimeout) {
+        connectionManager.closeExpiredConnections();
+        connectionManager.closeIdleConnections(idleTimeout, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @return the number of open connections that are not in use, or {@link #UNSUPPORTED_STATISTIC} if the client
+     * does not track its connections
+     */
+    public int getAvailableConnections() {
+        return connectionManager.getTotalStats().getAvailable();
+    }
+
+    /**
+     * @return the number of connections that are in use, or {@link #UNSUPPORTED_STATISTIC} if the client does not
+     * track its connections
+     */
+    public int getLeasedConnections() {
+        return connectionManager.getTotalStats().getLeased();
+    }
+
+    @Override
+    public void close() throws IOException {
+        httpClient.close();
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ *  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.carbon.identity.authenticator.smsotp.gateway;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.identity.authenticator.smsotp.SMSOTPConstants;
+import org.wso2.carbon.identity.authenticator.smsotp.SMSOTPUtils;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps one long-lived {@link SMSGatewayClient} per SMS gateway and HTTP version and closes the connections that stay
+ * idle in their pools for longer than the configured idle timeout. As the gateways are configured by the tenants, only
+ * the most recently used clients are kept. An evicted client is closed after the idle timeout, so that the messages
+ * being sent through it are not cut off.
+ */
+public class SMSGatewayClientManager {
+
+    private static Log log = LogFactory.getLog(SMSGatewayClientManager.class);
+    private static volatile SMSGatewayClientManager instance;
+
+    private static final int MAX_CLIENTS = 256;
+
+    private final Map<String, SMSGatewayClient> clients = new LinkedHashMap<String, SMSGatewayClient>(16, 0.75f,
+            true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, SMSGatewayClient> eldest) {
+            if (size() > MAX_CLIENTS) {
+                closeEvictedClient(eldest.getKey(), eldest.getValue());
+                return true;
+            }
+            return false;
+        }
+    };
+    private final int maxConnectionsPerRoute;
+    private final int idleConnectionTimeout;
+    private int circuitBreakerFailureThreshold;
+    private long circuitBreakerWindow;
+    private long circuitBreakerOpenDuration;
+    private final ScheduledExecutorService idleConnectionEvictor;
+    private volatile boolean isHttp2UnsupportedLogged;
+
+    /**
+     * Create a manager and start evicting the idle connections.
+     *
+     * @param maxConnectionsPerRoute the maximum number of connections kept to each gateway
+     * @param idleConnectionTimeout  the time in seconds after which an idle connection is closed
+     */
+    public SMSGatewayClientManager(int maxConnectionsPerRoute, int idleConnectionTimeout) {
+        if (maxConnectionsPerRoute <= 0) {
+            throw new IllegalArgumentException("Maximum number of gateway connections must be positive : " +
+                    maxConnectionsPerRoute);
+        }
+        this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+        this.idleConnectionTimeout = Math.max(idleConnectionTimeout, 1);
+        this.idleConnectionEvictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "SMSOTP-Gateway-Idle-Connection-Evictor");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        long evictionInterval = Math.max(this.idleConnectionTimeout / 2, 1);
+        idleConnectionEvictor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                closeIdleConnections();
+            }
+        }, evictionInterval, evictionInterval, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Get the manager configured in application-authentication.xml.
+     *
+     * @return the manager
+     */
+    public static SMSGatewayClientManager getInstance() {
+        if (instance == null) {
+            synchronized (SMSGatewayClientManager.class) {
+                if (instance == null) {
+                    int maxConnectionsPerRoute = SMSOTPConstants.DEFAULT_SMS_GATEWAY_MAX_CONNECTIONS_PER_ROUTE;
+                    int idleConnectionTimeout = SMSOTPConstants.DEFAULT_SMS_GATEWAY_IDLE_CONNECTION_TIMEOUT;
+                    Map<String, String> parameters = SMSOTPUtils.getSMSParameters();
+                    if (parameters != null) {
+                        maxConnectionsPerRoute = SMSOTPUtils.getIntParameter(parameters,
+                                SMSOTPConstants.SMS_GATEWAY_MAX_CONNECTIONS_PER_ROUTE, maxConnectionsPerRoute);
+                        idleConnectionTimeout = SMSOTPUtils.getIntParameter(parameters,
+                                SMSOTPConstants.SMS_GATEWAY_IDLE_CONNECTION_TIMEOUT, idleConnectionTimeout);
+                    }
+                    if (maxConnectionsPerRoute <= 0) {
+                        maxConnectionsPerRoute = SMSOTPConstants.DEFAULT_SMS_GATEWAY_MAX_CONNECTIONS_PER_ROUTE;
+                    }
+                    if (log.isDebugEnabled()) {
+                        log.debug("Creating SMS gateway clients with " + maxConnectionsPerRoute +
+                                " connections per gateway and idle connection timeout " + idleConnectionTimeout);
+                    }
+                    SMSGatewayClientManager clientManager = new SMSGatewayClientManager(maxConnectionsPerRoute,
+                            idleConnectionTimeout);
+                    clientManager.setCircuitBreaker(
+                            SMSOTPUtils.getIntParameter(parameters, SMSOTPConstants.CIRCUIT_BREAKER_FAILURE_THRESHOLD,
+                                    SMSOTPConstants.DEFAULT_CIRCUIT_BREAKER_FAILURE_THRESHOLD),
+                            SMSOTPUtils.getIntParameter(parameters, SMSOTPConstants.CIRCUIT_BREAKER_WINDOW,
+                                    SMSOTPConstants.DEFAULT_CIRCUIT_BREAKER_WINDOW),
+                            SMSOTPUtils.getIntParameter(parameters, SMSOTPConstants.CIRCUIT_BREAKER_OPEN_DURATION,
+                                    SMSOTPConstants.DEFAULT_CIRCUIT_BREAKER_OPEN_DURATION));
+                    instance = clientManager;
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Shutdown the configured manager, if any, and close the connections of all the gateways.
+     */
+    public static void shutdownInstance() {
+        synchronized (SMSGatewayClientManager.class) {
+            if (instance != null) {
+                instance.shutdown();
+                instance = null;
+            }
+        }
+    }
+
+    /**
+     * Configure the circuit breakers of the gateway clients created after this call.
+     *
+     * @param failureThreshold the number of failures within the window that opens the circuit, 0 to disable the
+     *                         circuit breakers
+     * @param window           the length of the sliding window in seconds
+     * @param openDuration     the time in seconds the circuit stays open before a probe message is let through
+     */
+    public void setCircuitBreaker(int failureThreshold, int window, int openDuration) {
+        this.circuitBreakerFailureThreshold = failureThreshold;
+        this.circuitBreakerWindow = TimeUnit.SECONDS.toMillis(window);
+        this.circuitBreakerOpenDuration = TimeUnit.SECONDS.toMillis(openDuration);
+    }
+
+    /**
+     * Get the HTTP/1.1 client of the gateway that serves the given url.
+     *
+     * @param url the url of the gateway
+     * @return the client
+     */
+    public SMSGatewayClient getClient(URL url) {
+        return getClient(url, false);
+    }
+
+    /**
+     * Get the client of the gateway that serves the given url. The HTTP/2 client is only available on Java 11 or
+     * later, otherwise the HTTP/1.1 client is returned.
+     *
+     * @param url     the url of the gateway
+     * @param isHttp2 whether to send the messages over HTTP/2
+     * @return the client
+     */
+    public SMSGatewayClient getClient(URL url, boolean isHttp2) {
+        if (isHttp2 && !SMSHttp2GatewayClient.isSupported()) {
+            if (!isHttp2UnsupportedLogged) {
+                isHttp2UnsupportedLogged = true;
+                log.warn("HTTP/2 SMS gateway client requires Java 11 or later. Hence using HTTP/1.1");
+            }
+            isHttp2 = false;
+        }
+        String gateway = url.getProtocol() + "://" + url.getAuthority() + (isHttp2 ? " h2" : "");
+        synchronized (clients) {
+            SMSGatewayClient client = clients.get(gateway);
+            if (client == null) {
+                SMSGatewayCircuitBreaker circuitBreaker = null;
+                if (circuitBreakerFailureThreshold > 0) {
+                    circuitBreaker = new SMSGatewayCircuitBreaker(url.getAuthority(),
+                            circuitBreakerFailureThreshold, circuitBreakerWindow, circuitBreakerOpenDuration);
+                }
+                client = isHttp2 ? new SMSHttp2GatewayClient(circuitBreaker) :
+                        new SMSGatewayClient(maxConnectionsPerRoute, circuitBreaker);
+                clients.put(gateway, client);
+            }
+            return client;
+        }
+    }
+
+    public void shutdown() {
+        idleConnectionEvictor.shutdownNow();
+        synchronized (clients) {
+            for (Map.Entry<String, SMSGatewayClient> client : clients.entrySet()) {
+                closeClient(client.getKey(), client.getValue());
+            }
+            clients.clear();
+        }
+    }
+
+    private void closeIdleConnections() {
+        List<SMSGatewayClient> activeClients;
+        synchronized (clients) {
+            activeClients = new ArrayList<>(clients.values());
+        }
+        for (SMSGatewayClient client : activeClients) {
+            client.closeIdleConnections(idleConnectionTimeout);
+        }
+    }
+
+    private void closeEvictedClient(final String gateway, final SMSGatewayClient client) {
+        if (log.isDebugEnabled()) {
+            log.debug("Closing the least recently used client of the SMS gateway " + gateway);
+        }
+        try {
+            idleConnectionEvictor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    closeClient(gateway, client);
+                }
+            }, idleConnectionTimeout, TimeUnit.SECONDS);
+        } catch (RejectedExecutionException e) {
+            closeClient(gateway, client);
+        }
+    }
+
+    private void closeClient(String gateway, SMSGatewayClient client) {
+        try {
+            client.close();
+        } catch (IOException e) {
+            log.warn("Error while closing the connections to the SMS gateway " + gateway, e);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ *  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.carbon.identity.authenticator.smsotp.gateway;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The headers of an SMS gateway, parsed once from the configured header string. Headers are separated by comma and
+ * the name of a header is separated from its value by the first colon, so a value may contain colons. The values
+ * may contain the placeholders of {@link SMSTemplate}, and only those values are rendered for each SMS.
+ */
+public class SMSGatewayHeaders {
+
+    private static final int MAX_CACHED_HEADERS = 256;
+    private static final SMSGatewayHeaders EMPTY = new SMSGatewayHeaders(Collections.<String>emptyList(),
+            Collections.<SMSTemplate>emptyList());
+
+    private static Log log = LogFactory.getLog(SMSGatewayHeaders.class);
+    private static final ConcurrentMap<String, SMSGatewayHeaders> headersCache = new ConcurrentHashMap<>();
+
+    private final String[] names;
+    private final SMSTemplate[] values;
+    private final Map<String, String> staticHeaders;
+
+    private SMSGatewayHeaders(List<String> names, List<SMSTemplate> values) {
+        this.names = names.toArray(new String[names.size()]);
+        this.values = values.toArray(new SMSTemplate[values.size()]);
+        Map<String, String> headers = new LinkedHashMap<>();
+        boolean hasPlaceholders = false;
+        for (int i = 0; i < this.names.length; i++) {
+            headers.put(this.names[i], this.values[i].toString());
+            hasPlaceholders |= this.values[i].hasPlaceholders();
+        }
+        this.staticHeaders = hasPlaceholders ? null : Collections.unmodifiableMap(headers);
+    }
+
+    /**
+     * Get the parsed form of a header string. Header strings are parsed once and cached, hence a changed configuration
+     * gets newly parsed headers. Headers without a name or a value are skipped.
+     *
+     * @param headerString the header string
+     * @return the headers
+     */
+    public static SMSGatewayHeaders parse(String headerString) {
+        if (headerString == null || headerString.trim().isEmpty()) {
+            return EMPTY;
+        }
+        SMSGatewayHeaders headers = headersCache.get(headerString);
+        if (headers == null) {
+            if (headersCache.size() >= MAX_CACHED_HEADERS) {
+                headersCache.clear();
+            }
+            List<String> names = new ArrayList<>();
+            List<SMSTemplate> values = new ArrayList<>();
+            for (String header : headerString.trim().split(",")) {
+                int separator = header.indexOf(':');
+                String name = separator > 0 ? header.substring(0, separator).trim() : "";
+                String value = separator > 0 ? header.substring(separator + 1).trim() : "";
+                if (name.isEmpty() || value.isEmpty()) {
+                    log.warn("Either header name or value not found. Hence not adding header which contains " +
+                            header);
+                    continue;
+                }
+                names.add(name);
+                values.add(SMSTemplate.compile(value));
+            }
+            headers = new SMSGatewayHeaders(names, values);
+            SMSGatewayHeaders existing = headersCache.putIfAbsent(headerString, headers);
+            if (existing != null) {
+                headers = existing;
+            }
+        }
+        return headers;
+    }
+
+    /**
+     * Render the headers of an SMS.
+     *
+     * @param encodedMobileNo the encoded mobile number
+     * @param smsMessage      the SMS message, which is followed by the code
+     * @param otpToken        the code
+     * @return the headers, which must not be modified
+     */
+    public Map<String, String> render(String encodedMobileNo, String smsMessage, String otpToken) {
+        if (staticHeaders != null) {
+            return staticHeaders;
+        }
+        Map<String, String> headers = new LinkedHashMap<>();
+        for (int i = 0; i < names.length; i++) {
+            headers.put(names[i], values[i].hasPlaceholders() ? values[i].render(encodedMobileNo, smsMessage,
+                    otpToken, SMSTemplate.Encoding.HEADER) : values[i].toString());
+        }
+        return headers;
+    }
+
+    /**
+     * @return the number of headers
+     */
+    public int size() {
+        return names.length;
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ *  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.carbon.identity.authenticator.smsotp.gateway;
+
+import java.util.Map;
+
+/**
+ * Request to an SMS gateway, with the message parameters already substituted.
+ */
+public class SMSGatewayRequest {
+
+    private final String httpMethod;
+    private final String url;
+    private final Map<String, String> headers;
+    private final String payload;
+    private int connectTimeout;
+    private int readTimeout;
+    private SMSResponseMatcher responseMatcher;
+    private int maxResponseBodySize;
+    private boolean idempotent;
+
+    /**
+     * Create a request.
+     *
+     * @param httpMethod the http method, GET is used unless the method is POST
+     * @param url        the url of the gateway
+     * @param headers    the request headers
+     * @param payload    the payload, only sent with POST
+     */
+    public SMSGatewayRequest(String httpMethod, String url, Map<String, String> headers, String payload) {
+        this.httpMethod = httpMethod;
+        this.url = url;
+        this.headers = headers;
+        this.payload = payload;
+    }
+
+    public String getHttpMethod() {
+        return httpMethod;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    public String getPayload() {
+        return payload;
+    }
+
+    /**
+     * @return the connect timeout in milliseconds, 0 for no timeout
+     */
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    /**
+     * @return the timeout in milliseconds to wait for data from the gateway, 0 for no timeout
+     */
+    public int getReadTimeout() {
+        return readTimeout;
+    }
+
+    public void setReadTimeout(int readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * @return the check on the response body, or null if only the status code is checked
+     */
+    public SMSResponseMatcher getResponseMatcher() {
+        return responseMatcher;
+    }
+
+    /**
+     * Check the response body.
+     *
+     * @param responseMatcher     the check on the response body, or null to only check the status code
+     * @param maxResponseBodySize the maximum number of bytes of the response body to check
+     */
+    public void setResponseMatcher(SMSResponseMatcher responseMatcher, int maxResponseBodySize) {
+        this.responseMatcher = responseMatcher;
+        this.maxResponseBodySize = maxResponseBodySize;
+    }
+
+    public int getMaxResponseBodySize() {
+        return maxResponseBodySize;
+    }
+
+    /**
+     * @return whether the gateway ignores a repeated request, so that the request may be retried after it was sent
+     */
+    public boolean isIdempotent() {
+        return idempotent;
+    }
+
+    public void setIdempotent(boolean idempotent) {
+        this.idempotent = idempotent;
+    }
+}
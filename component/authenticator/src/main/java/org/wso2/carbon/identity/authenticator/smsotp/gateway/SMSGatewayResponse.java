@@ -0,0 +1,61 @@
+/*
+ *  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.carbon.identity.authenticator.smsotp.gateway;
+
+/**
+ * Status of the response received from an SMS gateway.
+ */
+public class SMSGatewayResponse {
+
+    private final int statusCode;
+    private final String reasonPhrase;
+    private final boolean isBodyMatched;
+
+    public SMSGatewayResponse(int statusCode, String reasonPhrase) {
+        this(statusCode, reasonPhrase, true);
+    }
+
+    /**
+     * Create a response.
+     *
+     * @param statusCode    the status code
+     * @param reasonPhrase  the reason phrase
+     * @param isBodyMatched whether the response body matched the {@link SMSResponseMatcher} of the request
+     */
+    public SMSGatewayResponse(int statusCode, String reasonPhrase, boolean isBodyMatched) {
+        this.statusCode = statusCode;
+        this.reasonPhrase = reasonPhrase;
+        this.isBodyMatched = isBodyMatched;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public String getReasonPhrase() {
+        return reasonPhrase;
+    }
+
+    /**
+     * @return false if the response body did not match the check of the request, true otherwise
+     */
+    public boolean isBodyMatched() {
+        return isBodyMatched;
+    }
+}
@@ -0,0 +1,33 @@
+/*
+ *  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.carbon.identity.authenticator.smsotp.gateway;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a message is not sent because the circuit of the SMS gateway is open.
+ */
+public class SMSGatewayUnavailableException extends IOException {
+
+    private static final long serialVersionUID = 4907264937283713585L;
+
+    public SMSGatewayUnavailableException(String message) {
+        super(message);
+    }
+}
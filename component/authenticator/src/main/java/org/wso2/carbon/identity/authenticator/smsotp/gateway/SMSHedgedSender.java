@@ -0,0 +1,275 @@
+/*
+ *  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.carbon.identity.authenticator.smsotp.gateway;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.identity.authenticator.smsotp.SMSOTPConstants;
+import org.wso2.carbon.identity.authenticator.smsotp.SMSOTPMetrics;
+import org.wso2.carbon.identity.authenticator.smsotp.SMSOTPUtils;
+import org.wso2.carbon.identity.authenticator.smsotp.SMSTaskExecutor;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends a message to a primary gateway and, when the primary gateway has not answered within the hedge delay, sends
+ * the same message to a secondary gateway. Whichever gateway accepts the message first wins. The hedge delay is either
+ * fixed or the 95th percentile of the observed latencies of the primary gateways. The number of hedged messages is
+ * limited to a percentage of all the messages, so that the extra cost stays bounded.
+ */
+public class SMSHedgedSender {
+
+    public static final String HEDGED_METRIC = "smsotp.hedge.sent";
+    public static final String HEDGE_WON_METRIC = "smsotp.hedge.won";
+    public static final String HEDGE_BUDGET_EXHAUSTED_METRIC = "smsotp.hedge.budget_exhausted";
+
+    // Delay used until enough latencies are observed to compute the percentile.
+    private static final long DEFAULT_HEDGE_DELAY = 1000;
+    private static final int MIN_LATENCY_SAMPLES = 20;
+    private static final int LATENCY_SAMPLES = 1024;
+    // Number of hedged messages that can be sent in a burst.
+    private static final double MAX_HEDGE_BUDGET = 10;
+
+    private static final String THREAD_NAME = "SMS-Hedging";
+
+    private static Log log = LogFactory.getLog(SMSHedgedSender.class);
+    private static volatile SMSHedgedSender instance;
+
+    private final SMSTaskExecutor executor;
+    private final long hedgeDelay;
+    private final double hedgeRatio;
+    private final long[] latencies = new long[LATENCY_SAMPLES];
+    private int latencyCount;
+    private int nextLatency;
+    private long percentileLatency = -1;
+    private double hedgeBudget = 1;
+
+    /**
+     * Create a hedged sender.
+     *
+     * @param threads           the maximum number of threads sending the messages
+     * @param hedgeDelay        the time in milliseconds to wait for the primary gateway, 0 to use the 95th percentile
+     *                          of the observed latencies
+     * @param maxHedgePercentage the maximum percentage of the messages that are hedged
+     */
+    public SMSHedgedSender(int threads, long hedgeDelay, int maxHedgePercentage) {
+        this(createExecutor(threads, false), hedgeDelay, maxHedgePercentage);
+    }
+
+    private SMSHedgedSender(SMSTaskExecutor executor, long hedgeDelay, int maxHedgePercentage) {
+        this.hedgeDelay = Math.max(hedgeDelay, 0);
+        this.hedgeRatio = Math.min(Math.max(maxHedgePercentage, 0), 100) / 100.0;
+        this.executor = executor;
+    }
+
+    /**
+     * Get the hedged sender configured in application-authentication.xml.
+     *
+     * @return the hedged sender or null if hedging is not enabled
+     */
+    public static SMSHedgedSender getInstance() {
+        if (instance == null) {
+            Map<String, String> parameters = SMSOTPUtils.getSMSParameters();
+            if (parameters == null || !Boolean.parseBoolean(parameters.get(SMSOTPConstants.IS_ENABLED_SMS_HEDGING))) {
+                return null;
+            }
+            synchronized (SMSHedgedSender.class) {
+                if (instance == null) {
+                    int threads = SMSOTPUtils.getIntParameter(parameters, SMSOTPConstants.SMS_HEDGING_THREADS,
+                            SMSOTPConstants.DEFAULT_SMS_HEDGING_THREADS);
+                    int hedgeDelay = SMSOTPUtils.getIntParameter(parameters, SMSOTPConstants.SMS_HEDGE_DELAY, 0);
+                    int maxHedgePercentage = SMSOTPUtils.getIntParameter(parameters,
+                            SMSOTPConstants.SMS_HEDGE_MAX_PERCENTAGE, SMSOTPConstants.DEFAULT_SMS_HEDGE_MAX_PERCENTAGE);
+                    if (log.isDebugEnabled()) {
+                        log.debug("Creating SMS hedged sender with " + threads + " threads, hedge delay " +
+                                hedgeDelay + " and maximum hedge percentage " + maxHedgePercentage);
+                    }
+                    instance = new SMSHedgedSender(createExecutor(threads, true), hedgeDelay, maxHedgePercentage);
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Shutdown the configured hedged sender, if any.
+     */
+    public static void shutdownInstance() {
+        synchronized (SMSHedgedSender.class) {
+            if (instance != null) {
+                instance.shutdown();
+                instance = null;
+            }
+        }
+    }
+
+    /**
+     * Send a message to the primary gateway, hedged with the secondary gateway. When the primary gateway fails before
+     * the hedge delay, or the hedge budget is exhausted and the primary gateway fails, the message is sent to the
+     * secondary gateway as a plain failover.
+     *
+     * @param primary   sends the message to the primary gateway and returns whether it was accepted
+     * @param secondary sends the message to the secondary gateway and returns whether it was accepted
+     * @return true if one of the gateways accepted the message
+     */
+    public boolean send(Callable<Boolean> primary, Callable<Boolean> secondary) {
+        recordSend();
+        CompletionService<Boolean> completionService = new ExecutorCompletionService<>(executor);
+        Future<Boolean> primaryFuture;
+        try {
+            primaryFuture = completionService.submit(timed(primary));
+        } catch (RejectedExecutionException e) {
+            if (log.isDebugEnabled()) {
+                log.debug("All the SMS hedging threads are busy. Hence sending the message without hedging");
+            }
+            return call(primary) || call(secondary);
+        }
+        try {
+            Future<Boolean> completed = completionService.poll(getHedgeDelay(), TimeUnit.MILLISECONDS);
+            if (completed != null) {
+                return getResult(completed) || call(secondary);
+            }
+            if (!acquireHedge()) {
+                SMSOTPMetrics.increment(HEDGE_BUDGET_EXHAUSTED_METRIC);
+                return getResult(primaryFuture) || call(secondary);
+            }
+            Future<Boolean> secondaryFuture;
+            try {
+                secondaryFuture = completionService.submit(secondary);
+            } catch (RejectedExecutionException e) {
+                return getResult(primaryFuture) || call(secondary);
+            }
+            SMSOTPMetrics.increment(HEDGED_METRIC);
+            if (log.isDebugEnabled()) {
+                log.debug("Primary SMS gateway did not answer within " + getHedgeDelay() + " ms. Hence hedging " +
+                        "the message with the secondary gateway");
+            }
+            completed = completionService.take();
+            if (getResult(completed)) {
+                if (completed == secondaryFuture) {
+                    SMSOTPMetrics.increment(HEDGE_WON_METRIC);
+                }
+                return true;
+            }
+            completed = completionService.take();
+            if (getResult(completed)) {
+                if (completed == secondaryFuture) {
+                    SMSOTPMetrics.increment(HEDGE_WON_METRIC);
+                }
+                return true;
+            }
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * @return the time in milliseconds to wait for the primary gateway before hedging
+     */
+    public synchronized long getHedgeDelay() {
+        if (hedgeDelay > 0) {
+            return hedgeDelay;
+        }
+        if (latencyCount < MIN_LATENCY_SAMPLES) {
+            return DEFAULT_HEDGE_DELAY;
+        }
+        if (percentileLatency < 0) {
+            long[] sorted = Arrays.copyOf(latencies, latencyCount);
+            Arrays.sort(sorted);
+            percentileLatency = Math.max(sorted[(int) Math.ceil(sorted.length * 0.95) - 1], 1);
+        }
+        return percentileLatency;
+    }
+
+    private static SMSTaskExecutor createExecutor(int threads, boolean isConfigured) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("SMS hedging threads must be positive : " + threads);
+        }
+        return isConfigured ? SMSTaskExecutor.create(THREAD_NAME, threads, 0) :
+                new SMSTaskExecutor(THREAD_NAME, threads, 0, false);
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private synchronized void recordLatency(long latency) {
+        latencies[nextLatency] = latency;
+        nextLatency = (nextLatency + 1) % latencies.length;
+        latencyCount = Math.min(latencyCount + 1, latencies.length);
+        // Recompute the percentile every 64 samples.
+        if ((nextLatency & 63) == 0 || latencyCount <= MIN_LATENCY_SAMPLES) {
+            percentileLatency = -1;
+        }
+    }
+
+    private synchronized void recordSend() {
+        hedgeBudget = Math.min(hedgeBudget + hedgeRatio, MAX_HEDGE_BUDGET);
+    }
+
+    private synchronized boolean acquireHedge() {
+        if (hedgeBudget >= 1) {
+            hedgeBudget--;
+            return true;
+        }
+        return false;
+    }
+
+    private Callable<Boolean> timed(final Callable<Boolean> task) {
+        return new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                long start = System.nanoTime();
+                try {
+                    return task.call();
+                } finally {
+                    recordLatency(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                }
+            }
+        };
+    }
+
+    private boolean getResult(Future<Boolean> future) throws InterruptedException {
+        try {
+            return Boolean.TRUE.equals(future.get());
+        } catch (ExecutionException e) {
+            log.error("Error while sending the SMS ", e.getCause());
+            return false;
+        }
+    }
+
+    private boolean call(Callable<Boolean> task) {
+        try {
+            return Boolean.TRUE.equals(task.call());
+        } catch (Exception e) {
+            log.error("Error while sending the SMS ", e);
+            return false;
+        }
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ *  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.carbon.identity.authenticator.smsotp.gateway;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.identity.authenticator.smsotp.SMSOTPConstants;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Client of a single SMS gateway that speaks HTTP/2 through the java.net.http client of Java 11 or later. All the
+ * messages to the gateway are multiplexed over one connection, which falls back to HTTP/1.1 if the gateway does not
+ * support HTTP/2. Since the authenticator is built for Java 7, the java.net.http client is used through reflection.
+ */
+public class SMSHttp2GatewayClient extends SMSGatewayClient {
+
+    private static Log log = LogFactory.getLog(SMSHttp2GatewayClient.class);
+
+    // Headers that are set by the java.net.http client and may not be set by the request.
+    private static final Set<String> RESTRICTED_HEADERS = new HashSet<>(Arrays.asList("connection",
+            "content-length", "expect", "host", "upgrade"));
+
+    private static final Method NEW_CLIENT_BUILDER;
+    private static final Method CLIENT_BUILDER_VERSION;
+    private static final Method CLIENT_BUILDER_BUILD;
+    private static final Object HTTP_2;
+    private static final Method NEW_REQUEST_BUILDER;
+    private static final Method REQUEST_BUILDER_TIMEOUT;
+    private static final Method REQUEST_BUILDER_HEADER;
+    private static final Method REQUEST_BUILDER_METHOD;
+    private static final Method REQUEST_BUILDER_BUILD;
+    private static final Method BODY_OF_BYTE_ARRAY;
+    private static final Method NO_BODY;
+    private static final Method DISCARDING_BODY;
+    private static final Method INPUT_STREAM_BODY;
+    private static final Method RESPONSE_BODY;
+    private static final Method RESPONSE_HEADERS;
+    private static final Method HEADERS_FIRST_VALUE;
+    private static final Method OPTIONAL_OR_ELSE;
+    private static final Method SEND;
+    private static final Method STATUS_CODE;
+    private static final Method DURATION_OF_MILLIS;
+
+    static {
+        Method[] methods = new Method[19];
+        Object http2 = null;
+        try {
+            Class<?> client = Class.forName("java.net.http.HttpClient");
+            Class<?> clientBuilder = Class.forName("java.net.http.HttpClient$Builder");
+            Class<?> version = Class.forName("java.net.http.HttpClient$Version");
+            Class<?> request = Class.forName("java.net.http.HttpRequest");
+            Class<?> requestBuilder = Class.forName("java.net.http.HttpRequest$Builder");
+            Class<?> bodyPublisher = Class.forName("java.net.http.HttpRequest$BodyPublisher");
+            Class<?> bodyHandler = Class.forName("java.net.http.HttpResponse$BodyHandler");
+            Class<?> duration = Class.forName("java.time.Duration");
+            http2 = version.getField("HTTP_2").get(null);
+            methods[0] = client.getMethod("newBuilder");
+            methods[1] = clientBuilder.getMethod("version", version);
+            methods[2] = clientBuilder.getMethod("build");
+            methods[3] = request.getMethod("newBuilder", java.net.URI.class);
+            methods[4] = requestBuilder.getMethod("timeout", duration);
+            methods[5] = requestBuilder.getMethod("header", String.class, String.class);
+            methods[6] = requestBuilder.getMethod("method", String.class, bodyPublisher);
+            methods[7] = requestBuilder.getMethod("build");
+            methods[8] = Class.forName("java.net.http.HttpRequest$BodyPublishers").getMethod("ofByteArray",
+                    byte[].class);
+            methods[9] = Class.forName("java.net.http.HttpRequest$BodyPublishers").getMethod("noBody");
+            methods[10] = Class.forName("java.net.http.HttpResponse$BodyHandlers").getMethod("discarding");
+            methods[11] = client.getMethod("send", request, bodyHandler);
+            methods[12] = Class.forName("java.net.http.HttpResponse").getMethod("statusCode");
+            methods[13] = duration.getMethod("ofMillis", long.class);
+            methods[14] = Class.forName("java.net.http.HttpResponse$BodyHandlers").getMethod("ofInputStream");
+            methods[15] = Class.forName("java.net.http.HttpResponse").getMethod("body");
+            methods[16] = Class.forName("java.net.http.HttpResponse").getMethod("headers");
+            methods[17] = Class.forName("java.net.http.HttpHeaders").getMethod("firstValue", String.class);
+            methods[18] = Class.forName("java.util.Optional").getMethod("orElse", Object.class);
+        } catch (ClassNotFoundException | NoSuchMethodException | NoSuchFieldException | IllegalAccessException e) {
+            methods = new Method[methods.length];
+        }
+        NEW_CLIENT_BUILDER = methods[0];
+        CLIENT_BUILDER_VERSION = methods[1];
+        CLIENT_BUILDER_BUILD = methods[2];
+        NEW_REQUEST_BUILDER = methods[3];
+        REQUEST_BUILDER_TIMEOUT = methods[4];
+        REQUEST_BUILDER_HEADER = methods[5];
+        REQUEST_BUILDER_METHOD = methods[6];
+        REQUEST_BUILDER_BUILD = methods[7];
+        BODY_OF_BYTE_ARRAY = methods[8];
+        NO_BODY = methods[9];
+        DISCARDING_BODY = methods[10];
+        SEND = methods[11];
+        STATUS_CODE = methods[12];
+        DURATION_OF_MILLIS = methods[13];
+        INPUT_STREAM_BODY = methods[14];
+        RESPONSE_BODY = methods[15];
+        RESPONSE_HEADERS = methods[16];
+        HEADERS_FIRST_VALUE = methods[17];
+        OPTIONAL_OR_ELSE = methods[18];
+        HTTP_2 = http2;
+    }
+
+    private final Object httpClient;
+
+    /**
+     * Create a client for a gateway.
+     *
+     * @param circuitBreaker the circuit breaker of the gateway, or null to always call the gateway
+     * @throws IllegalStateException if the Java runtime has no java.net.http client
+     */
+    public SMSHttp2GatewayClient(SMSGatewayCircuitBreaker circuitBreaker) {
+        super(circuitBreaker);
+        if (!isSupported()) {
+            throw new IllegalStateException("HTTP/2 SMS gateway client requires Java 11 or later");
+        }
+        try {
+            httpClient = CLIENT_BUILDER_BUILD.invoke(CLIENT_BUILDER_VERSION.invoke(NEW_CLIENT_BUILDER.invoke(null),
+                    HTTP_2));
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            throw new IllegalStateException("Unable to create the HTTP/2 SMS gateway client", e);
+        }
+    }
+
+    /**
+     * @return whether the Java runtime has the java.net.http client
+     */
+    public static boolean isSupported() {
+        return OPTIONAL_OR_ELSE != null;
+    }
+
+    @Override
+    protected SMSGatewayResponse execute(SMSGatewayRequest gatewayRequest) throws IOException {
+        Object response = invoke(SEND, httpClient, createRequest(gatewayRequest), getBodyHandler(gatewayRequest));
+        return toGatewayResponse(response, gatewayRequest);
+    }
+
+    /**
+     * The connections of the java.net.http client are closed by the client itself once they are idle for the
+     * jdk.httpclient.keepalive.timeout.
+     */
+    @Override
+    public void closeIdleConnections(long idleTimeout) {
+    }
+
+    /**
+     * The java.net.http client does not expose its connection pool.
+     *
+     * @return {@link #UNSUPPORTED_STATISTIC}
+     */
+    @Override
+    public int getAvailableConnections() {
+        return UNSUPPORTED_STATISTIC;
+    }
+
+    /**
+     * The java.net.http client does not expose its connection pool.
+     *
+     * @return {@link #UNSUPPORTED_STATISTIC}
+     */
+    @Override
+    public int getLeasedConnections() {
+        return UNSUPPORTED_STATISTIC;
+    }
+
+    @Override
+    public void close() throws IOException {
+        // The java.net.http client can only be closed from Java 21 onwards. Otherwise it is closed once unreferenced.
+        if (httpClient instanceof AutoCloseable) {
+            try {
+                ((AutoCloseable) httpClient).close();
+            } catch (IOException | RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException("Error while closing the HTTP/2 SMS gateway client", e);
+            }
+        }
+    }
+
+    private Object createRequest(SMSGatewayRequest gatewayRequest) throws IOException {
+        Object builder = invoke(NEW_REQUEST_BUILDER, null, getURI(gatewayRequest));
+        long timeout = (long) Math.max(gatewayRequest.getConnectTimeout(), 0) +
+                Math.max(gatewayRequest.getReadTimeout(), 0);
+        if (timeout > 0) {
+            invoke(REQUEST_BUILDER_TIMEOUT, builder, invoke(DURATION_OF_MILLIS, null, timeout));
+        }
+        boolean hasContentType = false;
+        if (gatewayRequest.getHeaders() != null) {
+            for (Map.Entry<String, String> header : gatewayRequest.getHeaders().entrySet()) {
+                String name = header.getKey().toLowerCase(Locale.ENGLISH);
+                if (RESTRICTED_HEADERS.contains(name)) {
+                    if (log.isDebugEnabled()) {
+                        log.debug("Ignoring the " + header.getKey() + " header, which is set by the HTTP/2 client");
+                    }
+                    continue;
+                }
+                hasContentType |= "content-type".equals(name);
+                invoke(REQUEST_BUILDER_HEADER, builder, header.getKey(), header.getValue());
+            }
+        }
+        Object body;
+        String method;
+        if (SMSOTPConstants.POST_METHOD.equalsIgnoreCase(gatewayRequest.getHttpMethod())) {
+            method = SMSOTPConstants.POST_METHOD;
+            if (!hasContentType) {
+                invoke(REQUEST_BUILDER_HEADER, builder, "Content-Type", DEFAULT_CONTENT_TYPE);
+            }
+            body = gatewayRequest.getPayload() != null ? invoke(BODY_OF_BYTE_ARRAY, null,
+                    (Object) gatewayRequest.getPayload().getBytes(SMSOTPConstants.CHAR_SET)) : invoke(NO_BODY, null);
+        } else {
+            method = SMSOTPConstants.GET_METHOD;
+            body = invoke(NO_BODY, null);
+        }
+        invoke(REQUEST_BUILDER_METHOD, builder, method, body);
+        return invoke(REQUEST_BUILDER_BUILD, builder);
+    }
+
+    private static Object getBodyHandler(SMSGatewayRequest gatewayRequest) throws IOException {
+        return invoke(gatewayRequest.getResponseMatcher() != null ? INPUT_STREAM_BODY : DISCARDING_BODY, null);
+    }
+
+    private static SMSGatewayResponse toGatewayResponse(Object response, SMSGatewayRequest gatewayRequest)
+            throws IOException {
+        boolean isBodyMatched = true;
+        SMSResponseMatcher responseMatcher = gatewayRequest.getResponseMatcher();
+        if (responseMatcher != null) {
+            // Closing the body before the end cancels the rest of the response, and only the HTTP/2 stream of it.
+            try (InputStream body = (InputStream) invoke(RESPONSE_BODY, response)) {
+                String contentType = (String) invoke(OPTIONAL_OR_ELSE, invoke(HEADERS_FIRST_VALUE,
+                        invoke(RESPONSE_HEADERS, response), "Content-Type"), (Object) null);
+                isBodyMatched = responseMatcher.matches(body, contentType, gatewayRequest.getMaxResponseBodySize());
+            }
+        }
+        // HTTP/2 has no reason phrase.
+        return new SMSGatewayResponse((Integer) invoke(STATUS_CODE, response), "", isBodyMatched);
+    }
+
+    private static Object invoke(Method method, Object target, Object... args) throws IOException {
+        try {
+            return method.invoke(target, args);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Unable to call the HTTP/2 SMS gateway client", e);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while sending the SMS");
+            } else if (cause instanceof IllegalArgumentException) {
+                throw new IOException("Invalid SMS gateway request : " + cause.getMessage(), cause);
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+}
@@ -0,0 +1,481 @@
+/*
+ *  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.carbon.identity.authenticator.smsotp.gateway;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.wso2.carbon.identity.authenticator.smsotp.SMSOTPConstants;
+import org.wso2.carbon.identity.authenticator.smsotp.SMSOTPMetrics;
+import org.wso2.carbon.identity.authenticator.smsotp.SMSOTPUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Append-only journal of the SMS to be sent, kept in a memory-mapped file. An SMS is added to the journal before it is
+ * sent and marked as done once a gateway accepts it. The SMS that could not be sent stay pending and are retried by a
+ * drain worker until they expire, also after a restart of the server. Appending is a single write to the mapped file,
+ * which is not forced to the disk unless sync is enabled.
+ * <p>
+ * A record consists of its length, its state, its id, its expiry and the entry as JSON. A length of 0 marks the end of
+ * the journal. When the file is full, the pending records are moved to the start of the file.
+ * <p>
+ * An entry only refers to the authentication context of the SMS and holds the mobile number as given by the caller,
+ * which is expected to encrypt it. The code and the gateway settings are read from the context when the SMS is
+ * retried. The file is only readable by the owner.
+ */
+public class SMSJournal {
+
+    public static final String APPENDED_METRIC = "smsotp.journal.appended";
+    public static final String REPLAYED_METRIC = "smsotp.journal.replayed";
+    public static final String EXPIRED_METRIC = "smsotp.journal.expired";
+    public static final String FULL_METRIC = "smsotp.journal.full";
+
+    private static final byte PENDING = 1;
+    private static final byte DONE = 2;
+    private static final byte EXPIRED = 3;
+    private static final int HEADER_SIZE = 4 + 1 + 8 + 8;
+    private static final int STATE_OFFSET = 4;
+    private static final int ID_OFFSET = 5;
+    private static final int EXPIRY_OFFSET = 13;
+
+    private static final String CONTEXT_IDENTIFIER = "contextIdentifier";
+    private static final String MOBILE = "mobile";
+
+    private static Log log = LogFactory.getLog(SMSJournal.class);
+    private static volatile SMSJournal instance;
+    private static volatile boolean isUnavailable;
+    private static volatile SMSJournalSender journalSender;
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private final boolean sync;
+    private final Map<Long, Integer> pending = new LinkedHashMap<>();
+    private final Set<Long> inFlight = new HashSet<>();
+    private int position;
+    private long nextId = 1;
+    private volatile long entryTimeToLive = SMSOTPConstants.DEFAULT_SMS_JOURNAL_ENTRY_EXPIRY * 1000L;
+    private ScheduledExecutorService drainExecutor;
+
+    /**
+     * Open a journal, keeping the pending records of the existing file.
+     *
+     * @param journalFile the file of the journal
+     * @param capacity    the size of the file in bytes
+     * @param sync        whether to force every appended record to the disk
+     * @throws IOException if the file cannot be mapped
+     */
+    public SMSJournal(File journalFile, int capacity, boolean sync) throws IOException {
+        if (capacity <= HEADER_SIZE) {
+            throw new IllegalArgumentException("SMS journal size is too small : " + capacity);
+        }
+        File directory = journalFile.getAbsoluteFile().getParentFile();
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create the directory of the SMS journal " + directory);
+        }
+        createOwnerOnly(journalFile.toPath());
+        this.capacity = capacity;
+        this.sync = sync;
+        this.file = new RandomAccessFile(journalFile, "rw");
+        try {
+            this.buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+        load();
+    }
+
+    /**
+     * Get the journal configured in application-authentication.xml. A journal that is opened starts retrying the
+     * pending SMS with the journal sender, if one is set.
+     *
+     * @return the journal or null if the journal is not enabled or cannot be opened
+     */
+    public static SMSJournal getInstance() {
+        if (instance == null && !isUnavailable) {
+            Map<String, String> parameters = SMSOTPUtils.getSMSParameters();
+            if (parameters == null || !Boolean.parseBoolean(parameters.get(SMSOTPConstants.IS_ENABLED_SMS_JOURNAL))) {
+                return null;
+            }
+            synchronized (SMSJournal.class) {
+                if (instance == null && !isUnavailable) {
+                    String journalPath = parameters.get(SMSOTPConstants.SMS_JOURNAL_FILE);
+                    if (journalPath == null || journalPath.trim().isEmpty()) {
+                        journalPath = SMSOTPConstants.DEFAULT_SMS_JOURNAL_FILE;
+                    }
+                    File journalFile = new File(journalPath.trim());
+                    if (!journalFile.isAbsolute()) {
+                        journalFile = new File(System.getProperty("carbon.home", "."), journalPath.trim());
+                    }
+                    int size = SMSOTPUtils.getIntParameter(parameters, SMSOTPConstants.SMS_JOURNAL_SIZE,
+                            SMSOTPConstants.DEFAULT_SMS_JOURNAL_SIZE);
+                    int expiry = SMSOTPUtils.getIntParameter(parameters, SMSOTPConstants.SMS_JOURNAL_ENTRY_EXPIRY,
+                            SMSOTPConstants.DEFAULT_SMS_JOURNAL_ENTRY_EXPIRY);
+                    int retryInterval = SMSOTPUtils.getIntParameter(parameters,
+                            SMSOTPConstants.SMS_JOURNAL_RETRY_INTERVAL,
+                            SMSOTPConstants.DEFAULT_SMS_JOURNAL_RETRY_INTERVAL);
+                    boolean sync = Boolean.parseBoolean(parameters.get(SMSOTPConstants.SMS_JOURNAL_SYNC));
+                    try {
+                        SMSJournal journal = new SMSJournal(journalFile, size * 1024 * 1024, sync);
+                        journal.setEntryTimeToLive(expiry * 1000L);
+                        if (log.isDebugEnabled()) {
+                            log.debug("Opened SMS journal " + journalFile + " of " + size + " MB with " +
+                                    journal.getPendingCount() + " pending SMS");
+                        }
+                        SMSJournalSender sender = journalSender;
+                        if (sender != null) {
+                            journal.start(sender, retryInterval * 1000L);
+                        }
+                        instance = journal;
+                    } catch (IOException | IllegalArgumentException e) {
+                        isUnavailable = true;
+                        log.error("Unable to open the SMS journal " + journalFile + ". Hence the SMS are not " +
+                                "journaled", e);
+                    }
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Set the sender of the pending SMS of the configured journal, which is used once the journal is opened.
+     *
+     * @param sender sends the pending SMS, or null to not retry them
+     */
+    public static void setJournalSender(SMSJournalSender sender) {
+        journalSender = sender;
+    }
+
+    /**
+     * Close the configured journal, if any.
+     */
+    public static void shutdownInstance() {
+        synchronized (SMSJournal.class) {
+            if (instance != null) {
+                instance.close();
+                instance = null;
+            }
+            isUnavailable = false;
+        }
+    }
+
+    /**
+     * Start retrying the pending SMS, including the ones left in the journal by the previous run of the server.
+     *
+     * @param sender        sends the pending SMS
+     * @param retryInterval the time in milliseconds between the retries
+     */
+    public synchronized void start(final SMSJournalSender sender, long retryInterval) {
+        if (drainExecutor != null) {
+            return;
+        }
+        drainExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "SMSOTP-SMS-Journal-Drain");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        drainExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    drain(sender);
+                } catch (RuntimeException e) {
+                    log.error("Error while sending the pending SMS of the SMS journal", e);
+                }
+            }
+        }, 0, Math.max(retryInterval, 1), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Add an SMS to the journal. The SMS is not retried by the drain worker until it is released.
+     *
+     * @param contextIdentifier the identifier of the authentication context
+     * @param mobile            the encrypted mobile number
+     * @param expiry            the time in milliseconds after which the code is no longer valid. The SMS expires at
+     *                          this time or after the entry time to live, whichever comes first
+     * @return the id of the entry, or -1 if the SMS could not be added
+     */
+    public long append(String contextIdentifier, String mobile, long expiry) {
+        byte[] data;
+        try {
+            JSONObject entry = new JSONObject();
+            entry.put(CONTEXT_IDENTIFIER, contextIdentifier);
+            entry.put(MOBILE, mobile);
+            data = entry.toString().getBytes(StandardCharsets.UTF_8);
+        } catch (JSONException e) {
+            log.error("Unable to add the SMS to the SMS journal", e);
+            return -1;
+        }
+        expiry = Math.min(expiry, System.currentTimeMillis() + entryTimeToLive);
+        synchronized (this) {
+            int length = HEADER_SIZE + data.length;
+            if (position + length > capacity) {
+                compact();
+                if (position + length > capacity) {
+                    SMSOTPMetrics.increment(FULL_METRIC);
+                    log.warn("SMS journal is full. Hence the SMS is sent without being journaled");
+                    return -1;
+                }
+            }
+            long id = nextId++;
+            int recordPosition = position;
+            if (recordPosition + length + 4 <= capacity) {
+                buffer.putInt(recordPosition + length, 0);
+            }
+            buffer.put(recordPosition + STATE_OFFSET, PENDING);
+            buffer.putLong(recordPosition + ID_OFFSET, id);
+            buffer.putLong(recordPosition + EXPIRY_OFFSET, expiry);
+            putBytes(recordPosition + HEADER_SIZE, data);
+            buffer.putInt(recordPosition, length);
+            if (sync) {
+                buffer.force();
+            }
+            position += length;
+            pending.put(id, recordPosition);
+            inFlight.add(id);
+            SMSOTPMetrics.increment(APPENDED_METRIC);
+            return id;
+        }
+    }
+
+    /**
+     * Mark an SMS as sent.
+     *
+     * @param id the id of the entry
+     */
+    public synchronized void complete(long id) {
+        inFlight.remove(id);
+        Integer recordPosition = pending.remove(id);
+        if (recordPosition != null) {
+            buffer.put(recordPosition + STATE_OFFSET, DONE);
+        }
+    }
+
+    /**
+     * Leave an SMS that could not be sent to the drain worker.
+     *
+     * @param id the id of the entry
+     */
+    public synchronized void release(long id) {
+        inFlight.remove(id);
+    }
+
+    /**
+     * Send the pending SMS that are not being sent, and drop the expired ones.
+     *
+     * @param sender sends the pending SMS
+     */
+    public void drain(SMSJournalSender sender) {
+        List<SMSJournalEntry> entries = new ArrayList<>();
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            Iterator<Map.Entry<Long, Integer>> iterator = pending.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<Long, Integer> record = iterator.next();
+                if (inFlight.contains(record.getKey())) {
+                    continue;
+                }
+                int recordPosition = record.getValue();
+                SMSJournalEntry entry = read(recordPosition);
+                if (entry == null || entry.getExpiry() <= now) {
+                    buffer.put(recordPosition + STATE_OFFSET, EXPIRED);
+                    iterator.remove();
+                    SMSOTPMetrics.increment(EXPIRED_METRIC);
+                    continue;
+                }
+                inFlight.add(entry.getId());
+                entries.add(entry);
+            }
+        }
+        for (SMSJournalEntry entry : entries) {
+            boolean isSent = false;
+            try {
+                isSent = sender.send(entry);
+            } finally {
+                if (isSent) {
+                    SMSOTPMetrics.increment(REPLAYED_METRIC);
+                    complete(entry.getId());
+                } else {
+                    release(entry.getId());
+                }
+            }
+        }
+    }
+
+    /**
+     * Get a pending SMS.
+     *
+     * @param id the id of the entry
+     * @return the entry, or null if the SMS is not pending
+     */
+    public synchronized SMSJournalEntry getEntry(long id) {
+        Integer recordPosition = pending.get(id);
+        return recordPosition != null ? read(recordPosition) : null;
+    }
+
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    public long getEntryTimeToLive() {
+        return entryTimeToLive;
+    }
+
+    public void setEntryTimeToLive(long entryTimeToLive) {
+        this.entryTimeToLive = entryTimeToLive;
+    }
+
+    public synchronized void close() {
+        if (drainExecutor != null) {
+            drainExecutor.shutdownNow();
+            drainExecutor = null;
+        }
+        buffer.force();
+        try {
+            file.close();
+        } catch (IOException e) {
+            log.error("Error while closing the SMS journal", e);
+        }
+    }
+
+    private void load() {
+        position = 0;
+        while (position + HEADER_SIZE <= capacity) {
+            int length = buffer.getInt(position);
+            if (length < HEADER_SIZE || position + length > capacity) {
+                break;
+            }
+            long id = buffer.getLong(position + ID_OFFSET);
+            if (buffer.get(position + STATE_OFFSET) == PENDING) {
+                pending.put(id, position);
+            }
+            nextId = Math.max(nextId, id + 1);
+            position += length;
+        }
+    }
+
+    private void compact() {
+        Map<Long, byte[]> records = new LinkedHashMap<>();
+        for (Map.Entry<Long, Integer> record : pending.entrySet()) {
+            int recordPosition = record.getValue();
+            records.put(record.getKey(), getBytes(recordPosition, buffer.getInt(recordPosition)));
+        }
+        position = 0;
+        Map<Long, Integer> positions = new HashMap<>();
+        for (Map.Entry<Long, byte[]> record : records.entrySet()) {
+            putBytes(position, record.getValue());
+            positions.put(record.getKey(), position);
+            position += record.getValue().length;
+        }
+        if (position + 4 <= capacity) {
+            buffer.putInt(position, 0);
+        }
+        pending.putAll(positions);
+        if (log.isDebugEnabled()) {
+            log.debug("Compacted the SMS journal to " + records.size() + " pending SMS");
+        }
+    }
+
+    private SMSJournalEntry read(int recordPosition) {
+        byte[] data = getBytes(recordPosition + HEADER_SIZE, buffer.getInt(recordPosition) - HEADER_SIZE);
+        try {
+            JSONObject entry = new JSONObject(new String(data, StandardCharsets.UTF_8));
+            return new SMSJournalEntry(buffer.getLong(recordPosition + ID_OFFSET),
+                    entry.getString(CONTEXT_IDENTIFIER), entry.getString(MOBILE),
+                    buffer.getLong(recordPosition + EXPIRY_OFFSET));
+        } catch (JSONException e) {
+            log.error("Invalid record in the SMS journal", e);
+            return null;
+        }
+    }
+
+    /**
+     * Create the file readable and writable by the owner only, or restrict the access to an existing file.
+     *
+     * @param path the file of the journal
+     * @throws IOException if the file cannot be created
+     */
+    private static void createOwnerOnly(Path path) throws IOException {
+        Set<PosixFilePermission> ownerOnly = EnumSet.of(PosixFilePermission.OWNER_READ,
+                PosixFilePermission.OWNER_WRITE);
+        boolean isPosix = Files.getFileStore(path.toAbsolutePath().getParent())
+                .supportsFileAttributeView(PosixFileAttributeView.class);
+        if (!Files.exists(path)) {
+            if (isPosix) {
+                Files.createFile(path, PosixFilePermissions.asFileAttribute(ownerOnly));
+                return;
+            }
+            Files.createFile(path);
+        }
+        if (isPosix) {
+            Files.setPosixFilePermissions(path, ownerOnly);
+            return;
+        }
+        File file = path.toFile();
+        if (!(file.setReadable(false, false) && file.setReadable(true, true) && file.setWritable(false, false)
+                && file.setWritable(true, true))) {
+            log.warn("Unable to restrict the access to the SMS journal " + path + " to the owner");
+        }
+    }
+
+    private void putBytes(int index, byte[] bytes) {
+        ByteBuffer view = buffer.duplicate();
+        view.position(index);
+        view.put(bytes);
+    }
+
+    private byte[] getBytes(int index, int length) {
+        byte[] bytes = new byte[length];
+        ByteBuffer view = buffer.duplicate();
+        view.position(index);
+        view.get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ *  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.carbon.identity.authenticator.smsotp.gateway;
+
+/**
+ * A pending SMS kept in the SMS journal.
+ */
+public class SMSJournalEntry {
+
+    private final long id;
+    private final String contextIdentifier;
+    private final String mobile;
+    private final long expiry;
+
+    /**
+     * Create a journal entry.
+     *
+     * @param id                the id of the entry in the journal
+     * @param contextIdentifier the identifier of the authentication context, which holds the code and the gateways
+     * @param mobile            the encrypted mobile number
+     * @param expiry            the time in milliseconds after which the SMS is no longer sent
+     */
+    public SMSJournalEntry(long id, String contextIdentifier, String mobile, long expiry) {
+        this.id = id;
+        this.contextIdentifier = contextIdentifier;
+        this.mobile = mobile;
+        this.expiry = expiry;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getContextIdentifier() {
+        return contextIdentifier;
+    }
+
+    public String getMobile() {
+        return mobile;
+    }
+
+    public long getExpiry() {
+        return expiry;
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ *  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.carbon.identity.authenticator.smsotp.gateway;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Check on the response body of an SMS gateway, for the gateways that report errors with a success status code. An
+ * expression that starts with a slash is a JSON pointer followed by the expected value, such as /status=success,
+ * or a JSON pointer alone, which matches when the value is present and neither null nor false. Any other expression
+ * is a regular expression that must be found in the body. Only the beginning of the body, up to the given size, is
+ * read and checked.
+ */
+public class SMSResponseMatcher {
+
+    private static final int MAX_CACHED_MATCHERS = 256;
+    private static final int BUFFER_SIZE = 1024;
+    // Cached in place of an invalid expression, so that it is reported once.
+    private static final SMSResponseMatcher INVALID = new SMSResponseMatcher(null, null, null, null);
+
+    private static Log log = LogFactory.getLog(SMSResponseMatcher.class);
+    private static final ConcurrentMap<String, SMSResponseMatcher> matcherCache = new ConcurrentHashMap<>();
+
+    private final String expression;
+    private final Pattern pattern;
+    private final String[] pointer;
+    private final String expectedValue;
+
+    private SMSResponseMatcher(String expression, Pattern pattern, String[] pointer, String expectedValue) {
+        this.expression = expression;
+        this.pattern = pattern;
+        this.pointer = pointer;
+        this.expectedValue = expectedValue;
+    }
+
+    /**
+     * Get the compiled form of an expression. Expressions are compiled once and cached.
+     *
+     * @param expression the expression
+     * @return the matcher, or null if the expression is empty or not a valid regular expression
+     */
+    public static SMSResponseMatcher compile(String expression) {
+        if (expression == null || expression.trim().isEmpty()) {
+            return null;
+        }
+        SMSResponseMatcher matcher = matcherCache.get(expression);
+        if (matcher == null) {
+            String trimmed = expression.trim();
+            try {
+                if (trimmed.startsWith("/")) {
+                    int separator = trimmed.indexOf('=');
+                    String path = separator > 0 ? trimmed.substring(0, separator) : trimmed;
+                    matcher = new SMSResponseMatcher(trimmed, null, parsePointer(path),
+                            separator > 0 ? trimmed.substring(separator + 1) : null);
+                } else {
+                    matcher = new SMSResponseMatcher(trimmed, Pattern.compile(trimmed), null, null);
+                }
+            } catch (PatternSyntaxException e) {
+                log.error("Invalid SMS response body expression " + expression + ". Hence not checking the " +
+                        "response body", e);
+                matcher = INVALID;
+            }
+            if (matcherCache.size() >= MAX_CACHED_MATCHERS) {
+                matcherCache.clear();
+            }
+            matcherCache.put(expression, matcher);
+        }
+        return matcher != INVALID ? matcher : null;
+    }
+
+    /**
+     * Check the beginning of a response body. The body is not closed, so that the caller can discard the rest of it.
+     *
+     * @param body        the response body
+     * @param contentType the content type of the response, used to find the charset, or null for UTF-8
+     * @param maxSize     the maximum number of bytes to read
+     * @return true if the body matches the expression
+     * @throws IOException if the body could not be read
+     */
+    public boolean matches(InputStream body, String contentType, int maxSize) throws IOException {
+        if (body == null) {
+            return matches("");
+        }
+        byte[] buffer = new byte[Math.min(Math.max(maxSize, 0), BUFFER_SIZE)];
+        int length = 0;
+        int read;
+        while (length < buffer.length && (read = body.read(buffer, length, buffer.length - length)) != -1) {
+            length += read;
+            if (length == buffer.length && length < maxSize) {
+                byte[] grown = new byte[Math.min(buffer.length * 2, maxSize)];
+                System.arraycopy(buffer, 0, grown, 0, length);
+                buffer = grown;
+            }
+        }
+        return matches(new String(buffer, 0, length, getCharset(contentType)));
+    }
+
+    /**
+     * Check a response body.
+     *
+     * @param body the response body
+     * @return true if the body matches the expression
+     */
+    public boolean matches(String body) {
+        if (pattern != null) {
+            return pattern.matcher(body).find();
+        }
+        Object value;
+        try {
+            value = new JSONTokener(body).nextValue();
+        } catch (JSONException e) {
+            if (log.isDebugEnabled()) {
+                log.debug("SMS response body is not a complete JSON document : " + e.getMessage());
+            }
+            return false;
+        }
+        for (String token : pointer) {
+            if (value instanceof JSONObject) {
+                value = ((JSONObject) value).opt(token);
+            } else if (value instanceof JSONArray && token.matches("\\d{1,9}")) {
+                value = ((JSONArray) value).opt(Integer.parseInt(token));
+            } else {
+                return false;
+            }
+        }
+        if (expectedValue != null) {
+            return value != null && expectedValue.equals(String.valueOf(value));
+        }
+        return value != null && !JSONObject.NULL.equals(value) && !Boolean.FALSE.equals(value);
+    }
+
+    @Override
+    public String toString() {
+        return expression;
+    }
+
+    private static String[] parsePointer(String path) {
+        List<String> tokens = new ArrayList<>();
+        for (String token : path.substring(1).split("/", -1)) {
+            tokens.add(token.replace("~1", "/").replace("~0", "~"));
+        }
+        return tokens.toArray(new String[tokens.size()]);
+    }
+
+    private static Charset getCharset(String contentType) {
+        if (contentType != null) {
+            for (String parameter : contentType.split(";")) {
+                String[] nameValue = parameter.trim().split("=", 2);
+                if (nameValue.length == 2 && "charset".equals(nameValue[0].trim().toLowerCase(Locale.ENGLISH))) {
+                    try {
+                        return Charset.forName(nameValue[1].trim().replace("\"", ""));
+                    } catch (IllegalArgumentException e) {
+                        break;
+                    }
+                }
+            }
+        }
+        return StandardCharsets.UTF_8;
+    }
+}
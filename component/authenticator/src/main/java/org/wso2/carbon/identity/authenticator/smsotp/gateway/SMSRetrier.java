@@ -0,0 +1,225 @@
+/*
+ *  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.carbon.identity.authenticator.smsotp.gateway;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.NoHttpResponseException;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.wso2.carbon.identity.authenticator.smsotp.SMSOTPConstants;
+import org.wso2.carbon.identity.authenticator.smsotp.SMSOTPMetrics;
+import org.wso2.carbon.identity.authenticator.smsotp.SMSOTPUtils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.SocketException;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Retries the requests to an SMS gateway that fail before the gateway took the message, that is a connection failure
+ * or a 429 or 503 response. The requests to a gateway marked as idempotent are also retried when the connection is
+ * reset, no response is received or the gateway responds with 500, 502 or 504, since the gateway may have sent the
+ * SMS already. The delay before a retry is a random time between 0 and the exponential backoff, which is capped. No
+ * retry is started that would end after the deadline of the request.
+ * <p>
+ * The caller waits for the delay before a retry, hence the retries are only meant for the threads sending the SMS in
+ * the background. The SMS sent on the request thread are not retried.
+ */
+public class SMSRetrier {
+
+    public static final String ATTEMPTS_METRIC = "smsotp.gateway.attempts";
+    public static final String RETRIES_METRIC = "smsotp.gateway.retries";
+    public static final String RETRY_SUCCEEDED_METRIC = "smsotp.gateway.retry.succeeded";
+    public static final String RETRIES_EXHAUSTED_METRIC = "smsotp.gateway.retries.exhausted";
+
+    private static Log log = LogFactory.getLog(SMSRetrier.class);
+    private static volatile SMSRetrier instance;
+
+    private final int maxAttempts;
+    private final long baseDelay;
+    private final long maxDelay;
+    private final long maxDuration;
+    private final Random random = new Random();
+    private volatile boolean shutdown;
+
+    /**
+     * Create a retrier.
+     *
+     * @param maxAttempts the maximum number of attempts of a request, including the first one
+     * @param baseDelay   the backoff in milliseconds before the first retry, which doubles for every retry
+     * @param maxDelay    the maximum backoff in milliseconds
+     * @param maxDuration the maximum time in milliseconds spent on the attempts of a request
+     */
+    public SMSRetrier(int maxAttempts, long baseDelay, long maxDelay, long maxDuration) {
+        this.maxAttempts = Math.max(maxAttempts, 1);
+        this.baseDelay = Math.max(baseDelay, 1);
+        this.maxDelay = Math.max(maxDelay, this.baseDelay);
+        this.maxDuration = Math.max(maxDuration, 0);
+    }
+
+    /**
+     * Get the retrier configured in application-authentication.xml.
+     *
+     * @return the retrier or null if retries are not enabled
+     */
+    public static SMSRetrier getInstance() {
+        if (instance == null) {
+            Map<String, String> parameters = SMSOTPUtils.getSMSParameters();
+            if (parameters == null || !Boolean.parseBoolean(parameters.get(SMSOTPConstants.IS_ENABLED_SMS_RETRY))) {
+                return null;
+            }
+            synchronized (SMSRetrier.class) {
+                if (instance == null) {
+                    int maxAttempts = SMSOTPUtils.getIntParameter(parameters, SMSOTPConstants.SMS_RETRY_MAX_ATTEMPTS,
+                            SMSOTPConstants.DEFAULT_SMS_RETRY_MAX_ATTEMPTS);
+                    int baseDelay = SMSOTPUtils.getIntParameter(parameters, SMSOTPConstants.SMS_RETRY_BASE_DELAY,
+                            SMSOTPConstants.DEFAULT_SMS_RETRY_BASE_DELAY);
+                    int maxDelay = SMSOTPUtils.getIntParameter(parameters, SMSOTPConstants.SMS_RETRY_MAX_DELAY,
+                            SMSOTPConstants.DEFAULT_SMS_RETRY_MAX_DELAY);
+                    int maxDuration = SMSOTPUtils.getIntParameter(parameters, SMSOTPConstants.SMS_RETRY_MAX_DURATION,
+                            SMSOTPConstants.DEFAULT_SMS_RETRY_MAX_DURATION);
+                    if (log.isDebugEnabled()) {
+                        log.debug("Creating SMS retrier with " + maxAttempts + " attempts, backoff from " +
+                                baseDelay + " to " + maxDelay + " ms and a budget of " + maxDuration + " ms");
+                    }
+                    instance = new SMSRetrier(maxAttempts, baseDelay, maxDelay, maxDuration);
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Shutdown the configured retrier, if any.
+     */
+    public static void shutdownInstance() {
+        synchronized (SMSRetrier.class) {
+            if (instance != null) {
+                instance.shutdown();
+                instance = null;
+            }
+        }
+    }
+
+    /**
+     * Send a request to an SMS gateway, retrying transient failures until the attempts or the time run out. The
+     * calling thread waits for the delay before each retry.
+     *
+     * @param client         the client of the gateway
+     * @param gatewayRequest the request
+     * @param deadline       the time in milliseconds after which no attempt is started
+     * @return the response of the last attempt
+     * @throws IOException if the last attempt failed
+     */
+    public SMSGatewayResponse send(final SMSGatewayClient client, final SMSGatewayRequest gatewayRequest,
+                                   long deadline) throws IOException {
+        boolean isIdempotent = gatewayRequest.isIdempotent();
+        long delay = 0;
+        for (int attempt = 1; ; attempt++) {
+            if (attempt > 1) {
+                waitForRetry(delay);
+            }
+            SMSOTPMetrics.increment(ATTEMPTS_METRIC);
+            String failure;
+            try {
+                SMSGatewayResponse gatewayResponse = client.send(gatewayRequest);
+                if (!isRetryable(gatewayResponse.getStatusCode(), isIdempotent)) {
+                    if (attempt > 1) {
+                        SMSOTPMetrics.increment(RETRY_SUCCEEDED_METRIC);
+                    }
+                    return gatewayResponse;
+                }
+                failure = "response " + gatewayResponse.getStatusCode();
+                delay = getDelay(attempt);
+                if (!canRetry(attempt, delay, deadline)) {
+                    SMSOTPMetrics.increment(RETRIES_EXHAUSTED_METRIC);
+                    return gatewayResponse;
+                }
+            } catch (IOException e) {
+                if (!isRetryable(e, isIdempotent)) {
+                    throw e;
+                }
+                failure = e.toString();
+                delay = getDelay(attempt);
+                if (!canRetry(attempt, delay, deadline)) {
+                    SMSOTPMetrics.increment(RETRIES_EXHAUSTED_METRIC);
+                    throw e;
+                }
+            }
+            SMSOTPMetrics.increment(RETRIES_METRIC);
+            if (log.isDebugEnabled()) {
+                log.debug("Attempt " + attempt + " to send the SMS failed with " + failure + ". Retrying in " +
+                        delay + " ms");
+            }
+        }
+    }
+
+    public long getMaxDuration() {
+        return maxDuration;
+    }
+
+    public void shutdown() {
+        shutdown = true;
+    }
+
+    private void waitForRetry(long delay) throws IOException {
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while retrying the SMS");
+        }
+    }
+
+    private boolean canRetry(int attempt, long delay, long deadline) {
+        return !shutdown && attempt < maxAttempts && System.currentTimeMillis() + delay < deadline;
+    }
+
+    /**
+     * Get the delay before the next attempt, which is a random time up to the capped exponential backoff.
+     */
+    private long getDelay(int attempt) {
+        long backoff = baseDelay << Math.min(attempt - 1, 30);
+        if (backoff <= 0 || backoff > maxDelay) {
+            backoff = maxDelay;
+        }
+        synchronized (random) {
+            return (long) (random.nextDouble() * backoff);
+        }
+    }
+
+    private static boolean isRetryable(int statusCode, boolean isIdempotent) {
+        if (statusCode == 429 || statusCode == 503) {
+            return true;
+        }
+        return isIdempotent && (statusCode == 500 || statusCode == 502 || statusCode == 504);
+    }
+
+    private static boolean isRetryable(IOException e, boolean isIdempotent) {
+        if (e instanceof SMSGatewayUnavailableException) {
+            return false;
+        }
+        if (e instanceof ConnectException || e instanceof ConnectTimeoutException) {
+            return true;
+        }
+        return isIdempotent && (e instanceof SocketException || e instanceof NoHttpResponseException);
+    }
+}
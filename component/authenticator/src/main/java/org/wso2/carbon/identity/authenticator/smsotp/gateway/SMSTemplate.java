@@ -0,0 +1,233 @@
+/*
+ *  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.carbon.identity.authenticator.smsotp.gateway;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A gateway template, such as the sms url, the headers or the payload, parsed once into literal segments and
+ * placeholders. Rendering writes the literals and the escaped values into a per thread buffer instead of running a
+ * regular expression for every placeholder.
+ * <p>
+ * The supported placeholders are $ctx.num for the encoded mobile number, $ctx.msg for the SMS message followed by the
+ * code, and $ctx.otp for the code alone.
+ */
+public class SMSTemplate {
+
+    public static final String MOBILE_PLACEHOLDER = "$ctx.num";
+    public static final String MESSAGE_PLACEHOLDER = "$ctx.msg";
+    public static final String OTP_PLACEHOLDER = "$ctx.otp";
+
+    /**
+     * How the values are escaped when they are written into the template.
+     */
+    public enum Encoding {
+        /**
+         * Whitespace in the message is written as '+', as in a query string.
+         */
+        URL,
+        /**
+         * Line breaks are dropped, so that a value cannot start a new header.
+         */
+        HEADER,
+        /**
+         * The values are escaped as the content of a JSON string.
+         */
+        JSON,
+        /**
+         * The values are written as they are.
+         */
+        NONE
+    }
+
+    private static final String[] PLACEHOLDERS = {MOBILE_PLACEHOLDER, MESSAGE_PLACEHOLDER, OTP_PLACEHOLDER};
+    private static final int MOBILE = 0;
+    private static final int MESSAGE = 1;
+    private static final int MAX_CACHED_TEMPLATES = 256;
+    private static final int MAX_BUFFER_SIZE = 8192;
+
+    private static final ConcurrentMap<String, SMSTemplate> templates = new ConcurrentHashMap<>();
+    private static final ThreadLocal<StringBuilder> buffers = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(256);
+        }
+    };
+
+    private final String template;
+    private final String[] literals;
+    private final int[] placeholders;
+
+    private SMSTemplate(String template) {
+        List<String> literalList = new ArrayList<>();
+        List<Integer> placeholderList = new ArrayList<>();
+        int start = 0;
+        int index = template.indexOf('$');
+        while (index >= 0) {
+            int placeholder = getPlaceholder(template, index);
+            if (placeholder >= 0) {
+                literalList.add(template.substring(start, index));
+                placeholderList.add(placeholder);
+                start = index + PLACEHOLDERS[placeholder].length();
+                index = template.indexOf('$', start);
+            } else {
+                index = template.indexOf('$', index + 1);
+            }
+        }
+        literalList.add(template.substring(start));
+        this.template = template;
+        this.literals = literalList.toArray(new String[literalList.size()]);
+        this.placeholders = new int[placeholderList.size()];
+        for (int i = 0; i < placeholders.length; i++) {
+            placeholders[i] = placeholderList.get(i);
+        }
+    }
+
+    /**
+     * Get the compiled form of a template. Templates are compiled once and cached, hence a changed configuration
+     * gets a new compiled template.
+     *
+     * @param template the template
+     * @return the compiled template
+     */
+    public static SMSTemplate compile(String template) {
+        SMSTemplate compiled = templates.get(template);
+        if (compiled == null) {
+            if (templates.size() >= MAX_CACHED_TEMPLATES) {
+                templates.clear();
+            }
+            compiled = new SMSTemplate(template);
+            SMSTemplate existing = templates.putIfAbsent(template, compiled);
+            if (existing != null) {
+                compiled = existing;
+            }
+        }
+        return compiled;
+    }
+
+    /**
+     * Render the template.
+     *
+     * @param encodedMobileNo the encoded mobile number
+     * @param smsMessage      the SMS message, which is followed by the code
+     * @param otpToken        the code
+     * @param encoding        how the values are escaped
+     * @return the rendered template
+     */
+    public String render(String encodedMobileNo, String smsMessage, String otpToken, Encoding encoding) {
+        if (placeholders.length == 0) {
+            return template;
+        }
+        StringBuilder buffer = buffers.get();
+        buffer.setLength(0);
+        for (int i = 0; i < placeholders.length; i++) {
+            buffer.append(literals[i]);
+            if (placeholders[i] == MOBILE) {
+                append(buffer, encodedMobileNo, encoding);
+            } else if (placeholders[i] == MESSAGE) {
+                append(buffer, smsMessage, encoding);
+                append(buffer, otpToken, encoding);
+            } else {
+                append(buffer, otpToken, encoding);
+            }
+        }
+        buffer.append(literals[placeholders.length]);
+        String rendered = buffer.toString();
+        if (buffer.capacity() > MAX_BUFFER_SIZE) {
+            buffers.remove();
+        }
+        return rendered;
+    }
+
+    /**
+     * @return whether the template has any placeholder
+     */
+    public boolean hasPlaceholders() {
+        return placeholders.length > 0;
+    }
+
+    @Override
+    public String toString() {
+        return template;
+    }
+
+    private static int getPlaceholder(String template, int index) {
+        for (int i = 0; i < PLACEHOLDERS.length; i++) {
+            if (template.startsWith(PLACEHOLDERS[i], index)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static void append(StringBuilder buffer, String value, Encoding encoding) {
+        if (value == null) {
+            return;
+        }
+        switch (encoding) {
+            case URL:
+                for (int i = 0; i < value.length(); i++) {
+                    char c = value.charAt(i);
+                    buffer.append(Character.isWhitespace(c) ? '+' : c);
+                }
+                break;
+            case HEADER:
+                for (int i = 0; i < value.length(); i++) {
+                    char c = value.charAt(i);
+                    if (c != '\r' && c != '\n') {
+                        buffer.append(c);
+                    }
+                }
+                break;
+            case JSON:
+                for (int i = 0; i < value.length(); i++) {
+                    char c = value.charAt(i);
+                    switch (c) {
+                        case '"':
+                            buffer.append("\\\"");
+                            break;
+                        case '\\':
+                            buffer.append("\\\\");
+                            break;
+                        case '\n':
+                            buffer.append("\\n");
+                            break;
+                        case '\r':
+                            buffer.append("\\r");
+                            break;
+                        case '\t':
+                            buffer.append("\\t");
+                            break;
+                        default:
+                            if (c < 0x20) {
+                                buffer.append(String.format("\\u%04x", (int) c));
+                            } else {
+                                buffer.append(c);
+                            }
+                    }
+                }
+                break;
+            default:
+                buffer.append(value);
+        }
+    }
+}
@@ -23,7 +23,21 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.osgi.service.component.ComponentContext;
 import org.wso2.carbon.identity.application.authentication.framework.ApplicationAuthenticator;
+import org.wso2.carbon.identity.authenticator.smsotp.OneTimePasswordPool;
 import org.wso2.carbon.identity.authenticator.smsotp.SMSOTPAuthenticator;
+import org.wso2.carbon.identity.authenticator.smsotp.SMSOTPConfigReloader;
+import org.wso2.carbon.identity.authenticator.smsotp.SMSOTPMetrics;
+import org.wso2.carbon.identity.authenticator.smsotp.TenantConfigCache;
+import org.wso2.carbon.identity.authenticator.smsotp.UserClaimCache;
+import org.wso2.carbon.identity.authenticator.smsotp.gateway.SMSBatcher;
+import org.wso2.carbon.identity.authenticator.smsotp.gateway.SMSDispatcher;
+import org.wso2.carbon.identity.authenticator.smsotp.gateway.SMSGatewayClientManager;
+import org.wso2.carbon.identity.authenticator.smsotp.gateway.SMSHedgedSender;
+import org.wso2.carbon.identity.authenticator.smsotp.gateway.SMSJournal;
+import org.wso2.carbon.identity.authenticator.smsotp.gateway.SMSJournalEntry;
+import org.wso2.carbon.identity.authenticator.smsotp.gateway.SMSJournalSender;
+import org.wso2.carbon.identity.authenticator.smsotp.gateway.SMSRetrier;
+import org.wso2.carbon.user.core.listener.UserOperationEventListener;
 import org.wso2.carbon.user.core.service.RealmService;
 
 import java.util.Hashtable;
@@ -49,10 +63,27 @@ public class SMSOTPAuthenticatorServiceComponent {
 
     protected void activate(ComponentContext ctxt) {
         try {
-            SMSOTPAuthenticator authenticator = new SMSOTPAuthenticator();
+            final SMSOTPAuthenticator authenticator = new SMSOTPAuthenticator();
             Hashtable<String, String> props = new Hashtable<String, String>();
             ctxt.getBundleContext().registerService(ApplicationAuthenticator.class.getName(),
                     authenticator, props);
+            // Retries the SMS that could not be sent once the journal is opened, also if it is enabled by a reload.
+            SMSJournal.setJournalSender(new SMSJournalSender() {
+                @Override
+                public boolean send(SMSJournalEntry entry) {
+                    return authenticator.sendJournaledSMS(entry);
+                }
+            });
+            // Replays the SMS left pending by the previous run, if the journal is enabled.
+            SMSJournal.getInstance();
+            // Exposes the counters of the authenticator over JMX.
+            SMSOTPMetrics.registerMBean();
+            // Starts reloading the parameters when application-authentication.xml changes, if enabled.
+            SMSOTPConfigReloader.getInstance();
+            // Removes the users from the user claim cache when their claims are changed in the user store. The
+            // listener does nothing while the cache is not enabled.
+            ctxt.getBundleContext().registerService(UserOperationEventListener.class.getName(),
+                    new SMSOTPUserOperationEventListener(), null);
             if (log.isDebugEnabled()) {
                 log.debug("SMSOTP authenticator is activated");
             }
@@ -62,6 +93,18 @@ public class SMSOTPAuthenticatorServiceComponent {
     }
 
     protected void deactivate(ComponentContext ctxt) {
+        OneTimePasswordPool.shutdownInstance();
+        SMSDispatcher.shutdownInstance();
+        SMSHedgedSender.shutdownInstance();
+        SMSBatcher.shutdownInstance();
+        SMSRetrier.shutdownInstance();
+        SMSJournal.setJournalSender(null);
+        SMSJournal.shutdownInstance();
+        SMSGatewayClientManager.shutdownInstance();
+        TenantConfigCache.shutdownInstance();
+        SMSOTPConfigReloader.shutdownInstance();
+        UserClaimCache.shutdownInstance();
+        SMSOTPMetrics.unregisterMBean();
         if (log.isDebugEnabled()) {
             log.debug("SMSOTP authenticator is deactivated");
         }
@@ -0,0 +1,95 @@
+/*
+ *  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.carbon.identity.authenticator.smsotp.internal;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.identity.authenticator.smsotp.UserClaimCache;
+import org.wso2.carbon.identity.core.util.IdentityTenantUtil;
+import org.wso2.carbon.user.core.UserStoreException;
+import org.wso2.carbon.user.core.UserStoreManager;
+import org.wso2.carbon.user.core.common.AbstractUserOperationEventListener;
+
+import java.util.Map;
+
+/**
+ * Removes the users from the {@link UserClaimCache} when their claims are updated or deleted, or they are deleted,
+ * in the user store. The listener is always registered, so that a cache enabled by a reload of the parameters is
+ * kept up to date, and does nothing while the cache is not enabled.
+ */
+public class SMSOTPUserOperationEventListener extends AbstractUserOperationEventListener {
+
+    private static final int EXECUTION_ORDER_ID = 1390;
+
+    private static Log log = LogFactory.getLog(SMSOTPUserOperationEventListener.class);
+
+    @Override
+    public int getExecutionOrderId() {
+        return EXECUTION_ORDER_ID;
+    }
+
+    @Override
+    public boolean doPostSetUserClaimValue(String userName, UserStoreManager userStoreManager)
+            throws UserStoreException {
+        invalidate(userName, userStoreManager);
+        return true;
+    }
+
+    @Override
+    public boolean doPostSetUserClaimValues(String userName, Map<String, String> claims, String profileName,
+                                            UserStoreManager userStoreManager) throws UserStoreException {
+        invalidate(userName, userStoreManager);
+        return true;
+    }
+
+    @Override
+    public boolean doPostDeleteUserClaimValue(String userName, UserStoreManager userStoreManager)
+            throws UserStoreException {
+        invalidate(userName, userStoreManager);
+        return true;
+    }
+
+    @Override
+    public boolean doPostDeleteUserClaimValues(String userName, UserStoreManager userStoreManager)
+            throws UserStoreException {
+        invalidate(userName, userStoreManager);
+        return true;
+    }
+
+    @Override
+    public boolean doPostDeleteUser(String userName, UserStoreManager userStoreManager) throws UserStoreException {
+        invalidate(userName, userStoreManager);
+        return true;
+    }
+
+    private void invalidate(String userName, UserStoreManager userStoreManager) throws UserStoreException {
+        UserClaimCache userClaimCache = UserClaimCache.getInstance();
+        if (userClaimCache == null || userName == null) {
+            return;
+        }
+        String tenantDomain = IdentityTenantUtil.getTenantDomain(userStoreManager.getTenantId());
+        if (tenantDomain == null) {
+            // The tenant is not known, hence the user cannot be found in the cache.
+            log.warn("Cannot find the tenant of the user " + userName + ". Hence removing all the cached users");
+            userClaimCache.invalidateAll();
+            return;
+        }
+        userClaimCache.invalidate(tenantDomain, userName);
+    }
+}
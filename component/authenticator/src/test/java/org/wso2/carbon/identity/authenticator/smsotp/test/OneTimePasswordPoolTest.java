@@ -0,0 +1,75 @@
+/*
+ *  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.carbon.identity.authenticator.smsotp.test;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.wso2.carbon.identity.authenticator.smsotp.OneTimePasswordPool;
+import org.wso2.carbon.identity.authenticator.smsotp.SMSOTPMetrics;
+
+public class OneTimePasswordPoolTest {
+    private OneTimePasswordPool otpPool;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        otpPool = new OneTimePasswordPool(10, 5, 2);
+        waitUntilAvailable(10);
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        otpPool.shutdown();
+    }
+
+    @Test
+    public void testPoll() {
+        long hits = SMSOTPMetrics.getCount(OneTimePasswordPool.HIT_METRIC);
+        String code = otpPool.poll();
+        Assert.assertNotNull(code);
+        Assert.assertTrue(code.matches("[0-9]{6}"));
+        Assert.assertEquals(otpPool.getHits(), 1);
+        Assert.assertEquals(otpPool.getMisses(), 0);
+        Assert.assertEquals(SMSOTPMetrics.getCount(OneTimePasswordPool.HIT_METRIC), hits + 1);
+    }
+
+    @Test
+    public void testRefill() throws Exception {
+        for (int i = 0; i < 6; i++) {
+            Assert.assertNotNull(otpPool.poll());
+        }
+        waitUntilAvailable(10);
+        Assert.assertEquals(otpPool.getAvailable(), 10);
+    }
+
+    @Test
+    public void testPollAfterShutdown() {
+        otpPool.shutdown();
+        Assert.assertNull(otpPool.poll());
+        Assert.assertEquals(otpPool.getMisses(), 1);
+    }
+
+    private void waitUntilAvailable(int available) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (otpPool.getAvailable() < available && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+}
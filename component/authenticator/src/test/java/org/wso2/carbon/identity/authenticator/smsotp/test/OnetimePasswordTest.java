@@ -78,4 +78,70 @@ public class OnetimePasswordTest {
         Assert.assertEquals(Whitebox.invokeMethod(otp, "generateToken", "Hello", "32", 10),
                 "0701282405");
     }
+
+    @Test
+    public void testGenerateOTP() throws InvalidKeyException, NoSuchAlgorithmException {
+        // HOTP test values from RFC 4226, Appendix D.
+        byte[] secret = "12345678901234567890".getBytes(Charset.forName("UTF-8"));
+        String[] expected = {"755224", "287082", "359152", "969429", "338314", "254676", "287922", "162583",
+                "399871", "520489"};
+        for (int i = 0; i < expected.length; i++) {
+            Assert.assertEquals(OneTimePassword.generateOTP(secret, i, 6, false, -1), expected[i]);
+            Assert.assertEquals(OneTimePassword.generateOTPCode(secret, i, 6, false, -1),
+                    Integer.parseInt(expected[i]));
+        }
+    }
+
+    @Test
+    public void testGenerateOTPWithChecksum() throws InvalidKeyException, NoSuchAlgorithmException {
+        byte[] secret = "12345678901234567890".getBytes(Charset.forName("UTF-8"));
+        Assert.assertEquals(OneTimePassword.generateOTP(secret, 0, 6, true, -1),
+                "755224" + OneTimePassword.calcChecksum(755224, 6));
+    }
+
+    @Test
+    public void testFormatOTP() {
+        Assert.assertEquals(OneTimePassword.formatOTP(42, 6), "000042");
+        Assert.assertEquals(OneTimePassword.formatOTP(0, 4), "0000");
+        Assert.assertEquals(OneTimePassword.formatOTP(123456, 4), "123456");
+        Assert.assertEquals(OneTimePassword.formatOTP(-42, 4), "0-42");
+    }
+
+    @Test
+    public void testGenerateContextOTP() throws InvalidKeyException, NoSuchAlgorithmException {
+        byte[] secretKey = "secret".getBytes(Charset.forName("UTF-8"));
+        String otp = OneTimePassword.generateContextOTP(secretKey, "context-1", 1500000000000L, 6);
+        Assert.assertEquals(otp.length(), 6);
+        Assert.assertEquals(OneTimePassword.generateContextOTP(secretKey, "context-1", 1500000000000L, 6), otp);
+        Assert.assertNotEquals(OneTimePassword.generateContextOTP(secretKey, "context-2", 1500000000000L, 6), otp);
+    }
+
+    @Test
+    public void testVerifyContextOTP() throws InvalidKeyException, NoSuchAlgorithmException {
+        byte[] secretKey = "secret".getBytes(Charset.forName("UTF-8"));
+        String otp = OneTimePassword.generateContextOTP(secretKey, "context-1", 50000000L, 6);
+        Assert.assertTrue(OneTimePassword.verifyContextOTP(secretKey, "context-1", 50000000L, 0, 6, otp));
+        Assert.assertTrue(OneTimePassword.verifyContextOTP(secretKey, "context-1", 50000001L, 1, 6, otp));
+        Assert.assertTrue(OneTimePassword.verifyContextOTP(secretKey, "context-1", 49999999L, 1, 6, otp));
+        Assert.assertFalse(OneTimePassword.verifyContextOTP(secretKey, "context-1", 50000002L, 1, 6, otp));
+        Assert.assertFalse(OneTimePassword.verifyContextOTP(secretKey, "context-2", 50000000L, 1, 6, otp));
+        Assert.assertFalse(OneTimePassword.verifyContextOTP(secretKey, "context-1", 50000000L, 1, 6, "12a456"));
+        Assert.assertFalse(OneTimePassword.verifyContextOTP(secretKey, "context-1", 50000000L, 1, 6, "1234"));
+    }
+
+    @Test
+    public void testIsEqual() {
+        Assert.assertTrue(OneTimePassword.isEqual("123456", "123456"));
+        Assert.assertFalse(OneTimePassword.isEqual("123456", "123457"));
+        Assert.assertFalse(OneTimePassword.isEqual("123456", "12345"));
+        Assert.assertFalse(OneTimePassword.isEqual(null, "123456"));
+    }
+
+    @Test
+    public void testGenerateRandomToken() {
+        String token = OneTimePassword.generateRandomToken(5, 2, 6);
+        Assert.assertNotNull(token);
+        Assert.assertEquals(token.length(), 6);
+        Assert.assertTrue(token.matches("[0-9]{6}"));
+    }
 }
@@ -0,0 +1,129 @@
+/*
+ *  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.carbon.identity.authenticator.smsotp.test;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.wso2.carbon.identity.authenticator.smsotp.SMSOTPMetrics;
+import org.wso2.carbon.identity.authenticator.smsotp.gateway.SMSBatcher;
+import org.wso2.carbon.identity.authenticator.smsotp.gateway.SMSBulkSender;
+import org.wso2.carbon.identity.authenticator.smsotp.gateway.SMSGatewayResponse;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class SMSBatcherTest {
+
+    @Test
+    public void testBatchIsSentWhenFull() throws Exception {
+        SMSBatcher batcher = new SMSBatcher(3, 60000, 2);
+        try {
+            List<List<String>> batches = new CopyOnWriteArrayList<>();
+            long batchCount = SMSOTPMetrics.getCount(SMSBatcher.BATCHES_METRIC);
+            List<Future<SMSGatewayResponse>> responses = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                responses.add(batcher.submit("gateway", "message" + i, bulkSender(batches, 200)));
+            }
+            for (Future<SMSGatewayResponse> response : responses) {
+                Assert.assertEquals(response.get(5, TimeUnit.SECONDS).getStatusCode(), 200);
+            }
+            Assert.assertEquals(batches.size(), 1);
+            Assert.assertEquals(batches.get(0).size(), 3);
+            Assert.assertEquals(batches.get(0).get(2), "message2");
+            Assert.assertEquals(SMSOTPMetrics.getCount(SMSBatcher.BATCHES_METRIC), batchCount + 1);
+        } finally {
+            batcher.shutdown();
+        }
+    }
+
+    @Test
+    public void testBatchIsSentAfterMaxDelay() throws Exception {
+        SMSBatcher batcher = new SMSBatcher(50, 100, 2);
+        try {
+            List<List<String>> batches = new CopyOnWriteArrayList<>();
+            Future<SMSGatewayResponse> first = batcher.submit("gateway", "message0", bulkSender(batches, 202));
+            Future<SMSGatewayResponse> second = batcher.submit("gateway", "message1", bulkSender(batches, 202));
+            Assert.assertEquals(first.get(5, TimeUnit.SECONDS).getStatusCode(), 202);
+            Assert.assertSame(second, first);
+            Assert.assertEquals(batches.size(), 1);
+            Assert.assertEquals(batches.get(0).size(), 2);
+        } finally {
+            batcher.shutdown();
+        }
+    }
+
+    @Test
+    public void testBatchPerGateway() throws Exception {
+        SMSBatcher batcher = new SMSBatcher(50, 50, 2);
+        try {
+            List<List<String>> firstBatches = new CopyOnWriteArrayList<>();
+            List<List<String>> secondBatches = new CopyOnWriteArrayList<>();
+            Future<SMSGatewayResponse> first = batcher.submit("first", "message0", bulkSender(firstBatches, 200));
+            Future<SMSGatewayResponse> second = batcher.submit("second", "message1", bulkSender(secondBatches, 500));
+            Assert.assertEquals(first.get(5, TimeUnit.SECONDS).getStatusCode(), 200);
+            Assert.assertEquals(second.get(5, TimeUnit.SECONDS).getStatusCode(), 500);
+            Assert.assertEquals(firstBatches.size(), 1);
+            Assert.assertEquals(secondBatches.size(), 1);
+
+            // A message after the batch is sent opens a new batch.
+            Future<SMSGatewayResponse> third = batcher.submit("first", "message2", bulkSender(firstBatches, 200));
+            Assert.assertNotSame(third, first);
+            third.get(5, TimeUnit.SECONDS);
+            Assert.assertEquals(firstBatches.size(), 2);
+        } finally {
+            batcher.shutdown();
+        }
+    }
+
+    @Test
+    public void testFailedBatch() throws Exception {
+        SMSBatcher batcher = new SMSBatcher(1, 0, 1);
+        try {
+            Future<SMSGatewayResponse> response = batcher.submit("gateway", "message", new SMSBulkSender() {
+                @Override
+                public SMSGatewayResponse send(List<String> messages) throws IOException {
+                    throw new IOException("Connection refused");
+                }
+            });
+            try {
+                response.get(5, TimeUnit.SECONDS);
+                Assert.fail("Expected the batch to fail");
+            } catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof IOException);
+            }
+        } finally {
+            batcher.shutdown();
+        }
+    }
+
+    private SMSBulkSender bulkSender(final List<List<String>> batches, final int statusCode) {
+        return new SMSBulkSender() {
+            @Override
+            public SMSGatewayResponse send(List<String> messages) {
+                batches.add(new ArrayList<>(messages));
+                return new SMSGatewayResponse(statusCode, "OK");
+            }
+        };
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ *  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.carbon.identity.authenticator.smsotp.test;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.wso2.carbon.identity.authenticator.smsotp.gateway.SMSDispatchStatus;
+import org.wso2.carbon.identity.authenticator.smsotp.gateway.SMSDispatcher;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class SMSDispatcherTest {
+    private SMSDispatcher dispatcher;
+
+    @BeforeMethod
+    public void setUp() {
+        dispatcher = new SMSDispatcher(1, 1);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void testDispatch() throws Exception {
+        final SMSDispatchStatus dispatchStatus = new SMSDispatchStatus();
+        final CountDownLatch done = new CountDownLatch(1);
+        Assert.assertTrue(dispatcher.dispatch(new Runnable() {
+            @Override
+            public void run() {
+                dispatchStatus.setSent();
+                done.countDown();
+            }
+        }));
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(dispatchStatus.isCompleted());
+        Assert.assertFalse(dispatchStatus.isFailed());
+    }
+
+    @Test
+    public void testDispatchWhenQueueIsFull() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Runnable blockingTask = new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        Assert.assertTrue(dispatcher.dispatch(blockingTask));
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(dispatcher.dispatch(blockingTask));
+        Assert.assertEquals(dispatcher.getQueuedCount(), 1);
+        Assert.assertFalse(dispatcher.dispatch(blockingTask));
+        release.countDown();
+    }
+
+    @Test
+    public void testDispatchAfterShutdown() {
+        dispatcher.shutdown();
+        Assert.assertFalse(dispatcher.dispatch(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }));
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ *  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.carbon.identity.authenticator.smsotp.test;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.wso2.carbon.identity.authenticator.smsotp.gateway.SMSGateway;
+import org.wso2.carbon.identity.authenticator.smsotp.gateway.SMSGatewayBalancer;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class SMSGatewayBalancerTest {
+
+    @Test
+    public void testWeightedRoundRobin() {
+        SMSGateway primary = new SMSGateway("http://primary/sms", "GET", null, null, null, 3);
+        SMSGateway secondary = new SMSGateway("http://secondary/sms", "GET", null, null, null, 1);
+        SMSGatewayBalancer balancer = new SMSGatewayBalancer(Arrays.asList(primary, secondary));
+        int primaryCount = 0;
+        for (int i = 0; i < 40; i++) {
+            List<SMSGateway> order = balancer.select();
+            Assert.assertEquals(order.size(), 2);
+            if (order.get(0) == primary) {
+                primaryCount++;
+                Assert.assertSame(order.get(1), secondary);
+            } else {
+                Assert.assertSame(order.get(1), primary);
+            }
+        }
+        Assert.assertEquals(primaryCount, 30);
+    }
+
+    @Test
+    public void testFailoverOnlyGateway() {
+        SMSGateway primary = new SMSGateway("http://primary/sms", "GET", null, null, null, 1);
+        SMSGateway backup = new SMSGateway("http://backup/sms", "GET", null, null, null, 0);
+        SMSGatewayBalancer balancer = new SMSGatewayBalancer(Arrays.asList(backup, primary));
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals(balancer.select(), Arrays.asList(primary, backup));
+        }
+    }
+
+    @Test
+    public void testSuccessRateFeedback() {
+        SMSGateway primary = new SMSGateway("http://primary/sms", "GET", null, null, null, 1);
+        SMSGateway secondary = new SMSGateway("http://secondary/sms", "GET", null, null, null, 1);
+        SMSGatewayBalancer balancer = new SMSGatewayBalancer(Arrays.asList(primary, secondary));
+        for (int i = 0; i < 20; i++) {
+            balancer.recordResult(primary, false);
+            balancer.recordResult(secondary, true);
+        }
+        Assert.assertTrue(balancer.getSuccessRate(primary) < 0.2);
+        Assert.assertEquals(balancer.getSuccessRate(secondary), 1.0, 0.0001);
+        int primaryCount = 0;
+        for (int i = 0; i < 100; i++) {
+            if (balancer.select().get(0) == primary) {
+                primaryCount++;
+            }
+        }
+        Assert.assertTrue(primaryCount > 0 && primaryCount < 20, "Primary selected " + primaryCount + " times");
+    }
+
+    @Test
+    public void testSameBalancerForSameGateways() {
+        List<SMSGateway> gateways = Arrays.asList(new SMSGateway("http://primary/sms", "GET", null, null, null, 1),
+                new SMSGateway("http://secondary/sms", "GET", null, null, null, 1));
+        List<SMSGateway> sameGateways = Arrays.asList(new SMSGateway("http://primary/sms", "GET", null, null, null, 1),
+                new SMSGateway("http://secondary/sms", "GET", null, null, null, 1));
+        Assert.assertSame(SMSGatewayBalancer.getBalancer(sameGateways), SMSGatewayBalancer.getBalancer(gateways));
+    }
+
+    @Test
+    public void testSeparateBalancerForOtherHeaders() {
+        List<SMSGateway> gateways = Collections.singletonList(new SMSGateway("http://primary/sms", "GET",
+                "Authorization: Basic YWRtaW4=", null, null, 1));
+        List<SMSGateway> otherGateways = Collections.singletonList(new SMSGateway("http://primary/sms", "GET",
+                "Authorization: Basic dXNlcg==", null, null, 1));
+        Assert.assertNotSame(SMSGatewayBalancer.getBalancer(otherGateways), SMSGatewayBalancer.getBalancer(gateways));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedBalancerEvicted() {
+        List<SMSGateway> gateways = Collections.singletonList(new SMSGateway("http://evicted/sms", "GET", null, null,
+                null, 1));
+        SMSGatewayBalancer balancer = SMSGatewayBalancer.getBalancer(gateways);
+        for (int i = 0; i < 256; i++) {
+            SMSGatewayBalancer.getBalancer(Collections.singletonList(new SMSGateway("http://gateway" + i + "/sms",
+                    "GET", null, null, null, 1)));
+        }
+        Assert.assertNotSame(SMSGatewayBalancer.getBalancer(gateways), balancer);
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ *  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.carbon.identity.authenticator.smsotp.test;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.wso2.carbon.identity.authenticator.smsotp.SMSOTPMetrics;
+import org.wso2.carbon.identity.authenticator.smsotp.gateway.SMSGatewayCircuitBreaker;
+
+public class SMSGatewayCircuitBreakerTest {
+
+    @Test
+    public void testOpenAfterFailureThreshold() {
+        SMSGatewayCircuitBreaker circuitBreaker = new SMSGatewayCircuitBreaker("threshold-test", 3, 60000, 60000);
+        for (int i = 0; i < 2; i++) {
+            Assert.assertTrue(circuitBreaker.allowRequest());
+            circuitBreaker.recordFailure();
+        }
+        Assert.assertEquals(circuitBreaker.getState(), SMSGatewayCircuitBreaker.State.CLOSED);
+        Assert.assertTrue(circuitBreaker.allowRequest());
+        circuitBreaker.recordFailure();
+        Assert.assertEquals(circuitBreaker.getState(), SMSGatewayCircuitBreaker.State.OPEN);
+        Assert.assertFalse(circuitBreaker.allowRequest());
+        Assert.assertEquals(SMSOTPMetrics.getCount("smsotp.gateway.threshold-test.circuit.open"), 1);
+        Assert.assertEquals(SMSOTPMetrics.getCount("smsotp.gateway.threshold-test.circuit.rejected"), 1);
+    }
+
+    @Test
+    public void testFailuresOutsideWindow() throws Exception {
+        SMSGatewayCircuitBreaker circuitBreaker = new SMSGatewayCircuitBreaker("window-test", 2, 50, 60000);
+        circuitBreaker.recordFailure();
+        Thread.sleep(100);
+        circuitBreaker.recordFailure();
+        Assert.assertEquals(circuitBreaker.getState(), SMSGatewayCircuitBreaker.State.CLOSED);
+        circuitBreaker.recordFailure();
+        Assert.assertEquals(circuitBreaker.getState(), SMSGatewayCircuitBreaker.State.OPEN);
+    }
+
+    @Test
+    public void testHalfOpenProbe() throws Exception {
+        SMSGatewayCircuitBreaker circuitBreaker = new SMSGatewayCircuitBreaker("probe-test", 1, 60000, 50);
+        circuitBreaker.recordFailure();
+        Assert.assertFalse(circuitBreaker.allowRequest());
+        Thread.sleep(100);
+        Assert.assertTrue(circuitBreaker.allowRequest());
+        Assert.assertEquals(circuitBreaker.getState(), SMSGatewayCircuitBreaker.State.HALF_OPEN);
+        // Only one probe at a time.
+        Assert.assertFalse(circuitBreaker.allowRequest());
+        circuitBreaker.recordFailure();
+        Assert.assertEquals(circuitBreaker.getState(), SMSGatewayCircuitBreaker.State.OPEN);
+        Thread.sleep(100);
+        Assert.assertTrue(circuitBreaker.allowRequest());
+        circuitBreaker.recordSuccess();
+        Assert.assertEquals(circuitBreaker.getState(), SMSGatewayCircuitBreaker.State.CLOSED);
+        Assert.assertTrue(circuitBreaker.allowRequest());
+        Assert.assertEquals(SMSOTPMetrics.getCount("smsotp.gateway.probe-test.circuit.open"), 2);
+        Assert.assertEquals(SMSOTPMetrics.getCount("smsotp.gateway.probe-test.circuit.half_open"), 2);
+        Assert.assertEquals(SMSOTPMetrics.getCount("smsotp.gateway.probe-test.circuit.closed"), 1);
+    }
+}
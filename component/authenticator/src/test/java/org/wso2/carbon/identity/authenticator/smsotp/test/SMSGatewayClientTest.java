@@ -0,0 +1,276 @@
+/*
+ *  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.carbon.identity.authenticator.smsotp.test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.wso2.carbon.identity.authenticator.smsotp.SMSOTPMetrics;
+import org.wso2.carbon.identity.authenticator.smsotp.gateway.SMSGatewayCircuitBreaker;
+import org.wso2.carbon.identity.authenticator.smsotp.gateway.SMSGatewayClient;
+import org.wso2.carbon.identity.authenticator.smsotp.gateway.SMSGatewayClientManager;
+import org.wso2.carbon.identity.authenticator.smsotp.gateway.SMSGatewayRequest;
+import org.wso2.carbon.identity.authenticator.smsotp.gateway.SMSGatewayResponse;
+import org.wso2.carbon.identity.authenticator.smsotp.gateway.SMSGatewayUnavailableException;
+import org.wso2.carbon.identity.authenticator.smsotp.gateway.SMSHttp2GatewayClient;
+import org.wso2.carbon.identity.authenticator.smsotp.gateway.SMSResponseMatcher;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+public class SMSGatewayClientTest {
+    private HttpServer server;
+    private SMSGatewayClient client;
+    private String gatewayUrl;
+    private volatile int responseCode = 200;
+    private volatile long responseDelay;
+    private final List<Integer> clientPorts = new CopyOnWriteArrayList<>();
+    private final List<String> requests = new CopyOnWriteArrayList<>();
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        responseCode = 200;
+        responseDelay = 0;
+        clientPorts.clear();
+        requests.clear();
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/sms", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                clientPorts.add(exchange.getRemoteAddress().getPort());
+                requests.add(exchange.getRequestMethod() + " " + exchange.getRequestURI() + " "
+                        + exchange.getRequestHeaders().getFirst("Content-Type") + " "
+                        + exchange.getRequestHeaders().getFirst("Authorization") + " "
+                        + read(exchange.getRequestBody()));
+                if (responseDelay > 0) {
+                    try {
+                        Thread.sleep(responseDelay);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                byte[] body = ("{\"status\":" + responseCode + "}").getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(responseCode, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+        });
+        server.start();
+        gatewayUrl = "http://localhost:" + server.getAddress().getPort() + "/sms";
+        client = new SMSGatewayClient(2);
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        client.close();
+        server.stop(0);
+    }
+
+    @Test
+    public void testConnectionReuse() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            SMSGatewayResponse response = client.send(new SMSGatewayRequest("GET",
+                    gatewayUrl + "?to=94771234567&msg=" + i, null, null));
+            Assert.assertEquals(response.getStatusCode(), 200);
+        }
+        Assert.assertEquals(new HashSet<>(clientPorts).size(), 1);
+        Assert.assertEquals(client.getAvailableConnections(), 1);
+        Assert.assertEquals(client.getLeasedConnections(), 0);
+    }
+
+    @Test
+    public void testConnectionReuseAfterErrorResponse() throws Exception {
+        responseCode = 500;
+        SMSGatewayResponse response = client.send(new SMSGatewayRequest("GET", gatewayUrl, null, null));
+        Assert.assertEquals(response.getStatusCode(), 500);
+        Assert.assertEquals(response.getReasonPhrase(), "Internal Server Error");
+        responseCode = 200;
+        Assert.assertEquals(client.send(new SMSGatewayRequest("GET", gatewayUrl, null, null)).getStatusCode(), 200);
+        Assert.assertEquals(new HashSet<>(clientPorts).size(), 1);
+    }
+
+    @Test
+    public void testPost() throws Exception {
+        client.send(new SMSGatewayRequest("post", gatewayUrl,
+                Collections.singletonMap("Authorization", "Basic YWRtaW4="),
+                "to=94771234567&msg=Verification Code: 123456"));
+        Assert.assertEquals(requests.get(0), "POST /sms application/x-www-form-urlencoded Basic YWRtaW4= " +
+                "to=94771234567&msg=Verification Code: 123456");
+        client.send(new SMSGatewayRequest("POST", gatewayUrl,
+                Collections.singletonMap("Content-Type", "application/json"), "{}"));
+        Assert.assertEquals(requests.get(1), "POST /sms application/json null {}");
+    }
+
+    @Test
+    public void testResponseBody() throws Exception {
+        SMSGatewayRequest request = new SMSGatewayRequest("GET", gatewayUrl, null, null);
+        request.setResponseMatcher(SMSResponseMatcher.compile("/status=200"), 1024);
+        SMSGatewayResponse response = client.send(request);
+        Assert.assertEquals(response.getStatusCode(), 200);
+        Assert.assertTrue(response.isBodyMatched());
+        request.setResponseMatcher(SMSResponseMatcher.compile("/status=201"), 1024);
+        Assert.assertFalse(client.send(request).isBodyMatched());
+        request.setResponseMatcher(SMSResponseMatcher.compile("/status=200"), 5);
+        Assert.assertFalse(client.send(request).isBodyMatched());
+        Assert.assertTrue(client.send(new SMSGatewayRequest("GET", gatewayUrl, null, null)).isBodyMatched());
+        Assert.assertEquals(new HashSet<>(clientPorts).size(), 1);
+    }
+
+    @Test
+    public void testCloseIdleConnections() throws Exception {
+        client.send(new SMSGatewayRequest("GET", gatewayUrl, null, null));
+        Assert.assertEquals(client.getAvailableConnections(), 1);
+        client.closeIdleConnections(0);
+        Assert.assertEquals(client.getAvailableConnections(), 0);
+        Assert.assertEquals(client.send(new SMSGatewayRequest("GET", gatewayUrl, null, null)).getStatusCode(), 200);
+    }
+
+    @Test(expectedExceptions = {SocketTimeoutException.class})
+    public void testReadTimeout() throws Exception {
+        responseDelay = 1000;
+        SMSGatewayRequest request = new SMSGatewayRequest("GET", gatewayUrl, null, null);
+        request.setReadTimeout(100);
+        client.send(request);
+    }
+
+    @Test
+    public void testCircuitBreaker() throws Exception {
+        SMSGatewayCircuitBreaker circuitBreaker = new SMSGatewayCircuitBreaker("circuit-test", 2, 60000, 60000);
+        SMSGatewayClient gatewayClient = new SMSGatewayClient(2, circuitBreaker);
+        try {
+            responseCode = 503;
+            Assert.assertEquals(gatewayClient.send(new SMSGatewayRequest("GET", gatewayUrl, null, null))
+                    .getStatusCode(), 503);
+            Assert.assertEquals(circuitBreaker.getState(), SMSGatewayCircuitBreaker.State.CLOSED);
+            gatewayClient.send(new SMSGatewayRequest("GET", gatewayUrl, null, null));
+            Assert.assertEquals(circuitBreaker.getState(), SMSGatewayCircuitBreaker.State.OPEN);
+            try {
+                gatewayClient.send(new SMSGatewayRequest("GET", gatewayUrl, null, null));
+                Assert.fail("Message sent while the circuit is open");
+            } catch (SMSGatewayUnavailableException e) {
+                Assert.assertEquals(requests.size(), 2);
+            }
+            Assert.assertEquals(SMSOTPMetrics.getCount("smsotp.gateway.circuit-test.circuit.open"), 1);
+            Assert.assertEquals(SMSOTPMetrics.getCount("smsotp.gateway.circuit-test.circuit.rejected"), 1);
+        } finally {
+            gatewayClient.close();
+        }
+    }
+
+    @Test
+    public void testClientPerGateway() throws Exception {
+        SMSGatewayClientManager clientManager = new SMSGatewayClientManager(2, 30);
+        try {
+            SMSGatewayClient gatewayClient = clientManager.getClient(new URL(gatewayUrl + "?to=1"));
+            Assert.assertSame(clientManager.getClient(new URL(gatewayUrl + "?to=2")), gatewayClient);
+            Assert.assertNotSame(clientManager.getClient(new URL("https://localhost:" +
+                    server.getAddress().getPort() + "/sms")), gatewayClient);
+        } finally {
+            clientManager.shutdown();
+        }
+    }
+
+    @Test
+    public void testLeastRecentlyUsedClientIsClosed() throws Exception {
+        SMSGatewayClientManager clientManager = new SMSGatewayClientManager(2, 1);
+        try {
+            SMSGatewayClient gatewayClient = clientManager.getClient(new URL(gatewayUrl));
+            for (int i = 0; i < 256; i++) {
+                clientManager.getClient(new URL("http://gateway" + i + ".example.com/sms"));
+            }
+            Assert.assertNotSame(clientManager.getClient(new URL(gatewayUrl)), gatewayClient);
+            Thread.sleep(1500);
+            try {
+                gatewayClient.send(new SMSGatewayRequest("GET", gatewayUrl, null, null));
+                Assert.fail("Evicted SMS gateway client is not closed");
+            } catch (IllegalStateException expected) {
+                // the connection pool of the client is shut down
+            }
+        } finally {
+            clientManager.shutdown();
+        }
+    }
+
+    @Test
+    public void testHttp2ClientPerGateway() throws Exception {
+        SMSGatewayClientManager clientManager = new SMSGatewayClientManager(2, 30);
+        try {
+            SMSGatewayClient gatewayClient = clientManager.getClient(new URL(gatewayUrl), true);
+            Assert.assertSame(clientManager.getClient(new URL(gatewayUrl + "?to=2"), true), gatewayClient);
+            if (SMSHttp2GatewayClient.isSupported()) {
+                Assert.assertTrue(gatewayClient instanceof SMSHttp2GatewayClient);
+                Assert.assertNotSame(clientManager.getClient(new URL(gatewayUrl)), gatewayClient);
+            } else {
+                Assert.assertSame(clientManager.getClient(new URL(gatewayUrl)), gatewayClient);
+            }
+        } finally {
+            clientManager.shutdown();
+        }
+    }
+
+    @Test
+    public void testHttp2Send() throws Exception {
+        if (!SMSHttp2GatewayClient.isSupported()) {
+            return;
+        }
+        SMSGatewayCircuitBreaker circuitBreaker = new SMSGatewayCircuitBreaker("http2-test", 1, 60000, 60000);
+        SMSHttp2GatewayClient gatewayClient = new SMSHttp2GatewayClient(circuitBreaker);
+        try {
+            Assert.assertEquals(gatewayClient.send(new SMSGatewayRequest("post", gatewayUrl,
+                    Collections.singletonMap("Authorization", "Basic YWRtaW4="),
+                    "to=94771234567&msg=Verification Code: 123456")).getStatusCode(), 200);
+            Assert.assertEquals(requests.get(0), "POST /sms application/x-www-form-urlencoded Basic YWRtaW4= " +
+                    "to=94771234567&msg=Verification Code: 123456");
+            responseCode = 503;
+            Assert.assertEquals(gatewayClient.send(new SMSGatewayRequest("GET", gatewayUrl, null, null))
+                    .getStatusCode(), 503);
+            Assert.assertEquals(circuitBreaker.getState(), SMSGatewayCircuitBreaker.State.OPEN);
+            Assert.assertEquals(gatewayClient.getAvailableConnections(), SMSGatewayClient.UNSUPPORTED_STATISTIC);
+            Assert.assertEquals(gatewayClient.getLeasedConnections(), SMSGatewayClient.UNSUPPORTED_STATISTIC);
+        } finally {
+            gatewayClient.close();
+        }
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[256];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
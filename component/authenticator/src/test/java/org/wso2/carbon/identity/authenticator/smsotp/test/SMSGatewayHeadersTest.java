@@ -0,0 +1,66 @@
+/*
+ *  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.carbon.identity.authenticator.smsotp.test;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.wso2.carbon.identity.authenticator.smsotp.SMSOTPConstants;
+import org.wso2.carbon.identity.authenticator.smsotp.gateway.SMSGatewayHeaders;
+
+import java.util.Map;
+
+public class SMSGatewayHeadersTest {
+
+    @Test
+    public void testValueWithColons() {
+        SMSGatewayHeaders headers = SMSGatewayHeaders.parse("Authorization: Basic YWxhZGRpbjpvcGVu," +
+                "X-Callback:https://idp.example.com:9443/callback");
+        Map<String, String> rendered = headers.render("0771234567", SMSOTPConstants.SMS_MESSAGE, "123456");
+        Assert.assertEquals(rendered.size(), 2);
+        Assert.assertEquals(rendered.get("Authorization"), "Basic YWxhZGRpbjpvcGVu");
+        Assert.assertEquals(rendered.get("X-Callback"), "https://idp.example.com:9443/callback");
+    }
+
+    @Test
+    public void testMalformedHeadersAreSkipped() {
+        SMSGatewayHeaders headers = SMSGatewayHeaders.parse("Accept:text/plain,NoValue,:NoName,Empty:");
+        Assert.assertEquals(headers.size(), 1);
+        Assert.assertEquals(headers.render("0771234567", "", "123456").get("Accept"), "text/plain");
+        Assert.assertEquals(SMSGatewayHeaders.parse(null).size(), 0);
+        Assert.assertTrue(SMSGatewayHeaders.parse(" ").render("0771234567", "", "123456").isEmpty());
+    }
+
+    @Test
+    public void testPlaceholders() {
+        SMSGatewayHeaders headers = SMSGatewayHeaders.parse("X-To:$ctx.num,X-Message:$ctx.msg,Accept:*/*");
+        Map<String, String> rendered = headers.render("0771234567", SMSOTPConstants.SMS_MESSAGE, "123456");
+        Assert.assertEquals(rendered.get("X-To"), "0771234567");
+        Assert.assertEquals(rendered.get("X-Message"), "Verification Code: 123456");
+        Assert.assertEquals(rendered.get("Accept"), "*/*");
+        Assert.assertNotSame(headers.render("0777654321", "", "654321"), rendered);
+    }
+
+    @Test
+    public void testParsedOnce() {
+        String headerString = "Content-Type:application/json";
+        SMSGatewayHeaders headers = SMSGatewayHeaders.parse(headerString);
+        Assert.assertSame(SMSGatewayHeaders.parse(new String(headerString)), headers);
+        Assert.assertSame(headers.render("0771234567", "", "1"), headers.render("0777654321", "", "2"));
+    }
+}
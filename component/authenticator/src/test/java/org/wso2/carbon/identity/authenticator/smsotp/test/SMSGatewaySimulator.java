@@ -0,0 +1,415 @@
+/*
+ *  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.carbon.identity.authenticator.smsotp.test;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * SMS gateway that runs on localhost for the tests. It accepts the GET and POST requests of the authenticator over
+ * persistent HTTP/1.1 connections, records them, and answers each one either normally or with a fault. The faults
+ * are taken from a queue of scripted faults first, and otherwise drawn at the configured rates from a seeded random,
+ * so that a test sees the same sequence of faults on every run.
+ */
+public class SMSGatewaySimulator implements Closeable {
+
+    /**
+     * The ways a request can be answered.
+     */
+    public enum Fault {
+        // Respond with the configured status code and body.
+        NONE,
+        // Respond with the error status code.
+        ERROR,
+        // Never respond, until the client gives up and closes the connection.
+        TIMEOUT,
+        // Respond normally, but send the response one byte at a time.
+        SLOW_DRIP,
+        // Reset the connection without responding.
+        RESET
+    }
+
+    /**
+     * Distribution of the time taken by the gateway before it responds.
+     */
+    public abstract static class Latency {
+
+        public abstract long next(Random random);
+
+        public static Latency fixed(final long millis) {
+            return new Latency() {
+                @Override
+                public long next(Random random) {
+                    return millis;
+                }
+            };
+        }
+
+        public static Latency uniform(final long minMillis, final long maxMillis) {
+            return new Latency() {
+                @Override
+                public long next(Random random) {
+                    return minMillis + (long) (random.nextDouble() * (maxMillis - minMillis));
+                }
+            };
+        }
+
+        public static Latency exponential(final long meanMillis) {
+            return new Latency() {
+                @Override
+                public long next(Random random) {
+                    return (long) (-meanMillis * Math.log(1 - random.nextDouble()));
+                }
+            };
+        }
+    }
+
+    /**
+     * A request received by the gateway.
+     */
+    public static class Request {
+
+        private final String method;
+        private final String uri;
+        private final Map<String, String> headers;
+        private final String body;
+        private final Fault fault;
+
+        Request(String method, String uri, Map<String, String> headers, String body, Fault fault) {
+            this.method = method;
+            this.uri = uri;
+            this.headers = headers;
+            this.body = body;
+            this.fault = fault;
+        }
+
+        public String getMethod() {
+            return method;
+        }
+
+        public String getUri() {
+            return uri;
+        }
+
+        /**
+         * @param name the header name, in any case
+         * @return the header value or null
+         */
+        public String getHeader(String name) {
+            return headers.get(name.toLowerCase(Locale.ENGLISH));
+        }
+
+        public String getBody() {
+            return body;
+        }
+
+        public Fault getFault() {
+            return fault;
+        }
+
+        @Override
+        public String toString() {
+            return method + " " + uri + " " + body;
+        }
+    }
+
+    private final Random random;
+    private final Queue<Fault> scriptedFaults = new ConcurrentLinkedQueue<>();
+    private final List<Request> requests = new CopyOnWriteArrayList<>();
+    private final Set<Socket> sockets = Collections.newSetFromMap(new ConcurrentHashMap<Socket, Boolean>());
+    private final AtomicInteger connections = new AtomicInteger();
+    private final ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "SMS-Gateway-Simulator-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    private ServerSocket serverSocket;
+
+    private volatile Latency latency = Latency.fixed(0);
+    private volatile double errorRate;
+    private volatile double timeoutRate;
+    private volatile double slowDripRate;
+    private volatile double resetRate;
+    private volatile int statusCode = 200;
+    private volatile int errorStatusCode = 503;
+    private volatile String responseBody = "{\"status\":\"sent\"}";
+    private volatile long dripInterval = 10;
+
+    /**
+     * Create a gateway.
+     *
+     * @param seed the seed of the random faults and latencies
+     */
+    public SMSGatewaySimulator(long seed) {
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Start listening on a free port of localhost.
+     *
+     * @return this gateway
+     * @throws IOException if the port could not be opened
+     */
+    public SMSGatewaySimulator start() throws IOException {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                while (!serverSocket.isClosed()) {
+                    try {
+                        final Socket socket = serverSocket.accept();
+                        connections.incrementAndGet();
+                        sockets.add(socket);
+                        executor.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                serve(socket);
+                            }
+                        });
+                    } catch (IOException e) {
+                        // The gateway is closed.
+                    }
+                }
+            }
+        });
+        return this;
+    }
+
+    /**
+     * @return the url of the gateway, to which the query parameters of the message are appended
+     */
+    public String getUrl() {
+        return "http://localhost:" + serverSocket.getLocalPort() + "/sms";
+    }
+
+    public void setLatency(Latency latency) {
+        this.latency = latency;
+    }
+
+    public void setResponse(int statusCode, String responseBody) {
+        this.statusCode = statusCode;
+        this.responseBody = responseBody;
+    }
+
+    public void setErrorRate(double errorRate, int errorStatusCode) {
+        this.errorRate = errorRate;
+        this.errorStatusCode = errorStatusCode;
+    }
+
+    public void setTimeoutRate(double timeoutRate) {
+        this.timeoutRate = timeoutRate;
+    }
+
+    public void setResetRate(double resetRate) {
+        this.resetRate = resetRate;
+    }
+
+    /**
+     * @param slowDripRate the share of the responses that are sent one byte at a time
+     * @param dripInterval the time in milliseconds between two bytes
+     */
+    public void setSlowDrip(double slowDripRate, long dripInterval) {
+        this.slowDripRate = slowDripRate;
+        this.dripInterval = dripInterval;
+    }
+
+    /**
+     * Answer the next requests with the given faults, in order, before drawing faults at the configured rates.
+     *
+     * @param faults the faults
+     */
+    public void enqueue(Fault... faults) {
+        Collections.addAll(scriptedFaults, faults);
+    }
+
+    public List<Request> getRequests() {
+        return new ArrayList<>(requests);
+    }
+
+    /**
+     * @return the number of connections accepted so far
+     */
+    public int getConnectionCount() {
+        return connections.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+        executor.shutdownNow();
+    }
+
+    private void serve(Socket socket) {
+        try (Socket connection = socket) {
+            InputStream in = new BufferedInputStream(connection.getInputStream());
+            OutputStream out = connection.getOutputStream();
+            while (true) {
+                String requestLine = readLine(in);
+                if (requestLine == null || requestLine.isEmpty()) {
+                    return;
+                }
+                Map<String, String> headers = new LinkedHashMap<>();
+                String line;
+                while ((line = readLine(in)) != null && !line.isEmpty()) {
+                    int separator = line.indexOf(':');
+                    if (separator > 0) {
+                        headers.put(line.substring(0, separator).trim().toLowerCase(Locale.ENGLISH),
+                                line.substring(separator + 1).trim());
+                    }
+                }
+                String contentLength = headers.get("content-length");
+                byte[] body = new byte[contentLength != null ? Integer.parseInt(contentLength) : 0];
+                for (int read = 0; read < body.length; ) {
+                    int count = in.read(body, read, body.length - read);
+                    if (count == -1) {
+                        return;
+                    }
+                    read += count;
+                }
+                String[] parts = requestLine.split(" ");
+                Fault fault = nextFault();
+                long delay;
+                synchronized (random) {
+                    delay = latency.next(random);
+                }
+                requests.add(new Request(parts[0], parts.length > 1 ? parts[1] : "", headers,
+                        new String(body, StandardCharsets.UTF_8), fault));
+                if (!respond(connection, in, out, fault, delay)) {
+                    return;
+                }
+                if ("close".equalsIgnoreCase(headers.get("connection"))) {
+                    return;
+                }
+            }
+        } catch (IOException | InterruptedException e) {
+            // The client or the gateway closed the connection.
+        } finally {
+            sockets.remove(socket);
+        }
+    }
+
+    private boolean respond(Socket connection, InputStream in, OutputStream out, Fault fault, long delay)
+            throws IOException, InterruptedException {
+        if (delay > 0) {
+            Thread.sleep(delay);
+        }
+        switch (fault) {
+            case TIMEOUT:
+                // Wait until the client closes the connection.
+                while (in.read() != -1) {
+                    continue;
+                }
+                return false;
+            case RESET:
+                connection.setSoLinger(true, 0);
+                return false;
+            default:
+                int status = fault == Fault.ERROR ? errorStatusCode : statusCode;
+                byte[] body = (fault == Fault.ERROR ? "{\"status\":\"error\"}" : responseBody)
+                        .getBytes(StandardCharsets.UTF_8);
+                byte[] head = ("HTTP/1.1 " + status + " " + (status < 400 ? "OK" : "Error") + "\r\n" +
+                        "Content-Type: application/json\r\n" +
+                        "Content-Length: " + body.length + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+                if (fault == Fault.SLOW_DRIP) {
+                    drip(out, head);
+                    drip(out, body);
+                } else {
+                    out.write(head);
+                    out.write(body);
+                    out.flush();
+                }
+                return true;
+        }
+    }
+
+    private void drip(OutputStream out, byte[] bytes) throws IOException, InterruptedException {
+        for (byte b : bytes) {
+            out.write(b);
+            out.flush();
+            Thread.sleep(dripInterval);
+        }
+    }
+
+    private Fault nextFault() {
+        Fault fault = scriptedFaults.poll();
+        if (fault != null) {
+            return fault;
+        }
+        double draw;
+        synchronized (random) {
+            draw = random.nextDouble();
+        }
+        if ((draw -= resetRate) < 0) {
+            return Fault.RESET;
+        } else if ((draw -= timeoutRate) < 0) {
+            return Fault.TIMEOUT;
+        } else if ((draw -= errorRate) < 0) {
+            return Fault.ERROR;
+        } else if ((draw -= slowDripRate) < 0) {
+            return Fault.SLOW_DRIP;
+        }
+        return Fault.NONE;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                byte[] bytes = line.toByteArray();
+                int length = bytes.length > 0 && bytes[bytes.length - 1] == '\r' ? bytes.length - 1 : bytes.length;
+                return new String(bytes, 0, length, StandardCharsets.US_ASCII);
+            }
+            line.write(b);
+        }
+        return line.size() > 0 ? line.toString("US-ASCII") : null;
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ *  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.carbon.identity.authenticator.smsotp.test;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.wso2.carbon.identity.authenticator.smsotp.gateway.SMSGatewayClient;
+import org.wso2.carbon.identity.authenticator.smsotp.gateway.SMSGatewayRequest;
+import org.wso2.carbon.identity.authenticator.smsotp.gateway.SMSRetrier;
+
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests of the gateway client and retrier against {@link SMSGatewaySimulator}.
+ */
+public class SMSGatewaySimulatorTest {
+
+    private SMSGatewaySimulator gateway;
+    private SMSGatewayClient client;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        gateway = new SMSGatewaySimulator(42).start();
+        client = new SMSGatewayClient(2);
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        client.close();
+        gateway.close();
+    }
+
+    @Test
+    public void testConnectionReuse() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals(client.send(request(gateway.getUrl() + "?to=9477123456" + i)).getStatusCode(), 200);
+        }
+        Assert.assertEquals(gateway.getConnectionCount(), 1);
+        Assert.assertEquals(gateway.getRequests().size(), 10);
+        Assert.assertEquals(gateway.getRequests().get(3).getUri(), "/sms?to=94771234563");
+    }
+
+    @Test
+    public void testPost() throws Exception {
+        client.send(new SMSGatewayRequest("POST", gateway.getUrl(),
+                Collections.singletonMap("Content-Type", "application/json"), "{\"to\":\"94771234567\"}"));
+        SMSGatewaySimulator.Request request = gateway.getRequests().get(0);
+        Assert.assertEquals(request.getMethod(), "POST");
+        Assert.assertEquals(request.getHeader("content-type"), "application/json");
+        Assert.assertEquals(request.getBody(), "{\"to\":\"94771234567\"}");
+    }
+
+    @Test
+    public void testLatency() throws Exception {
+        gateway.setLatency(SMSGatewaySimulator.Latency.fixed(200));
+        long start = System.nanoTime();
+        client.send(request(gateway.getUrl()));
+        Assert.assertTrue(System.nanoTime() - start >= 200 * 1000000L);
+    }
+
+    @Test(expectedExceptions = SocketTimeoutException.class)
+    public void testTimeout() throws Exception {
+        gateway.enqueue(SMSGatewaySimulator.Fault.TIMEOUT);
+        SMSGatewayRequest request = request(gateway.getUrl());
+        request.setReadTimeout(200);
+        client.send(request);
+    }
+
+    @Test
+    public void testSlowDripWithinReadTimeout() throws Exception {
+        gateway.setSlowDrip(1, 2);
+        SMSGatewayRequest request = request(gateway.getUrl());
+        request.setReadTimeout(100);
+        long start = System.nanoTime();
+        Assert.assertEquals(client.send(request).getStatusCode(), 200);
+        // The read timeout applies to each read, not to the whole response.
+        Assert.assertTrue(System.nanoTime() - start > 100 * 1000000L);
+    }
+
+    @Test
+    public void testRetryAfterResetAndError() throws Exception {
+        gateway.enqueue(SMSGatewaySimulator.Fault.RESET, SMSGatewaySimulator.Fault.ERROR);
+        SMSRetrier retrier = new SMSRetrier(3, 10, 50, 5000);
+        SMSGatewayRequest gatewayRequest = request(gateway.getUrl());
+        gatewayRequest.setIdempotent(true);
+        try {
+            Assert.assertEquals(retrier.send(client, gatewayRequest, System.currentTimeMillis() + 5000)
+                    .getStatusCode(), 200);
+        } finally {
+            retrier.shutdown();
+        }
+        List<SMSGatewaySimulator.Fault> faults = new ArrayList<>();
+        for (SMSGatewaySimulator.Request request : gateway.getRequests()) {
+            faults.add(request.getFault());
+        }
+        Assert.assertEquals(faults, Arrays.asList(SMSGatewaySimulator.Fault.RESET, SMSGatewaySimulator.Fault.ERROR,
+                SMSGatewaySimulator.Fault.NONE));
+    }
+
+    @Test
+    public void testDeterministicFaults() throws Exception {
+        gateway.setErrorRate(0.3, 500);
+        List<Integer> statusCodes = send(gateway, 50);
+        try (SMSGatewaySimulator other = new SMSGatewaySimulator(42).start();
+             SMSGatewayClient otherClient = new SMSGatewayClient(2)) {
+            other.setErrorRate(0.3, 500);
+            List<Integer> otherStatusCodes = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                otherStatusCodes.add(otherClient.send(request(other.getUrl())).getStatusCode());
+            }
+            Assert.assertEquals(otherStatusCodes, statusCodes);
+        }
+        int errors = Collections.frequency(statusCodes, 500);
+        Assert.assertTrue(errors > 5 && errors < 30, "Errors : " + errors);
+    }
+
+    private List<Integer> send(SMSGatewaySimulator simulator, int count) throws Exception {
+        List<Integer> statusCodes = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            statusCodes.add(client.send(request(simulator.getUrl())).getStatusCode());
+        }
+        return statusCodes;
+    }
+
+    private static SMSGatewayRequest request(String url) {
+        SMSGatewayRequest request = new SMSGatewayRequest("GET", url, null, null);
+        request.setConnectTimeout(1000);
+        request.setReadTimeout(2000);
+        return request;
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ *  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.carbon.identity.authenticator.smsotp.test;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.wso2.carbon.identity.authenticator.smsotp.SMSOTPMetrics;
+import org.wso2.carbon.identity.authenticator.smsotp.gateway.SMSHedgedSender;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SMSHedgedSenderTest {
+
+    @Test
+    public void testPrimaryWithinDelay() {
+        SMSHedgedSender hedgedSender = new SMSHedgedSender(4, 500, 100);
+        try {
+            AtomicInteger secondaryCalls = new AtomicInteger();
+            Assert.assertTrue(hedgedSender.send(gateway(10, true, null), gateway(0, true, secondaryCalls)));
+            Assert.assertEquals(secondaryCalls.get(), 0);
+        } finally {
+            hedgedSender.shutdown();
+        }
+    }
+
+    @Test
+    public void testHedgeWhenPrimaryIsSlow() {
+        SMSHedgedSender hedgedSender = new SMSHedgedSender(4, 50, 100);
+        try {
+            long hedged = SMSOTPMetrics.getCount(SMSHedgedSender.HEDGED_METRIC);
+            long won = SMSOTPMetrics.getCount(SMSHedgedSender.HEDGE_WON_METRIC);
+            AtomicInteger secondaryCalls = new AtomicInteger();
+            long start = System.currentTimeMillis();
+            Assert.assertTrue(hedgedSender.send(gateway(2000, true, null), gateway(10, true, secondaryCalls)));
+            Assert.assertTrue(System.currentTimeMillis() - start < 1000);
+            Assert.assertEquals(secondaryCalls.get(), 1);
+            Assert.assertEquals(SMSOTPMetrics.getCount(SMSHedgedSender.HEDGED_METRIC), hedged + 1);
+            Assert.assertEquals(SMSOTPMetrics.getCount(SMSHedgedSender.HEDGE_WON_METRIC), won + 1);
+        } finally {
+            hedgedSender.shutdown();
+        }
+    }
+
+    @Test
+    public void testFailoverWhenPrimaryFails() {
+        SMSHedgedSender hedgedSender = new SMSHedgedSender(4, 500, 0);
+        try {
+            AtomicInteger secondaryCalls = new AtomicInteger();
+            Assert.assertTrue(hedgedSender.send(gateway(0, false, null), gateway(0, true, secondaryCalls)));
+            Assert.assertEquals(secondaryCalls.get(), 1);
+            Assert.assertFalse(hedgedSender.send(gateway(0, false, null), gateway(0, false, null)));
+        } finally {
+            hedgedSender.shutdown();
+        }
+    }
+
+    @Test
+    public void testHedgeBudget() {
+        SMSHedgedSender hedgedSender = new SMSHedgedSender(4, 20, 0);
+        try {
+            // The initial budget allows a single hedge.
+            AtomicInteger secondaryCalls = new AtomicInteger();
+            Assert.assertTrue(hedgedSender.send(gateway(200, true, null), gateway(0, true, secondaryCalls)));
+            Assert.assertEquals(secondaryCalls.get(), 1);
+            long exhausted = SMSOTPMetrics.getCount(SMSHedgedSender.HEDGE_BUDGET_EXHAUSTED_METRIC);
+            Assert.assertTrue(hedgedSender.send(gateway(200, true, null), gateway(0, true, secondaryCalls)));
+            Assert.assertEquals(secondaryCalls.get(), 1);
+            Assert.assertEquals(SMSOTPMetrics.getCount(SMSHedgedSender.HEDGE_BUDGET_EXHAUSTED_METRIC),
+                    exhausted + 1);
+        } finally {
+            hedgedSender.shutdown();
+        }
+    }
+
+    @Test
+    public void testObservedPercentileDelay() {
+        SMSHedgedSender hedgedSender = new SMSHedgedSender(4, 0, 0);
+        try {
+            Assert.assertEquals(hedgedSender.getHedgeDelay(), 1000);
+            for (int i = 0; i < 20; i++) {
+                hedgedSender.send(gateway(i == 19 ? 100 : 0, true, null), gateway(0, true, null));
+            }
+            long hedgeDelay = hedgedSender.getHedgeDelay();
+            Assert.assertTrue(hedgeDelay >= 1 && hedgeDelay < 100, "Hedge delay " + hedgeDelay);
+        } finally {
+            hedgedSender.shutdown();
+        }
+    }
+
+    private static Callable<Boolean> gateway(final long latency, final boolean accepted, final AtomicInteger calls) {
+        return new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                if (calls != null) {
+                    calls.incrementAndGet();
+                }
+                Thread.sleep(latency);
+                return accepted;
+            }
+        };
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ *  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.carbon.identity.authenticator.smsotp.test;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.wso2.carbon.identity.authenticator.smsotp.gateway.SMSJournal;
+import org.wso2.carbon.identity.authenticator.smsotp.gateway.SMSJournalEntry;
+import org.wso2.carbon.identity.authenticator.smsotp.gateway.SMSJournalSender;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+public class SMSJournalTest {
+
+    private File journalFile;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        journalFile = File.createTempFile("sms-journal", ".dat");
+        journalFile.deleteOnExit();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        journalFile.delete();
+    }
+
+    @Test
+    public void testAppendAndComplete() throws IOException {
+        SMSJournal journal = new SMSJournal(journalFile, 4096, false);
+        try {
+            long id = journal.append("context", "0771234567", Long.MAX_VALUE);
+            Assert.assertTrue(id > 0);
+            Assert.assertEquals(journal.getPendingCount(), 1);
+            SMSJournalEntry entry = journal.getEntry(id);
+            Assert.assertEquals(entry.getContextIdentifier(), "context");
+            Assert.assertEquals(entry.getMobile(), "0771234567");
+            journal.complete(id);
+            Assert.assertEquals(journal.getPendingCount(), 0);
+            Assert.assertNull(journal.getEntry(id));
+        } finally {
+            journal.close();
+        }
+    }
+
+    @Test
+    public void testReplayAfterReopen() throws IOException {
+        SMSJournal journal = new SMSJournal(journalFile, 4096, true);
+        long sentId = journal.append("sent", "0771234567", Long.MAX_VALUE);
+        long pendingId = journal.append("pending", "0777654321", Long.MAX_VALUE);
+        journal.complete(sentId);
+        journal.release(pendingId);
+        journal.close();
+
+        journal = new SMSJournal(journalFile, 4096, false);
+        try {
+            Assert.assertEquals(journal.getPendingCount(), 1);
+            Assert.assertEquals(journal.getEntry(pendingId).getMobile(), "0777654321");
+            List<SMSJournalEntry> sent = new CopyOnWriteArrayList<>();
+            journal.drain(journalSender(sent, true));
+            Assert.assertEquals(sent.size(), 1);
+            Assert.assertEquals(sent.get(0).getContextIdentifier(), "pending");
+            Assert.assertEquals(journal.getPendingCount(), 0);
+            Assert.assertTrue(journal.append("next", "0771234567", Long.MAX_VALUE) > pendingId);
+        } finally {
+            journal.close();
+        }
+    }
+
+    @Test
+    public void testDrainRetriesUntilExpiry() throws Exception {
+        SMSJournal journal = new SMSJournal(journalFile, 4096, false);
+        try {
+            journal.setEntryTimeToLive(200);
+            long id = journal.append("context", "0771234567", Long.MAX_VALUE);
+            List<SMSJournalEntry> sent = new CopyOnWriteArrayList<>();
+
+            // An SMS that is being sent by the request thread is not retried.
+            journal.drain(journalSender(sent, false));
+            Assert.assertEquals(sent.size(), 0);
+
+            journal.release(id);
+            journal.drain(journalSender(sent, false));
+            journal.drain(journalSender(sent, false));
+            Assert.assertEquals(sent.size(), 2);
+            Assert.assertEquals(journal.getPendingCount(), 1);
+
+            Thread.sleep(300);
+            journal.drain(journalSender(sent, true));
+            Assert.assertEquals(sent.size(), 2);
+            Assert.assertEquals(journal.getPendingCount(), 0);
+        } finally {
+            journal.close();
+        }
+    }
+
+    @Test
+    public void testExpiryIsCappedAtCodeExpiry() throws IOException {
+        SMSJournal journal = new SMSJournal(journalFile, 4096, false);
+        try {
+            long now = System.currentTimeMillis();
+            long codeExpiry = now + 10000;
+            long id = journal.append("context", "0771234567", codeExpiry);
+            Assert.assertEquals(journal.getEntry(id).getExpiry(), codeExpiry);
+
+            journal.setEntryTimeToLive(5000);
+            id = journal.append("context", "0771234567", codeExpiry);
+            Assert.assertTrue(journal.getEntry(id).getExpiry() < codeExpiry);
+            Assert.assertTrue(journal.getEntry(id).getExpiry() >= now + 5000);
+        } finally {
+            journal.close();
+        }
+    }
+
+    @Test
+    public void testFileIsOwnerOnly() throws IOException {
+        Assert.assertTrue(journalFile.delete());
+        SMSJournal journal = new SMSJournal(journalFile, 4096, false);
+        try {
+            if (Files.getFileStore(journalFile.toPath()).supportsFileAttributeView(PosixFileAttributeView.class)) {
+                Assert.assertEquals(Files.getPosixFilePermissions(journalFile.toPath()),
+                        EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE));
+            }
+        } finally {
+            journal.close();
+        }
+    }
+
+    @Test
+    public void testCompactWhenFull() throws IOException {
+        SMSJournal journal = new SMSJournal(journalFile, 1024, false);
+        try {
+            long pendingId = journal.append("pending", "0771234567", Long.MAX_VALUE);
+            journal.release(pendingId);
+            for (int i = 0; i < 50; i++) {
+                long id = journal.append("context" + i, "0771234567", Long.MAX_VALUE);
+                Assert.assertTrue(id > 0);
+                journal.complete(id);
+            }
+            Assert.assertEquals(journal.getPendingCount(), 1);
+            Assert.assertEquals(journal.getEntry(pendingId).getContextIdentifier(), "pending");
+        } finally {
+            journal.close();
+        }
+    }
+
+    @Test
+    public void testJournalFull() throws IOException {
+        SMSJournal journal = new SMSJournal(journalFile, 256, false);
+        try {
+            int appended = 0;
+            while (journal.append("context", "0771234567", Long.MAX_VALUE) > 0) {
+                appended++;
+            }
+            Assert.assertTrue(appended > 0);
+            Assert.assertEquals(journal.getPendingCount(), appended);
+        } finally {
+            journal.close();
+        }
+    }
+
+    private SMSJournalSender journalSender(final List<SMSJournalEntry> sent, final boolean isSent) {
+        return new SMSJournalSender() {
+            @Override
+            public boolean send(SMSJournalEntry entry) {
+                sent.add(entry);
+                return isSent;
+            }
+        };
+    }
+}
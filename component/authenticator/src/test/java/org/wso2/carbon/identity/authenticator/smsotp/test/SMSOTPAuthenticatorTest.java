@@ -18,6 +18,9 @@
  */
 package org.wso2.carbon.identity.authenticator.smsotp.test;
 
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
 import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
@@ -26,6 +29,7 @@ import static org.mockito.MockitoAnnotations.initMocks;
 
 import org.mockito.Spy;
 import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.testng.PowerMockObjectFactory;
 import org.powermock.modules.junit4.PowerMockRunner;
@@ -37,6 +41,8 @@ import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.ObjectFactory;
 import org.testng.annotations.Test;
 
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
 import org.wso2.carbon.extension.identity.helper.FederatedAuthenticatorUtil;
@@ -50,10 +56,16 @@ import org.wso2.carbon.identity.application.authentication.framework.model.Authe
 import org.wso2.carbon.identity.application.authentication.framework.util.FrameworkConstants;
 import org.wso2.carbon.identity.application.authentication.framework.util.FrameworkUtils;
 import org.wso2.carbon.identity.application.common.model.Property;
+import org.wso2.carbon.identity.authenticator.smsotp.OneTimePassword;
 import org.wso2.carbon.identity.authenticator.smsotp.SMSOTPAuthenticator;
+import org.wso2.carbon.identity.authenticator.smsotp.SMSOTPConfig;
 import org.wso2.carbon.identity.authenticator.smsotp.SMSOTPConstants;
+import org.wso2.carbon.identity.authenticator.smsotp.SMSOTPUserClaims;
 import org.wso2.carbon.identity.authenticator.smsotp.SMSOTPUtils;
 import org.wso2.carbon.identity.authenticator.smsotp.exception.SMSOTPException;
+import org.wso2.carbon.identity.authenticator.smsotp.gateway.SMSDispatchStatus;
+import org.wso2.carbon.identity.authenticator.smsotp.gateway.SMSGateway;
+import org.wso2.carbon.identity.authenticator.smsotp.gateway.SMSJournalEntry;
 import org.wso2.carbon.identity.core.util.IdentityTenantUtil;
 import org.wso2.carbon.user.api.UserStoreException;
 import org.wso2.carbon.user.core.UserRealm;
@@ -63,8 +75,15 @@ import org.wso2.carbon.utils.multitenancy.MultitenantUtils;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
@@ -74,6 +93,7 @@ import static org.powermock.api.mockito.PowerMockito.*;
 @RunWith(PowerMockRunner.class)
 @PrepareForTest({ConfigurationFacade.class, SMSOTPUtils.class, FederatedAuthenticatorUtil.class, FrameworkUtils.class,
         IdentityTenantUtil.class})
+@PowerMockIgnore({"javax.crypto.*", "javax.net.ssl.*", "org.apache.http.*", "com.sun.net.httpserver.*"})
 public class SMSOTPAuthenticatorTest {
     private SMSOTPAuthenticator smsotpAuthenticator;
 
@@ -107,6 +127,7 @@ public class SMSOTPAuthenticatorTest {
     @BeforeMethod
     public void setUp() throws Exception {
         smsotpAuthenticator = new SMSOTPAuthenticator();
+        context = new AuthenticationContext();
         initMocks(this);
     }
 
@@ -173,9 +194,10 @@ public class SMSOTPAuthenticatorTest {
     @Test
     public void testGetMobileNumber() throws Exception {
         mockStatic(SMSOTPUtils.class);
-        when(SMSOTPUtils.getMobileNumberForUsername(anyString())).thenReturn("0775968325");
+        when(SMSOTPUtils.getMobileNumberForUsername(anyString(), any(AuthenticationContext.class), anyString()))
+                .thenReturn("0775968325");
         Assert.assertEquals(Whitebox.invokeMethod(smsotpAuthenticator, "getMobileNumber",
-                httpServletRequest, httpServletResponse, any(AuthenticationContext.class),
+                httpServletRequest, httpServletResponse, context,
                 "Kanapriya", "carbon.super", "queryParams"), "0775968325");
     }
 
@@ -280,6 +302,86 @@ public class SMSOTPAuthenticatorTest {
         Assert.assertTrue(captor.getValue().contains(SMSOTPConstants.ERROR_CODE_MISMATCH));
     }
 
+    @Test
+    public void testCheckStatusCodeWithFailedDispatch() throws Exception {
+        mockStatic(SMSOTPUtils.class);
+        AuthenticationContext authenticationContext = spy(new AuthenticationContext());
+        SMSDispatchStatus dispatchStatus = new SMSDispatchStatus();
+        dispatchStatus.setFailed("503 : Service Unavailable");
+        authenticationContext.setProperty(SMSOTPConstants.SMS_DISPATCH_STATUS, dispatchStatus);
+        when(SMSOTPUtils.isRetryEnabled(authenticationContext, SMSOTPConstants.AUTHENTICATOR_NAME))
+                .thenReturn(true);
+        when(SMSOTPUtils.getLoginPageFromXMLFile(any(AuthenticationContext.class), anyString())).
+                thenReturn("/smsotpauthenticationendpoint/smsotp.jsp");
+        ArgumentCaptor<String> captor = ArgumentCaptor.forClass(String.class);
+        Whitebox.invokeMethod(smsotpAuthenticator, "checkStatusCode",
+                httpServletResponse, authenticationContext, null, SMSOTPConstants.ERROR_PAGE);
+        verify(httpServletResponse).sendRedirect(captor.capture());
+        Assert.assertTrue(captor.getValue().startsWith(SMSOTPConstants.ERROR_PAGE));
+        Assert.assertTrue(captor.getValue().endsWith(SMSOTPConstants.UNABLE_SEND_CODE_PARAM +
+                "503 : Service Unavailable"));
+        Assert.assertEquals(authenticationContext.getProperty(SMSOTPConstants.STATUS_CODE),
+                SMSOTPConstants.UNABLE_SEND_CODE);
+        Assert.assertNull(authenticationContext.getProperty(SMSOTPConstants.SMS_DISPATCH_STATUS));
+    }
+
+    @Test
+    public void testSendSMSWithFailover() throws Exception {
+        mockStatic(SMSOTPUtils.class);
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        final AtomicInteger primaryStatus = new AtomicInteger(503);
+        server.createContext("/primary", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.sendResponseHeaders(primaryStatus.get(), -1);
+                exchange.close();
+            }
+        });
+        server.createContext("/secondary", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.sendResponseHeaders(503, -1);
+                exchange.close();
+            }
+        });
+        server.start();
+        try {
+            String gatewayUrl = "http://localhost:" + server.getAddress().getPort();
+            List<SMSGateway> gateways = Arrays.asList(
+                    new SMSGateway(gatewayUrl + "/primary?to=$ctx.num", "GET", null, null, "200", 1),
+                    new SMSGateway(gatewayUrl + "/secondary?to=$ctx.num", "GET", null, null, null, 0));
+            AuthenticationContext authenticationContext = spy(new AuthenticationContext());
+            authenticationContext.setAuthenticatorProperties(new HashMap<String, String>());
+            Assert.assertFalse((Boolean) Whitebox.invokeMethod(smsotpAuthenticator, "sendSMS",
+                    authenticationContext, gateways, "94771234567", "123456"));
+            Assert.assertEquals(authenticationContext.getProperty(SMSOTPConstants.ERROR_CODE),
+                    "503 : Service Unavailable");
+            primaryStatus.set(200);
+            Assert.assertTrue((Boolean) Whitebox.invokeMethod(smsotpAuthenticator, "sendSMS",
+                    authenticationContext, gateways, "94771234567", "123456"));
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testSendSMSWithFailoverOnConnectionReset() throws Exception {
+        mockStatic(SMSOTPUtils.class);
+        try (SMSGatewaySimulator primary = new SMSGatewaySimulator(1).start();
+             SMSGatewaySimulator secondary = new SMSGatewaySimulator(2).start()) {
+            primary.setResetRate(1);
+            List<SMSGateway> gateways = Arrays.asList(
+                    new SMSGateway(primary.getUrl() + "?to=$ctx.num", "GET", null, null, null, 1),
+                    new SMSGateway(secondary.getUrl() + "?to=$ctx.num", "GET", null, null, null, 0));
+            AuthenticationContext authenticationContext = spy(new AuthenticationContext());
+            authenticationContext.setAuthenticatorProperties(new HashMap<String, String>());
+            Assert.assertTrue((Boolean) Whitebox.invokeMethod(smsotpAuthenticator, "sendSMS",
+                    authenticationContext, gateways, "94771234567", "123456"));
+            Assert.assertFalse(primary.getRequests().isEmpty());
+            Assert.assertEquals(secondary.getRequests().get(0).getUri(), "/sms?to=94771234567");
+        }
+    }
+
     @Test
     public void testProcessSMSOTPFlow() throws Exception {
         mockStatic(SMSOTPUtils.class);
@@ -475,6 +577,61 @@ public class SMSOTPAuthenticatorTest {
                 httpServletRequest, httpServletResponse, context);
     }
 
+    @Test
+    public void testProcessAuthenticationResponseWithDerivedOTP() throws Exception {
+        mockStatic(SMSOTPUtils.class);
+        AuthenticationContext authenticationContext = spy(new AuthenticationContext());
+        when(authenticationContext.getContextIdentifier()).thenReturn("a8e0e3f4-7b8e-4bd2-9a3f-0d5bb1bd9b9c");
+        authenticationContext.setProperty(SMSOTPConstants.OTP_ISSUED_TIME, 1500000000000L);
+        authenticationContext.setProperty(SMSOTPConstants.AUTHENTICATED_USER,
+                AuthenticatedUser.createLocalAuthenticatedUserFromSubjectIdentifier("admin"));
+        when(SMSOTPUtils.getOTPSecretKey()).thenReturn("secret");
+        String otp = OneTimePassword.generateContextOTP("secret".getBytes("UTF-8"),
+                "a8e0e3f4-7b8e-4bd2-9a3f-0d5bb1bd9b9c", 1500000000000L, SMSOTPConstants.NUMBER_DIGIT);
+        when(httpServletRequest.getParameter(SMSOTPConstants.CODE)).thenReturn(otp);
+        Whitebox.invokeMethod(smsotpAuthenticator, "processAuthenticationResponse",
+                httpServletRequest, httpServletResponse, authenticationContext);
+        verify(authenticationContext).setSubject(any(AuthenticatedUser.class));
+    }
+
+    @Test(expectedExceptions = {AuthenticationFailedException.class})
+    public void testProcessAuthenticationResponseWithDerivedOTPMismatch() throws Exception {
+        mockStatic(SMSOTPUtils.class);
+        AuthenticationContext authenticationContext = spy(new AuthenticationContext());
+        when(authenticationContext.getContextIdentifier()).thenReturn("a8e0e3f4-7b8e-4bd2-9a3f-0d5bb1bd9b9c");
+        authenticationContext.setProperty(SMSOTPConstants.OTP_ISSUED_TIME, 1500000000000L);
+        when(SMSOTPUtils.getOTPSecretKey()).thenReturn("secret");
+        when(SMSOTPUtils.getBackupCode(authenticationContext, SMSOTPConstants.AUTHENTICATOR_NAME))
+                .thenReturn("false");
+        String otp = OneTimePassword.generateContextOTP("secret".getBytes("UTF-8"),
+                "a8e0e3f4-7b8e-4bd2-9a3f-0d5bb1bd9b9c", 1500000000001L, SMSOTPConstants.NUMBER_DIGIT);
+        when(httpServletRequest.getParameter(SMSOTPConstants.CODE)).thenReturn(otp);
+        Whitebox.invokeMethod(smsotpAuthenticator, "processAuthenticationResponse",
+                httpServletRequest, httpServletResponse, authenticationContext);
+    }
+
+    @Test
+    public void testProcessAuthenticationResponseWithTOTP() throws Exception {
+        mockStatic(SMSOTPUtils.class);
+        AuthenticationContext authenticationContext = spy(new AuthenticationContext());
+        when(authenticationContext.getContextIdentifier()).thenReturn("a8e0e3f4-7b8e-4bd2-9a3f-0d5bb1bd9b9c");
+        authenticationContext.setProperty(SMSOTPConstants.AUTHENTICATED_USER,
+                AuthenticatedUser.createLocalAuthenticatedUserFromSubjectIdentifier("admin"));
+        when(SMSOTPUtils.getOTPGenerationMode(authenticationContext, SMSOTPConstants.AUTHENTICATOR_NAME))
+                .thenReturn(SMSOTPConstants.TOTP_MODE);
+        when(SMSOTPUtils.getOTPSecretKey()).thenReturn("secret");
+        when(SMSOTPUtils.getTOTPTimeStep(authenticationContext, SMSOTPConstants.AUTHENTICATOR_NAME)).thenReturn(30);
+        when(SMSOTPUtils.getTOTPWindow(authenticationContext, SMSOTPConstants.AUTHENTICATOR_NAME)).thenReturn(1);
+        // The OTP of the previous time step is still accepted.
+        String otp = OneTimePassword.generateContextOTP("secret".getBytes("UTF-8"),
+                "a8e0e3f4-7b8e-4bd2-9a3f-0d5bb1bd9b9c", System.currentTimeMillis() / 30000L - 1,
+                SMSOTPConstants.NUMBER_DIGIT);
+        when(httpServletRequest.getParameter(SMSOTPConstants.CODE)).thenReturn(otp);
+        Whitebox.invokeMethod(smsotpAuthenticator, "processAuthenticationResponse",
+                httpServletRequest, httpServletResponse, authenticationContext);
+        verify(authenticationContext).setSubject(any(AuthenticatedUser.class));
+    }
+
     @Test(expectedExceptions = {AuthenticationFailedException.class})
     public void testProcessAuthenticationResponseWithBackupCode() throws Exception {
         mockStatic(IdentityTenantUtil.class);
@@ -553,8 +710,8 @@ public class SMSOTPAuthenticatorTest {
         when(IdentityTenantUtil.getRealmService()).thenReturn(realmService);
         when(realmService.getTenantUserRealm(-1234)).thenReturn(userRealm);
         when(userRealm.getUserStoreManager()).thenReturn(userStoreManager);
-        when(userRealm.getUserStoreManager()
-                .getUserClaimValue("admin", "http://wso2.org/claims/mobile", null)).thenReturn("0778965231");
+        when(userRealm.getUserStoreManager().getUserClaimValues("admin", new String[]{"http://wso2.org/claims/mobile"},
+                null)).thenReturn(Collections.singletonMap("http://wso2.org/claims/mobile", "0778965231"));
         when(SMSOTPUtils.getNoOfDigits(context, SMSOTPConstants.AUTHENTICATOR_NAME)).thenReturn("4");
 
         // with forward order
@@ -562,9 +719,59 @@ public class SMSOTPAuthenticatorTest {
 
         // with backward order
         when(SMSOTPUtils.getDigitsOrder(context, SMSOTPConstants.AUTHENTICATOR_NAME)).thenReturn("backward");
+        context.setProperty(SMSOTPConstants.SMSOTP_CONFIG, null);
         Assert.assertEquals(smsotpAuthenticator.getScreenAttribute(context,userRealm,"admin"),"******5231");
     }
 
+    @Test
+    public void testUserClaimsReadOncePerFlow() throws Exception {
+        mockStatic(SMSOTPUtils.class);
+        when(SMSOTPUtils.isSMSOTPEnableOrDisableByUser(context, SMSOTPConstants.AUTHENTICATOR_NAME)).thenReturn(true);
+        when(SMSOTPUtils.getScreenUserAttribute(context, SMSOTPConstants.AUTHENTICATOR_NAME))
+                .thenReturn("http://wso2.org/claims/telephone");
+        when(SMSOTPUtils.getNoOfDigits(context, SMSOTPConstants.AUTHENTICATOR_NAME)).thenReturn("4");
+        when(userRealm.getUserStoreManager()).thenReturn(userStoreManager);
+        Map<String, String> claims = new HashMap<>();
+        claims.put(SMSOTPConstants.MOBILE_CLAIM, "0778965231");
+        claims.put("http://wso2.org/claims/telephone", "0112345678");
+        when(userStoreManager.getUserClaimValues("admin", new String[]{SMSOTPConstants.MOBILE_CLAIM,
+                SMSOTPConstants.USER_SMSOTP_DISABLED_CLAIM_URI, "http://wso2.org/claims/telephone"}, null))
+                .thenReturn(claims);
+
+        Assert.assertEquals(SMSOTPUserClaims.getClaimValue(context, SMSOTPConstants.AUTHENTICATOR_NAME, userRealm,
+                "carbon.super", "admin", SMSOTPConstants.USER_SMSOTP_DISABLED_CLAIM_URI), null);
+        Assert.assertEquals(SMSOTPUserClaims.getClaimValue(context, SMSOTPConstants.AUTHENTICATOR_NAME, userRealm,
+                "carbon.super", "admin", SMSOTPConstants.MOBILE_CLAIM), "0778965231");
+        Assert.assertEquals(smsotpAuthenticator.getScreenAttribute(context, userRealm, "admin"), "0112******");
+        verify(userStoreManager, times(1)).getUserClaimValues(anyString(), any(String[].class), anyString());
+        verify(userStoreManager, never()).getUserClaimValue(anyString(), anyString(), anyString());
+
+        // the claims are read again once they are updated
+        SMSOTPUserClaims.clear(context);
+        SMSOTPUserClaims.getClaimValue(context, SMSOTPConstants.AUTHENTICATOR_NAME, userRealm, "carbon.super",
+                "admin", SMSOTPConstants.MOBILE_CLAIM);
+        verify(userStoreManager, times(2)).getUserClaimValues(anyString(), any(String[].class), anyString());
+    }
+
+    @Test
+    public void testConfigurationReadOncePerFlow() throws Exception {
+        mockStatic(SMSOTPUtils.class);
+        when(SMSOTPUtils.getNoOfDigits(context, SMSOTPConstants.AUTHENTICATOR_NAME)).thenReturn("4");
+        SMSOTPConfig config = SMSOTPConfig.getConfig(context, SMSOTPConstants.AUTHENTICATOR_NAME);
+        Assert.assertEquals(config.getNoOfDigits(), 4);
+
+        // later changes are not seen by the same authentication flow
+        when(SMSOTPUtils.getNoOfDigits(context, SMSOTPConstants.AUTHENTICATOR_NAME)).thenReturn("6");
+        Assert.assertSame(SMSOTPConfig.getConfig(context, SMSOTPConstants.AUTHENTICATOR_NAME), config);
+        verifyStatic(times(1));
+        SMSOTPUtils.getNoOfDigits(context, SMSOTPConstants.AUTHENTICATOR_NAME);
+
+        // a new authentication flow reads the configuration again
+        AuthenticationContext newContext = new AuthenticationContext();
+        when(SMSOTPUtils.getNoOfDigits(newContext, SMSOTPConstants.AUTHENTICATOR_NAME)).thenReturn("6");
+        Assert.assertEquals(SMSOTPConfig.getConfig(newContext, SMSOTPConstants.AUTHENTICATOR_NAME).getNoOfDigits(), 6);
+    }
+
     @Test(expectedExceptions = {SMSOTPException.class})
     public void testUpdateMobileNumberForUsername() throws Exception {
         mockStatic(IdentityTenantUtil.class);
@@ -588,9 +795,39 @@ public class SMSOTPAuthenticatorTest {
         configProperties.add(payload);
         Property httpResponse = new Property();
         configProperties.add(httpResponse);
+        Property connectTimeout = new Property();
+        configProperties.add(connectTimeout);
+        Property readTimeout = new Property();
+        configProperties.add(readTimeout);
+        Property gatewayWeight = new Property();
+        configProperties.add(gatewayWeight);
+        Property additionalGateways = new Property();
+        configProperties.add(additionalGateways);
+        Property bulkPayload = new Property();
+        configProperties.add(bulkPayload);
+        Property httpVersion = new Property();
+        configProperties.add(httpVersion);
+        Property responseBody = new Property();
+        configProperties.add(responseBody);
+        Property idempotent = new Property();
+        configProperties.add(idempotent);
         Assert.assertEquals(configProperties.size(), smsotpAuthenticator.getConfigurationProperties().size());
     }
 
+    @Test
+    public void testSendJournaledSMSOfEndedFlow() {
+        mockStatic(SMSOTPUtils.class);
+        mockStatic(FrameworkUtils.class);
+        SMSJournalEntry entry = new SMSJournalEntry(1, "context", "encrypted", Long.MAX_VALUE);
+        when(FrameworkUtils.getAuthenticationContextFromCache("context")).thenReturn(null);
+        Assert.assertTrue(smsotpAuthenticator.sendJournaledSMS(entry));
+
+        // The code of the context is no longer known, hence there is nothing to retry.
+        context.setContextIdentifier("context");
+        when(FrameworkUtils.getAuthenticationContextFromCache("context")).thenReturn(context);
+        Assert.assertTrue(smsotpAuthenticator.sendJournaledSMS(entry));
+    }
+
     @ObjectFactory
     public IObjectFactory getObjectFactory() {
         return new PowerMockObjectFactory();
@@ -0,0 +1,158 @@
+/*
+ *  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.carbon.identity.authenticator.smsotp.test;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.wso2.carbon.identity.authenticator.smsotp.SMSOTPConfigReloader;
+import org.wso2.carbon.identity.authenticator.smsotp.SMSOTPConstants;
+import org.wso2.carbon.identity.authenticator.smsotp.exception.SMSOTPException;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+public class SMSOTPConfigReloaderTest {
+
+    private File configFile;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        configFile = File.createTempFile("application-authentication", ".xml");
+        configFile.deleteOnExit();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        configFile.delete();
+    }
+
+    @Test
+    public void testParse() throws SMSOTPException {
+        Map<String, String> parameters = SMSOTPConfigReloader.parse(toStream(getConfig("600", "true")));
+        Assert.assertEquals(parameters.size(), 2);
+        Assert.assertEquals(parameters.get(SMSOTPConstants.SMS_THROTTLE_TENANT_LIMIT), "600");
+        Assert.assertEquals(parameters.get(SMSOTPConstants.IS_ENABLED_SMS_THROTTLE), "true");
+    }
+
+    @Test(expectedExceptions = SMSOTPException.class)
+    public void testParseWithoutAuthenticator() throws SMSOTPException {
+        SMSOTPConfigReloader.parse(toStream(getConfig("600", "true").replace("\"SMSOTP\"", "\"EmailOTP\"")));
+    }
+
+    @Test(expectedExceptions = SMSOTPException.class)
+    public void testParseRejectsDoctype() throws SMSOTPException {
+        SMSOTPConfigReloader.parse(toStream("<!DOCTYPE foo [<!ENTITY xxe SYSTEM \"file:///etc/passwd\">]>" +
+                getConfig("&xxe;", "true")));
+    }
+
+    @Test
+    public void testReload() throws Exception {
+        write(getConfig("600", "false"), 1000);
+        SMSOTPConfigReloader reloader = new SMSOTPConfigReloader(configFile,
+                SMSOTPConfigReloader.parse(toStream(getConfig("600", "false"))));
+        try {
+            Assert.assertFalse(reloader.reload());
+
+            write(getConfig("1200", "true"), 2000);
+            Assert.assertTrue(reloader.reload());
+            Assert.assertEquals(reloader.getParameters().get(SMSOTPConstants.SMS_THROTTLE_TENANT_LIMIT), "1200");
+            Assert.assertEquals(reloader.getParameters().get(SMSOTPConstants.IS_ENABLED_SMS_THROTTLE), "true");
+            Assert.assertFalse(reloader.reload());
+        } finally {
+            reloader.shutdown();
+        }
+    }
+
+    @Test
+    public void testInvalidConfigIsNotReloaded() throws Exception {
+        write(getConfig("600", "true"), 1000);
+        SMSOTPConfigReloader reloader = new SMSOTPConfigReloader(configFile,
+                SMSOTPConfigReloader.parse(toStream(getConfig("600", "true"))));
+        try {
+            write(getConfig("600", "true").replace("</ApplicationAuthentication>", ""), 2000);
+            Assert.assertFalse(reloader.reload());
+
+            write(getConfig("6OO", "true"), 3000);
+            Assert.assertFalse(reloader.reload());
+            Assert.assertEquals(reloader.getParameters().get(SMSOTPConstants.SMS_THROTTLE_TENANT_LIMIT), "600");
+
+            write(getConfig("700", "true"), 4000);
+            Assert.assertTrue(reloader.reload());
+            Assert.assertEquals(reloader.getParameters().get(SMSOTPConstants.SMS_THROTTLE_TENANT_LIMIT), "700");
+        } finally {
+            reloader.shutdown();
+        }
+    }
+
+    @Test
+    public void testOTPSecretKeyIsNotReloaded() throws Exception {
+        String config = getConfig("600", "true");
+        write(config, 1000);
+        SMSOTPConfigReloader reloader = new SMSOTPConfigReloader(configFile,
+                SMSOTPConfigReloader.parse(toStream(config)));
+        try {
+            write(config.replace("</AuthenticatorConfig></AuthenticatorConfigs>",
+                    "<Parameter name=\"OTPSecretKey\">new-secret</Parameter></AuthenticatorConfig>" +
+                            "</AuthenticatorConfigs>"), 2000);
+            Assert.assertFalse(reloader.reload());
+            Assert.assertNull(reloader.getParameters().get(SMSOTPConstants.OTP_SECRET_KEY));
+
+            write(getConfig("700", "true").replace("</AuthenticatorConfig></AuthenticatorConfigs>",
+                    "<Parameter name=\"OTPSecretKey\">new-secret</Parameter></AuthenticatorConfig>" +
+                            "</AuthenticatorConfigs>"), 3000);
+            Assert.assertTrue(reloader.reload());
+            Assert.assertEquals(reloader.getParameters().get(SMSOTPConstants.SMS_THROTTLE_TENANT_LIMIT), "700");
+            Assert.assertNull(reloader.getParameters().get(SMSOTPConstants.OTP_SECRET_KEY));
+        } finally {
+            reloader.shutdown();
+        }
+    }
+
+    private void write(String config, long lastModified) throws IOException {
+        try (OutputStream out = new FileOutputStream(configFile)) {
+            out.write(config.getBytes(StandardCharsets.UTF_8));
+        }
+        Assert.assertTrue(configFile.setLastModified(lastModified));
+    }
+
+    private static ByteArrayInputStream toStream(String config) {
+        return new ByteArrayInputStream(config.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String getConfig(String tenantLimit, String throttle) {
+        return "<ApplicationAuthentication xmlns=\"http://wso2.org/projects/carbon/application-authentication.xml\">" +
+                "<AuthenticatorConfigs>" +
+                "<AuthenticatorConfig name=\"EmailOTP\" enabled=\"true\">" +
+                "<Parameter name=\"SMSThrottleTenantLimit\">1</Parameter>" +
+                "</AuthenticatorConfig>" +
+                "<AuthenticatorConfig name=\"SMSOTP\" enabled=\"true\">" +
+                "<Parameter name=\"SMSThrottleTenantLimit\">" + tenantLimit + "</Parameter>" +
+                "<Parameter name=\"SMSThrottleEnable\">" + throttle + "</Parameter>" +
+                "</AuthenticatorConfig>" +
+                "</AuthenticatorConfigs>" +
+                "</ApplicationAuthentication>";
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ *  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.carbon.identity.authenticator.smsotp.test;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.wso2.carbon.identity.authenticator.smsotp.SMSOTPMetrics;
+import org.wso2.carbon.identity.authenticator.smsotp.SMSOTPMetricsMXBean;
+
+import java.lang.management.ManagementFactory;
+import javax.management.JMX;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+public class SMSOTPMetricsTest {
+
+    @Test
+    public void testCountersOverJMX() throws Exception {
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(SMSOTPMetrics.MBEAN_NAME);
+        SMSOTPMetrics.registerMBean();
+        // Registering again, as on a restart of the bundle, is harmless.
+        SMSOTPMetrics.registerMBean();
+        try {
+            SMSOTPMetrics.increment("smsotp.test.counter");
+            SMSOTPMetricsMXBean metrics = JMX.newMXBeanProxy(mBeanServer, name, SMSOTPMetricsMXBean.class);
+            long count = SMSOTPMetrics.getCount("smsotp.test.counter");
+            Assert.assertEquals(metrics.getCount("smsotp.test.counter"), count);
+            Assert.assertEquals(metrics.getCounters().get("smsotp.test.counter"), Long.valueOf(count));
+        } finally {
+            SMSOTPMetrics.unregisterMBean();
+        }
+        Assert.assertFalse(mBeanServer.isRegistered(name));
+    }
+}
@@ -113,6 +113,17 @@ public class SMSOTPUtilsTest {
                 SMSOTPConstants.IS_SMSOTP_MANDATORY), "true");
     }
 
+    @Test
+    public void testGetOTPSecretKeyFromServerOnly() {
+        AuthenticatorConfig authenticatorConfig = new AuthenticatorConfig();
+        Map<String, String> parameters = new HashMap<String, String>();
+        parameters.put(SMSOTPConstants.OTP_SECRET_KEY, "server-secret");
+        when(FileBasedConfigurationBuilder.getInstance()).thenReturn(fileBasedConfigurationBuilder);
+        authenticatorConfig.setParameterMap(parameters);
+        when(fileBasedConfigurationBuilder.getAuthenticatorBean(anyString())).thenReturn(authenticatorConfig);
+        Assert.assertEquals(SMSOTPUtils.getOTPSecretKey(), "server-secret");
+    }
+
     @Test
     public void testGetBackupCodeFromRegistry() throws AuthenticationFailedException {
         AuthenticationContext authenticationContext = new AuthenticationContext();
@@ -277,6 +288,7 @@ public class SMSOTPUtilsTest {
         when(IdentityTenantUtil.getRealmService()).thenReturn(realmService);
         when(realmService.getTenantUserRealm(-1234)).thenReturn(userRealm);
         when(userRealm.getUserStoreManager()).thenReturn(userStoreManager);
+        when(FileBasedConfigurationBuilder.getInstance()).thenReturn(fileBasedConfigurationBuilder);
         when(SMSOTPUtils.isSMSOTPEnableOrDisableByUser(context, SMSOTPConstants.AUTHENTICATOR_NAME)).thenReturn(true);
         Map<String, String> claims = new HashMap<>();
         claims.put(SMSOTPConstants.USER_SMSOTP_DISABLED_CLAIM_URI, "false");
@@ -336,6 +348,7 @@ public class SMSOTPUtilsTest {
         when(realmService.getTenantUserRealm(-1234)).thenReturn(userRealm);
         when(userRealm.getUserStoreManager()).thenReturn(userStoreManager);
         when(userStoreManager.isExistingUser(anyString())).thenReturn(true);
+        when(FileBasedConfigurationBuilder.getInstance()).thenReturn(fileBasedConfigurationBuilder);
         SMSOTPUtils.updateUserAttribute("admin", claims, "carbon.super");
     }
 }
\ No newline at end of file
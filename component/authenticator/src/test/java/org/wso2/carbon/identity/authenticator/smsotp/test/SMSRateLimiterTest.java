@@ -0,0 +1,102 @@
+/*
+ *  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.carbon.identity.authenticator.smsotp.test;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.wso2.carbon.identity.authenticator.smsotp.SMSOTPMetrics;
+import org.wso2.carbon.identity.authenticator.smsotp.SMSRateLimiter;
+
+public class SMSRateLimiterTest {
+
+    @Test
+    public void testMobileBurst() {
+        SMSRateLimiter rateLimiter = new SMSRateLimiter(0, 0, 1, 3, 0, 0, 100);
+        long throttled = SMSOTPMetrics.getCount(SMSRateLimiter.MOBILE_THROTTLED_METRIC);
+        for (int i = 0; i < 3; i++) {
+            Assert.assertTrue(rateLimiter.tryAcquire("carbon.super", "+94 77 123 4567", "user" + i));
+        }
+        Assert.assertFalse(rateLimiter.tryAcquire("carbon.super", "94-77-1234567", "user3"));
+        Assert.assertTrue(rateLimiter.tryAcquire("carbon.super", "94777654321", "user4"));
+        Assert.assertEquals(SMSOTPMetrics.getCount(SMSRateLimiter.MOBILE_THROTTLED_METRIC), throttled + 1);
+    }
+
+    @Test
+    public void testRefill() throws InterruptedException {
+        // 6000 SMS per minute refills a token every 10 ms.
+        SMSRateLimiter rateLimiter = new SMSRateLimiter(0, 0, 0, 0, 6000, 1, 100);
+        Assert.assertTrue(rateLimiter.tryAcquire("carbon.super", "0771234567", "admin"));
+        Assert.assertFalse(rateLimiter.tryAcquire("carbon.super", "0771234567", "admin"));
+        Thread.sleep(50);
+        Assert.assertTrue(rateLimiter.tryAcquire("carbon.super", "0771234567", "admin"));
+    }
+
+    @Test
+    public void testThrottledUserDoesNotUseTenantTokens() {
+        SMSRateLimiter rateLimiter = new SMSRateLimiter(1, 2, 0, 0, 1, 1, 100);
+        Assert.assertTrue(rateLimiter.tryAcquire("wso2.com", "0771234567", "admin"));
+        Assert.assertFalse(rateLimiter.tryAcquire("wso2.com", "0771234567", "admin"));
+        Assert.assertFalse(rateLimiter.tryAcquire("wso2.com", "0771234567", "admin"));
+        Assert.assertTrue(rateLimiter.tryAcquire("wso2.com", "0771234567", "other"));
+        Assert.assertFalse(rateLimiter.tryAcquire("wso2.com", "0771234567", "third"));
+    }
+
+    @Test
+    public void testBucketsAreBounded() {
+        SMSRateLimiter rateLimiter = new SMSRateLimiter(0, 0, 1, 1, 0, 0, 50);
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertTrue(rateLimiter.tryAcquire("carbon.super", String.valueOf(770000000 + i), "admin"));
+        }
+        Assert.assertTrue(rateLimiter.getBucketCount() <= 50);
+    }
+
+    @Test
+    public void testRejectedSMSGivesBackUserToken() {
+        SMSRateLimiter rateLimiter = new SMSRateLimiter(1, 1, 0, 0, 1, 2, 100);
+        Assert.assertTrue(rateLimiter.tryAcquire("wso2.com", "0771234567", "admin"));
+        Assert.assertFalse(rateLimiter.tryAcquire("wso2.com", "0771234567", "admin"));
+        Assert.assertTrue(rateLimiter.tryAcquire("abc.com", "0771234567", "admin"));
+        Assert.assertFalse(rateLimiter.tryAcquire("xyz.com", "0771234567", "admin"));
+    }
+
+    @Test
+    public void testThrottledBucketIsNotEvicted() {
+        SMSRateLimiter rateLimiter = new SMSRateLimiter(0, 0, 1, 2, 0, 0, 10);
+        Assert.assertTrue(rateLimiter.tryAcquire("carbon.super", "0771234567", "admin"));
+        Assert.assertTrue(rateLimiter.tryAcquire("carbon.super", "0771234567", "admin"));
+        Assert.assertFalse(rateLimiter.tryAcquire("carbon.super", "0771234567", "admin"));
+        for (int i = 0; i < 100; i++) {
+            Assert.assertTrue(rateLimiter.tryAcquire("carbon.super", String.valueOf(770000000 + i), "admin"));
+        }
+        Assert.assertTrue(rateLimiter.getBucketCount() <= 10);
+        Assert.assertFalse(rateLimiter.tryAcquire("carbon.super", "0771234567", "admin"));
+    }
+
+    @Test
+    public void testEvictionIsAmortized() {
+        SMSRateLimiter rateLimiter = new SMSRateLimiter(0, 0, 1, 1, 0, 0, 100);
+        long evictions = SMSOTPMetrics.getCount(SMSRateLimiter.EVICTION_METRIC);
+        for (int i = 0; i < 10000; i++) {
+            Assert.assertTrue(rateLimiter.tryAcquire("carbon.super", String.valueOf(770000000 + i), "admin"));
+            Assert.assertTrue(rateLimiter.getBucketCount() <= 100);
+        }
+        // Every eviction frees 10 buckets, so there is one eviction for 10 new keys.
+        Assert.assertTrue(SMSOTPMetrics.getCount(SMSRateLimiter.EVICTION_METRIC) - evictions <= 1000);
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ *  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.carbon.identity.authenticator.smsotp.test;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.wso2.carbon.identity.authenticator.smsotp.gateway.SMSResponseMatcher;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+public class SMSResponseMatcherTest {
+
+    @Test
+    public void testRegex() {
+        SMSResponseMatcher matcher = SMSResponseMatcher.compile("\"status\"\\s*:\\s*\"(sent|queued)\"");
+        Assert.assertTrue(matcher.matches("{\"id\":1, \"status\": \"queued\"}"));
+        Assert.assertFalse(matcher.matches("{\"id\":1, \"status\": \"failed\"}"));
+        Assert.assertTrue(SMSResponseMatcher.compile("^OK").matches("OK 1234"));
+    }
+
+    @Test
+    public void testJsonPointer() {
+        SMSResponseMatcher matcher = SMSResponseMatcher.compile("/messages/0/status=0");
+        Assert.assertTrue(matcher.matches("{\"messages\":[{\"status\":\"0\",\"to\":\"94771234567\"}]}"));
+        Assert.assertTrue(matcher.matches("{\"messages\":[{\"status\":0}]}"));
+        Assert.assertFalse(matcher.matches("{\"messages\":[{\"status\":\"4\"}]}"));
+        Assert.assertFalse(matcher.matches("{\"messages\":[]}"));
+        Assert.assertFalse(matcher.matches("{\"messages\":[{\"status\":\"0\""));
+        Assert.assertFalse(matcher.matches("Internal error"));
+        Assert.assertTrue(SMSResponseMatcher.compile("/a~1b/c~0d=x").matches("{\"a/b\":{\"c~d\":\"x\"}}"));
+    }
+
+    @Test
+    public void testJsonPointerPresence() {
+        SMSResponseMatcher matcher = SMSResponseMatcher.compile("/success");
+        Assert.assertTrue(matcher.matches("{\"success\":true}"));
+        Assert.assertTrue(matcher.matches("{\"success\":\"yes\"}"));
+        Assert.assertFalse(matcher.matches("{\"success\":false}"));
+        Assert.assertFalse(matcher.matches("{\"success\":null}"));
+        Assert.assertFalse(matcher.matches("{\"error\":\"invalid number\"}"));
+    }
+
+    @Test
+    public void testBoundedRead() throws Exception {
+        StringBuilder body = new StringBuilder("{\"status\":\"sent\"}");
+        for (int i = 0; i < 10000; i++) {
+            body.append(' ');
+        }
+        body.append("ERROR");
+        InputStream in = new ByteArrayInputStream(body.toString().getBytes(StandardCharsets.UTF_8));
+        Assert.assertFalse(SMSResponseMatcher.compile("ERROR").matches(in, null, 4096));
+        Assert.assertEquals(in.available(), body.length() - 4096);
+        in = new ByteArrayInputStream(body.toString().getBytes(StandardCharsets.UTF_8));
+        Assert.assertTrue(SMSResponseMatcher.compile("ERROR").matches(in, null, 20000));
+        Assert.assertTrue(SMSResponseMatcher.compile("/status=sent").matches(new ByteArrayInputStream(
+                "{\"status\":\"sent\"}".getBytes(StandardCharsets.UTF_8)), "application/json", 4096));
+    }
+
+    @Test
+    public void testCharset() throws Exception {
+        byte[] body = "{\"status\":\"envoy\u00e9\"}".getBytes(StandardCharsets.ISO_8859_1);
+        Assert.assertTrue(SMSResponseMatcher.compile("/status=envoy\u00e9").matches(new ByteArrayInputStream(body),
+                "application/json; charset=ISO-8859-1", 4096));
+        Assert.assertFalse(SMSResponseMatcher.compile("/status=envoy\u00e9").matches(new ByteArrayInputStream(body),
+                "application/json", 4096));
+    }
+
+    @Test
+    public void testInvalidExpression() {
+        Assert.assertNull(SMSResponseMatcher.compile(null));
+        Assert.assertNull(SMSResponseMatcher.compile(" "));
+        Assert.assertNull(SMSResponseMatcher.compile("status=(sent"));
+    }
+}
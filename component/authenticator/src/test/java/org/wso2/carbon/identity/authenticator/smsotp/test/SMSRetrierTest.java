@@ -0,0 +1,151 @@
+/*
+ *  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.carbon.identity.authenticator.smsotp.test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.wso2.carbon.identity.authenticator.smsotp.SMSOTPMetrics;
+import org.wso2.carbon.identity.authenticator.smsotp.gateway.SMSGatewayClient;
+import org.wso2.carbon.identity.authenticator.smsotp.gateway.SMSGatewayRequest;
+import org.wso2.carbon.identity.authenticator.smsotp.gateway.SMSRetrier;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SMSRetrierTest {
+
+    private HttpServer server;
+    private SMSGatewayClient client;
+    private SMSRetrier retrier;
+    private String gatewayUrl;
+    private final Queue<Integer> responseCodes = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger requests = new AtomicInteger();
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        responseCodes.clear();
+        requests.set(0);
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/sms", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                requests.incrementAndGet();
+                Integer responseCode = responseCodes.poll();
+                exchange.sendResponseHeaders(responseCode != null ? responseCode : 200, -1);
+                exchange.close();
+            }
+        });
+        server.start();
+        gatewayUrl = "http://localhost:" + server.getAddress().getPort() + "/sms";
+        client = new SMSGatewayClient(2);
+        retrier = new SMSRetrier(3, 10, 50, 5000);
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        retrier.shutdown();
+        client.close();
+        server.stop(0);
+    }
+
+    @Test
+    public void testRetryTransientResponse() throws Exception {
+        responseCodes.add(503);
+        responseCodes.add(429);
+        long retries = SMSOTPMetrics.getCount(SMSRetrier.RETRIES_METRIC);
+        long succeeded = SMSOTPMetrics.getCount(SMSRetrier.RETRY_SUCCEEDED_METRIC);
+        Assert.assertEquals(retrier.send(client, request(), deadline()).getStatusCode(), 200);
+        Assert.assertEquals(requests.get(), 3);
+        Assert.assertEquals(SMSOTPMetrics.getCount(SMSRetrier.RETRIES_METRIC), retries + 2);
+        Assert.assertEquals(SMSOTPMetrics.getCount(SMSRetrier.RETRY_SUCCEEDED_METRIC), succeeded + 1);
+    }
+
+    @Test
+    public void testRetryServerErrorOfIdempotentGateway() throws Exception {
+        responseCodes.add(500);
+        responseCodes.add(504);
+        // The gateway may have sent the SMS before failing.
+        Assert.assertEquals(retrier.send(client, request(), deadline()).getStatusCode(), 500);
+        Assert.assertEquals(requests.get(), 1);
+
+        SMSGatewayRequest request = request();
+        request.setIdempotent(true);
+        Assert.assertEquals(retrier.send(client, request, deadline()).getStatusCode(), 200);
+        Assert.assertEquals(requests.get(), 3);
+    }
+
+    @Test
+    public void testNoRetryOfClientError() throws Exception {
+        responseCodes.add(400);
+        Assert.assertEquals(retrier.send(client, request(), deadline()).getStatusCode(), 400);
+        Assert.assertEquals(requests.get(), 1);
+    }
+
+    @Test
+    public void testRetriesExhausted() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            responseCodes.add(503);
+        }
+        long exhausted = SMSOTPMetrics.getCount(SMSRetrier.RETRIES_EXHAUSTED_METRIC);
+        Assert.assertEquals(retrier.send(client, request(), deadline()).getStatusCode(), 503);
+        Assert.assertEquals(requests.get(), 3);
+        Assert.assertEquals(SMSOTPMetrics.getCount(SMSRetrier.RETRIES_EXHAUSTED_METRIC), exhausted + 1);
+    }
+
+    @Test
+    public void testNoRetryAfterDeadline() throws Exception {
+        responseCodes.add(503);
+        Assert.assertEquals(retrier.send(client, request(), System.currentTimeMillis()).getStatusCode(), 503);
+        Assert.assertEquals(requests.get(), 1);
+    }
+
+    @Test
+    public void testRetryConnectionFailure() throws Exception {
+        int closedPort;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            closedPort = socket.getLocalPort();
+        }
+        long attempts = SMSOTPMetrics.getCount(SMSRetrier.ATTEMPTS_METRIC);
+        try {
+            retrier.send(client, new SMSGatewayRequest("GET", "http://localhost:" + closedPort + "/sms", null, null),
+                    deadline());
+            Assert.fail("Expected the connection to be refused");
+        } catch (ConnectException e) {
+            Assert.assertEquals(SMSOTPMetrics.getCount(SMSRetrier.ATTEMPTS_METRIC), attempts + 3);
+        }
+    }
+
+    private SMSGatewayRequest request() {
+        return new SMSGatewayRequest("GET", gatewayUrl + "?to=94771234567", null, null);
+    }
+
+    private long deadline() {
+        return System.currentTimeMillis() + 5000;
+    }
+}
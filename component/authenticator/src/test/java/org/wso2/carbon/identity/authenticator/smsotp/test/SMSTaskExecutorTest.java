@@ -0,0 +1,109 @@
+/*
+ *  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.carbon.identity.authenticator.smsotp.test;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.wso2.carbon.identity.authenticator.smsotp.SMSTaskExecutor;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class SMSTaskExecutorTest {
+
+    @Test
+    public void testPlatformThreads() throws Exception {
+        SMSTaskExecutor executor = new SMSTaskExecutor("Test", 1, 1, false);
+        try {
+            Assert.assertFalse(executor.isVirtual());
+            final AtomicReference<String> threadName = new AtomicReference<>();
+            final CountDownLatch done = new CountDownLatch(1);
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    threadName.set(Thread.currentThread().getName());
+                    done.countDown();
+                }
+            });
+            Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+            Assert.assertTrue(threadName.get().startsWith("SMSOTP-Test-"));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testRejectWhenQueueIsFull() throws Exception {
+        assertBounded(new SMSTaskExecutor("Test", 1, 1, false), 2);
+    }
+
+    @Test
+    public void testRejectWhenThreadsAreBusy() throws Exception {
+        assertBounded(new SMSTaskExecutor("Test", 2, 0, false), 2);
+    }
+
+    @Test
+    public void testVirtualThreads() throws Exception {
+        SMSTaskExecutor executor = new SMSTaskExecutor("Test", 1, 1, true);
+        Assert.assertEquals(executor.isVirtual(), SMSTaskExecutor.isVirtualThreadSupported());
+        assertBounded(executor, 2);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidThreads() {
+        new SMSTaskExecutor("Test", 0, 1, false);
+    }
+
+    private void assertBounded(SMSTaskExecutor executor, int maxTasks) throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(maxTasks);
+        Runnable blockingTask = new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                done.countDown();
+            }
+        };
+        try {
+            for (int i = 0; i < maxTasks; i++) {
+                executor.execute(blockingTask);
+            }
+            Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+            try {
+                executor.execute(blockingTask);
+                Assert.fail("Task should be rejected");
+            } catch (RejectedExecutionException e) {
+                // expected
+            }
+            release.countDown();
+            Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+    }
+}
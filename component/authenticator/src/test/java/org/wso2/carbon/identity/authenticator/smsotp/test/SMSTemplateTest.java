@@ -0,0 +1,65 @@
+/*
+ *  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.carbon.identity.authenticator.smsotp.test;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.wso2.carbon.identity.authenticator.smsotp.SMSOTPConstants;
+import org.wso2.carbon.identity.authenticator.smsotp.gateway.SMSTemplate;
+
+public class SMSTemplateTest {
+
+    @Test
+    public void testRenderUrl() {
+        SMSTemplate template = SMSTemplate.compile("https://api.example.com/send?to=$ctx.num&text=$ctx.msg");
+        Assert.assertEquals(template.render("%2B94771234567", SMSOTPConstants.SMS_MESSAGE, "123456",
+                SMSTemplate.Encoding.URL),
+                "https://api.example.com/send?to=%2B94771234567&text=Verification+Code:+123456");
+    }
+
+    @Test
+    public void testRenderHeaders() {
+        SMSTemplate template = SMSTemplate.compile("Authorization:Basic abc,X-Code:$ctx.otp,X-To:$ctx.num");
+        Assert.assertEquals(template.render("0771234567", SMSOTPConstants.SMS_MESSAGE, "12\r\n34",
+                SMSTemplate.Encoding.HEADER), "Authorization:Basic abc,X-Code:1234,X-To:0771234567");
+    }
+
+    @Test
+    public void testRenderPayload() {
+        SMSTemplate template = SMSTemplate.compile("{\"to\":\"$ctx.num\",\"body\":\"$ctx.msg\"}");
+        Assert.assertEquals(template.render("0771234567", "Code \"", "\\1", SMSTemplate.Encoding.JSON),
+                "{\"to\":\"0771234567\",\"body\":\"Code \\\"\\\\1\"}");
+        Assert.assertEquals(template.render("0771234567", "Code: ", "$1", SMSTemplate.Encoding.NONE),
+                "{\"to\":\"0771234567\",\"body\":\"Code: $1\"}");
+    }
+
+    @Test
+    public void testUnknownPlaceholder() {
+        SMSTemplate template = SMSTemplate.compile("to=$ctx.num&tenant=$ctx.unknown&$");
+        Assert.assertEquals(template.render("0771234567", "", "123456", SMSTemplate.Encoding.NONE),
+                "to=0771234567&tenant=$ctx.unknown&$");
+        Assert.assertFalse(SMSTemplate.compile("to=$ctx.unknown").hasPlaceholders());
+    }
+
+    @Test
+    public void testCompiledOnce() {
+        String url = "https://api.example.com/send?to=$ctx.num";
+        Assert.assertSame(SMSTemplate.compile(url), SMSTemplate.compile(new String(url)));
+    }
+}
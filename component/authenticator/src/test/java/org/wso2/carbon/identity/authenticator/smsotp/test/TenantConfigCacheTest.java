@@ -0,0 +1,137 @@
+/*
+ *  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.carbon.identity.authenticator.smsotp.test;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.wso2.carbon.identity.application.authentication.framework.context.AuthenticationContext;
+import org.wso2.carbon.identity.authenticator.smsotp.SMSOTPConstants;
+import org.wso2.carbon.identity.authenticator.smsotp.TenantConfigCache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class TenantConfigCacheTest {
+
+    @Test
+    public void testConfigurationIsCached() throws Exception {
+        CountingCache cache = new CountingCache(10, 60);
+        AuthenticationContext context = new AuthenticationContext();
+        cache.loadConfiguration(context, SMSOTPConstants.AUTHENTICATOR_NAME, "wso2.com");
+        Assert.assertEquals(context.getProperty(SMSOTPConstants.MOBILE_NUMBER_REQ_PAGE), "wso2.com");
+
+        AuthenticationContext resend = new AuthenticationContext();
+        cache.loadConfiguration(resend, SMSOTPConstants.AUTHENTICATOR_NAME, "wso2.com");
+        Assert.assertEquals(resend.getProperty(SMSOTPConstants.MOBILE_NUMBER_REQ_PAGE), "wso2.com");
+        Assert.assertEquals(cache.reads, Collections.singletonList("wso2.com"));
+    }
+
+    @Test
+    public void testOTPSecretKeyIsNotCopiedToContext() throws Exception {
+        TenantConfigCache cache = new TenantConfigCache(10, 60) {
+            @Override
+            protected Map<String, Object> read(String authenticatorName, String tenantDomain) {
+                Map<String, Object> properties = new HashMap<>();
+                properties.put(SMSOTPConstants.OTP_SECRET_KEY, "tenant-secret");
+                properties.put(SMSOTPConstants.MOBILE_NUMBER_REQ_PAGE, tenantDomain);
+                return properties;
+            }
+        };
+        AuthenticationContext context = new AuthenticationContext();
+        cache.loadConfiguration(context, SMSOTPConstants.AUTHENTICATOR_NAME, "wso2.com");
+        Assert.assertEquals(context.getProperty(SMSOTPConstants.MOBILE_NUMBER_REQ_PAGE), "wso2.com");
+        Assert.assertNull(context.getProperty(SMSOTPConstants.OTP_SECRET_KEY));
+    }
+
+    @Test
+    public void testExpiredConfigurationIsReadAgain() throws Exception {
+        CountingCache cache = new CountingCache(10, 0);
+        cache.loadConfiguration(new AuthenticationContext(), SMSOTPConstants.AUTHENTICATOR_NAME, "wso2.com");
+        cache.loadConfiguration(new AuthenticationContext(), SMSOTPConstants.AUTHENTICATOR_NAME, "wso2.com");
+        Assert.assertEquals(cache.reads.size(), 2);
+    }
+
+    @Test
+    public void testLeastRecentlyUsedTenantIsEvicted() throws Exception {
+        CountingCache cache = new CountingCache(2, 60);
+        cache.loadConfiguration(new AuthenticationContext(), SMSOTPConstants.AUTHENTICATOR_NAME, "a.com");
+        cache.loadConfiguration(new AuthenticationContext(), SMSOTPConstants.AUTHENTICATOR_NAME, "b.com");
+        cache.loadConfiguration(new AuthenticationContext(), SMSOTPConstants.AUTHENTICATOR_NAME, "a.com");
+        cache.loadConfiguration(new AuthenticationContext(), SMSOTPConstants.AUTHENTICATOR_NAME, "c.com");
+        Assert.assertEquals(cache.size(), 2);
+
+        cache.loadConfiguration(new AuthenticationContext(), SMSOTPConstants.AUTHENTICATOR_NAME, "a.com");
+        cache.loadConfiguration(new AuthenticationContext(), SMSOTPConstants.AUTHENTICATOR_NAME, "b.com");
+        Assert.assertEquals(cache.reads, Arrays.asList("a.com", "b.com", "c.com", "b.com"));
+    }
+
+    @Test
+    public void testInvalidateAll() throws Exception {
+        CountingCache cache = new CountingCache(10, 60);
+        cache.loadConfiguration(new AuthenticationContext(), SMSOTPConstants.AUTHENTICATOR_NAME, "a.com");
+        cache.loadConfiguration(new AuthenticationContext(), SMSOTPConstants.AUTHENTICATOR_NAME, "b.com");
+        cache.invalidateAll();
+        Assert.assertEquals(cache.size(), 0);
+
+        cache.loadConfiguration(new AuthenticationContext(), SMSOTPConstants.AUTHENTICATOR_NAME, "a.com");
+        Assert.assertEquals(cache.reads.size(), 3);
+    }
+
+    @Test
+    public void testConfigurationReadBeforeInvalidationIsNotCached() throws Exception {
+        CountingCache cache = new CountingCache(10, 60) {
+            @Override
+            protected Map<String, Object> read(String authenticatorName, String tenantDomain) {
+                Map<String, Object> properties = super.read(authenticatorName, tenantDomain);
+                if (reads.size() == 1) {
+                    // the cache is cleared while the old configuration is being read
+                    invalidateAll();
+                }
+                return properties;
+            }
+        };
+        AuthenticationContext context = new AuthenticationContext();
+        cache.loadConfiguration(context, SMSOTPConstants.AUTHENTICATOR_NAME, "wso2.com");
+        Assert.assertEquals(context.getProperty(SMSOTPConstants.MOBILE_NUMBER_REQ_PAGE), "wso2.com");
+        Assert.assertEquals(cache.size(), 0);
+
+        cache.loadConfiguration(new AuthenticationContext(), SMSOTPConstants.AUTHENTICATOR_NAME, "wso2.com");
+        cache.loadConfiguration(new AuthenticationContext(), SMSOTPConstants.AUTHENTICATOR_NAME, "wso2.com");
+        Assert.assertEquals(cache.reads.size(), 2);
+    }
+
+    private static class CountingCache extends TenantConfigCache {
+
+        final List<String> reads = new ArrayList<>();
+
+        CountingCache(int maxSize, int timeToLive) {
+            super(maxSize, timeToLive);
+        }
+
+        @Override
+        protected Map<String, Object> read(String authenticatorName, String tenantDomain) {
+            reads.add(tenantDomain);
+            return Collections.<String, Object>singletonMap(SMSOTPConstants.MOBILE_NUMBER_REQ_PAGE, tenantDomain);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ *  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.carbon.identity.authenticator.smsotp.test;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.wso2.carbon.identity.authenticator.smsotp.SMSOTPConstants;
+import org.wso2.carbon.identity.authenticator.smsotp.UserClaimCache;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class UserClaimCacheTest {
+
+    private static final List<String> CLAIMS = Arrays.asList(SMSOTPConstants.MOBILE_CLAIM,
+            SMSOTPConstants.USER_SMSOTP_DISABLED_CLAIM_URI);
+
+    @Test
+    public void testHitRate() {
+        UserClaimCache cache = new UserClaimCache(10, null, 10, 60, 60);
+        Assert.assertNull(cache.get("wso2.com", "john", CLAIMS));
+        cache.put("wso2.com", "john", CLAIMS, getClaims("0771234567"), cache.getVersion());
+
+        Map<String, String> claims = cache.get("wso2.com", "john", CLAIMS);
+        Assert.assertNotNull(claims);
+        Assert.assertEquals(claims.get(SMSOTPConstants.MOBILE_CLAIM), "0771234567");
+        Assert.assertEquals(claims.get(SMSOTPConstants.USER_SMSOTP_DISABLED_CLAIM_URI), "false");
+        Assert.assertNotNull(cache.get("wso2.com", "john", Collections.singletonList(SMSOTPConstants.MOBILE_CLAIM)));
+        Assert.assertNull(cache.get("other.com", "john", CLAIMS));
+        Assert.assertEquals(cache.getHits(), 2);
+        Assert.assertEquals(cache.getMisses(), 2);
+        Assert.assertEquals(cache.getHitRate(), 0.5, 0.001);
+    }
+
+    @Test
+    public void testOnlyMobileAndDisabledFlagAreCached() {
+        UserClaimCache cache = new UserClaimCache(10, null, 10, 60, 60);
+        Map<String, String> values = getClaims("0771234567");
+        values.put(SMSOTPConstants.SAVED_OTP_LIST, "1234,5678");
+        cache.put("wso2.com", "john", Arrays.asList(SMSOTPConstants.MOBILE_CLAIM,
+                SMSOTPConstants.SAVED_OTP_LIST), values, cache.getVersion());
+        Assert.assertNull(cache.get("wso2.com", "john", CLAIMS));
+        Assert.assertNull(cache.get("wso2.com", "john", Collections.singletonList(SMSOTPConstants.SAVED_OTP_LIST)));
+        Assert.assertNotNull(cache.get("wso2.com", "john", Collections.singletonList(SMSOTPConstants.MOBILE_CLAIM)));
+    }
+
+    @Test
+    public void testNoMobileNumberExpiresSooner() {
+        UserClaimCache cache = new UserClaimCache(10, null, 10, 60, 0);
+        cache.put("wso2.com", "john", CLAIMS, getClaims(null), cache.getVersion());
+        cache.put("wso2.com", "jane", CLAIMS, getClaims("0771234567"), cache.getVersion());
+        Assert.assertNull(cache.get("wso2.com", "john", CLAIMS));
+        Assert.assertNotNull(cache.get("wso2.com", "jane", CLAIMS));
+    }
+
+    @Test
+    public void testTenantSizes() {
+        Map<String, Integer> tenantSizes = new HashMap<>();
+        tenantSizes.put("small.com", 1);
+        tenantSizes.put("none.com", 0);
+        UserClaimCache cache = new UserClaimCache(10, tenantSizes, 10, 60, 60);
+        for (String tenantDomain : Arrays.asList("small.com", "none.com", "wso2.com")) {
+            cache.put(tenantDomain, "john", CLAIMS, getClaims("0771234567"), cache.getVersion());
+            cache.put(tenantDomain, "jane", CLAIMS, getClaims("0777654321"), cache.getVersion());
+        }
+        Assert.assertEquals(cache.size("small.com"), 1);
+        Assert.assertNotNull(cache.get("small.com", "jane", CLAIMS));
+        Assert.assertEquals(cache.size("none.com"), 0);
+        Assert.assertEquals(cache.size("wso2.com"), 2);
+    }
+
+    @Test
+    public void testInvalidate() {
+        UserClaimCache cache = new UserClaimCache(10, null, 10, 60, 60);
+        cache.put("wso2.com", "john", CLAIMS, getClaims("0771234567"), cache.getVersion());
+        cache.put("wso2.com", "SECONDARY/john", CLAIMS, getClaims("0771234567"), cache.getVersion());
+        cache.put("wso2.com", "jane", CLAIMS, getClaims("0777654321"), cache.getVersion());
+        cache.put("other.com", "john", CLAIMS, getClaims("0771234567"), cache.getVersion());
+
+        // user store listeners are given the username without the user store domain
+        cache.invalidate("wso2.com", "john");
+        Assert.assertEquals(cache.size("wso2.com"), 1);
+        Assert.assertNotNull(cache.get("wso2.com", "jane", CLAIMS));
+        Assert.assertEquals(cache.size("other.com"), 1);
+    }
+
+    @Test
+    public void testInvalidateUserOfUserStore() {
+        UserClaimCache cache = new UserClaimCache(10, null, 10, 60, 60);
+        cache.put("wso2.com", "john", CLAIMS, getClaims("0771234567"), cache.getVersion());
+        cache.put("wso2.com", "SECONDARY/john", CLAIMS, getClaims("0771234568"), cache.getVersion());
+
+        cache.invalidate("wso2.com", "SECONDARY/john");
+        Assert.assertNull(cache.get("wso2.com", "SECONDARY/john", CLAIMS));
+        Assert.assertEquals(cache.get("wso2.com", "john", CLAIMS).get(SMSOTPConstants.MOBILE_CLAIM), "0771234567");
+    }
+
+    @Test
+    public void testClaimsReadBeforeInvalidationAreNotCached() {
+        UserClaimCache cache = new UserClaimCache(10, null, 10, 60, 60);
+        long version = cache.getVersion();
+        // the mobile number is updated while the old one is being read
+        cache.invalidate("wso2.com", "john");
+        cache.put("wso2.com", "john", CLAIMS, getClaims("0771234567"), version);
+        Assert.assertNull(cache.get("wso2.com", "john", CLAIMS));
+    }
+
+    private static Map<String, String> getClaims(String mobile) {
+        Map<String, String> claims = new HashMap<>();
+        if (mobile != null) {
+            claims.put(SMSOTPConstants.MOBILE_CLAIM, mobile);
+        }
+        claims.put(SMSOTPConstants.USER_SMSOTP_DISABLED_CLAIM_URI, "false");
+        return claims;
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ *  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.carbon.identity.authenticator.smsotp.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.wso2.carbon.identity.authenticator.smsotp.OneTimePassword;
+import org.wso2.carbon.identity.authenticator.smsotp.SMSOTPConstants;
+
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of {@link OneTimePassword#generateOTP(byte[], long, int, boolean, int)} across digit counts, with and
+ * without the checksum digit.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GenerateOTPBenchmark {
+
+    @Param({"4", "6", "8"})
+    public int codeDigits;
+
+    @Param({"false", "true"})
+    public boolean addChecksum;
+
+    private byte[] secret;
+    private long movingFactor;
+
+    @Setup
+    public void setUp() {
+        secret = OneTimePassword.getRandomNumber(SMSOTPConstants.SECRET_KEY_LENGTH).getBytes();
+        movingFactor = SMSOTPConstants.NUMBER_BASE;
+    }
+
+    @Benchmark
+    public String generateOTP() throws InvalidKeyException, NoSuchAlgorithmException {
+        return OneTimePassword.generateOTP(secret, movingFactor++, codeDigits, addChecksum, 0);
+    }
+
+    @Benchmark
+    public int generateOTPCode() throws InvalidKeyException, NoSuchAlgorithmException {
+        return OneTimePassword.generateOTPCode(secret, movingFactor++, codeDigits, addChecksum, 0);
+    }
+}
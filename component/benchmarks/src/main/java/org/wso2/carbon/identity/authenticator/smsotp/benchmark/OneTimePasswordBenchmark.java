@@ -0,0 +1,82 @@
+/*
+ *  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.carbon.identity.authenticator.smsotp.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.wso2.carbon.identity.authenticator.smsotp.OneTimePassword;
+import org.wso2.carbon.identity.authenticator.smsotp.SMSOTPConstants;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the OTP generation steps used by the authenticator for every login.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class OneTimePasswordBenchmark {
+
+    private OneTimePassword oneTimePassword;
+    private String secret;
+    private long number;
+
+    @Setup
+    public void setUp() {
+        oneTimePassword = new OneTimePassword();
+        secret = OneTimePassword.getRandomNumber(SMSOTPConstants.SECRET_KEY_LENGTH);
+        number = 8734519026L;
+    }
+
+    @Benchmark
+    public String getRandomNumber() {
+        return OneTimePassword.getRandomNumber(SMSOTPConstants.SECRET_KEY_LENGTH);
+    }
+
+    @Benchmark
+    public int calcChecksum() {
+        return OneTimePassword.calcChecksum(number++, SMSOTPConstants.NUMBER_DIGIT);
+    }
+
+    @Benchmark
+    public String generateToken() {
+        return oneTimePassword.generateToken(secret, String.valueOf(SMSOTPConstants.NUMBER_BASE),
+                SMSOTPConstants.NUMBER_DIGIT);
+    }
+
+    /**
+     * The complete generation done by the authenticator: a random secret followed by the token.
+     */
+    @Benchmark
+    public String generateRandomToken() {
+        return OneTimePassword.generateRandomToken(SMSOTPConstants.SECRET_KEY_LENGTH, SMSOTPConstants.NUMBER_BASE,
+                SMSOTPConstants.NUMBER_DIGIT);
+    }
+}
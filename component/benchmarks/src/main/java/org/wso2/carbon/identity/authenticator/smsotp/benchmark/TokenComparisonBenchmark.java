@@ -0,0 +1,82 @@
+/*
+ *  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.carbon.identity.authenticator.smsotp.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.wso2.carbon.identity.authenticator.smsotp.OneTimePassword;
+import org.wso2.carbon.identity.authenticator.smsotp.SMSOTPConstants;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the comparison of the submitted code with the code kept in the authentication context, as done in
+ * SMSOTPAuthenticator#processAuthenticationResponse.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TokenComparisonBenchmark {
+
+    private String contextToken;
+    private String matchingToken;
+    private String mismatchingToken;
+
+    @Setup
+    public void setUp() {
+        contextToken = OneTimePassword.generateRandomToken(SMSOTPConstants.SECRET_KEY_LENGTH,
+                SMSOTPConstants.NUMBER_BASE, SMSOTPConstants.NUMBER_DIGIT);
+        // Copies, so that the comparison does not short cut on the reference.
+        matchingToken = new String(contextToken.toCharArray());
+        char[] mismatch = contextToken.toCharArray();
+        mismatch[mismatch.length - 1] = mismatch[mismatch.length - 1] == '0' ? '1' : '0';
+        mismatchingToken = new String(mismatch);
+    }
+
+    @Benchmark
+    public boolean compareMatchingToken() {
+        return matchingToken.equals(contextToken);
+    }
+
+    @Benchmark
+    public boolean compareMismatchingToken() {
+        return mismatchingToken.equals(contextToken);
+    }
+
+    @Benchmark
+    public boolean isEqualMatchingToken() {
+        return OneTimePassword.isEqual(contextToken, matchingToken);
+    }
+
+    @Benchmark
+    public boolean isEqualMismatchingToken() {
+        return OneTimePassword.isEqual(contextToken, mismatchingToken);
+    }
+}